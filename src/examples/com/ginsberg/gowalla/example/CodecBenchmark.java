@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ginsberg.gowalla.dto.FullSpot;
+import com.ginsberg.gowalla.dto.codec.BinaryCodec;
+import com.ginsberg.gowalla.request.translate.GsonResponseTranslator;
+
+/**
+ * Compares BinaryCodec against Java serialization and the JSON Gowalla sends, 
+ * for size and for time to write and read back, over a set of made up spots.
+ * 
+ * Run with the number of spots and rounds, or with no arguments for 1000 
+ * spots and 20 rounds.  The first few rounds warm up the JIT and aren't counted.
+ * 
+ * @author Todd Ginsberg
+ */
+public class CodecBenchmark {
+
+	private static final int WARMUP_ROUNDS = 5;
+	
+	public static void main(String[] args) throws Exception {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		
+		final GsonResponseTranslator translator = new GsonResponseTranslator();
+		final List<String> json = new ArrayList<String>(count);
+		final List<FullSpot> spots = new ArrayList<FullSpot>(count);
+		for(int id = 1; id <= count; id++) {
+			json.add(spotJson(id));
+			spots.add(translator.translateSpot(json.get(id - 1), id));
+		}
+		
+		long jsonBytes = 0;
+		long javaBytes = 0;
+		long codecBytes = 0;
+		for(int i = 0; i < count; i++) {
+			jsonBytes += json.get(i).getBytes("UTF-8").length;
+			javaBytes += serialize(spots.get(i)).length;
+			codecBytes += BinaryCodec.encode(spots.get(i)).length;
+		}
+		
+		long jsonNanos = 0;
+		long javaNanos = 0;
+		long codecNanos = 0;
+		for(int round = 0; round < rounds + WARMUP_ROUNDS; round++) {
+			long start = System.nanoTime();
+			for(int i = 0; i < count; i++) {
+				translator.translateSpot(json.get(i), i + 1);
+			}
+			final long jsonTime = System.nanoTime() - start;
+			
+			start = System.nanoTime();
+			for(int i = 0; i < count; i++) {
+				deserialize(serialize(spots.get(i)));
+			}
+			final long javaTime = System.nanoTime() - start;
+			
+			start = System.nanoTime();
+			for(int i = 0; i < count; i++) {
+				BinaryCodec.decode(BinaryCodec.encode(spots.get(i)));
+			}
+			final long codecTime = System.nanoTime() - start;
+			
+			if(round >= WARMUP_ROUNDS) {
+				jsonNanos += jsonTime;
+				javaNanos += javaTime;
+				codecNanos += codecTime;
+			}
+		}
+		
+		System.out.format("%d spots, %d rounds%n", count, rounds);
+		System.out.format("%-20s %12s %20s%n", "Format", "Bytes/spot", "Microseconds/spot");
+		report("JSON (parse only)", jsonBytes, jsonNanos, count, rounds);
+		report("Java serialization", javaBytes, javaNanos, count, rounds);
+		report("BinaryCodec", codecBytes, codecNanos, count, rounds);
+	}
+	
+	private static void report(final String name, final long bytes, final long nanos, final int count, final int rounds) {
+		System.out.format("%-20s %12d %20.2f%n", name, bytes / count, nanos / 1000.0 / count / rounds);
+	}
+	
+	private static String spotJson(final int id) {
+		return String.format("{\"url\":\"/spots/%d\",\"name\":\"Spot number %d\",\"lat\":\"%.6f\",\"lng\":\"%.6f\"," +
+				"\"radius_meters\":%d,\"checkins_count\":%d,\"users_count\":%d,\"items_count\":%d,\"photos_count\":%d," +
+				"\"address\":{\"locality\":\"Austin\",\"region\":\"TX\"},\"description\":\"A place to go, number %d\"," +
+				"\"websites\":[\"http://example.com/%d\"],\"created_at\":\"2009-06-01T12:00:00Z\"," +
+				"\"creator\":{\"url\":\"/users/%d\",\"first_name\":\"Some\",\"last_name\":\"Body\"}," +
+				"\"founders\":[{\"url\":\"/users/%d\",\"first_name\":\"Some\",\"last_name\":\"Body\"}]," +
+				"\"top_10\":[{\"url\":\"/users/1\",\"first_name\":\"Todd\",\"last_name\":\"Ginsberg\",\"checkins_count\":%d}," +
+				"{\"url\":\"/users/2\",\"first_name\":\"Another\",\"last_name\":\"Person\",\"checkins_count\":%d}]," +
+				"\"spot_categories\":[{\"url\":\"/categories/%d\",\"name\":\"Category %d\"}],\"max_items_count\":6}",
+				id, id, 30.25 + id / 10000.0, -97.75 - id / 10000.0, 25 + id % 100, id * 7, id * 3, id % 5, id % 11, 
+				id, id, id % 1000, id % 1000, id % 40, id % 30, id % 50, id % 50);
+	}
+	
+	private static byte[] serialize(final Object value) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(value);
+		out.close();
+		return bytes.toByteArray();
+	}
+	
+	private static Object deserialize(final byte[] bytes) throws IOException, ClassNotFoundException {
+		return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+	}
+}
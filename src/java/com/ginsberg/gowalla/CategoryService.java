@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ginsberg.gowalla.dto.FullCategory;
+import com.ginsberg.gowalla.dto.index.CategoryTree;
+import com.ginsberg.gowalla.exception.GowallaException;
+import com.ginsberg.gowalla.util.DaemonThreadFactory;
+
+/**
+ * Keeps a local copy of the whole category tree, so single categories can be 
+ * looked up without asking Gowalla.  The tree is loaded with getCategories() 
+ * the first time it's needed, and can be refreshed in the background.  If a
+ * refresh fails, the tree already loaded is kept.  If the tree can't be loaded
+ * at all, it isn't tried again until the retry interval has passed, so lookups
+ * in the meantime fail at once instead of each waiting on Gowalla.
+ * 
+ * Give one to Gowalla.setCategoryService() to have getCategory() answered from it.
+ * Thread safe.
+ * 
+ * @author Todd Ginsberg
+ */
+public class CategoryService {
+
+	private final Gowalla gowalla;
+	private volatile CategoryTree tree = null;
+	private volatile long lastRefreshed = 0;
+	private final AtomicLong refreshFailures = new AtomicLong();
+	private volatile GowallaException lastFailure = null;
+	private volatile long lastFailed = 0;
+	private volatile long retryInterval = TimeUnit.MINUTES.toMillis(1);
+	private ScheduledExecutorService refresher = null;
+	
+	public CategoryService(final Gowalla gowalla) {
+		super();
+		this.gowalla = gowalla;
+	}
+	
+	/**
+	 * @return The category tree, loading it first if it hasn't been yet.
+	 * @throws GowallaException when the tree isn't loaded and can't be.
+	 */
+	public CategoryTree getTree() throws GowallaException {
+		final CategoryTree current = tree;
+		if(current != null) {
+			return current;
+		}
+		checkRetry();
+		synchronized(this) {
+			if(tree == null) {
+				// Another caller may have just failed while this one waited.
+				checkRetry();
+				refresh();
+			}
+			return tree;
+		}
+	}
+	
+	/**
+	 * Fail at once if the tree failed to load too recently to try again.
+	 */
+	private void checkRetry() throws GowallaException {
+		final GowallaException failure = lastFailure;
+		if(failure != null && System.currentTimeMillis() - lastFailed < retryInterval) {
+			throw new GowallaException("The category tree could not be loaded recently, not trying again yet.", failure);
+		}
+	}
+	
+	/**
+	 * @return The category tree, or null if it hasn't been loaded.
+	 */
+	public CategoryTree getLoadedTree() {
+		return tree;
+	}
+	
+	/**
+	 * @return The category with the given id, or null if there isn't one.
+	 */
+	public FullCategory getCategory(final int id) throws GowallaException {
+		return getTree().get(id);
+	}
+	
+	/**
+	 * @return true if the category is the ancestor given, or any category under it.
+	 */
+	public boolean isWithin(final int id, final int ancestorId) throws GowallaException {
+		return getTree().isWithin(id, ancestorId);
+	}
+	
+	/**
+	 * Load the tree again now.
+	 */
+	public void refresh() throws GowallaException {
+		try {
+			tree = new CategoryTree(gowalla.getCategories());
+			lastRefreshed = System.currentTimeMillis();
+			lastFailed = 0;
+		} catch(GowallaException e) {
+			refreshFailures.incrementAndGet();
+			lastFailed = System.currentTimeMillis();
+			lastFailure = e;
+			throw e;
+		}
+	}
+	
+	/**
+	 * Refresh the tree in the background, starting now, and then every interval.
+	 * Calling this again changes the interval.
+	 */
+	public synchronized void startRefreshing(final long interval, final TimeUnit unit) {
+		stopRefreshing();
+		refresher = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("gowalla-categories"));
+		refresher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refresh();
+				} catch(GowallaException e) {
+					// Counted in refresh(); keep the old tree and try again next time.
+				}
+			}
+		}, 0, interval, unit);
+	}
+	
+	/**
+	 * Stop refreshing in the background.  The tree already loaded is kept.
+	 */
+	public synchronized void stopRefreshing() {
+		if(refresher != null) {
+			refresher.shutdownNow();
+			refresher = null;
+		}
+	}
+	
+	/**
+	 * How long to wait after the tree fails to load before a lookup tries 
+	 * loading it again.  Defaults to one minute.  Background refreshes 
+	 * aren't affected.
+	 */
+	public void setRetryInterval(final long interval, final TimeUnit unit) {
+		retryInterval = unit.toMillis(interval);
+	}
+	
+	public long getRetryInterval(final TimeUnit unit) {
+		return unit.convert(retryInterval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * @return When the tree was last loaded, in milliseconds since the epoch, or zero if never.
+	 */
+	public long getLastRefreshed() {
+		return lastRefreshed;
+	}
+	
+	public long getRefreshFailures() {
+		return refreshFailures.get();
+	}
+	
+	/**
+	 * @return Why the last failed refresh failed, or null if none have.
+	 */
+	public GowallaException getLastFailure() {
+		return lastFailure;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("CategoryService[tree=%s, lastRefreshed=%d, refreshFailures=%d]", tree, lastRefreshed, refreshFailures.get());
+	}
+}
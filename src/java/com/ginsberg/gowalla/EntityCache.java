@@ -0,0 +1,646 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.ginsberg.gowalla.dto.codec.BinaryCodec;
+import com.ginsberg.gowalla.exception.GowallaException;
+
+/**
+ * Caches the objects Gowalla returns for single spots, users, categories and 
+ * items, so asking for one again neither makes a request nor parses a response.
+ * 
+ * Each type of object has its own time to live.  The cache holds at most a 
+ * fixed number of objects, and is split into stripes, each with its own lock, 
+ * so threads working on different objects rarely wait for each other.
+ * 
+ * Within each stripe, objects are kept in two parts.  New objects go into a
+ * probation part, and only move to the protected part (80% of the space) when
+ * asked for again.  Room is made by dropping the least recently used object on
+ * probation, so a burst of objects only asked for once - a crawl, say - can't
+ * push out the ones that are used over and over.
+ * 
+ * The objects returned are mutable.  By default every caller shares the cached
+ * object, so callers must not change it.  With setCopying(true), each caller 
+ * gets its own copy instead, at the cost of a round trip through BinaryCodec.
+ * 
+ * The cache can also remember that there is no object for an id, so looking 
+ * for a deleted spot again doesn't cost a request.  Those answers have their 
+ * own, shorter, time to live, since an id that doesn't exist yet might later.
+ * 
+ * A type can also have a soft time to live, shorter than its time to live.  
+ * Past it, an object is still returned, but the first caller to see it is 
+ * told to fetch a fresh one, and nobody else is until that one is put.
+ * 
+ * With a second level, every object put is also written there, and objects
+ * not in the cache are looked for there before giving up.  Objects found 
+ * there are put back in the cache, on probation like any other.  An 
+ * EntityStore holds far more objects than the heap could, and keeps them 
+ * across restarts; a SharedEntityStore is shared by every process on a host.
+ * What's there is only used until it expires.
+ * 
+ * @author Todd Ginsberg
+ */
+public class EntityCache {
+
+	/**
+	 * The kinds of objects cached.
+	 */
+	public enum Type {
+		SPOT, USER, CATEGORY, ITEM, TRIP, TOP_SPOTS
+	}
+	
+	/**
+	 * Stands in for an object Gowalla said doesn't exist.
+	 */
+	static final Object NOT_FOUND = new Object();
+	
+	private static final int STRIPES = 16;
+	private static final double PROTECTED_SHARE = 0.8;
+	
+	private final Stripe[] stripes = new Stripe[STRIPES];
+	private final long[] timeToLiveMillis = new long[Type.values().length];
+	private final long[] notFoundTimeToLiveMillis = new long[Type.values().length];
+	private final long[] softTimeToLiveMillis = new long[Type.values().length];
+	private volatile boolean copying = false;
+	private volatile SecondLevelCache secondLevel = null;
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong notFoundHits = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong secondLevelHits = new AtomicLong();
+	private final AtomicLong secondLevelErrors = new AtomicLong();
+	
+	/**
+	 * Create a cache that keeps spots, users, items, trips and top spots for 
+	 * five minutes, and categories for an hour.  That there's no object for an id is kept for
+	 * ten minutes, or an hour for categories.
+	 * 
+	 * @param maximumEntries How many objects to hold, of all types together.
+	 */
+	public EntityCache(final int maximumEntries) {
+		super();
+		final int perStripe = Math.max(2, (maximumEntries + STRIPES - 1) / STRIPES);
+		for(int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe(perStripe);
+		}
+		setTimeToLive(Type.SPOT, 5, TimeUnit.MINUTES);
+		setTimeToLive(Type.USER, 5, TimeUnit.MINUTES);
+		setTimeToLive(Type.ITEM, 5, TimeUnit.MINUTES);
+		setTimeToLive(Type.TRIP, 5, TimeUnit.MINUTES);
+		setTimeToLive(Type.TOP_SPOTS, 5, TimeUnit.MINUTES);
+		setTimeToLive(Type.CATEGORY, 1, TimeUnit.HOURS);
+		for(Type type : Type.values()) {
+			setNotFoundTimeToLive(type, 10, TimeUnit.MINUTES);
+		}
+		setNotFoundTimeToLive(Type.CATEGORY, 1, TimeUnit.HOURS);
+	}
+	
+	/**
+	 * Set how long objects of a type may be used for.  Only affects objects cached after this call.
+	 */
+	public void setTimeToLive(final Type type, final long timeToLive, final TimeUnit unit) {
+		timeToLiveMillis[type.ordinal()] = unit.toMillis(timeToLive);
+	}
+	
+	public long getTimeToLive(final Type type, final TimeUnit unit) {
+		return unit.convert(timeToLiveMillis[type.ordinal()], TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Set how long to remember that there's no object for an id.  Zero stops 
+	 * remembering.  Only affects ids found missing after this call.
+	 */
+	public void setNotFoundTimeToLive(final Type type, final long timeToLive, final TimeUnit unit) {
+		notFoundTimeToLiveMillis[type.ordinal()] = unit.toMillis(timeToLive);
+	}
+	
+	public long getNotFoundTimeToLive(final Type type, final TimeUnit unit) {
+		return unit.convert(notFoundTimeToLiveMillis[type.ordinal()], TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Set how long objects of a type are fresh for.  Older ones are still used
+	 * until their time to live is up, while a fresh one is fetched in the 
+	 * background.  Zero, the default, turns this off.  Only affects objects 
+	 * cached after this call.
+	 */
+	public void setSoftTimeToLive(final Type type, final long timeToLive, final TimeUnit unit) {
+		softTimeToLiveMillis[type.ordinal()] = unit.toMillis(timeToLive);
+	}
+	
+	public long getSoftTimeToLive(final Type type, final TimeUnit unit) {
+		return unit.convert(softTimeToLiveMillis[type.ordinal()], TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * @param copying true to give every caller its own copy of a cached object.
+	 */
+	public void setCopying(final boolean copying) {
+		this.copying = copying;
+	}
+	
+	public boolean isCopying() {
+		return copying;
+	}
+	
+	/**
+	 * @param secondLevel Where to keep objects beyond what the cache holds, or null for nowhere.
+	 */
+	public void setSecondLevel(final SecondLevelCache secondLevel) {
+		this.secondLevel = secondLevel;
+	}
+	
+	public SecondLevelCache getSecondLevel() {
+		return secondLevel;
+	}
+	
+	/**
+	 * @return The cached object, or null if it isn't cached or has expired.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Serializable> T get(final Type type, final int id) {
+		final Object value = lookup(type, id);
+		return value == NOT_FOUND ? null : (T)value;
+	}
+	
+	/**
+	 * @return true if the cache remembers that there's no object for this id.
+	 */
+	public boolean isNotFound(final Type type, final int id) {
+		return lookup(type, id) == NOT_FOUND;
+	}
+	
+	/**
+	 * @return The cached object, NOT_FOUND if there's known to be none, or null
+	 * if the cache doesn't know.
+	 */
+	Object lookup(final Type type, final int id) {
+		final long key = key(type, id);
+		final long now = System.currentTimeMillis();
+		Object value = stripe(key).get(key, now);
+		if(value == null) {
+			value = fromSecondLevel(type, id, key, now);
+			if(value == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+		}
+		if(value == NOT_FOUND) {
+			notFoundHits.incrementAndGet();
+			return NOT_FOUND;
+		}
+		hits.incrementAndGet();
+		return copying ? copy((Serializable)value) : value;
+	}
+	
+	/**
+	 * Cache an object.  With copying on, the cache keeps its own copy.
+	 */
+	public void put(final Type type, final int id, final Serializable value) {
+		put(type, id, value, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Cache an object that was fetched at the given time, for example one read
+	 * back from disk, so it goes stale and expires when it would have if it had 
+	 * been cached then.
+	 * 
+	 * @return false if it has already expired, and wasn't cached.
+	 */
+	boolean put(final Type type, final int id, final Serializable value, final long fetchedAt) {
+		if(value == null) {
+			return false;
+		}
+		final long expires = fetchedAt + timeToLiveMillis[type.ordinal()];
+		if(expires <= System.currentTimeMillis()) {
+			return false;
+		}
+		final long key = key(type, id);
+		final Serializable kept = copying ? copy(value) : value;
+		stripe(key).put(key, kept, expires, stale(type, fetchedAt));
+		final SecondLevelCache store = secondLevel;
+		if(store != null) {
+			try {
+				store.put(type, id, kept, fetchedAt, expires);
+			} catch(GowallaException e) {
+				secondLevelErrors.incrementAndGet();
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Look for an object in the second level, and put it back in the cache if it's there.
+	 */
+	private Object fromSecondLevel(final Type type, final int id, final long key, final long now) {
+		final SecondLevelCache store = secondLevel;
+		if(store == null) {
+			return null;
+		}
+		try {
+			final SecondLevelCache.Stored stored = store.read(type, id, now);
+			if(stored == null) {
+				return null;
+			}
+			stripe(key).put(key, stored.getValue(), stored.getExpires(), stale(type, stored.getStoredAt()));
+			secondLevelHits.incrementAndGet();
+			return stored.getValue();
+		} catch(GowallaException e) {
+			secondLevelErrors.incrementAndGet();
+			return null;
+		}
+	}
+	
+	/**
+	 * @return When an object of this type put at this time goes stale.
+	 */
+	private long stale(final Type type, final long putAt) {
+		final long softTimeToLive = softTimeToLiveMillis[type.ordinal()];
+		return softTimeToLive > 0 ? putAt + softTimeToLive : Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Claim the job of refreshing a cached object that is past its soft time 
+	 * to live.  Only one caller gets true until the object is put again.
+	 * 
+	 * @return true if the caller should fetch a fresh object and put it.
+	 */
+	boolean claimRefresh(final Type type, final int id) {
+		if(softTimeToLiveMillis[type.ordinal()] <= 0) {
+			return false;
+		}
+		final long key = key(type, id);
+		return stripe(key).claimRefresh(key, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Give up a claim to refresh an object, because the refresh failed, so the
+	 * next caller to find it stale tries again.
+	 */
+	void releaseRefresh(final Type type, final int id) {
+		final long key = key(type, id);
+		stripe(key).releaseRefresh(key);
+	}
+	
+	/**
+	 * Remember that there's no object for this id, until it's put or its not 
+	 * found time to live is up.
+	 */
+	public void putNotFound(final Type type, final int id) {
+		final long timeToLive = notFoundTimeToLiveMillis[type.ordinal()];
+		if(timeToLive > 0) {
+			final long key = key(type, id);
+			stripe(key).put(key, NOT_FOUND, System.currentTimeMillis() + timeToLive, Long.MAX_VALUE);
+		}
+		removeFromSecondLevel(type, id);
+	}
+	
+	/**
+	 * Forget one object.
+	 */
+	public void invalidate(final Type type, final int id) {
+		final long key = key(type, id);
+		stripe(key).remove(key);
+		removeFromSecondLevel(type, id);
+	}
+	
+	/**
+	 * Forget every object of a type.
+	 */
+	public void invalidateAll(final Type type) {
+		for(Stripe stripe : stripes) {
+			stripe.removeAll(type);
+		}
+		final SecondLevelCache store = secondLevel;
+		if(store != null) {
+			try {
+				store.removeAll(type);
+			} catch(GowallaException e) {
+				secondLevelErrors.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Forget everything.
+	 */
+	public void clear() {
+		for(Type type : Type.values()) {
+			for(Stripe stripe : stripes) {
+				stripe.removeAll(type);
+			}
+		}
+		final SecondLevelCache store = secondLevel;
+		if(store != null) {
+			try {
+				store.clear();
+			} catch(GowallaException e) {
+				secondLevelErrors.incrementAndGet();
+			}
+		}
+	}
+	
+	private void removeFromSecondLevel(final Type type, final int id) {
+		final SecondLevelCache store = secondLevel;
+		if(store != null) {
+			try {
+				store.remove(type, id);
+			} catch(GowallaException e) {
+				secondLevelErrors.incrementAndGet();
+			}
+		}
+	}
+	
+	public int size() {
+		int size = 0;
+		for(Stripe stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * @return Lookups answered with "there's no such object".
+	 */
+	public long getNotFoundHits() {
+		return notFoundHits.get();
+	}
+	
+	/**
+	 * @return Lookups answered by the second level, also counted as hits.
+	 */
+	public long getSecondLevelHits() {
+		return secondLevelHits.get();
+	}
+	
+	/**
+	 * @return Times the second level couldn't be read or written.
+	 */
+	public long getSecondLevelErrors() {
+		return secondLevelErrors.get();
+	}
+	
+	/**
+	 * @return Objects dropped to make room, not counting expired ones.
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	private Stripe stripe(final long key) {
+		// Spread the bits so neighboring ids land in different stripes.
+		long h = key * 0x9E3779B97F4A7C15L;
+		return stripes[(int)(h >>> 60) & (STRIPES - 1)];
+	}
+	
+	private static long key(final Type type, final int id) {
+		return ((long)type.ordinal() << 32) | (id & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Deep copy through the binary codec, or through Java serialization for 
+	 * anything the codec can't write; every DTO is Serializable.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T extends Serializable> T copy(final T value) {
+		if(BinaryCodec.supports(value)) {
+			return (T)BinaryCodec.decode(BinaryCodec.encode(value));
+		}
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(value);
+			out.close();
+			final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+			return (T)in.readObject();
+		} catch(IOException e) {
+			throw new IllegalStateException("Could not copy " + value, e);
+		} catch(ClassNotFoundException e) {
+			throw new IllegalStateException("Could not copy " + value, e);
+		}
+	}
+	
+	/**
+	 * A cached object.  Refreshing is guarded by the stripe's lock.
+	 */
+	private static class Entry {
+		private final Object value;
+		private final long expires;
+		private final long stale;
+		private boolean refreshing = false;
+		
+		private Entry(final Object value, final long expires, final long stale) {
+			this.value = value;
+			this.expires = expires;
+			this.stale = stale;
+		}
+	}
+	
+	/**
+	 * One lock's worth of the cache: a probation and a protected part, each in 
+	 * least recently used order.
+	 */
+	private class Stripe {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final LinkedHashMap<Long, Entry> probation = new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+		private final LinkedHashMap<Long, Entry> protect = new LinkedHashMap<Long, Entry>(16, 0.75f, true);
+		private final int capacity;
+		private final int protectedCapacity;
+		
+		private Stripe(final int capacity) {
+			this.capacity = capacity;
+			this.protectedCapacity = Math.max(1, (int)(capacity * PROTECTED_SHARE));
+		}
+		
+		private Object get(final long key, final long now) {
+			lock.lock();
+			try {
+				Entry entry = protect.get(key);
+				if(entry == null) {
+					entry = probation.remove(key);
+					if(entry == null) {
+						return null;
+					}
+					if(entry.expires > now) {
+						// Asked for twice: promote it.
+						protect.put(key, entry);
+						demoteOverflow();
+					}
+				}
+				if(entry.expires <= now) {
+					protect.remove(key);
+					return null;
+				}
+				return entry.value;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		private boolean claimRefresh(final long key, final long now) {
+			lock.lock();
+			try {
+				Entry entry = protect.get(key);
+				if(entry == null) {
+					entry = probation.get(key);
+				}
+				if(entry == null || entry.refreshing || entry.stale > now || entry.expires <= now) {
+					return false;
+				}
+				entry.refreshing = true;
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		private void releaseRefresh(final long key) {
+			lock.lock();
+			try {
+				Entry entry = protect.get(key);
+				if(entry == null) {
+					entry = probation.get(key);
+				}
+				if(entry != null) {
+					entry.refreshing = false;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		private void put(final long key, final Object value, final long expires, final long stale) {
+			lock.lock();
+			try {
+				final Entry entry = new Entry(value, expires, stale);
+				if(protect.containsKey(key)) {
+					protect.put(key, entry);
+					return;
+				}
+				probation.put(key, entry);
+				while(probation.size() + protect.size() > capacity && !probation.isEmpty()) {
+					evictEldest(probation);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		private void remove(final long key) {
+			lock.lock();
+			try {
+				probation.remove(key);
+				protect.remove(key);
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		private void removeAll(final Type type) {
+			lock.lock();
+			try {
+				removeAll(probation, type);
+				removeAll(protect, type);
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		private void removeAll(final Map<Long, Entry> part, final Type type) {
+			for(Iterator<Long> i = part.keySet().iterator(); i.hasNext();) {
+				if((int)(i.next() >>> 32) == type.ordinal()) {
+					i.remove();
+				}
+			}
+		}
+		
+		private int size() {
+			lock.lock();
+			try {
+				return probation.size() + protect.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		/**
+		 * Move the least recently used protected objects back to probation, 
+		 * where they get one more chance before being dropped.
+		 */
+		private void demoteOverflow() {
+			while(protect.size() > protectedCapacity) {
+				final Iterator<Map.Entry<Long, Entry>> eldest = protect.entrySet().iterator();
+				final Map.Entry<Long, Entry> demoted = eldest.next();
+				eldest.remove();
+				probation.put(demoted.getKey(), demoted.getValue());
+			}
+		}
+		
+		private void evictEldest(final Map<Long, Entry> part) {
+			final Iterator<Entry> eldest = part.values().iterator();
+			final Entry dropped = eldest.next();
+			eldest.remove();
+			if(dropped.expires > System.currentTimeMillis()) {
+				evictions.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("EntityCache[size=%d, hits=%d, secondLevelHits=%d, notFoundHits=%d, misses=%d, evictions=%d, copying=%b]", 
+				size(), hits.get(), secondLevelHits.get(), notFoundHits.get(), misses.get(), evictions.get(), copying);
+	}
+}
@@ -0,0 +1,833 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.ginsberg.gowalla.dto.codec.BinaryCodec;
+import com.ginsberg.gowalla.exception.GowallaException;
+
+/**
+ * Keeps cached objects on disk, in memory mapped files, compressed.  It is 
+ * the second level behind an EntityCache: much larger than the cache, out of
+ * the garbage collector's reach, and still there after a restart.
+ * 
+ * A store is a directory of two files:
+ *  entities.dat - A log of entries, one after another.  Each is written by 
+ *                 BinaryCodec (or Java serialization, for objects it can't
+ *                 write), and deflated if that makes it smaller.
+ *  entities.idx - A hash table from type and id to the latest entry.  If it's
+ *                 missing, or doesn't agree with entities.dat, it is rebuilt 
+ *                 from the log on open.
+ * 
+ * The files are mapped a gigabyte at a time, so they can grow past what a 
+ * single mapping allows.  Storing an object again, or removing it, appends to 
+ * the log and leaves the old entry behind.  Once more than half the log is 
+ * left behind, or the log grows past its maximum size, it is compacted in 
+ * place, which also drops expired entries.  
+ * If the process stops while compacting, the store starts over empty.
+ * 
+ * Thread safe.  Only one process should have a store open at a time.
+ * 
+ * @author Todd Ginsberg
+ */
+public class EntityStore implements SecondLevelCache {
+
+	private static final int MAGIC = 0x47454E54;
+	private static final int VERSION = 1;
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long COMPACT_MINIMUM = 16L * 1024 * 1024;
+	private static final long MAXIMUM_LOG = 1L << 30;
+	private static final int MINIMUM_SLOTS = 1024;
+	
+	// Header fields.  Both files start with the magic number and version.
+	private static final int H_MAGIC = 0;
+	private static final int H_VERSION = 4;
+	private static final int H_END = 8;
+	private static final int H_DEAD = 16;
+	private static final int H_COMPACTING = 24;
+	private static final int H_CAPACITY = 8;
+	private static final int H_USED = 12;
+	private static final int H_LIVE = 16;
+	private static final int H_DATA_END = 24;
+	private static final int HEADER = 32;
+	
+	// Entry fields.  Entries start on an eight byte boundary, and never cross a segment.
+	private static final int KEY = 0;
+	private static final int STORED_AT = 8;
+	private static final int EXPIRES = 16;
+	private static final int FLAGS = 24;
+	private static final int LENGTH = 28;
+	private static final int RAW_LENGTH = 32;
+	private static final int ENTRY_HEADER = 40;
+	
+	private static final int CODEC = 1;
+	private static final int SERIALIZED = 2;
+	private static final int DEFLATED = 4;
+	private static final int REMOVED = 8;
+	private static final int PADDING = 16;
+	
+	// Index slots are a key, then where its entry is.
+	private static final int SLOT = 16;
+	private static final long EMPTY = 0;
+	private static final long GONE = -1;
+	
+	private final File directory;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Segments data;
+	private final Segments index;
+	private long end;
+	private long dead;
+	private long compactedEnd = HEADER;
+	private long maximumLogBytes = MAXIMUM_LOG;
+	private int capacity;
+	private int used;
+	private int live;
+	private boolean closed = false;
+	
+	/**
+	 * Open the store in a directory, creating it if there isn't one yet.
+	 */
+	public EntityStore(final File directory) throws GowallaException {
+		this(directory, SEGMENT_SHIFT);
+	}
+	
+	/**
+	 * @param segmentShift The files are mapped 2^segmentShift bytes at a time.
+	 */
+	EntityStore(final File directory, final int segmentShift) throws GowallaException {
+		super();
+		this.directory = directory;
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new GowallaException("Cannot create entity store: " + directory);
+		}
+		Segments d = null;
+		Segments i = null;
+		try {
+			d = new Segments(new File(directory, "entities.dat"), segmentShift);
+			i = new Segments(new File(directory, "entities.idx"), segmentShift);
+		} catch(IOException e) {
+			closeQuietly(d, i);
+			throw new GowallaException("Cannot open entity store: " + directory, e);
+		}
+		data = d;
+		index = i;
+		try {
+			open();
+		} catch(IOException e) {
+			closeQuietly(data, index);
+			throw new GowallaException("Cannot open entity store: " + directory, e);
+		}
+	}
+	
+	private void open() throws IOException {
+		if(data.created) {
+			writeHeader(data);
+			data.putLong(H_END, HEADER);
+			data.putLong(H_DEAD, 0);
+		}
+		if(!hasHeader(data)) {
+			throw new IOException("Not an entity store, or from another version");
+		}
+		end = data.getLong(H_END);
+		dead = data.getLong(H_DEAD);
+		if(data.getInt(H_COMPACTING) != 0) {
+			// Stopped part way through compacting.  It's only a cache, so start over.
+			end = HEADER;
+			data.putLong(H_END, end);
+			data.putInt(H_COMPACTING, 0);
+		}
+		if(end < HEADER || end > data.mapped()) {
+			throw new IOException("Entity store is damaged");
+		}
+		capacity = hasHeader(index) ? index.getInt(H_CAPACITY) : 0;
+		if(capacity <= 0 || Integer.bitCount(capacity) != 1 || HEADER + (long)capacity * SLOT > index.mapped() 
+				|| index.getLong(H_DATA_END) != end) {
+			rebuildIndex(MINIMUM_SLOTS);
+		} else {
+			used = index.getInt(H_USED);
+			live = index.getInt(H_LIVE);
+		}
+	}
+	
+	/**
+	 * Store an object for a time, replacing what was stored for its type and id.
+	 */
+	public void put(final EntityCache.Type type, final int id, final Serializable value, final long timeToLive, final TimeUnit unit) throws GowallaException {
+		final long now = System.currentTimeMillis();
+		put(type, id, value, now, now + unit.toMillis(timeToLive));
+	}
+	
+	/**
+	 * @see com.ginsberg.gowalla.SecondLevelCache#put(com.ginsberg.gowalla.EntityCache.Type, int, java.io.Serializable, long, long)
+	 */
+	@Override
+	public void put(final EntityCache.Type type, final int id, final Serializable value, final long storedAt, final long expires) throws GowallaException {
+		// Encode and compress before taking the lock; that's most of the work.
+		final boolean codec = BinaryCodec.supports(value);
+		final byte[] raw;
+		try {
+			raw = codec ? BinaryCodec.encode(value) : serialize(value);
+		} catch(IOException e) {
+			throw new GowallaException("Cannot store " + type + " " + id, e);
+		}
+		final byte[] deflated = deflate(raw);
+		final int flags = (codec ? CODEC : SERIALIZED) | (deflated == null ? 0 : DEFLATED);
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			append(key(type, id), storedAt, expires, flags, deflated == null ? raw : deflated, raw.length);
+			if((dead > COMPACT_MINIMUM && dead > (end - HEADER) / 2) 
+					|| (end > maximumLogBytes && end - compactedEnd > maximumLogBytes / 4)) {
+				compact(null);
+			}
+		} catch(IOException e) {
+			throw new GowallaException("Cannot store " + type + " " + id, e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return The stored object, or null if there isn't one or it has expired.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Serializable> T get(final EntityCache.Type type, final int id) throws GowallaException {
+		final Stored stored = read(type, id, System.currentTimeMillis());
+		return stored == null ? null : (T)stored.getValue();
+	}
+	
+	/**
+	 * @see com.ginsberg.gowalla.SecondLevelCache#read(com.ginsberg.gowalla.EntityCache.Type, int, long)
+	 */
+	@Override
+	public Stored read(final EntityCache.Type type, final int id, final long now) throws GowallaException {
+		final long storedAt;
+		final long expires;
+		final int flags;
+		final int rawLength;
+		final byte[] bytes;
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			final long at = current(key(type, id));
+			if(at <= EMPTY) {
+				return null;
+			}
+			expires = data.getLong(at + EXPIRES);
+			if(expires <= now) {
+				return null;
+			}
+			storedAt = data.getLong(at + STORED_AT);
+			flags = data.getInt(at + FLAGS);
+			rawLength = data.getInt(at + RAW_LENGTH);
+			bytes = data.get(at + ENTRY_HEADER, data.getInt(at + LENGTH));
+		} finally {
+			lock.readLock().unlock();
+		}
+		try {
+			final byte[] raw = (flags & DEFLATED) != 0 ? inflate(bytes, rawLength) : bytes;
+			final Object value = (flags & CODEC) != 0 ? BinaryCodec.decode(raw) : deserialize(raw);
+			return new Stored((Serializable)value, storedAt, expires);
+		} catch(DataFormatException e) {
+			throw new GowallaException("Cannot read stored " + type + " " + id, e);
+		} catch(IOException e) {
+			throw new GowallaException("Cannot read stored " + type + " " + id, e);
+		} catch(ClassNotFoundException e) {
+			throw new GowallaException("Cannot read stored " + type + " " + id, e);
+		} catch(IllegalArgumentException e) {
+			throw new GowallaException("Cannot read stored " + type + " " + id, e);
+		}
+	}
+	
+	/**
+	 * @see com.ginsberg.gowalla.SecondLevelCache#remove(com.ginsberg.gowalla.EntityCache.Type, int)
+	 */
+	@Override
+	public boolean remove(final EntityCache.Type type, final int id) throws GowallaException {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			final long key = key(type, id);
+			if(current(key) <= EMPTY) {
+				return false;
+			}
+			append(key, 0, 0, REMOVED, new byte[0], 0);
+			return true;
+		} catch(IOException e) {
+			throw new GowallaException("Cannot remove " + type + " " + id, e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Forget every object of a type.  This compacts the store.
+	 * @see com.ginsberg.gowalla.SecondLevelCache#removeAll(com.ginsberg.gowalla.EntityCache.Type)
+	 */
+	@Override
+	public void removeAll(final EntityCache.Type type) throws GowallaException {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			compact(type);
+		} catch(IOException e) {
+			throw new GowallaException("Cannot remove every " + type, e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * @see com.ginsberg.gowalla.SecondLevelCache#clear()
+	 */
+	@Override
+	public void clear() throws GowallaException {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			end = HEADER;
+			data.putLong(H_END, end);
+			rebuildIndex(MINIMUM_SLOTS);
+		} catch(IOException e) {
+			throw new GowallaException("Cannot clear entity store: " + directory, e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Rewrite the log without replaced, removed and expired entries.  This 
+	 * happens by itself once more than half the log is unused, so it's only
+	 * needed to reclaim expired entries sooner.
+	 */
+	public void compact() throws GowallaException {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			compact(null);
+		} catch(IOException e) {
+			throw new GowallaException("Cannot compact entity store: " + directory, e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Expired entries aren't known to be unused until the log is compacted, 
+	 * so once the log grows past this size it is compacted to drop them.  If
+	 * it's still this large afterwards, it isn't compacted again until it has 
+	 * grown by another quarter of this size.  Objects that haven't expired 
+	 * are never dropped to keep under it.  The default is a gigabyte.
+	 */
+	public void setMaximumLogBytes(final long maximumLogBytes) {
+		if(maximumLogBytes <= HEADER) {
+			throw new IllegalArgumentException("Maximum log size is too small: " + maximumLogBytes);
+		}
+		lock.writeLock().lock();
+		try {
+			this.maximumLogBytes = maximumLogBytes;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return The number of objects stored, including expired ones not yet compacted away.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return live;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return How many bytes of the log are in use, including entries left behind.
+	 */
+	public long getLogBytes() {
+		lock.readLock().lock();
+		try {
+			return end;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	public File getDirectory() {
+		return directory;
+	}
+	
+	/**
+	 * Write everything out to disk now, instead of whenever the operating system gets to it.
+	 */
+	public void force() {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			data.force();
+			index.force();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Write everything out and close the files.  The store can't be used after this.
+	 */
+	public void close() throws GowallaException {
+		lock.writeLock().lock();
+		try {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			data.close();
+			index.close();
+		} catch(IOException e) {
+			throw new GowallaException("Cannot close entity store: " + directory, e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Add an entry to the end of the log, and point the index at it.
+	 */
+	private void append(final long key, final long storedAt, final long expires, final int flags, final byte[] bytes, final int rawLength) throws IOException {
+		final long size = ENTRY_HEADER + align(bytes.length);
+		if(size > data.segmentSize) {
+			throw new IOException("Entry is too large to store: " + bytes.length + " bytes");
+		}
+		if(used + 1 > capacity / 2) {
+			rebuildIndex(capacity * 2);
+		}
+		final long at = place(end, size);
+		data.ensure(at + size);
+		data.putLong(at + KEY, key);
+		data.putLong(at + STORED_AT, storedAt);
+		data.putLong(at + EXPIRES, expires);
+		data.putInt(at + FLAGS, flags);
+		data.putInt(at + LENGTH, bytes.length);
+		data.putInt(at + RAW_LENGTH, rawLength);
+		data.put(at + ENTRY_HEADER, bytes);
+		end = at + size;
+		data.putLong(H_END, end);
+		
+		final long previous = setSlot(key, (flags & REMOVED) != 0 ? GONE : at);
+		if(previous > EMPTY) {
+			dead += size(previous);
+			live--;
+		}
+		if((flags & REMOVED) != 0) {
+			dead += size;
+		} else {
+			live++;
+		}
+		data.putLong(H_DEAD, dead);
+		writeIndexHeader();
+	}
+	
+	/**
+	 * Slide the entries worth keeping down over the ones that aren't, then 
+	 * rebuild the index.  Entries only ever move towards the start of the log, 
+	 * so each is read before anything is written over it.
+	 */
+	private void compact(final EntityCache.Type dropped) throws IOException {
+		final long now = System.currentTimeMillis();
+		data.putInt(H_COMPACTING, 1);
+		long write = HEADER;
+		int kept = 0;
+		for(long at = next(HEADER); at < end; at = next(at)) {
+			final long size = size(at);
+			final long key = data.getLong(at + KEY);
+			if((data.getInt(at + FLAGS) & (PADDING | REMOVED)) == 0 
+					&& data.getLong(at + EXPIRES) > now
+					&& (dropped == null || (int)(key >>> 32) != dropped.ordinal())
+					&& current(key) == at) {
+				final byte[] entry = data.get(at, (int)size);
+				write = place(write, size);
+				data.put(write, entry);
+				write += size;
+				kept++;
+			}
+			at += size;
+		}
+		end = write;
+		compactedEnd = end;
+		data.putLong(H_END, end);
+		rebuildIndex(Math.max(MINIMUM_SLOTS, Integer.highestOneBit(Math.max(1, kept)) * 4));
+		data.putInt(H_COMPACTING, 0);
+	}
+	
+	/**
+	 * Start the index over with at least this many slots, and fill it from the log.
+	 */
+	private void rebuildIndex(final int slots) throws IOException {
+		int size = slots;
+		while(!fillIndex(size)) {
+			size *= 2;
+		}
+	}
+	
+	/**
+	 * @return false if the log has too many keys for this many slots.
+	 */
+	private boolean fillIndex(final int slots) throws IOException {
+		final long size = HEADER + (long)slots * SLOT;
+		index.ensure(size);
+		for(long at = HEADER; at < size; at += 8) {
+			index.putLong(at, 0);
+		}
+		writeHeader(index);
+		capacity = slots;
+		used = 0;
+		live = 0;
+		dead = 0;
+		for(long at = next(HEADER); at < end; at = next(at)) {
+			final long length = size(at);
+			final int flags = data.getInt(at + FLAGS);
+			if((flags & PADDING) != 0) {
+				dead += length;
+			} else {
+				if(used + 1 > capacity / 2) {
+					return false;
+				}
+				final boolean removed = (flags & REMOVED) != 0;
+				final long previous = setSlot(data.getLong(at + KEY), removed ? GONE : at);
+				if(previous > EMPTY) {
+					dead += size(previous);
+					live--;
+				}
+				if(removed) {
+					dead += length;
+				} else {
+					live++;
+				}
+			}
+			at += length;
+		}
+		data.putLong(H_DEAD, dead);
+		writeIndexHeader();
+		return true;
+	}
+	
+	/**
+	 * @return Where a key's latest entry is, GONE if it was removed, or EMPTY if it was never stored.
+	 */
+	private long current(final long key) {
+		final long mask = capacity - 1;
+		for(long slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+			final long at = HEADER + slot * SLOT;
+			final long entry = index.getLong(at + 8);
+			if(entry == EMPTY || index.getLong(at) == key) {
+				return entry;
+			}
+		}
+	}
+	
+	/**
+	 * Point a key at an entry.
+	 * @return Where it pointed before, GONE, or EMPTY.
+	 */
+	private long setSlot(final long key, final long entry) {
+		final long mask = capacity - 1;
+		for(long slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+			final long at = HEADER + slot * SLOT;
+			final long previous = index.getLong(at + 8);
+			if(previous == EMPTY) {
+				index.putLong(at, key);
+				index.putLong(at + 8, entry);
+				used++;
+				return EMPTY;
+			}
+			if(index.getLong(at) == key) {
+				index.putLong(at + 8, entry);
+				return previous;
+			}
+		}
+	}
+	
+	private void writeIndexHeader() {
+		index.putInt(H_CAPACITY, capacity);
+		index.putInt(H_USED, used);
+		index.putInt(H_LIVE, live);
+		index.putLong(H_DATA_END, end);
+	}
+	
+	/**
+	 * @return Where an entry of this size can go, at or after the given place.
+	 * If it won't fit in what's left of the segment, the rest is padded out.
+	 */
+	private long place(final long at, final long size) throws IOException {
+		final long room = data.segmentSize - (at & (data.segmentSize - 1));
+		if(size <= room) {
+			return at;
+		}
+		if(room >= ENTRY_HEADER) {
+			data.ensure(at + ENTRY_HEADER);
+			data.putLong(at + KEY, 0);
+			data.putInt(at + FLAGS, PADDING);
+			data.putInt(at + LENGTH, (int)(room - ENTRY_HEADER));
+		}
+		dead += room;
+		return at + room;
+	}
+	
+	/**
+	 * @return Where the next entry is, skipping the end of a segment too short to hold one.
+	 */
+	private long next(final long at) {
+		final long room = data.segmentSize - (at & (data.segmentSize - 1));
+		return room < ENTRY_HEADER ? at + room : at;
+	}
+	
+	private long size(final long at) {
+		return ENTRY_HEADER + align(data.getInt(at + LENGTH));
+	}
+	
+	private void checkOpen() {
+		if(closed) {
+			throw new IllegalStateException("Entity store is closed: " + directory);
+		}
+	}
+	
+	private static long align(final int length) {
+		return (length + 7L) & ~7L;
+	}
+	
+	private static long key(final EntityCache.Type type, final int id) {
+		return ((long)type.ordinal() << 32) | (id & 0xFFFFFFFFL);
+	}
+	
+	private static long hash(final long key) {
+		final long h = key * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 32);
+	}
+	
+	/**
+	 * @return The bytes deflated, or null if that doesn't make them smaller.
+	 */
+	static byte[] deflate(final byte[] raw) {
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(raw);
+			deflater.finish();
+			final byte[] out = new byte[raw.length];
+			final int length = deflater.deflate(out);
+			return deflater.finished() && length < raw.length ? Arrays.copyOf(out, length) : null;
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	static byte[] inflate(final byte[] bytes, final int rawLength) throws DataFormatException {
+		final Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(bytes);
+			final byte[] raw = new byte[rawLength];
+			int length = 0;
+			while(length < rawLength) {
+				final int inflated = inflater.inflate(raw, length, rawLength - length);
+				if(inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+					throw new DataFormatException("Stored entry is cut short");
+				}
+				length += inflated;
+			}
+			return raw;
+		} finally {
+			inflater.end();
+		}
+	}
+	
+	static byte[] serialize(final Serializable value) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(value);
+		out.close();
+		return bytes.toByteArray();
+	}
+	
+	static Object deserialize(final byte[] bytes) throws IOException, ClassNotFoundException {
+		final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+	
+	private static void writeHeader(final Segments file) {
+		file.putInt(H_MAGIC, MAGIC);
+		file.putInt(H_VERSION, VERSION);
+	}
+	
+	private static boolean hasHeader(final Segments file) {
+		return file.getInt(H_MAGIC) == MAGIC && file.getInt(H_VERSION) == VERSION;
+	}
+	
+	private static void closeQuietly(final Segments... files) {
+		for(Segments file : files) {
+			if(file != null) {
+				try {
+					file.close();
+				} catch(IOException e) {
+					// Already failing.
+				}
+			}
+		}
+	}
+	
+	/**
+	 * One file, mapped a segment at a time.  The last segment grows by 
+	 * mapping it again, larger, until it's full, then another is started.
+	 */
+	private static class Segments {
+		private final RandomAccessFile file;
+		private final FileChannel channel;
+		private final boolean created;
+		private final int shift;
+		private final long segmentSize;
+		private final List<MappedByteBuffer> maps = new ArrayList<MappedByteBuffer>();
+		
+		private Segments(final File path, final int shift) throws IOException {
+			created = !path.exists() || path.length() < HEADER;
+			file = new RandomAccessFile(path, "rw");
+			channel = file.getChannel();
+			this.shift = shift;
+			this.segmentSize = 1L << shift;
+			ensure(Math.max(HEADER, file.length()));
+		}
+		
+		private long mapped() {
+			return maps.isEmpty() ? 0 : (maps.size() - 1) * segmentSize + maps.get(maps.size() - 1).capacity();
+		}
+		
+		private void ensure(final long size) throws IOException {
+			while(mapped() < size) {
+				final int last = maps.size() - 1;
+				if(last >= 0 && maps.get(last).capacity() < segmentSize) {
+					final long grown = Math.max(maps.get(last).capacity() * 2L, size - last * segmentSize);
+					maps.set(last, map(last, Math.min(segmentSize, grown)));
+				} else {
+					final long wanted = Math.max(64 * 1024, size - (last + 1) * segmentSize);
+					maps.add(map(last + 1, Math.min(segmentSize, wanted)));
+				}
+			}
+		}
+		
+		private MappedByteBuffer map(final int segment, final long size) throws IOException {
+			return channel.map(FileChannel.MapMode.READ_WRITE, segment * segmentSize, size);
+		}
+		
+		private ByteBuffer segment(final long at) {
+			return maps.get((int)(at >>> shift));
+		}
+		
+		private int offset(final long at) {
+			return (int)(at & (segmentSize - 1));
+		}
+		
+		private long getLong(final long at) {
+			return segment(at).getLong(offset(at));
+		}
+		
+		private void putLong(final long at, final long value) {
+			segment(at).putLong(offset(at), value);
+		}
+		
+		private int getInt(final long at) {
+			return segment(at).getInt(offset(at));
+		}
+		
+		private void putInt(final long at, final int value) {
+			segment(at).putInt(offset(at), value);
+		}
+		
+		private byte[] get(final long at, final int length) {
+			final ByteBuffer buffer = segment(at).duplicate();
+			buffer.position(offset(at));
+			final byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			return bytes;
+		}
+		
+		private void put(final long at, final byte[] bytes) {
+			final ByteBuffer buffer = segment(at).duplicate();
+			buffer.position(offset(at));
+			buffer.put(bytes);
+		}
+		
+		private void force() {
+			for(MappedByteBuffer map : maps) {
+				map.force();
+			}
+		}
+		
+		private void close() throws IOException {
+			try {
+				force();
+			} finally {
+				channel.close();
+				file.close();
+			}
+		}
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("EntityStore[directory=%s, entries=%d, logBytes=%d, unusedBytes=%d]", 
+				directory, live, end, dead);
+	}
+}
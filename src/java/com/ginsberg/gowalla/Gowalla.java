@@ -29,13 +29,28 @@
  */
 package com.ginsberg.gowalla;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.ginsberg.gowalla.auth.AnonymousAuthentication;
 import com.ginsberg.gowalla.auth.Authentication;
@@ -43,6 +58,7 @@ import com.ginsberg.gowalla.dto.Category;
 import com.ginsberg.gowalla.dto.FullCategory;
 import com.ginsberg.gowalla.dto.FullSpot;
 import com.ginsberg.gowalla.dto.FullUser;
+import com.ginsberg.gowalla.dto.GeoPoint;
 import com.ginsberg.gowalla.dto.Id;
 import com.ginsberg.gowalla.dto.Item;
 import com.ginsberg.gowalla.dto.ItemEvent;
@@ -59,18 +75,23 @@ import com.ginsberg.gowalla.dto.User;
 import com.ginsberg.gowalla.dto.UserPhoto;
 import com.ginsberg.gowalla.dto.VisitedSpot;
 import com.ginsberg.gowalla.exception.GowallaException;
+import com.ginsberg.gowalla.exception.GowallaIterationException;
 import com.ginsberg.gowalla.exception.GowallaRequestException;
 import com.ginsberg.gowalla.exception.RateLimitExceededException;
 import com.ginsberg.gowalla.exception.RequestNotAcceptableException;
 import com.ginsberg.gowalla.exception.ServiceUnavailableException;
 import com.ginsberg.gowalla.rate.DefaultRateLimiter;
+import com.ginsberg.gowalla.rate.PrioritizedRateLimiter;
 import com.ginsberg.gowalla.rate.RateLimiter;
+import com.ginsberg.gowalla.rate.RequestPriority;
 import com.ginsberg.gowalla.request.DefaultRequestHandler;
 import com.ginsberg.gowalla.request.PlainRequestHeader;
 import com.ginsberg.gowalla.request.RequestHandler;
 import com.ginsberg.gowalla.request.RequestHeader;
 import com.ginsberg.gowalla.request.translate.GsonResponseTranslator;
 import com.ginsberg.gowalla.request.translate.ResponseTranslator;
+import com.ginsberg.gowalla.util.DaemonThreadFactory;
+import com.ginsberg.gowalla.util.Selection;
 
 /**
  * This is the main class used to contact the Gowalla servers.  It takes
@@ -102,11 +123,25 @@ import com.ginsberg.gowalla.request.translate.ResponseTranslator;
  */
 public class Gowalla {
 
+	/**
+	 * The cached objects that are refreshed in the background once stale.
+	 */
+	private static final Set<EntityCache.Type> REFRESHED = 
+		Collections.unmodifiableSet(EnumSet.of(EntityCache.Type.SPOT, EntityCache.Type.USER, EntityCache.Type.TOP_SPOTS));
+	
 	private RateLimiter rateLimiter = new DefaultRateLimiter();
 	private ResponseTranslator responseTranslator = new GsonResponseTranslator();
 	private RequestHandler handler = null;
 	private Authentication authentication = null;
 	private Set<RequestHeader> additionalHeaders = new HashSet<RequestHeader>();
+	private int prefetchDepth = 0;
+	private ExecutorService pagingExecutor = null;
+	private ExecutorService refreshExecutor = null;
+	private volatile SpotQueryCache spotQueryCache = null;
+	private volatile EntityCache entityCache = null;
+	private volatile CategoryService categoryService = null;
+	private volatile SpotStore spotStore = null;
+	private final AtomicLong spotStoreErrors = new AtomicLong();
 	
 	/**
 	 * Create an instance of the Gowalla Request object, using anonymous authentication.
@@ -158,6 +193,135 @@ public class Gowalla {
 		this.rateLimiter = rateLimiter;
 	}
 	
+	/**
+	 * @return the cache findSpots answers from, or null if there isn't one.
+	 */
+	public SpotQueryCache getSpotQueryCache() {
+		return spotQueryCache;
+	}
+
+	/**
+	 * Set a cache for findSpots (and findSpotsNear) to answer from, or null to 
+	 * stop caching.  Searches that fall within an earlier, complete, search are 
+	 * answered without a request to Gowalla.
+	 */
+	public void setSpotQueryCache(final SpotQueryCache spotQueryCache) {
+		this.spotQueryCache = spotQueryCache;
+	}
+	
+	/**
+	 * @return the cache single spots, users, categories, items and trips are answered from, or null if there isn't one.
+	 */
+	public EntityCache getEntityCache() {
+		return entityCache;
+	}
+	
+	/**
+	 * Set a cache for getSpot, getUser, getCategory, getItem and getTrip to answer 
+	 * from, including for ids that don't exist, or null to stop caching.
+	 */
+	public void setEntityCache(final EntityCache entityCache) {
+		this.entityCache = entityCache;
+	}
+	
+	/**
+	 * @return the local category tree getCategory answers from, or null if there isn't one.
+	 */
+	public CategoryService getCategoryService() {
+		return categoryService;
+	}
+	
+	/**
+	 * Set a local category tree for getCategory to answer from, or null to always
+	 * ask Gowalla.  Categories missing from the tree are still asked for.
+	 */
+	public void setCategoryService(final CategoryService categoryService) {
+		this.categoryService = categoryService;
+	}
+	
+	/**
+	 * @return the on disk store getSpot answers from, or null if there isn't one.
+	 */
+	public SpotStore getSpotStore() {
+		return spotStore;
+	}
+	
+	/**
+	 * Set an on disk store for getSpot to answer from, and to keep the spots it
+	 * gets in, or null to stop using one.  The store isn't closed here.
+	 */
+	public void setSpotStore(final SpotStore spotStore) {
+		this.spotStore = spotStore;
+	}
+	
+	/**
+	 * @return Times the spot store couldn't be read or written.  Spots are still
+	 * fetched and returned when that happens.
+	 */
+	public long getSpotStoreErrors() {
+		return spotStoreErrors.get();
+	}
+	
+	/**
+	 * @return How many pages are requested ahead of the caller when paging.
+	 */
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+
+	/**
+	 * Set how many pages to request in the background, ahead of the page being
+	 * processed, when paging through results (findSpots with paging allowed, and
+	 * items for a user).  This lets the network and the response translation 
+	 * overlap, at the cost of up to this many wasted requests after the last page.
+	 * Zero, the default, requests each page only when it is needed.
+	 * 
+	 * @param prefetchDepth the number of pages to stay ahead, negative values are treated as zero.
+	 * @see SpotCriteria.Builder#parallelRequests(int)
+	 */
+	public void setPrefetchDepth(final int prefetchDepth) {
+		this.prefetchDepth = Math.max(0, prefetchDepth);
+	}
+	
+	/**
+	 * Set the executor background page requests are made on.  If one isn't 
+	 * provided, a pool of daemon threads is created the first time it is needed.
+	 */
+	public synchronized void setPagingExecutor(final ExecutorService pagingExecutor) {
+		this.pagingExecutor = pagingExecutor;
+	}
+	
+	/**
+	 * Get the executor background page requests are made on, creating it if needed.
+	 */
+	synchronized ExecutorService getPagingExecutor() {
+		if(pagingExecutor == null) {
+			pagingExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("gowalla-paging"));
+		}
+		return pagingExecutor;
+	}
+	
+	/**
+	 * Set the executor stale spots, users and top spots are refreshed on.  If
+	 * one isn't provided, two daemon threads are created the first time one 
+	 * is needed.
+	 * 
+	 * @see EntityCache#setSoftTimeToLive(EntityCache.Type, long, java.util.concurrent.TimeUnit)
+	 */
+	public synchronized void setRefreshExecutor(final ExecutorService refreshExecutor) {
+		this.refreshExecutor = refreshExecutor;
+	}
+	
+	/**
+	 * Get the executor stale objects are refreshed on, creating it if needed.
+	 */
+	synchronized ExecutorService getRefreshExecutor() {
+		if(refreshExecutor == null) {
+			refreshExecutor = Executors.newFixedThreadPool(2, new DaemonThreadFactory("gowalla-refresh"));
+		}
+		return refreshExecutor;
+	}
+	
 	/**
 	 * Find spots according to the criteria given.  If no spots are found, an empty list
 	 * is returned.
@@ -179,27 +343,284 @@ public class Gowalla {
 		if(criteria == null) {
 			throw new GowallaException("No Critiera provided.");
 		}
+		final SpotQueryCache cache = spotQueryCache;
+		if(cache != null) {
+			final List<SimpleSpot> cached = cache.lookup(criteria);
+			if(cached != null) {
+				return assembleSpots(cached, criteria);
+			}
+		}
 		// Store these in a Set because Gowalla's paging sometimes returns duplicates.
 		Set<SimpleSpot> spotsReturned = new LinkedHashSet<SimpleSpot>(); 
+		int requests = 0;
+		if((prefetchDepth > 0 || criteria.getParallelRequests() > 1) && criteria.getPagingSupport() != PagingSupport.SINGLE_REQUEST_ONLY) {
+			requests = findSpotsPrefetching(criteria, spotsReturned);
+		} else {
+			requests = findSpotsSequentially(criteria, spotsReturned);
+		}
+		if(cache != null) {
+			cache.store(criteria, spotsReturned, requests);
+		}
+		return assembleSpots(spotsReturned, criteria);
+	}
+	
+	/**
+	 * Page through spots one request at a time, using the number of spots found
+	 * so far as the offset of the next page.
+	 * 
+	 * @return The number of requests made.
+	 */
+	private int findSpotsSequentially(final SpotCriteria criteria, final Set<SimpleSpot> spotsReturned) throws GowallaException {
 		boolean keepGoing = true;
 		int spotsLastRequest = 0;
-		int attempts = 0;
+		int requests = 0;
 		
 		while(keepGoing) {
-			try {
-				attempts++;
-				final String response = request(criteria.getRequestWithArguments(spotsLastRequest));
-				attempts = 0;
-				spotsReturned.addAll(responseTranslator.translateSimpleSpots(response));
+			requests++;
+			spotsReturned.addAll(requestSpotPage(criteria, spotsLastRequest));
+
+			// Don't keep paging if we don't support it, are over the limit, or didn't receive anything.
+			if(criteria.getPagingSupport() == PagingSupport.SINGLE_REQUEST_ONLY ||
+					(criteria.getNumberOfSpots() != 0 && spotsReturned.size() >= criteria.getNumberOfSpots())  ||
+					spotsReturned.size() == spotsLastRequest) {
+				keepGoing = false;
+			} else {
+				spotsLastRequest = spotsReturned.size();
+			}
+		}
+		return requests;
+	}
+	
+	/**
+	 * Find spots in a large area by breaking the search circle into smaller 
+	 * overlapping tiles, as laid out by the planner.  Each tile is a single request, 
+	 * and a tile that comes back saturated is split into four smaller tiles and 
+	 * searched again, so areas dense with spots are searched more finely.  Tiles are
+	 * searched up to SpotCriteria parallelRequests at a time.
+	 * 
+	 * Spots from every tile are merged by id, trimmed back to the original circle, 
+	 * and then filtered, sorted and limited as the criteria describe.  The result 
+	 * does not depend on the order the tiles happened to finish in.  Paging settings 
+	 * on the criteria are ignored.
+	 * 
+	 * WARNING: Depending on your critiera this method may use calls not officially 
+	 * supported by Gowalla. This means it may go away without warning while you are 
+	 * using it.  It also means we may have to drop support for it.
+	 * 
+	 * @param criteria A SpotCriteria Object, describing the whole area.
+	 * @param planner How to tile the area.
+	 * @return A List of SimpleSpots.
+	 * @throws GowallaException
+	 */
+	public List<SimpleSpot> findSpotsTiled(final SpotCriteria criteria, final SpotTilePlanner planner) throws GowallaException {
+		if(criteria == null) {
+			throw new GowallaException("No Critiera provided.");
+		}
+		final CompletionService<TileResult> completion = new ExecutorCompletionService<TileResult>(getPagingExecutor());
+		final LinkedList<SpotTilePlanner.Tile> waiting = new LinkedList<SpotTilePlanner.Tile>(planner.plan(criteria.getLocation(), criteria.getRadiusMeters()));
+		final List<Future<TileResult>> inFlight = new LinkedList<Future<TileResult>>();
+		final List<TileResult> searched = new ArrayList<TileResult>();
+		try {
+			while(!waiting.isEmpty() || !inFlight.isEmpty()) {
+				while(!waiting.isEmpty() && inFlight.size() < criteria.getParallelRequests()) {
+					final SpotTilePlanner.Tile tile = waiting.removeFirst();
+					inFlight.add(completion.submit(new Callable<TileResult>() {
+						@Override
+						public TileResult call() throws Exception {
+							return new TileResult(tile, findSpotsInTile(criteria, tile));
+						}
+					}));
+				}
+				final Future<TileResult> future = takeInterruptibly(completion);
+				inFlight.remove(future);
+				final TileResult result = PagePrefetcher.await(future);
+				searched.add(result);
+				if(planner.isSaturated(result.spots.size()) && result.tile.canSubdivide()) {
+					waiting.addAll(result.tile.subdivide());
+				}
+			}
+		} finally {
+			for(Future<TileResult> future : inFlight) {
+				future.cancel(true);
+			}
+		}
+		
+		// Merge in tile order, not completion order, so the result is always the same.
+		Collections.sort(searched);
+		final GeoPoint center = criteria.getLocation().getGeoLocation();
+		final Map<Integer, SimpleSpot> merged = new TreeMap<Integer, SimpleSpot>();
+		for(TileResult result : searched) {
+			for(SimpleSpot spot : result.spots) {
+				if(!merged.containsKey(spot.getId()) && center.getDistanceMeters(spot.getGeoLocation()) <= criteria.getRadiusMeters()) {
+					merged.put(spot.getId(), spot);
+				}
+			}
+		}
+		return assembleSpots(merged.values(), criteria);
+	}
+	
+	/**
+	 * Search a single tile with a single request.
+	 */
+	List<SimpleSpot> findSpotsInTile(final SpotCriteria criteria, final SpotTilePlanner.Tile tile) throws GowallaException {
+		return requestSpotPage(criteria.narrowedTo(tile, tile.getRadiusMeters()), 0);
+	}
+	
+	/**
+	 * Wait for the next tile to finish.
+	 */
+	private Future<TileResult> takeInterruptibly(final CompletionService<TileResult> completion) throws GowallaException {
+		try {
+			return completion.take();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GowallaException("Interrupted waiting for a request.", e);
+		}
+	}
+	
+	/**
+	 * The spots found searching a single tile.
+	 */
+	private static class TileResult implements Comparable<TileResult> {
+		private final SpotTilePlanner.Tile tile;
+		private final List<SimpleSpot> spots;
+		
+		private TileResult(final SpotTilePlanner.Tile tile, final List<SimpleSpot> spots) {
+			this.tile = tile;
+			this.spots = spots;
+		}
 
-				// Don't keep paging if we don't support it, are over the limit, or didn't receive anything.
-				if(criteria.getPagingSupport() == PagingSupport.SINGLE_REQUEST_ONLY ||
-						(criteria.getNumberOfSpots() != 0 && spotsReturned.size() >= criteria.getNumberOfSpots())  ||
-						spotsReturned.size() == spotsLastRequest) {
-					keepGoing = false;
-				} else {
-					spotsLastRequest = spotsReturned.size();
+		@Override
+		public int compareTo(final TileResult other) {
+			return tile.compareTo(other.tile);
+		}
+	}
+	
+	/**
+	 * Find spots according to the criteria given, lazily.  Nothing is requested from
+	 * Gowalla until the first call to hasNext() or next(), and each following page is
+	 * only requested once the spots from the previous page have been consumed.  Simply
+	 * stop iterating to stop making requests, so the caller decides when to keep going.
+	 * 
+	 * Spots are returned in the order Gowalla returns them, with duplicates across pages
+	 * removed and the criteria filter applied.  Sorting requires every spot to be known
+	 * up front, so the comparator on the criteria is ignored; use an OrderBy instead.
+	 * Paging, limits and retries behave the same as findSpots().
+	 * 
+	 * Because Iterators cannot throw checked exceptions, any GowallaException raised 
+	 * while fetching a page is wrapped in a GowallaIterationException.
+	 * 
+	 * @param criteria A SpotCriteria Object.
+	 * @return An Iterable that may be iterated more than once, starting over each time.
+	 * @throws GowallaException
+	 */
+	public Iterable<SimpleSpot> iterateSpots(final SpotCriteria criteria) throws GowallaException {
+		if(criteria == null) {
+			throw new GowallaException("No Critiera provided.");
+		}
+		return new Iterable<SimpleSpot>() {
+			@Override
+			public Iterator<SimpleSpot> iterator() {
+				return new PagedSpotIterator(criteria);
+			}
+		};
+	}
+	
+	/**
+	 * Turn the raw set of spots returned from Gowalla into the list the caller 
+	 * asked for.  Filtering happens first so we never sort spots that will be 
+	 * thrown away, and when there is both a limit and a sort order only the 
+	 * best spots are kept in a bounded heap rather than sorting everything.
+	 */
+	static List<SimpleSpot> assembleSpots(final Collection<SimpleSpot> spots, final SpotCriteria criteria) {
+		final List<SimpleSpot> filtered;
+		if(criteria.getFilter() == null) {
+			filtered = new ArrayList<SimpleSpot>(spots);
+		} else {
+			filtered = new ArrayList<SimpleSpot>(spots.size());
+			for(SimpleSpot spot : spots) {
+				if(criteria.getFilter().isIncluded(spot)) {
+					filtered.add(spot);
 				}
+			}
+		}
+		
+		final int limit = criteria.getNumberOfSpots();
+		if(criteria.getSortBy() != null) {
+			// Sorting, if supported.
+			return Selection.smallest(filtered, limit, criteria.getSortBy());
+		}
+		if(limit != 0 && filtered.size() > limit) {
+			// Do it this way because subList is still backed by the larger list.
+			return new ArrayList<SimpleSpot>(filtered.subList(0, limit));
+		}
+		return filtered;
+	}
+	
+	/**
+	 * Page through spots with following pages requested in the background, while
+	 * the current page is translated and deduplicated.  The first page tells us 
+	 * how many spots Gowalla hands out per page, and following pages are requested
+	 * at multiples of that offset.  Paging stops after a short page, a page with 
+	 * nothing new on it, or once we have as many spots as were asked for.
+	 * 
+	 * When the criteria allow parallel requests, that many pages are requested at
+	 * once rather than one after another.  Pages are still merged in offset order,
+	 * so the result is the same as paging one request at a time.
+	 * 
+	 * @return The number of requests made, including pages requested ahead and never used.
+	 */
+	private int findSpotsPrefetching(final SpotCriteria criteria, final Set<SimpleSpot> spotsReturned) throws GowallaException {
+		final List<SimpleSpot> first = requestSpotPage(criteria, 0);
+		spotsReturned.addAll(first);
+		final int pageSize = first.size();
+		if(pageSize == 0 || hasEnoughSpots(criteria, spotsReturned)) {
+			return 1;
+		}
+		final PagePrefetcher pages = new PagePrefetcher(new PagePrefetcher.PageRequest() {
+			@Override
+			public String request(final int page) throws GowallaException {
+				return requestSpotResponse(criteria, page * pageSize);
+			}
+		}, getPagingExecutor(), Math.max(prefetchDepth, criteria.getParallelRequests() - 1), 1, criteria.getParallelRequests() > 1);
+		try {
+			boolean keepGoing = true;
+			while(keepGoing) {
+				final int before = spotsReturned.size();
+				final List<SimpleSpot> page = responseTranslator.translateSimpleSpots(pages.next());
+				spotsReturned.addAll(page);
+				keepGoing = page.size() >= pageSize && spotsReturned.size() != before && !hasEnoughSpots(criteria, spotsReturned);
+			}
+		} finally {
+			pages.close();
+		}
+		return 1 + pages.getRequests();
+	}
+	
+	/**
+	 * Have we found as many spots as the criteria asked for?
+	 */
+	private boolean hasEnoughSpots(final SpotCriteria criteria, final Set<SimpleSpot> spotsReturned) {
+		return criteria.getNumberOfSpots() != 0 && spotsReturned.size() >= criteria.getNumberOfSpots();
+	}
+	
+	/**
+	 * Request and translate a single page of spots.
+	 */
+	private List<SimpleSpot> requestSpotPage(final SpotCriteria criteria, final int offset) throws GowallaException {
+		return responseTranslator.translateSimpleSpots(requestSpotResponse(criteria, offset));
+	}
+	
+	/**
+	 * Request a single page of spots, retrying as many times as the criteria
+	 * allow when Gowalla tells us it is temporarily unavailable.
+	 */
+	private String requestSpotResponse(final SpotCriteria criteria, final int offset) throws GowallaException {
+		int attempts = 0;
+		while(true) {
+			try {
+				attempts++;
+				return request(criteria.getRequestWithArguments(offset));
 			} catch(ServiceUnavailableException e) {
 				// See if we can retry this or not.
 				if(attempts >= criteria.getRetries()+1) {
@@ -208,28 +629,87 @@ public class Gowalla {
 				}
 			}
 		}
-		List<SimpleSpot> toBeReturned = new LinkedList<SimpleSpot>(spotsReturned);
+	}
+	
+	/**
+	 * Iterator that requests a page of spots only when the spots from the 
+	 * previous page have all been handed out.
+	 */
+	private class PagedSpotIterator implements Iterator<SimpleSpot> {
+		private final SpotCriteria criteria;
+		private final Set<SimpleSpot> seen = new HashSet<SimpleSpot>();
+		private Iterator<SimpleSpot> page = null;
+		private SimpleSpot next = null;
+		private int returned = 0;
+		private boolean lastPage = false;
 		
-		// Sorting, if supported.
-		if(criteria.getSortBy() != null) {
-			Collections.sort(toBeReturned, criteria.getSortBy());
+		private PagedSpotIterator(final SpotCriteria criteria) {
+			this.criteria = criteria;
 		}
-		
-		// Filtering, if supported.
-		if(criteria.getFilter() != null) {
-			for(Iterator<SimpleSpot> i = toBeReturned.iterator(); i.hasNext();) {
-				if(!criteria.getFilter().isIncluded(i.next())) {
-					i.remove();
+
+		@Override
+		public boolean hasNext() {
+			if(next != null) {
+				return true;
+			}
+			final int limit = criteria.getNumberOfSpots();
+			while(limit == 0 || returned < limit) {
+				if(page != null && page.hasNext()) {
+					final SimpleSpot candidate = page.next();
+					if(criteria.getFilter() == null || criteria.getFilter().isIncluded(candidate)) {
+						next = candidate;
+						return true;
+					}
+				} else if(lastPage || !fetchPage()) {
+					return false;
 				}
 			}
+			return false;
 		}
-		
-		if(toBeReturned.size() > criteria.getNumberOfSpots() && criteria.getNumberOfSpots() != 0) {
-			// Do it this way because subList is still backed by the larger list.
-			toBeReturned = new LinkedList<SimpleSpot>(toBeReturned.subList(0, criteria.getNumberOfSpots()));
+
+		@Override
+		public SimpleSpot next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			final SimpleSpot spot = next;
+			next = null;
+			returned++;
+			return spot;
 		}
-		return toBeReturned;
 
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		/**
+		 * Load the next page, keeping only the spots we haven't seen.  Uses the same
+		 * rules as findSpots() to decide if this is the last page.
+		 * 
+		 * @return false if the page contained nothing new.
+		 */
+		private boolean fetchPage() {
+			final int offset = seen.size();
+			final List<SimpleSpot> fresh = new ArrayList<SimpleSpot>();
+			try {
+				for(SimpleSpot spot : requestSpotPage(criteria, offset)) {
+					if(seen.add(spot)) {
+						fresh.add(spot);
+					}
+				}
+			} catch(GowallaException e) {
+				lastPage = true;
+				throw new GowallaIterationException(e);
+			}
+			if(criteria.getPagingSupport() == PagingSupport.SINGLE_REQUEST_ONLY ||
+					(criteria.getNumberOfSpots() != 0 && seen.size() >= criteria.getNumberOfSpots()) ||
+					fresh.isEmpty()) {
+				lastPage = true;
+			}
+			page = fresh.iterator();
+			return !fresh.isEmpty();
+		}
 	}
 	
 	/**
@@ -287,12 +767,27 @@ public class Gowalla {
 	 * @throws GowallaException when we cannot connect, parse results, or authenticate.
 	 */
 	public FullCategory getCategory(final int id) throws GowallaException {
+		final CategoryService categories = categoryService;
+		if(categories != null) {
+			try {
+				final FullCategory local = categories.getCategory(id);
+				if(local != null) {
+					return local;
+				}
+			} catch(GowallaException e) {
+				// The tree can't be loaded (the service counts it), so ask for just this one.
+			}
+		}
+		final Object cached = cached(EntityCache.Type.CATEGORY, id);
+		if(cached != null) {
+			return cached == EntityCache.NOT_FOUND ? null : (FullCategory)cached;
+		}
 		try {
 			final String response = request(String.format("/categories/%d", id));
-			return responseTranslator.translateCategory(response);
+			return remember(EntityCache.Type.CATEGORY, id, responseTranslator.translateCategory(response));
 		} catch(RequestNotAcceptableException e) {
 			// No category for this number.
-			return null;
+			return notFound(EntityCache.Type.CATEGORY, id);
 		}
 	}
 	
@@ -312,12 +807,70 @@ public class Gowalla {
 	 * @throws GowallaException
 	 */
 	public FullSpot getSpot(final int id) throws GowallaException {
+		final Object cached = cached(EntityCache.Type.SPOT, id);
+		if(cached != null) {
+			return cached == EntityCache.NOT_FOUND ? null : (FullSpot)cached;
+		}
+		final FullSpot stored = fromSpotStore(id);
+		if(stored != null) {
+			return stored;
+		}
+		return fetchSpot(id, RequestPriority.INTERACTIVE);
+	}
+	
+	/**
+	 * Look for a spot in the spot store.  A stored spot is cached as of when it
+	 * was stored, so it goes stale and expires on the cache's usual schedule; 
+	 * one the cache would already have expired is fetched again instead.
+	 * 
+	 * @return The spot, or null if it should be fetched.
+	 */
+	private FullSpot fromSpotStore(final int id) {
+		final SpotStore store = spotStore;
+		if(store == null) {
+			return null;
+		}
 		try {
-			final String response = request(String.format("/spots/%d", id));
-			return responseTranslator.translateSpot(response, id);
+			final FullSpot stored = store.getFullSpot(id);
+			if(stored == null) {
+				return null;
+			}
+			final EntityCache cache = entityCache;
+			if(cache == null || cache.put(EntityCache.Type.SPOT, id, stored, store.getStoredAt(id))) {
+				return stored;
+			}
+			return null;
+		} catch(GowallaException e) {
+			spotStoreErrors.incrementAndGet();
+			return null;
+		}
+	}
+	
+	/**
+	 * Request a spot from Gowalla, whether it's cached or not, and keep it in 
+	 * the spot store and cache.  A spot that no longer exists is removed from
+	 * the store.  Failing to store a spot is counted, not thrown, since the 
+	 * spot was still fetched.
+	 */
+	FullSpot fetchSpot(final int id, final RequestPriority priority) throws GowallaException {
+		final SpotStore store = spotStore;
+		try {
+			final String response = request(String.format("/spots/%d", id), priority);
+			final FullSpot spot = responseTranslator.translateSpot(response, id);
+			if(store != null) {
+				try {
+					store.put(spot);
+				} catch(GowallaException e) {
+					spotStoreErrors.incrementAndGet();
+				}
+			}
+			return remember(EntityCache.Type.SPOT, id, spot);
 		}catch(RequestNotAcceptableException e) {
 			// No Spot for this number.
-			return null;
+			if(store != null) {
+				store.remove(id);
+			}
+			return notFound(EntityCache.Type.SPOT, id);
 		}
 	}
 	
@@ -383,24 +936,30 @@ public class Gowalla {
 	
 	/**
 	 * Internal call that supports forced paging to get all items, going on the theory
-	 * that not knowing them all isn't entirely useful.  
-	 * 
-	 * TODO: Think about a general purpose paging system here.
+	 * that not knowing them all isn't entirely useful.  Following pages are
+	 * requested in the background when a prefetch depth has been set.
 	 */
 	private List<Item> getItemsForUser(final String requestString) throws GowallaException {
 		final List<Item> items = new LinkedList<Item>();
-		int page = 1;
 		int returned = 0;
+		final PagePrefetcher pages = new PagePrefetcher(new PagePrefetcher.PageRequest() {
+			@Override
+			public String request(final int page) throws GowallaException {
+				return Gowalla.this.request(requestString + "&page=" + page);
+			}
+		}, prefetchDepth > 0 ? getPagingExecutor() : null, prefetchDepth, 1, false);
 		try {
 			do {
 				returned = items.size();
-				final String response = request(requestString + "&page=" + page++);
+				final String response = pages.next();
 				items.addAll(responseTranslator.translateItems(response));
 			} while(items.size() != returned);
 			return items;
 		} catch(RequestNotAcceptableException e) {
 			// No User for this number.
 			return null;
+		} finally {
+			pages.close();
 		}
 	}
 	
@@ -618,12 +1177,16 @@ public class Gowalla {
 	 * Get an item, by id.
 	 */
 	public Item getItem(final int id) throws GowallaException {
+		final Object cached = cached(EntityCache.Type.ITEM, id);
+		if(cached != null) {
+			return cached == EntityCache.NOT_FOUND ? null : (Item)cached;
+		}
 		try {
 			final String response = request(String.format("/items/%d", id));
-			return responseTranslator.translateItem(response);
+			return remember(EntityCache.Type.ITEM, id, responseTranslator.translateItem(response));
 		} catch(RequestNotAcceptableException e) {
 			// No Item for this number.
-			return null;
+			return notFound(EntityCache.Type.ITEM, id);
 		}	
 	}
 	
@@ -653,8 +1216,15 @@ public class Gowalla {
 	 * @throws GowallaException
 	 */
 	public List<SpotEvent> getSpotEvents(final int id) throws GowallaException {
+		return getSpotEvents(id, RequestPriority.INTERACTIVE);
+	}
+	
+	/**
+	 * Get the list of events that happened at a spot, at the given priority.
+	 */
+	List<SpotEvent> getSpotEvents(final int id, final RequestPriority priority) throws GowallaException {
 		try {
-			final String response = request(String.format("/spots/%d/events", id));
+			final String response = request(String.format("/spots/%d/events", id), priority);
 			return responseTranslator.translateSpotEvents(response);
 		} catch(RequestNotAcceptableException e) {
 			// No Spot for this number.
@@ -674,8 +1244,15 @@ public class Gowalla {
 	 * @throws GowallaException
 	 */
 	public List<SpotPhoto> getSpotPhotos(final int id) throws GowallaException {
+		return getSpotPhotos(id, RequestPriority.INTERACTIVE);
+	}
+	
+	/**
+	 * Get the list of photos that happened at a spot, at the given priority.
+	 */
+	List<SpotPhoto> getSpotPhotos(final int id, final RequestPriority priority) throws GowallaException {
 		try {
-			final String response = request(String.format("/spots/%d/photos", id));
+			final String response = request(String.format("/spots/%d/photos", id), priority);
 			return responseTranslator.translateSpotPhotos(response);
 		} catch(RequestNotAcceptableException e) {
 			// No Spot for this number.
@@ -753,12 +1330,16 @@ public class Gowalla {
 	 * @throws GowallaException
 	 */
 	public Trip getTrip(final int id) throws GowallaException {
+		final Object cached = cached(EntityCache.Type.TRIP, id);
+		if(cached != null) {
+			return cached == EntityCache.NOT_FOUND ? null : (Trip)cached;
+		}
 		try {
 			final String response = request(String.format("/trips/%d", id));
-			return responseTranslator.translateTrip(response);
+			return remember(EntityCache.Type.TRIP, id, responseTranslator.translateTrip(response));
 		} catch(RequestNotAcceptableException e) {
 			// No Trip for this number.
-			return null;
+			return notFound(EntityCache.Type.TRIP, id);
 		}	
 	}
 	
@@ -850,12 +1431,23 @@ public class Gowalla {
 	 * @throws GowallaException
 	 */
 	public FullUser getUser(final int id) throws GowallaException {
+		final Object cached = cached(EntityCache.Type.USER, id);
+		if(cached != null) {
+			return cached == EntityCache.NOT_FOUND ? null : (FullUser)cached;
+		}
+		return fetchUser(id, RequestPriority.INTERACTIVE);
+	}
+	
+	/**
+	 * Request a user from Gowalla, and cache it.
+	 */
+	private FullUser fetchUser(final int id, final RequestPriority priority) throws GowallaException {
 		try {
-			final String response = request(String.format("/users/%d", id));
-			return responseTranslator.translateUser(response);
+			final String response = request(String.format("/users/%d", id), priority);
+			return remember(EntityCache.Type.USER, id, responseTranslator.translateUser(response));
 		} catch(RequestNotAcceptableException e) {
 			// No User for this number.
-			return null;
+			return notFound(EntityCache.Type.USER, id);
 		}	
 	}
 	
@@ -869,7 +1461,9 @@ public class Gowalla {
 	public FullUser getUser(final String login) throws GowallaException {
 		try {
 			final String response = request(String.format("/users/%s", login));
-			return responseTranslator.translateUser(response);
+			final FullUser user = responseTranslator.translateUser(response);
+			// Can't look users up by login, but can save a later lookup by id.
+			return user == null ? null : remember(EntityCache.Type.USER, user.getId(), user);
 		} catch(RequestNotAcceptableException e) {
 			// No User for this number.
 			return null;
@@ -884,13 +1478,26 @@ public class Gowalla {
 	 * @return A list of spots and the number of checkins.
 	 * @throws GowallaException
 	 */
+	@SuppressWarnings("unchecked")
 	public List<VisitedSpot> getTopSpots(final int id) throws GowallaException {
+		final Object cached = cached(EntityCache.Type.TOP_SPOTS, id);
+		if(cached != null) {
+			return cached == EntityCache.NOT_FOUND ? null : (List<VisitedSpot>)cached;
+		}
+		return fetchTopSpots(id, RequestPriority.INTERACTIVE);
+	}
+	
+	/**
+	 * Request a user's top spots from Gowalla, and cache them.
+	 */
+	private List<VisitedSpot> fetchTopSpots(final int id, final RequestPriority priority) throws GowallaException {
 		try {
-			final String response = request(String.format("/users/%d/top_spots", id));
-			return responseTranslator.translateVisitedSpots(response);
+			final String response = request(String.format("/users/%d/top_spots", id), priority);
+			final List<VisitedSpot> spots = responseTranslator.translateVisitedSpots(response);
+			return spots == null ? null : remember(EntityCache.Type.TOP_SPOTS, id, new ArrayList<VisitedSpot>(spots));
 		} catch(RequestNotAcceptableException e) {
 			// No User for this number.
-			return null;
+			return notFound(EntityCache.Type.TOP_SPOTS, id);
 		}	
 	}
 	
@@ -906,15 +1513,103 @@ public class Gowalla {
 		return getTopSpots(identity.getId());
 	}
 		
+	/**
+	 * A stale object is still returned, but the first caller to find it 
+	 * starts a refresh in the background.
+	 * 
+	 * @return The object from the entity cache, EntityCache.NOT_FOUND if it's known 
+	 * not to exist, or null if there's no cache or it doesn't know.
+	 */
+	private Object cached(final EntityCache.Type type, final int id) {
+		final EntityCache cache = entityCache;
+		if(cache == null) {
+			return null;
+		}
+		final Object value = cache.lookup(type, id);
+		if(value != null && value != EntityCache.NOT_FOUND && REFRESHED.contains(type) && cache.claimRefresh(type, id)) {
+			refreshLater(cache, type, id);
+		}
+		return value;
+	}
+	
+	/**
+	 * Fetch a fresh copy of a cached object in the background, as a batch request.
+	 * If that fails, for example because the rate limiter is busy, the claim to
+	 * refresh it is given up so the next caller to find it stale tries again.
+	 */
+	private void refreshLater(final EntityCache cache, final EntityCache.Type type, final int id) {
+		final Runnable refresh = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					switch(type) {
+					case SPOT:
+						fetchSpot(id, RequestPriority.BATCH);
+						break;
+					case USER:
+						fetchUser(id, RequestPriority.BATCH);
+						break;
+					case TOP_SPOTS:
+						fetchTopSpots(id, RequestPriority.BATCH);
+						break;
+					default:
+						break;
+					}
+				} catch(GowallaException e) {
+					cache.releaseRefresh(type, id);
+				} catch(RuntimeException e) {
+					cache.releaseRefresh(type, id);
+				}
+			}
+		};
+		try {
+			getRefreshExecutor().execute(refresh);
+		} catch(RejectedExecutionException e) {
+			cache.releaseRefresh(type, id);
+		}
+	}
+	
+	/**
+	 * Remember that there's no object for this id, if there's an entity cache.
+	 * @return null, for the caller to return.
+	 */
+	private <T> T notFound(final EntityCache.Type type, final int id) {
+		final EntityCache cache = entityCache;
+		if(cache != null) {
+			cache.putNotFound(type, id);
+		}
+		return null;
+	}
+	
+	/**
+	 * Put an object in the entity cache, if there is one.
+	 * @return The object.
+	 */
+	private <T extends Serializable> T remember(final EntityCache.Type type, final int id, final T value) {
+		final EntityCache cache = entityCache;
+		if(cache != null) {
+			cache.put(type, id, value);
+		}
+		return value;
+	}
+	
 	/**
 	 * Encapsulate request handler and rate limitation call.
 	 */
 	private String request(final String resource) throws RateLimitExceededException, GowallaRequestException {
-		rateLimitPreRequest();
+		return request(resource, RequestPriority.INTERACTIVE);
+	}
+	
+	/**
+	 * Encapsulate request handler and rate limitation call, for a request of the given priority.
+	 */
+	private String request(final String resource, final RequestPriority priority) throws RateLimitExceededException, GowallaRequestException {
+		final RateLimiter limiter = rateLimiter;
+		rateLimitPreRequest(limiter, priority);
 		try {
 			return handler.handleRequest(resource, authentication.getHeaders());
 		} finally {
-			rateLimitPostRequest();
+			rateLimitPostRequest(limiter, priority);
 		}
 	}
 	
@@ -922,8 +1617,14 @@ public class Gowalla {
 	 * Enforce the rate limitation.
 	 * @throws RateLimitExceededException 
 	 */
-	private void rateLimitPreRequest() throws RateLimitExceededException {
-		if(rateLimiter != null && !rateLimiter.preRequest()) {
+	private void rateLimitPreRequest(final RateLimiter limiter, final RequestPriority priority) throws RateLimitExceededException {
+		if(limiter == null) {
+			return;
+		}
+		final boolean allowed = limiter instanceof PrioritizedRateLimiter 
+			? ((PrioritizedRateLimiter)limiter).preRequest(priority) 
+			: limiter.preRequest();
+		if(!allowed) {
 			throw new RateLimitExceededException();
 		}
 	}
@@ -932,9 +1633,11 @@ public class Gowalla {
 	 * Release the rate limitation.
 	 * @throws RateLimitExceededException 
 	 */
-	private void rateLimitPostRequest() throws RateLimitExceededException {
-		if(rateLimiter != null) {
-			rateLimiter.postRequest();
+	private void rateLimitPostRequest(final RateLimiter limiter, final RequestPriority priority) throws RateLimitExceededException {
+		if(limiter instanceof PrioritizedRateLimiter) {
+			((PrioritizedRateLimiter)limiter).postRequest(priority);
+		} else if(limiter != null) {
+			limiter.postRequest();
 		}
 	}		
 }
@@ -0,0 +1,256 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.ginsberg.gowalla.exception.GowallaException;
+
+/**
+ * Hands out the raw responses for consecutive pages of a paged request, 
+ * requesting up to <code>depth</code> pages ahead of the caller in the
+ * background.  This lets the network work on the next page while the 
+ * caller is busy translating the current one.  Pages are always handed 
+ * back in order, and a depth of zero makes every request in the calling
+ * thread, exactly as if no prefetching were being done.
+ * 
+ * Background requests are either made one after another, so at most one 
+ * request is in flight for a single pager, or all at once, so up to
+ * <code>depth + 1</code> are in flight.  Either way, pages are handed back
+ * in order.  Not thread safe; a pager belongs to the thread paging through 
+ * results.
+ * 
+ * @author Todd Ginsberg
+ */
+class PagePrefetcher {
+
+	/**
+	 * Something that can request a single page, numbered from zero.
+	 */
+	interface PageRequest {
+		public String request(final int page) throws GowallaException;
+	}
+	
+	private final PageRequest pageRequest;
+	private final Executor executor;
+	private final int depth;
+	private final LinkedList<Future<String>> ahead = new LinkedList<Future<String>>();
+	private int nextPage;
+	private int nextScheduled;
+	private int requests;
+	private boolean closed;
+	
+	/**
+	 * @param pageRequest How to request each page.
+	 * @param executor Where to run background requests.
+	 * @param depth Maximum number of pages to request ahead of the caller.
+	 * @param firstPage The number of the first page to hand out.
+	 * @param parallel true to make background requests at the same time, false to make them one at a time.
+	 */
+	PagePrefetcher(final PageRequest pageRequest, final Executor executor, final int depth, final int firstPage, final boolean parallel) {
+		this.pageRequest = pageRequest;
+		if(depth > 0) {
+			this.executor = parallel ? executor : new SerialExecutor(executor);
+		} else {
+			this.executor = null;
+		}
+		this.depth = Math.max(0, depth);
+		this.nextPage = firstPage;
+		this.nextScheduled = firstPage;
+	}
+	
+	/**
+	 * Get the next page, waiting for it if it is still being requested, 
+	 * and schedule more pages so we stay <code>depth</code> pages ahead.
+	 */
+	String next() throws GowallaException {
+		final int page = nextPage++;
+		if(depth == 0) {
+			started();
+			return pageRequest.request(page);
+		}
+		fill(page);
+		return await(ahead.removeFirst());
+	}
+	
+	/**
+	 * Stop any requests that haven't started yet.  Call when done paging.
+	 */
+	void close() {
+		synchronized(this) {
+			closed = true;
+		}
+		for(Future<String> future : ahead) {
+			future.cancel(false);
+		}
+		ahead.clear();
+	}
+	
+	/**
+	 * @return The number of pages requested so far, including ones requested ahead and never handed out.  Final once closed.
+	 */
+	synchronized int getRequests() {
+		return requests;
+	}
+	
+	/**
+	 * Count a request about to be made, unless we have been closed.
+	 */
+	private synchronized void started() {
+		if(closed) {
+			throw new CancellationException();
+		}
+		requests++;
+	}
+	
+	/**
+	 * Make sure everything up through page + depth is scheduled.  A page the 
+	 * executor turns away is cancelled, so waiting for it fails.
+	 */
+	private void fill(final int page) {
+		while(nextScheduled <= page + depth) {
+			final int toRequest = nextScheduled++;
+			final FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					started();
+					return pageRequest.request(toRequest);
+				}
+			});
+			ahead.addLast(task);
+			try {
+				executor.execute(task);
+			} catch(RejectedExecutionException e) {
+				task.cancel(false);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Wait for a background request and unwrap any GowallaException thrown making it.
+	 */
+	static <T> T await(final Future<T> future) throws GowallaException {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GowallaException("Interrupted waiting for a request.", e);
+		} catch(CancellationException e) {
+			throw new GowallaException("Request was cancelled before it was made.", e);
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof GowallaException) {
+				throw (GowallaException)e.getCause();
+			} else if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			} else if(e.getCause() instanceof Error) {
+				throw (Error)e.getCause();
+			}
+			throw new GowallaException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Runs tasks one at a time, in the order given, on another Executor.  If
+	 * that Executor turns a task away, because it has been shut down, the task
+	 * and every one waiting behind it are cancelled, so nobody waits on them.
+	 */
+	private static class SerialExecutor implements Executor {
+		private final LinkedList<Step> tasks = new LinkedList<Step>();
+		private final Executor executor;
+		private Step active;
+		
+		private SerialExecutor(final Executor executor) {
+			this.executor = executor;
+		}
+
+		@Override
+		public synchronized void execute(final Runnable runnable) {
+			tasks.addLast(new Step(runnable));
+			if(active == null) {
+				scheduleNext();
+			}
+		}
+		
+		private synchronized void scheduleNext() {
+			active = tasks.poll();
+			if(active != null) {
+				try {
+					executor.execute(active);
+				} catch(RejectedExecutionException e) {
+					cancel(active);
+					for(Step step : tasks) {
+						cancel(step);
+					}
+					tasks.clear();
+					active = null;
+					throw e;
+				}
+			}
+		}
+		
+		private static void cancel(final Step step) {
+			if(step.runnable instanceof Future<?>) {
+				((Future<?>)step.runnable).cancel(false);
+			}
+		}
+		
+		/**
+		 * Runs a task, then hands the next one to the Executor.
+		 */
+		private class Step implements Runnable {
+			private final Runnable runnable;
+			
+			private Step(final Runnable runnable) {
+				this.runnable = runnable;
+			}
+			
+			@Override
+			public void run() {
+				try {
+					runnable.run();
+				} finally {
+					try {
+						scheduleNext();
+					} catch(RejectedExecutionException e) {
+						// Shut down.  The tasks left were cancelled.
+					}
+				}
+			}
+		}
+	}
+}
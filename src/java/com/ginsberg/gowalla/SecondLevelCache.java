@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import java.io.Serializable;
+
+import com.ginsberg.gowalla.exception.GowallaException;
+
+/**
+ * Somewhere an EntityCache keeps objects beyond what it holds itself.  
+ * Objects are put with when they were stored and when they expire, and are
+ * only read back until then.
+ * 
+ * @author Todd Ginsberg
+ * @see EntityCache#setSecondLevel(SecondLevelCache)
+ */
+public interface SecondLevelCache {
+
+	/**
+	 * Store an object, replacing what was stored for its type and id.
+	 */
+	public void put(final EntityCache.Type type, final int id, final Serializable value, final long storedAt, final long expires) throws GowallaException;
+	
+	/**
+	 * @return The object with when it was stored and expires, or null if there isn't one or it has expired.
+	 */
+	public Stored read(final EntityCache.Type type, final int id, final long now) throws GowallaException;
+	
+	/**
+	 * Forget an object.
+	 * @return true if it was stored.
+	 */
+	public boolean remove(final EntityCache.Type type, final int id) throws GowallaException;
+	
+	/**
+	 * Forget every object of a type.
+	 */
+	public void removeAll(final EntityCache.Type type) throws GowallaException;
+	
+	/**
+	 * Forget everything.
+	 */
+	public void clear() throws GowallaException;
+	
+	/**
+	 * An object read back, with when it was stored and when it expires.
+	 */
+	public static class Stored {
+		private final Serializable value;
+		private final long storedAt;
+		private final long expires;
+		
+		public Stored(final Serializable value, final long storedAt, final long expires) {
+			super();
+			this.value = value;
+			this.storedAt = storedAt;
+			this.expires = expires;
+		}
+		
+		public Serializable getValue() {
+			return value;
+		}
+		
+		public long getStoredAt() {
+			return storedAt;
+		}
+		
+		public long getExpires() {
+			return expires;
+		}
+	}
+}
@@ -0,0 +1,594 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+import com.ginsberg.gowalla.dto.codec.BinaryCodec;
+import com.ginsberg.gowalla.exception.GowallaException;
+
+/**
+ * A second level cache in one memory mapped file that every process on a 
+ * host can open at once, so an object one of them fetched is there for the 
+ * others without asking Gowalla again.
+ * 
+ * The file is a fixed number of fixed size slots.  Each object can go in any
+ * of four slots picked by its type and id; when they're all in use, the one
+ * stored longest ago is replaced.  Objects are written by BinaryCodec (or Java
+ * serialization), deflated if that makes them smaller, and ones too big for 
+ * a slot aren't kept.
+ * 
+ * Readers never lock.  Each slot has a version stamp that is odd while it is
+ * being written, and a checksum.  A reader that sees an odd stamp, a stamp 
+ * that changed while it read, or a checksum that doesn't match, treats the 
+ * slot as empty.  A writer claims a slot with a lock on just that slot's part
+ * of the file, which also keeps out other threads in this process.  It never
+ * waits for one: if another writer, in this or any process, has the slot, the
+ * write is skipped, since the object is in the middle of being cached anyway.
+ * 
+ * The first process to open the file decides its size.  Thread safe.
+ * 
+ * @author Todd Ginsberg
+ */
+public class SharedEntityStore implements SecondLevelCache {
+
+	private static final int MAGIC = 0x47534843;
+	private static final int VERSION = 1;
+	private static final int WAYS = 4;
+	private static final int READ_ATTEMPTS = 3;
+	
+	// Header fields.
+	private static final int H_MAGIC = 0;
+	private static final int H_VERSION = 4;
+	private static final int H_SLOT_SIZE = 8;
+	private static final int H_SLOTS = 12;
+	private static final int HEADER = 64;
+	
+	// Slot fields.  The checksum covers everything from the key up to it, and the bytes.
+	private static final int STAMP = 0;
+	private static final int KEY = 8;
+	private static final int STORED_AT = 16;
+	private static final int EXPIRES = 24;
+	private static final int FLAGS = 32;
+	private static final int LENGTH = 36;
+	private static final int RAW_LENGTH = 40;
+	private static final int CHECKSUM = 44;
+	private static final int SLOT_HEADER = 48;
+	
+	private static final int CODEC = 1;
+	private static final int SERIALIZED = 2;
+	private static final int DEFLATED = 4;
+	
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int slotSize;
+	private final int slots;
+	private final AtomicLong skippedWrites = new AtomicLong();
+	private volatile boolean closed = false;
+	
+	/**
+	 * Open a shared store, creating it with 65536 slots of 1KB if it doesn't exist.
+	 */
+	public SharedEntityStore(final File file) throws GowallaException {
+		this(file, 65536, 1024);
+	}
+	
+	/**
+	 * Open a shared store, creating it if it doesn't exist.
+	 * 
+	 * @param file The file every process shares.
+	 * @param slots How many objects it can hold, rounded up to a power of two.  Ignored if the file exists.
+	 * @param slotSize The most bytes one object can take, rounded up to a multiple of 8.  Ignored if the file exists.
+	 */
+	public SharedEntityStore(final File file, final int slots, final int slotSize) throws GowallaException {
+		super();
+		if(slots < 1 || slotSize <= SLOT_HEADER) {
+			throw new IllegalArgumentException("Need at least one slot of more than " + SLOT_HEADER + " bytes");
+		}
+		this.file = file;
+		RandomAccessFile r = null;
+		try {
+			r = new RandomAccessFile(file, "rw");
+			raf = r;
+			channel = r.getChannel();
+			final long[] layout = layout(Math.max(WAYS, Integer.highestOneBit(slots - 1) << 1), (slotSize + 7) & ~7);
+			this.slots = (int)layout[0];
+			this.slotSize = (int)layout[1];
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long)this.slots * this.slotSize);
+		} catch(IOException e) {
+			closeQuietly(r);
+			throw new GowallaException("Cannot open shared entity store: " + file, e);
+		}
+	}
+	
+	/**
+	 * Write the header if nobody has yet, holding a lock on it so two 
+	 * processes can't both do it.
+	 * @return The number of slots and their size.
+	 */
+	private long[] layout(final int wantedSlots, final int wantedSlotSize) throws IOException {
+		synchronized(SharedEntityStore.class) {
+			final FileLock lock = channel.lock(0, HEADER, false);
+			try {
+				final ByteBuffer header = ByteBuffer.allocate(HEADER);
+				if(channel.size() >= HEADER) {
+					channel.read(header, 0);
+					if(header.getInt(H_MAGIC) == MAGIC) {
+						if(header.getInt(H_VERSION) != VERSION) {
+							throw new IOException("Shared entity store is from another version");
+						}
+						final long found = header.getInt(H_SLOTS);
+						final long size = header.getInt(H_SLOT_SIZE);
+						if(found < WAYS || Long.bitCount(found) != 1 || size <= SLOT_HEADER || channel.size() < HEADER + found * size) {
+							throw new IOException("Shared entity store is damaged");
+						}
+						return new long[] { found, size };
+					}
+				}
+				final long length = HEADER + (long)wantedSlots * wantedSlotSize;
+				if(length > Integer.MAX_VALUE) {
+					throw new IOException("Shared entity store would be too large: " + length + " bytes");
+				}
+				raf.setLength(length);
+				header.clear();
+				header.putInt(H_VERSION, VERSION);
+				header.putInt(H_SLOT_SIZE, wantedSlotSize);
+				header.putInt(H_SLOTS, wantedSlots);
+				channel.write(header, 0);
+				// Magic last, so a half written header is written again.
+				header.clear();
+				header.putInt(MAGIC).flip();
+				channel.write(header, H_MAGIC);
+				channel.force(true);
+				return new long[] { wantedSlots, wantedSlotSize };
+			} finally {
+				lock.release();
+			}
+		}
+	}
+	
+	/**
+	 * Store an object for a time, replacing what was stored for its type and id.
+	 */
+	public void put(final EntityCache.Type type, final int id, final Serializable value, final long timeToLive, final TimeUnit unit) throws GowallaException {
+		final long now = System.currentTimeMillis();
+		put(type, id, value, now, now + unit.toMillis(timeToLive));
+	}
+	
+	/**
+	 * @see com.ginsberg.gowalla.SecondLevelCache#put(com.ginsberg.gowalla.EntityCache.Type, int, java.io.Serializable, long, long)
+	 */
+	@Override
+	public void put(final EntityCache.Type type, final int id, final Serializable value, final long storedAt, final long expires) throws GowallaException {
+		checkOpen();
+		final boolean codec = BinaryCodec.supports(value);
+		final byte[] raw;
+		try {
+			raw = codec ? BinaryCodec.encode(value) : EntityStore.serialize(value);
+		} catch(IOException e) {
+			throw new GowallaException("Cannot store " + type + " " + id, e);
+		}
+		final byte[] deflated = EntityStore.deflate(raw);
+		final byte[] bytes = deflated == null ? raw : deflated;
+		if(SLOT_HEADER + bytes.length > slotSize) {
+			skippedWrites.incrementAndGet();
+			return;
+		}
+		final long key = key(type, id);
+		final int slot = pick(key, System.currentTimeMillis());
+		final int flags = (codec ? CODEC : SERIALIZED) | (deflated == null ? 0 : DEFLATED);
+		if(!write(slot, key, storedAt, expires, flags, bytes, raw.length)) {
+			skippedWrites.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * @return The stored object, or null if there isn't one or it has expired.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Serializable> T get(final EntityCache.Type type, final int id) throws GowallaException {
+		final Stored stored = read(type, id, System.currentTimeMillis());
+		return stored == null ? null : (T)stored.getValue();
+	}
+	
+	/**
+	 * @see com.ginsberg.gowalla.SecondLevelCache#read(com.ginsberg.gowalla.EntityCache.Type, int, long)
+	 */
+	@Override
+	public Stored read(final EntityCache.Type type, final int id, final long now) throws GowallaException {
+		checkOpen();
+		final long key = key(type, id);
+		final int first = group(key);
+		Slot newest = null;
+		for(int slot = first; slot < first + WAYS; slot++) {
+			final Slot found = readSlot(slot, key);
+			if(found != null && found.expires > now && (newest == null || found.storedAt > newest.storedAt)) {
+				newest = found;
+			}
+		}
+		if(newest == null) {
+			return null;
+		}
+		try {
+			final byte[] raw = (newest.flags & DEFLATED) != 0 ? EntityStore.inflate(newest.bytes, newest.rawLength) : newest.bytes;
+			final Object value = (newest.flags & CODEC) != 0 ? BinaryCodec.decode(raw) : EntityStore.deserialize(raw);
+			return new Stored((Serializable)value, newest.storedAt, newest.expires);
+		} catch(DataFormatException e) {
+			throw new GowallaException("Cannot read shared " + type + " " + id, e);
+		} catch(IOException e) {
+			throw new GowallaException("Cannot read shared " + type + " " + id, e);
+		} catch(ClassNotFoundException e) {
+			throw new GowallaException("Cannot read shared " + type + " " + id, e);
+		} catch(IllegalArgumentException e) {
+			throw new GowallaException("Cannot read shared " + type + " " + id, e);
+		}
+	}
+	
+	/**
+	 * @see com.ginsberg.gowalla.SecondLevelCache#remove(com.ginsberg.gowalla.EntityCache.Type, int)
+	 */
+	@Override
+	public boolean remove(final EntityCache.Type type, final int id) throws GowallaException {
+		checkOpen();
+		final long key = key(type, id);
+		final int first = group(key);
+		boolean removed = false;
+		for(int slot = first; slot < first + WAYS; slot++) {
+			if(buffer.getLong(at(slot) + KEY) == key && buffer.getLong(at(slot) + EXPIRES) != 0) {
+				removed |= empty(slot, key);
+			}
+		}
+		return removed;
+	}
+	
+	/**
+	 * Forget every object of a type.  This looks at every slot.
+	 * @see com.ginsberg.gowalla.SecondLevelCache#removeAll(com.ginsberg.gowalla.EntityCache.Type)
+	 */
+	@Override
+	public void removeAll(final EntityCache.Type type) throws GowallaException {
+		removeMatching(type);
+	}
+	
+	/**
+	 * @see com.ginsberg.gowalla.SecondLevelCache#clear()
+	 */
+	@Override
+	public void clear() throws GowallaException {
+		removeMatching(null);
+	}
+	
+	private void removeMatching(final EntityCache.Type type) throws GowallaException {
+		checkOpen();
+		for(int slot = 0; slot < slots; slot++) {
+			final int at = at(slot);
+			final long key = buffer.getLong(at + KEY);
+			if(buffer.getLong(at + EXPIRES) != 0 && (type == null || (int)(key >>> 32) == type.ordinal())) {
+				empty(slot, key);
+			}
+		}
+	}
+	
+	/**
+	 * @return How many slots hold an object that hasn't expired.  This looks at every slot.
+	 */
+	public int size() {
+		checkOpen();
+		final long now = System.currentTimeMillis();
+		int size = 0;
+		for(int slot = 0; slot < slots; slot++) {
+			size += buffer.getLong(at(slot) + EXPIRES) > now ? 1 : 0;
+		}
+		return size;
+	}
+	
+	public int getSlots() {
+		return slots;
+	}
+	
+	public int getSlotSize() {
+		return slotSize;
+	}
+	
+	/**
+	 * @return Objects not kept because they were too big, or their slot was being written.
+	 */
+	public long getSkippedWrites() {
+		return skippedWrites.get();
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * Write everything out to disk now.  Other processes see writes without this.
+	 */
+	public void force() {
+		checkOpen();
+		buffer.force();
+	}
+	
+	/**
+	 * Close the file.  Other processes can go on using it.
+	 */
+	public void close() throws GowallaException {
+		if(closed) {
+			return;
+		}
+		closed = true;
+		try {
+			buffer.force();
+			channel.close();
+			raf.close();
+		} catch(IOException e) {
+			throw new GowallaException("Cannot close shared entity store: " + file, e);
+		}
+	}
+	
+	/**
+	 * @return The slot to write a key to: the one it's already in, an empty 
+	 * or expired one, or the one stored longest ago.
+	 */
+	private int pick(final long key, final long now) {
+		final int first = group(key);
+		int unused = -1;
+		int oldest = first;
+		long oldestStoredAt = Long.MAX_VALUE;
+		for(int slot = first; slot < first + WAYS; slot++) {
+			final int at = at(slot);
+			final long expires = buffer.getLong(at + EXPIRES);
+			if(expires != 0 && buffer.getLong(at + KEY) == key) {
+				return slot;
+			}
+			if(unused < 0 && expires <= now) {
+				unused = slot;
+			}
+			final long storedAt = buffer.getLong(at + STORED_AT);
+			if(storedAt < oldestStoredAt) {
+				oldest = slot;
+				oldestStoredAt = storedAt;
+			}
+		}
+		return unused >= 0 ? unused : oldest;
+	}
+	
+	/**
+	 * @return The slot's contents if it holds this key and could be read cleanly, or null.
+	 */
+	private Slot readSlot(final int slot, final long key) {
+		final int at = at(slot);
+		for(int attempt = 0; attempt < READ_ATTEMPTS; attempt++) {
+			final long stamp = buffer.getLong(at + STAMP);
+			if((stamp & 1) != 0) {
+				continue;
+			}
+			if(buffer.getLong(at + KEY) != key) {
+				return null;
+			}
+			final ByteBuffer view = buffer.duplicate();
+			view.position(at + KEY);
+			final byte[] header = new byte[SLOT_HEADER - KEY];
+			view.get(header);
+			final ByteBuffer fields = ByteBuffer.wrap(header);
+			final int length = fields.getInt(LENGTH - KEY);
+			if(length < 0 || SLOT_HEADER + length > slotSize) {
+				continue;
+			}
+			final byte[] bytes = new byte[length];
+			view.position(at + SLOT_HEADER);
+			view.get(bytes);
+			if(buffer.getLong(at + STAMP) != stamp) {
+				continue;
+			}
+			if(fields.getInt(CHECKSUM - KEY) != checksum(header, bytes) || fields.getLong(0) != key) {
+				continue;
+			}
+			return new Slot(fields.getLong(STORED_AT - KEY), fields.getLong(EXPIRES - KEY), 
+					fields.getInt(FLAGS - KEY), fields.getInt(RAW_LENGTH - KEY), bytes);
+		}
+		return null;
+	}
+	
+	/**
+	 * Empty a slot, waiting for another writer to finish with it.  The key is
+	 * checked again once the slot is claimed, since it may have been given to 
+	 * another object in the meantime.
+	 * 
+	 * @return false if the slot no longer held the key.
+	 */
+	private boolean empty(final int slot, final long key) {
+		final int at = at(slot);
+		try {
+			final FileLock lock = lockSlot(at, true);
+			try {
+				if(buffer.getLong(at + KEY) != key || buffer.getLong(at + EXPIRES) == 0) {
+					return false;
+				}
+				stamp(at, image(key, 0, 0, 0, new byte[0], 0));
+				return true;
+			} finally {
+				lock.release();
+			}
+		} catch(IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Claim a slot without waiting, and write it.
+	 * 
+	 * @return false if another writer has the slot.
+	 */
+	private boolean write(final int slot, final long key, final long storedAt, final long expires, 
+			final int flags, final byte[] bytes, final int rawLength) {
+		final byte[] image = image(key, storedAt, expires, flags, bytes, rawLength);
+		final int at = at(slot);
+		try {
+			final FileLock lock = lockSlot(at, false);
+			if(lock == null) {
+				return false;
+			}
+			try {
+				stamp(at, image);
+				return true;
+			} finally {
+				lock.release();
+			}
+		} catch(IOException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * @return A slot's contents from the key on, with their checksum.
+	 */
+	private static byte[] image(final long key, final long storedAt, final long expires, 
+			final int flags, final byte[] bytes, final int rawLength) {
+		final ByteBuffer image = ByteBuffer.allocate(SLOT_HEADER - KEY + bytes.length);
+		image.putLong(key).putLong(storedAt).putLong(expires).putInt(flags).putInt(bytes.length).putInt(rawLength).putInt(0);
+		image.put(bytes);
+		final byte[] header = new byte[SLOT_HEADER - KEY];
+		System.arraycopy(image.array(), 0, header, 0, header.length);
+		image.putInt(CHECKSUM - KEY, checksum(header, bytes));
+		return image.array();
+	}
+	
+	/**
+	 * Write a claimed slot between two stamps.
+	 */
+	private void stamp(final int at, final byte[] image) {
+		final long stamp = buffer.getLong(at + STAMP) | 1;
+		buffer.putLong(at + STAMP, stamp);
+		final ByteBuffer view = buffer.duplicate();
+		view.position(at + KEY);
+		view.put(image);
+		buffer.putLong(at + STAMP, stamp + 1);
+	}
+	
+	/**
+	 * @return A lock on the slot's part of the file, or null if another writer has it and we're not waiting.
+	 */
+	private FileLock lockSlot(final int at, final boolean wait) throws IOException {
+		while(true) {
+			try {
+				final FileLock lock = wait ? channel.lock(at, slotSize, false) : channel.tryLock(at, slotSize, false);
+				if(lock != null || !wait) {
+					return lock;
+				}
+			} catch(OverlappingFileLockException e) {
+				// Another store object in this process has the slot.
+				if(!wait) {
+					return null;
+				}
+				Thread.yield();
+			}
+		}
+	}
+	
+	private int group(final long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 32;
+		return (int)h & (slots - 1) & ~(WAYS - 1);
+	}
+	
+	private int at(final int slot) {
+		return HEADER + slot * slotSize;
+	}
+	
+	private void checkOpen() {
+		if(closed) {
+			throw new IllegalStateException("Shared entity store is closed: " + file);
+		}
+	}
+	
+	private static int checksum(final byte[] header, final byte[] bytes) {
+		final CRC32 crc = new CRC32();
+		crc.update(header, 0, CHECKSUM - KEY);
+		crc.update(bytes);
+		return (int)crc.getValue();
+	}
+	
+	private static long key(final EntityCache.Type type, final int id) {
+		return ((long)type.ordinal() << 32) | (id & 0xFFFFFFFFL);
+	}
+	
+	private static void closeQuietly(final RandomAccessFile file) {
+		if(file != null) {
+			try {
+				file.close();
+			} catch(IOException e) {
+				// Already failing.
+			}
+		}
+	}
+	
+	/**
+	 * A slot's contents, read cleanly.
+	 */
+	private static class Slot {
+		private final long storedAt;
+		private final long expires;
+		private final int flags;
+		private final int rawLength;
+		private final byte[] bytes;
+		
+		private Slot(final long storedAt, final long expires, final int flags, final int rawLength, final byte[] bytes) {
+			this.storedAt = storedAt;
+			this.expires = expires;
+			this.flags = flags;
+			this.rawLength = rawLength;
+			this.bytes = bytes;
+		}
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("SharedEntityStore[file=%s, slots=%d, slotSize=%d, skippedWrites=%d]", 
+				file, slots, slotSize, skippedWrites.get());
+	}
+}
@@ -0,0 +1,389 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+import com.ginsberg.gowalla.exception.GowallaException;
+import com.ginsberg.gowalla.exception.RateLimitExceededException;
+import com.ginsberg.gowalla.util.IntHashSet;
+
+/**
+ * Crawls every spot in a (usually very large) area, tile by tile, saving its 
+ * progress to disk as it goes so a crawl can pick up where it left off after 
+ * the process is restarted.  The area and search options come from a 
+ * SpotCriteria, and the tiles from a SpotTilePlanner, exactly as with 
+ * Gowalla.findSpotsTiled().  Saturated tiles are split and their children 
+ * added to the work queue.
+ * 
+ * The checkpoint holds the tiles not yet searched (including any being 
+ * searched at the time) and the ids of every spot seen so far, so each spot 
+ * is handed to the listener once.  Spots found after the last checkpoint 
+ * before a crash will be handed out again when the crawl resumes.
+ * 
+ * Up to SpotCriteria parallelRequests tiles are searched at once.  When the
+ * RateLimiter refuses a request, that tile backs off and tries again rather
+ * than failing the crawl, so the crawl runs as fast as the limiter allows.
+ * 
+ * Example:
+ * <pre>
+ * {@code
+ * SpotCriteria criteria = new SpotCriteria.Builder(austin, 30000).parallelRequests(4).doNotSort().build();
+ * SpotCrawler crawler = new SpotCrawler(gowalla, criteria, new SpotTilePlanner(1000), new File("austin.crawl"));
+ * crawler.crawl(new SpotCrawler.Listener() {
+ *     public void spotsFound(List<SimpleSpot> spots) {
+ *         // Store them somewhere.
+ *     }
+ * });
+ * }
+ * </pre>
+ * 
+ * @author Todd Ginsberg
+ */
+public class SpotCrawler {
+
+	/**
+	 * Receives spots as the crawl finds them.
+	 */
+	public interface Listener {
+		/**
+		 * Called from the thread running the crawl, with spots not seen before
+		 * in this crawl.  Throwing from here stops the crawl, and the same 
+		 * spots are handed out again when it resumes.
+		 */
+		public void spotsFound(final List<SimpleSpot> spots);
+	}
+	
+	private static final Logger logger = Logger.getLogger(SpotCrawler.class.getName());
+	private static final int CHECKPOINT_VERSION = 1;
+	private static final long INITIAL_BACKOFF_MILLIS = 100;
+	private static final long MAXIMUM_BACKOFF_MILLIS = 10000;
+	
+	private final Gowalla gowalla;
+	private final SpotCriteria criteria;
+	private final SpotTilePlanner planner;
+	private final File checkpoint;
+	private final GeoPoint origin;
+	private int checkpointInterval = 10;
+	
+	private final Set<SpotTilePlanner.Tile> outstanding = new LinkedHashSet<SpotTilePlanner.Tile>();
+	private IntHashSet visited = new IntHashSet();
+	private int tilesSearched = 0;
+	
+	/**
+	 * @param gowalla The Gowalla instance to make requests with.
+	 * @param criteria The area to crawl and the options to search it with.
+	 * @param planner How to tile the area.
+	 * @param checkpoint Where to save progress, and resume from if it exists.
+	 */
+	public SpotCrawler(final Gowalla gowalla, final SpotCriteria criteria, final SpotTilePlanner planner, final File checkpoint) {
+		super();
+		this.gowalla = gowalla;
+		this.criteria = criteria;
+		this.planner = planner;
+		this.checkpoint = checkpoint;
+		this.origin = criteria.getLocation().getGeoLocation();
+	}
+	
+	/**
+	 * Save progress after this many tiles have been searched.  Defaults to 10.
+	 */
+	public void setCheckpointInterval(final int checkpointInterval) {
+		this.checkpointInterval = Math.max(1, checkpointInterval);
+	}
+	
+	/**
+	 * @return How many distinct spots this crawl has seen, including before any restart.
+	 */
+	public synchronized int getVisitedCount() {
+		return visited.size();
+	}
+	
+	/**
+	 * @return How many tiles are left to search.
+	 */
+	public synchronized int getRemainingTiles() {
+		return outstanding.size();
+	}
+	
+	/**
+	 * Run the crawl until every tile has been searched, resuming from the
+	 * checkpoint if there is one.  Progress is saved when the crawl finishes
+	 * or stops on an error, as well as periodically.
+	 * 
+	 * @throws GowallaException when a tile cannot be searched, or progress cannot be saved.
+	 */
+	public void crawl(final Listener listener) throws GowallaException {
+		load();
+		final CompletionService<TileSearch> completion = new ExecutorCompletionService<TileSearch>(gowalla.getPagingExecutor());
+		final LinkedList<SpotTilePlanner.Tile> waiting = new LinkedList<SpotTilePlanner.Tile>(outstanding);
+		final List<Future<TileSearch>> inFlight = new LinkedList<Future<TileSearch>>();
+		boolean finished = false;
+		try {
+			while(!waiting.isEmpty() || !inFlight.isEmpty()) {
+				while(!waiting.isEmpty() && inFlight.size() < criteria.getParallelRequests()) {
+					inFlight.add(completion.submit(new TileSearch(waiting.removeFirst())));
+				}
+				final Future<TileSearch> future;
+				try {
+					future = completion.take();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new GowallaException("Interrupted while crawling.", e);
+				}
+				inFlight.remove(future);
+				final TileSearch search = PagePrefetcher.await(future);
+				
+				final List<SimpleSpot> found = new ArrayList<SimpleSpot>();
+				final List<SpotTilePlanner.Tile> children = planner.isSaturated(search.spots.size()) && search.tile.canSubdivide() ? 
+						search.tile.subdivide() : new ArrayList<SpotTilePlanner.Tile>();
+				synchronized(this) {
+					for(SimpleSpot spot : search.spots) {
+						if(!visited.contains(spot.getId()) && isWanted(spot)) {
+							found.add(spot);
+						}
+					}
+				}
+				if(!found.isEmpty()) {
+					listener.spotsFound(found);
+				}
+				// Only once the listener has them, so a crawl stopped by the listener hands them out again.
+				synchronized(this) {
+					for(SimpleSpot spot : search.spots) {
+						visited.add(spot.getId());
+					}
+					outstanding.remove(search.tile);
+					outstanding.addAll(children);
+				}
+				waiting.addAll(children);
+				if(++tilesSearched % checkpointInterval == 0) {
+					save();
+				}
+			}
+			finished = true;
+		} finally {
+			for(Future<TileSearch> future : inFlight) {
+				future.cancel(true);
+			}
+			if(finished) {
+				save();
+			} else {
+				saveAfterFailure();
+			}
+		}
+	}
+	
+	/**
+	 * Save progress after the crawl stopped on an error, without hiding that 
+	 * error if progress can't be saved too.
+	 */
+	private void saveAfterFailure() {
+		try {
+			save();
+		} catch(GowallaException e) {
+			logger.log(Level.WARNING, "Cannot save progress of stopped crawl: " + checkpoint, e);
+		} catch(RuntimeException e) {
+			logger.log(Level.WARNING, "Cannot save progress of stopped crawl: " + checkpoint, e);
+		}
+	}
+	
+	/**
+	 * Is the spot inside the area being crawled, and allowed by the filter?
+	 */
+	private boolean isWanted(final SimpleSpot spot) {
+		return origin.getDistanceMeters(spot.getGeoLocation()) <= criteria.getRadiusMeters() &&
+			(criteria.getFilter() == null || criteria.getFilter().isIncluded(spot));
+	}
+	
+	/**
+	 * Load the checkpoint, or plan a new crawl if there isn't one.  If we 
+	 * stopped after removing the old checkpoint but before renaming the new 
+	 * one into place, the new one is loaded from the temporary file.  A 
+	 * temporary file that can't be read was never finished, and there was 
+	 * no checkpoint before it, so the crawl starts over.
+	 */
+	private synchronized void load() throws GowallaException {
+		final File temp = getTemporaryFile();
+		if(checkpoint.exists()) {
+			try {
+				read(checkpoint);
+			} catch(IOException e) {
+				throw new GowallaException("Cannot read checkpoint: " + checkpoint, e);
+			}
+			return;
+		}
+		if(temp.exists()) {
+			try {
+				read(temp);
+				return;
+			} catch(IOException e) {
+				// Half written, start over.
+			}
+		}
+		outstanding.clear();
+		visited = new IntHashSet();
+		outstanding.addAll(planner.plan(origin, criteria.getRadiusMeters()));
+	}
+	
+	/**
+	 * Read a checkpoint file.
+	 * @throws IOException if the file can't be read, or ends early.
+	 * @throws GowallaException if the file is for something else.
+	 */
+	private void read(final File file) throws IOException, GowallaException {
+		outstanding.clear();
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if(in.readInt() != CHECKPOINT_VERSION) {
+				throw new GowallaException("Unknown checkpoint version: " + file);
+			}
+			if(in.readDouble() != origin.getLatitude().doubleValue() || 
+					in.readDouble() != origin.getLongitude().doubleValue() ||
+					in.readInt() != criteria.getRadiusMeters()) {
+				throw new GowallaException("Checkpoint is for a different area: " + file);
+			}
+			final int tiles = in.readInt();
+			for(int i = 0; i < tiles; i++) {
+				outstanding.add(planner.restore(origin, in.readDouble(), in.readDouble(), in.readDouble(), in.readUTF()));
+			}
+			final int ids = in.readInt();
+			final IntHashSet read = new IntHashSet(ids);
+			for(int i = 0; i < ids; i++) {
+				read.add(in.readInt());
+			}
+			visited = read;
+		} finally {
+			if(in != null) {
+				try { in.close(); } catch(Throwable t) {}
+			}
+		}
+	}
+	
+	/**
+	 * Write the checkpoint to a temporary file, sync it to disk and move it 
+	 * into place.  Where renaming can't replace a file, the old checkpoint is
+	 * removed first; load() then finds the finished temporary file, so a 
+	 * crash while saving never leaves us without a whole checkpoint.
+	 */
+	private synchronized void save() throws GowallaException {
+		final File temp = getTemporaryFile();
+		DataOutputStream out = null;
+		try {
+			final FileOutputStream file = new FileOutputStream(temp);
+			out = new DataOutputStream(new BufferedOutputStream(file));
+			out.writeInt(CHECKPOINT_VERSION);
+			out.writeDouble(origin.getLatitude().doubleValue());
+			out.writeDouble(origin.getLongitude().doubleValue());
+			out.writeInt(criteria.getRadiusMeters());
+			out.writeInt(outstanding.size());
+			for(SpotTilePlanner.Tile tile : outstanding) {
+				out.writeDouble(tile.getX());
+				out.writeDouble(tile.getY());
+				out.writeDouble(tile.getHalfSide());
+				out.writeUTF(tile.getPath());
+			}
+			final int[] ids = visited.toArray();
+			out.writeInt(ids.length);
+			for(int id : ids) {
+				out.writeInt(id);
+			}
+			out.flush();
+			file.getFD().sync();
+			out.close();
+			out = null;
+			if(!temp.renameTo(checkpoint)) {
+				if(checkpoint.exists() && !checkpoint.delete()) {
+					throw new IOException("Cannot replace old checkpoint");
+				}
+				if(!temp.renameTo(checkpoint)) {
+					throw new IOException("Cannot rename " + temp);
+				}
+			}
+		} catch(IOException e) {
+			throw new GowallaException("Cannot write checkpoint: " + checkpoint, e);
+		} finally {
+			if(out != null) {
+				try { out.close(); } catch(Throwable t) {}
+			}
+		}
+	}
+	
+	private File getTemporaryFile() {
+		return new File(checkpoint.getPath() + ".tmp");
+	}
+	
+	/**
+	 * Searches a single tile, backing off and trying again while the 
+	 * RateLimiter won't let the request through.
+	 */
+	private class TileSearch implements Callable<TileSearch> {
+		private final SpotTilePlanner.Tile tile;
+		private List<SimpleSpot> spots;
+		
+		private TileSearch(final SpotTilePlanner.Tile tile) {
+			this.tile = tile;
+		}
+
+		@Override
+		public TileSearch call() throws Exception {
+			long backoff = INITIAL_BACKOFF_MILLIS;
+			while(true) {
+				try {
+					spots = gowalla.findSpotsInTile(criteria, tile);
+					return this;
+				} catch(RateLimitExceededException e) {
+					Thread.sleep(backoff);
+					backoff = Math.min(backoff * 2, MAXIMUM_BACKOFF_MILLIS);
+				}
+			}
+		}
+	}
+}
@@ -66,6 +66,7 @@ public class SpotCriteria {
 	private boolean featured = false; 
 	private Integer parentCategoryId;
 	private int retries;
+	private int parallelRequests;
 	private Integer userVisitedId;
 	private Integer userCreatedId;
 	private Integer userBookmarkedId;
@@ -118,6 +119,13 @@ public class SpotCriteria {
 		return parentCategoryId;
 	}
 	
+	/**
+	 * WARNING: May not be supported by Gowalla.
+	 */
+	public OrderBy getOrderBy() {
+		return orderBy;
+	}
+	
 	public Comparator<SimpleSpot> getSortBy() {
 		return sortBy;
 	}
@@ -147,10 +155,38 @@ public class SpotCriteria {
 		return retries;
 	}
 	
+	/**
+	 * How many page requests may be in flight at once when paging.
+	 */
+	public int getParallelRequests() {
+		return parallelRequests;
+	}
+	
 	public Filter<SimpleSpot> getFilter() {
 		return filter;
 	}
 
+	/**
+	 * Create a copy of these criteria that searches a different (usually smaller)
+	 * circle with a single request, and leaves sorting, filtering and limiting to 
+	 * whoever asked for the narrower search.
+	 */
+	SpotCriteria narrowedTo(final Locatable location, final int radiusMeters) {
+		final SpotCriteria criteria = new SpotCriteria();
+		criteria.pagingSupport = PagingSupport.SINGLE_REQUEST_ONLY;
+		criteria.location = location;
+		criteria.radiusMeters = radiusMeters;
+		criteria.featured = this.featured;
+		criteria.parentCategoryId = this.parentCategoryId;
+		criteria.userVisitedId = this.userVisitedId;
+		criteria.userCreatedId = this.userCreatedId;
+		criteria.userBookmarkedId = this.userBookmarkedId;
+		criteria.retries = this.retries;
+		criteria.parallelRequests = 1;
+		criteria.orderBy = this.orderBy;
+		return criteria;
+	}
+
 	public String getRequestWithArguments(int offset) {
 		if(request == null) {
 			StringBuilder buf = new StringBuilder();
@@ -202,6 +238,7 @@ public class SpotCriteria {
 		private Integer userCreatedId;
 		private Integer userBookmarkedId;
 		private int retries;
+		private int parallelRequests = 1;
 		private OrderBy orderBy;
 		private Filter<SimpleSpot> filter;
 		
@@ -237,6 +274,7 @@ public class SpotCriteria {
 			criteria.userCreatedId = this.userCreatedId;
 			criteria.userBookmarkedId = this.userBookmarkedId;
 			criteria.retries = Math.abs(this.retries);
+			criteria.parallelRequests = Math.max(1, this.parallelRequests);
 			criteria.orderBy = this.orderBy;
 			criteria.filter = this.filter;
 			if(sortingAllowed) {
@@ -331,6 +369,16 @@ public class SpotCriteria {
 			return this;
 		}
 		
+		/**
+		 * When paging is allowed, request up to this many pages at once
+		 * once the first page has come back.  Requests still go through
+		 * the RateLimiter, so limit concurrency there as well.
+		 */
+		public SpotCriteria.Builder parallelRequests(int parallelRequests) {
+			this.parallelRequests = parallelRequests;
+			return this;
+		}
+		
 		/**
 		 * Cause the Gowalla service to return spots in the order requested.
 		 * You may want to disable SORTING (doNotSort) or you'll end up 
@@ -0,0 +1,359 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.ginsberg.gowalla.dto.GeoHash;
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+
+/**
+ * Caches the spots found by Gowalla.findSpots(), so that repeated or 
+ * overlapping searches don't each make a request.  A search is answered 
+ * from the cache when either:
+ * <ul>
+ * <li>An identical search (same everything, with location rounded to the 
+ *     configured precision) was made recently, or</li>
+ * <li>The search circle lies entirely within the circle of a recent, 
+ *     unsaturated search with the same category, featured, user and 
+ *     ordering options.  The cached spots are cut down by distance.  A 
+ *     single request search is only answered this way if fewer spots are
+ *     left than one request returns, since otherwise there's no telling 
+ *     which of them Gowalla would have returned.</li>
+ * </ul>
+ * A search is saturated when it may not have returned every spot in its
+ * circle: it hit its spot limit, or was a single request that returned as
+ * many spots as Gowalla will return at once.  Entries are only used until
+ * they expire, and the least recently used entries are dropped to stay 
+ * within the maximum size.  Thread safe.
+ * 
+ * To find containing searches without looking at every entry, each one is 
+ * filed under the geohash of its center, at a precision whose cells are at 
+ * least as big as its radius.  A containing search is centered within its 
+ * radius of the new search's center, so only that cell and its neighbors need
+ * to be looked at, for each precision in use.
+ * 
+ * @author Todd Ginsberg
+ */
+public class SpotQueryCache {
+
+	private final long timeToLiveMillis;
+	private final int maximumEntries;
+	private final int locationPrecision;
+	private final int saturation;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final Map<String, List<Entry>> areas = new HashMap<String, List<Entry>>();
+	private final int[] areasAtPrecision = new int[GeoHash.MAX_PRECISION + 1];
+	
+	private long hits = 0;
+	private long containedHits = 0;
+	private long misses = 0;
+	private long savedRequests = 0;
+	
+	/**
+	 * Create a cache rounding locations to 5 decimal places (about a meter),
+	 * which considers 40 spots from a single request to be saturated.
+	 * 
+	 * @param timeToLive How long results may be used for.
+	 * @param unit Unit of timeToLive.
+	 * @param maximumEntries How many searches to remember.
+	 */
+	public SpotQueryCache(final long timeToLive, final TimeUnit unit, final int maximumEntries) {
+		this(timeToLive, unit, maximumEntries, 5, SpotTilePlanner.DEFAULT_SATURATION);
+	}
+	
+	/**
+	 * @param timeToLive How long results may be used for.
+	 * @param unit Unit of timeToLive.
+	 * @param maximumEntries How many searches to remember.
+	 * @param locationPrecision Decimal places to round locations to when matching identical searches.
+	 * @param saturation How many spots a single request returns at most.
+	 */
+	public SpotQueryCache(final long timeToLive, final TimeUnit unit, final int maximumEntries, final int locationPrecision, final int saturation) {
+		super();
+		this.timeToLiveMillis = unit.toMillis(timeToLive);
+		this.maximumEntries = Math.max(1, maximumEntries);
+		this.locationPrecision = locationPrecision;
+		this.saturation = Math.max(1, saturation);
+	}
+	
+	/**
+	 * Find the spots for a search, if the cache can answer it.
+	 * 
+	 * @return The spots, unfiltered and unsorted, or null if Gowalla must be asked.
+	 */
+	public synchronized List<SimpleSpot> lookup(final SpotCriteria criteria) {
+		final long now = System.currentTimeMillis();
+		final Entry exact = entries.get(exactKey(criteria));
+		if(exact != null && exact.expires > now) {
+			hits++;
+			savedRequests += exact.requests;
+			return new ArrayList<SimpleSpot>(exact.spots);
+		}
+		
+		final String optionsKey = optionsKey(criteria);
+		final GeoPoint center = criteria.getLocation().getGeoLocation();
+		final int radius = criteria.getRadiusMeters();
+		final Entry containing = findContaining(optionsKey, center, radius, now);
+		if(containing != null) {
+			final List<SimpleSpot> spots = new ArrayList<SimpleSpot>();
+			for(SimpleSpot spot : containing.spots) {
+				if(center.getDistanceMeters(spot.getGeoLocation()) <= radius) {
+					spots.add(spot);
+				}
+			}
+			if(criteria.getPagingSupport() == PagingSupport.SINGLE_REQUEST_ONLY && spots.size() > saturation) {
+				misses++;
+				return null;
+			}
+			// Touch it, so it counts as recently used.
+			entries.get(containing.exactKey);
+			hits++;
+			containedHits++;
+			savedRequests++;
+			return spots;
+		}
+		misses++;
+		return null;
+	}
+	
+	/**
+	 * Look through the areas that could hold a search containing the circle,
+	 * dropping expired entries found along the way.
+	 */
+	private Entry findContaining(final String optionsKey, final GeoPoint center, final int radius, final long now) {
+		final double latitude = center.getLatitude().doubleValue();
+		final double longitude = center.getLongitude().doubleValue();
+		final List<Entry> expired = new ArrayList<Entry>();
+		Entry found = null;
+		for(int precision = 0; precision <= GeoHash.MAX_PRECISION && found == null; precision++) {
+			if(areasAtPrecision[precision] == 0) {
+				continue;
+			}
+			final String cell = precision == 0 ? "" : GeoHash.encode(latitude, longitude, precision);
+			found = findContaining(areaKey(optionsKey, cell), center, radius, now, expired);
+			if(precision > 0) {
+				for(String neighbor : GeoHash.neighbors(cell)) {
+					if(found == null && neighbor != null) {
+						found = findContaining(areaKey(optionsKey, neighbor), center, radius, now, expired);
+					}
+				}
+			}
+		}
+		for(Entry entry : expired) {
+			entries.remove(entry.exactKey);
+			unfile(entry);
+		}
+		return found;
+	}
+	
+	private Entry findContaining(final String areaKey, final GeoPoint center, final int radius, final long now, final List<Entry> expired) {
+		final List<Entry> area = areas.get(areaKey);
+		if(area != null) {
+			for(Entry entry : area) {
+				if(entry.expires <= now) {
+					expired.add(entry);
+				} else if(!entry.saturated && entry.center.getDistanceMeters(center) + radius <= entry.radius) {
+					return entry;
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Remember the spots Gowalla returned for a search.
+	 * 
+	 * @param criteria The search.
+	 * @param spots Every spot returned, before filtering or sorting.
+	 * @param requests How many requests it took to find them.
+	 */
+	public synchronized void store(final SpotCriteria criteria, final Collection<SimpleSpot> spots, final int requests) {
+		final Entry entry = new Entry();
+		entry.exactKey = exactKey(criteria);
+		entry.optionsKey = optionsKey(criteria);
+		entry.center = criteria.getLocation().getGeoLocation();
+		entry.radius = criteria.getRadiusMeters();
+		entry.spots = new ArrayList<SimpleSpot>(spots);
+		entry.requests = Math.max(1, requests);
+		entry.saturated = (criteria.getNumberOfSpots() != 0 && spots.size() >= criteria.getNumberOfSpots()) ||
+			(criteria.getPagingSupport() == PagingSupport.SINGLE_REQUEST_ONLY && spots.size() >= saturation);
+		entry.expires = System.currentTimeMillis() + timeToLiveMillis;
+		final double latitude = entry.center.getLatitude().doubleValue();
+		final int precision = GeoHash.precisionFor(latitude, entry.radius);
+		entry.precision = precision;
+		entry.areaKey = areaKey(entry.optionsKey, precision == 0 ? "" : GeoHash.encode(latitude, entry.center.getLongitude().doubleValue(), precision));
+		final Entry replaced = entries.put(entry.exactKey, entry);
+		if(replaced != null) {
+			unfile(replaced);
+		}
+		file(entry);
+		while(entries.size() > maximumEntries) {
+			unfile(entries.remove(entries.keySet().iterator().next()));
+		}
+	}
+	
+	private void file(final Entry entry) {
+		List<Entry> area = areas.get(entry.areaKey);
+		if(area == null) {
+			area = new ArrayList<Entry>(2);
+			areas.put(entry.areaKey, area);
+		}
+		area.add(entry);
+		areasAtPrecision[entry.precision]++;
+	}
+	
+	private void unfile(final Entry entry) {
+		final List<Entry> area = areas.get(entry.areaKey);
+		if(area != null && area.remove(entry)) {
+			areasAtPrecision[entry.precision]--;
+			if(area.isEmpty()) {
+				areas.remove(entry.areaKey);
+			}
+		}
+	}
+	
+	private static String areaKey(final String optionsKey, final String geoHash) {
+		return optionsKey + "#" + geoHash;
+	}
+	
+	/**
+	 * Forget everything.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		areas.clear();
+		Arrays.fill(areasAtPrecision, 0);
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * @return Searches answered from the cache, identical or contained.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return Searches answered by cutting down a larger cached search.
+	 */
+	public synchronized long getContainedHits() {
+		return containedHits;
+	}
+	
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * @return Hits as a fraction of all lookups, or zero if there have been none.
+	 */
+	public synchronized double getHitRatio() {
+		final long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double)hits / lookups;
+	}
+	
+	/**
+	 * @return Requests not made because of this cache.  An identical search saves 
+	 * as many requests as the original took, a contained search saves at least one.
+	 */
+	public synchronized long getSavedRequests() {
+		return savedRequests;
+	}
+	
+	/**
+	 * Everything that changes which spots Gowalla returns, other than the circle.
+	 */
+	private String optionsKey(final SpotCriteria criteria) {
+		return String.format("%b|%s|%s|%s|%s|%s", 
+				criteria.isFeatured(),
+				criteria.getParentCategoryId(),
+				criteria.getUserVisited(),
+				criteria.getUserCreated(),
+				criteria.getUserBookmarked(),
+				criteria.getOrderBy());
+	}
+	
+	/**
+	 * Everything that changes which spots Gowalla returns, with the location rounded.
+	 */
+	private String exactKey(final SpotCriteria criteria) {
+		final GeoPoint location = criteria.getLocation().getGeoLocation();
+		return String.format("%s|%s|%s|%d|%d|%s", 
+				optionsKey(criteria),
+				round(location.getLatitude()),
+				round(location.getLongitude()),
+				criteria.getRadiusMeters(),
+				criteria.getNumberOfSpots(),
+				criteria.getPagingSupport());
+	}
+	
+	private String round(final BigDecimal value) {
+		return value.setScale(locationPrecision, RoundingMode.HALF_UP).toPlainString();
+	}
+	
+	/**
+	 * A remembered search.
+	 */
+	private static class Entry {
+		private String exactKey;
+		private String optionsKey;
+		private String areaKey;
+		private int precision;
+		private GeoPoint center;
+		private int radius;
+		private List<SimpleSpot> spots;
+		private int requests;
+		private boolean saturated;
+		private long expires;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("SpotQueryCache[entries=%d, hits=%d, containedHits=%d, misses=%d, savedRequests=%d]", 
+				entries.size(), hits, containedHits, misses, savedRequests);
+	}
+}
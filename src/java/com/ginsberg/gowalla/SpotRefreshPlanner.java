@@ -0,0 +1,233 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ginsberg.gowalla.dto.FullSpot;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+import com.ginsberg.gowalla.dto.SpotEvent;
+import com.ginsberg.gowalla.dto.SpotPhoto;
+import com.ginsberg.gowalla.exception.GowallaException;
+import com.ginsberg.gowalla.rate.RequestPriority;
+
+/**
+ * Decides which spots' details need fetching again, by comparing the counters
+ * on the SimpleSpots a search returns against the ones seen last time.  Only 
+ * spots whose counters moved are fetched, so refreshing a few thousand spots
+ * whose details rarely change costs a few requests rather than thousands.
+ * 
+ * Which details are fetched depends on which counters moved:
+ * <ul>
+ * <li>SPOT: any of checkins, users, items or photos.</li>
+ * <li>EVENTS: checkins or items.</li>
+ * <li>PHOTOS: photos.</li>
+ * </ul>
+ * A spot not seen before has every detail fetched.  Spots are fetched with 
+ * batch priority, around the entity cache and spot store, and what's fetched
+ * replaces what they hold.
+ * 
+ * Example:
+ * <pre>
+ * {@code
+ * SpotRefreshPlanner planner = new SpotRefreshPlanner(gowalla, SpotRefreshPlanner.Detail.SPOT, SpotRefreshPlanner.Detail.PHOTOS);
+ * // Every so often...
+ * planner.refresh(gowalla.findSpots(criteria), new SpotRefreshPlanner.Listener() {
+ *     public void spotRefreshed(SimpleSpot summary, FullSpot spot, List<SpotEvent> events, List<SpotPhoto> photos) {
+ *         // Store them somewhere.
+ *     }
+ * });
+ * }
+ * </pre>
+ * 
+ * @author Todd Ginsberg
+ */
+public class SpotRefreshPlanner {
+
+	/**
+	 * The details that can be fetched for a spot.
+	 */
+	public enum Detail {
+		SPOT, EVENTS, PHOTOS
+	}
+	
+	/**
+	 * Receives the details fetched for spots whose counters moved.
+	 */
+	public interface Listener {
+		/**
+		 * Called from the thread running the refresh.  Details that weren't 
+		 * fetched are null, as are ones for a spot that no longer exists.
+		 */
+		public void spotRefreshed(final SimpleSpot summary, final FullSpot spot, final List<SpotEvent> events, final List<SpotPhoto> photos);
+	}
+	
+	private static final int CHECKINS = 0;
+	private static final int USERS = 1;
+	private static final int ITEMS = 2;
+	private static final int PHOTOS = 3;
+	
+	private final Gowalla gowalla;
+	private final Set<Detail> details;
+	private final Map<Integer, int[]> lastSeen = new HashMap<Integer, int[]>();
+	private long refreshed = 0;
+	private long unchanged = 0;
+	
+	/**
+	 * @param gowalla The Gowalla instance to make requests with.
+	 * @param details The details to keep fresh.  Every detail if none are given.
+	 */
+	public SpotRefreshPlanner(final Gowalla gowalla, final Detail... details) {
+		super();
+		this.gowalla = gowalla;
+		final Set<Detail> wanted = EnumSet.noneOf(Detail.class);
+		Collections.addAll(wanted, details);
+		this.details = Collections.unmodifiableSet(wanted.isEmpty() ? EnumSet.allOf(Detail.class) : wanted);
+	}
+	
+	/**
+	 * @return The details this planner keeps fresh.
+	 */
+	public Set<Detail> getDetails() {
+		return details;
+	}
+	
+	/**
+	 * Work out which details need fetching for a spot, without remembering its counters.
+	 * 
+	 * @return The details to fetch, empty if its counters haven't moved.
+	 */
+	public synchronized Set<Detail> plan(final SimpleSpot spot) {
+		final int[] last = lastSeen.get(spot.getId());
+		if(last == null) {
+			return EnumSet.copyOf(details);
+		}
+		final boolean checkins = last[CHECKINS] != spot.getCheckinsCount();
+		final boolean users = last[USERS] != spot.getUsersCount();
+		final boolean items = last[ITEMS] != spot.getItemsCount();
+		final boolean photos = last[PHOTOS] != spot.getPhotosCount();
+		final Set<Detail> plan = EnumSet.noneOf(Detail.class);
+		if(checkins || users || items || photos) {
+			plan.add(Detail.SPOT);
+		}
+		if(checkins || items) {
+			plan.add(Detail.EVENTS);
+		}
+		if(photos) {
+			plan.add(Detail.PHOTOS);
+		}
+		plan.retainAll(details);
+		return plan;
+	}
+	
+	/**
+	 * Remember a spot's counters as the ones its details are up to date with.
+	 */
+	public synchronized void seen(final SimpleSpot spot) {
+		lastSeen.put(spot.getId(), new int[] { 
+				spot.getCheckinsCount(), spot.getUsersCount(), spot.getItemsCount(), spot.getPhotosCount() });
+	}
+	
+	/**
+	 * Forget a spot, so its details are all fetched next time it's seen.
+	 */
+	public synchronized void forget(final int id) {
+		lastSeen.remove(id);
+	}
+	
+	/**
+	 * Fetch the details of each spot whose counters moved, hand them to the 
+	 * listener, and remember the new counters.  A spot's counters are only 
+	 * remembered once its details have been handed out, so if this stops on 
+	 * an error the rest are fetched next time.
+	 * 
+	 * @return How many spots were refreshed.
+	 * @throws GowallaException when details cannot be fetched.
+	 */
+	public int refresh(final Collection<? extends SimpleSpot> spots, final Listener listener) throws GowallaException {
+		int count = 0;
+		for(SimpleSpot summary : spots) {
+			final Set<Detail> plan = plan(summary);
+			if(plan.isEmpty()) {
+				synchronized(this) {
+					unchanged++;
+				}
+				continue;
+			}
+			final FullSpot spot = plan.contains(Detail.SPOT) ? gowalla.fetchSpot(summary.getId(), RequestPriority.BATCH) : null;
+			final List<SpotEvent> events = plan.contains(Detail.EVENTS) ? gowalla.getSpotEvents(summary.getId(), RequestPriority.BATCH) : null;
+			final List<SpotPhoto> photos = plan.contains(Detail.PHOTOS) ? gowalla.getSpotPhotos(summary.getId(), RequestPriority.BATCH) : null;
+			listener.spotRefreshed(summary, spot, events, photos);
+			// Next time is compared against a summary, so remember the summary's counters.
+			seen(summary);
+			synchronized(this) {
+				refreshed++;
+			}
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * @return How many spots this planner knows the counters of.
+	 */
+	public synchronized int size() {
+		return lastSeen.size();
+	}
+	
+	/**
+	 * @return How many spots have been refreshed.
+	 */
+	public synchronized long getRefreshed() {
+		return refreshed;
+	}
+	
+	/**
+	 * @return How many spots were skipped because their counters hadn't moved.
+	 */
+	public synchronized long getUnchanged() {
+		return unchanged;
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("SpotRefreshPlanner[details=%s, spots=%d, refreshed=%d, unchanged=%d]", 
+				details, size(), getRefreshed(), getUnchanged());
+	}
+}
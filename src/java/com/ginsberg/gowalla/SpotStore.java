@@ -0,0 +1,735 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.ginsberg.gowalla.dto.Address;
+import com.ginsberg.gowalla.dto.FullSpot;
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+import com.ginsberg.gowalla.dto.codec.BinaryCodec;
+import com.ginsberg.gowalla.exception.GowallaException;
+
+/**
+ * Keeps spots on disk, in memory mapped files, so a restarted process can 
+ * answer for the spots it has already seen without asking Gowalla again, and 
+ * without reading all of them back onto the heap first.
+ * 
+ * A store is a directory of three files:
+ *  spots.dat   - One fixed size record per spot, with its numbers and where its strings are.
+ *  strings.dat - The strings, one after another.
+ *  spots.idx   - A hash table from spot id to record.  If it's missing, or doesn't
+ *                agree with spots.dat, it is rebuilt from the records on open.
+ * 
+ * Opening a store only maps the files.  A spot is only turned into an object 
+ * when it's asked for.  The lists a FullSpot carries (categories, founders, 
+ * top 10, creator and websites) are kept with the strings, written by 
+ * BinaryCodec, and only read back by getFullSpot.
+ * 
+ * Storing a spot again rewrites its record in place.  Strings that changed are
+ * appended, and the old ones are left behind.
+ * 
+ * Thread safe.  Only one process should have a store open at a time.
+ * 
+ * @author Todd Ginsberg
+ */
+public class SpotStore {
+
+	private static final int MAGIC = 0x47535053;
+	private static final int VERSION = 2;
+	private static final int HEADER = 32;
+	
+	// Header fields.  Every file starts with the magic number and version.
+	private static final int H_MAGIC = 0;
+	private static final int H_VERSION = 4;
+	private static final int H_RECORD_SIZE = 8;
+	private static final int H_RECORDS = 12;
+	private static final int H_LIVE = 16;
+	private static final int H_STRINGS_END = 8;
+	private static final int H_CAPACITY = 8;
+	private static final int H_ENTRIES = 12;
+	
+	// Record fields.
+	private static final int ID = 0;
+	private static final int FLAGS = 4;
+	private static final int STORED_AT = 8;
+	private static final int LATITUDE = 16;
+	private static final int LONGITUDE = 24;
+	private static final int CHECKINS = 32;
+	private static final int USERS = 36;
+	private static final int ITEMS = 40;
+	private static final int PHOTOS = 44;
+	private static final int TRENDING_LEVEL = 48;
+	private static final int RADIUS_METERS = 52;
+	private static final int MAX_ITEMS = 56;
+	private static final int CREATED_AT = 60;
+	private static final int NAME = 68;
+	private static final int URL = 72;
+	private static final int IMAGE_URL = 76;
+	private static final int LOCALITY = 80;
+	private static final int REGION = 84;
+	private static final int DESCRIPTION = 88;
+	private static final int TWITTER = 92;
+	private static final int EXTRAS = 96;
+	private static final int RECORD_SIZE = 100;
+	
+	private static final int FULL = 1;
+	private static final int STRICT_RADIUS = 2;
+	private static final int MERGED = 4;
+	private static final int REMOVED = 8;
+	private static final int NOT_FOUND = -1;
+	private static final int NO_STRING = 0;
+	private static final long NO_DATE = Long.MIN_VALUE;
+	
+	private final File directory;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Mapped records;
+	private final Mapped strings;
+	private final Mapped index;
+	private int recordCount;
+	private int live;
+	private int stringsEnd;
+	private int capacity;
+	private volatile long maxAgeMillis = TimeUnit.DAYS.toMillis(1);
+	private boolean closed = false;
+	
+	/**
+	 * Open the store in a directory, creating it if there isn't one yet.
+	 */
+	public SpotStore(final File directory) throws GowallaException {
+		super();
+		this.directory = directory;
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new GowallaException("Cannot create spot store: " + directory);
+		}
+		Mapped r = null;
+		Mapped s = null;
+		Mapped i = null;
+		try {
+			r = new Mapped(new File(directory, "spots.dat"), HEADER + 1024 * RECORD_SIZE);
+			s = new Mapped(new File(directory, "strings.dat"), 64 * 1024);
+			i = new Mapped(new File(directory, "spots.idx"), HEADER + 2048 * 8);
+		} catch(IOException e) {
+			closeQuietly(r, s, i);
+			throw new GowallaException("Cannot open spot store: " + directory, e);
+		}
+		records = r;
+		strings = s;
+		index = i;
+		try {
+			open();
+		} catch(IOException e) {
+			closeQuietly(r, s, i);
+			throw new GowallaException("Cannot open spot store: " + directory, e);
+		}
+	}
+	
+	private void open() throws IOException {
+		if(records.created || strings.created) {
+			if(!records.created || !strings.created) {
+				throw new IOException("Spot store is missing a file");
+			}
+			writeHeader(records.buffer);
+			records.buffer.putInt(H_RECORD_SIZE, RECORD_SIZE);
+			writeHeader(strings.buffer);
+			strings.buffer.putInt(H_STRINGS_END, HEADER);
+		}
+		if(!hasHeader(records.buffer) || !hasHeader(strings.buffer) || records.buffer.getInt(H_RECORD_SIZE) != RECORD_SIZE) {
+			throw new IOException("Not a spot store, or from another version");
+		}
+		recordCount = records.buffer.getInt(H_RECORDS);
+		live = records.buffer.getInt(H_LIVE);
+		stringsEnd = strings.buffer.getInt(H_STRINGS_END);
+		
+		final ByteBuffer idx = index.buffer;
+		capacity = hasHeader(idx) ? idx.getInt(H_CAPACITY) : 0;
+		if(capacity <= 0 || Integer.bitCount(capacity) != 1 || HEADER + capacity * 8L > idx.capacity() 
+				|| idx.getInt(H_ENTRIES) != recordCount) {
+			rebuildIndex(Math.max(2048, Integer.highestOneBit(Math.max(1, recordCount)) * 4));
+		}
+	}
+	
+	/**
+	 * Spots stored longer ago than this are treated as missing.  Defaults to
+	 * one day.  Zero keeps them forever.
+	 */
+	public void setMaxAge(final long maxAge, final TimeUnit unit) {
+		this.maxAgeMillis = unit.toMillis(maxAge);
+	}
+	
+	public long getMaxAge(final TimeUnit unit) {
+		return unit.convert(maxAgeMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Store a spot, replacing what was stored for its id.  FullSpots keep 
+	 * everything; SimpleSpots keep what a search returns.
+	 */
+	public void put(final SimpleSpot spot) throws GowallaException {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			write(spot);
+		} catch(IOException e) {
+			throw new GowallaException("Cannot store spot " + spot.getId(), e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Store a number of spots at once.
+	 */
+	public void putAll(final Collection<? extends SimpleSpot> spots) throws GowallaException {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			for(SimpleSpot spot : spots) {
+				write(spot);
+			}
+		} catch(IOException e) {
+			throw new GowallaException("Cannot store spots", e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return The spot, as a FullSpot if one was stored, or null if there's no 
+	 * spot with this id or it's older than the maximum age.
+	 */
+	public SimpleSpot get(final int id) throws GowallaException {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			final int record = findCurrent(id);
+			return record == NOT_FOUND ? null : read(record);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return The spot, or null if there's no FullSpot stored with this id, or it's 
+	 * older than the maximum age.
+	 */
+	public FullSpot getFullSpot(final int id) throws GowallaException {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			final int record = findCurrent(id);
+			if(record == NOT_FOUND || (records.buffer.getInt(offset(record) + FLAGS) & FULL) == 0) {
+				return null;
+			}
+			return (FullSpot)read(record);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return true if a spot with this id is stored, however old.
+	 */
+	public boolean contains(final int id) {
+		return getStoredAt(id) != 0;
+	}
+	
+	/**
+	 * @return When the spot was stored, in milliseconds, or 0 if it isn't.
+	 */
+	public long getStoredAt(final int id) {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			final int record = find(id);
+			if(record == NOT_FOUND) {
+				return 0;
+			}
+			final int at = offset(record);
+			return (records.buffer.getInt(at + FLAGS) & REMOVED) != 0 ? 0 : records.buffer.getLong(at + STORED_AT);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Forget a spot.  Its record is kept for the id, in case it comes back.
+	 * @return true if it was stored.
+	 */
+	public boolean remove(final int id) {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			final int record = find(id);
+			if(record == NOT_FOUND) {
+				return false;
+			}
+			final int at = offset(record);
+			final int flags = records.buffer.getInt(at + FLAGS);
+			if((flags & REMOVED) != 0) {
+				return false;
+			}
+			records.buffer.putInt(at + FLAGS, flags | REMOVED);
+			records.buffer.putInt(H_LIVE, --live);
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return The ids of every stored spot, in the order they were first stored.
+	 */
+	public int[] getIds() {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			final int[] ids = new int[live];
+			int found = 0;
+			for(int record = 0; record < recordCount; record++) {
+				final int at = offset(record);
+				if((records.buffer.getInt(at + FLAGS) & REMOVED) == 0) {
+					ids[found++] = records.buffer.getInt(at + ID);
+				}
+			}
+			return found == ids.length ? ids : Arrays.copyOf(ids, found);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * @return The number of spots stored.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return live;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	public File getDirectory() {
+		return directory;
+	}
+	
+	/**
+	 * Write everything out to disk now, instead of whenever the operating system gets to it.
+	 */
+	public void force() {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			strings.buffer.force();
+			records.buffer.force();
+			index.buffer.force();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Write everything out and close the files.  The store can't be used after this.
+	 */
+	public void close() throws GowallaException {
+		lock.writeLock().lock();
+		try {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			strings.close();
+			records.close();
+			index.close();
+		} catch(IOException e) {
+			throw new GowallaException("Cannot close spot store: " + directory, e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	private void write(final SimpleSpot spot) throws IOException {
+		int record = find(spot.getId());
+		final boolean added = record == NOT_FOUND;
+		if(added) {
+			record = recordCount;
+			records.ensure(offset(record + 1L));
+		}
+		final int at = offset(record);
+		final ByteBuffer r = records.buffer;
+		final boolean wasRemoved = !added && (r.getInt(at + FLAGS) & REMOVED) != 0;
+		
+		// Strings go first, so a record never points past the end of the strings file.
+		final Address address = spot.getAddress();
+		final int name = writeString(spot.getName(), added ? NO_STRING : r.getInt(at + NAME));
+		final int url = writeString(spot.getUrl(), added ? NO_STRING : r.getInt(at + URL));
+		final int imageUrl = writeString(spot.getImageUrl(), added ? NO_STRING : r.getInt(at + IMAGE_URL));
+		final int locality = writeString(address == null ? null : address.getLocality(), added ? NO_STRING : r.getInt(at + LOCALITY));
+		final int region = writeString(address == null ? null : address.getRegion(), added ? NO_STRING : r.getInt(at + REGION));
+		int description = NO_STRING;
+		int twitter = NO_STRING;
+		int extras = NO_STRING;
+		int maxItems = 0;
+		long createdAt = NO_DATE;
+		int flags = spot.isStrictRadius() ? STRICT_RADIUS : 0;
+		if(spot instanceof FullSpot) {
+			final FullSpot full = (FullSpot)spot;
+			description = writeString(full.getDescription(), added ? NO_STRING : r.getInt(at + DESCRIPTION));
+			twitter = writeString(full.getTwitterUsername(), added ? NO_STRING : r.getInt(at + TWITTER));
+			extras = writeBytes(extras(full), added ? NO_STRING : r.getInt(at + EXTRAS));
+			maxItems = full.getMaxItemsCount();
+			createdAt = full.getCreatedAt() == null ? NO_DATE : full.getCreatedAt().getTime();
+			flags |= FULL | (full.isMerged() ? MERGED : 0);
+		}
+		
+		final GeoPoint location = spot.getGeoLocation();
+		r.putInt(at + ID, spot.getId());
+		r.putInt(at + FLAGS, flags);
+		r.putLong(at + STORED_AT, System.currentTimeMillis());
+		r.putDouble(at + LATITUDE, location.getLatitude().doubleValue());
+		r.putDouble(at + LONGITUDE, location.getLongitude().doubleValue());
+		r.putInt(at + CHECKINS, spot.getCheckinsCount());
+		r.putInt(at + USERS, spot.getUsersCount());
+		r.putInt(at + ITEMS, spot.getItemsCount());
+		r.putInt(at + PHOTOS, spot.getPhotosCount());
+		r.putInt(at + TRENDING_LEVEL, spot.getTrendingLevel());
+		r.putInt(at + RADIUS_METERS, spot.getRadiusMeters());
+		r.putInt(at + MAX_ITEMS, maxItems);
+		r.putLong(at + CREATED_AT, createdAt);
+		r.putInt(at + NAME, name);
+		r.putInt(at + URL, url);
+		r.putInt(at + IMAGE_URL, imageUrl);
+		r.putInt(at + LOCALITY, locality);
+		r.putInt(at + REGION, region);
+		r.putInt(at + DESCRIPTION, description);
+		r.putInt(at + TWITTER, twitter);
+		r.putInt(at + EXTRAS, extras);
+		
+		if(added) {
+			if((recordCount + 1) * 2L > capacity) {
+				rebuildIndex(capacity * 2);
+			}
+			insert(spot.getId(), record);
+			recordCount++;
+			r.putInt(H_RECORDS, recordCount);
+			index.buffer.putInt(H_ENTRIES, recordCount);
+		}
+		if(added || wasRemoved) {
+			r.putInt(H_LIVE, ++live);
+		}
+	}
+	
+	private SimpleSpot read(final int record) throws GowallaException {
+		final ByteBuffer r = records.buffer;
+		final int at = offset(record);
+		final int flags = r.getInt(at + FLAGS);
+		final SimpleSpot spot = (flags & FULL) != 0 ? new FullSpot() : new SimpleSpot();
+		spot.setId(r.getInt(at + ID));
+		spot.setLat(Double.toString(r.getDouble(at + LATITUDE)));
+		spot.setLng(Double.toString(r.getDouble(at + LONGITUDE)));
+		spot.setStrictRadius((flags & STRICT_RADIUS) != 0);
+		spot.setCheckinsCount(r.getInt(at + CHECKINS));
+		spot.setUsersCount(r.getInt(at + USERS));
+		spot.setItemsCount(r.getInt(at + ITEMS));
+		spot.setPhotosCount(r.getInt(at + PHOTOS));
+		spot.setTrendingLevel(r.getInt(at + TRENDING_LEVEL));
+		spot.setRadiusMeters(r.getInt(at + RADIUS_METERS));
+		spot.setName(readString(r.getInt(at + NAME)));
+		spot.setUrl(readString(r.getInt(at + URL)));
+		spot.setImageUrl(readString(r.getInt(at + IMAGE_URL)));
+		final String locality = readString(r.getInt(at + LOCALITY));
+		final String region = readString(r.getInt(at + REGION));
+		if(locality != null || region != null) {
+			final Address address = new Address();
+			address.setLocality(locality);
+			address.setRegion(region);
+			spot.setAddress(address);
+		}
+		if(spot instanceof FullSpot) {
+			final FullSpot full = (FullSpot)spot;
+			full.setMerged((flags & MERGED) != 0);
+			full.setMaxItemsCount(r.getInt(at + MAX_ITEMS));
+			final long createdAt = r.getLong(at + CREATED_AT);
+			full.setCreatedAt(createdAt == NO_DATE ? null : new Date(createdAt));
+			full.setDescription(readString(r.getInt(at + DESCRIPTION)));
+			full.setTwitterUsername(readString(r.getInt(at + TWITTER)));
+			readExtras(full, r.getInt(at + EXTRAS));
+		}
+		return spot;
+	}
+	
+	/**
+	 * @return The spot's record, or NOT_FOUND if it isn't stored, was removed, or is too old.
+	 */
+	private int findCurrent(final int id) {
+		final int record = find(id);
+		if(record == NOT_FOUND) {
+			return NOT_FOUND;
+		}
+		final int at = offset(record);
+		if((records.buffer.getInt(at + FLAGS) & REMOVED) != 0) {
+			return NOT_FOUND;
+		}
+		final long maxAge = maxAgeMillis;
+		if(maxAge > 0 && records.buffer.getLong(at + STORED_AT) < System.currentTimeMillis() - maxAge) {
+			return NOT_FOUND;
+		}
+		return record;
+	}
+	
+	/**
+	 * @return The record for an id, or NOT_FOUND.
+	 */
+	private int find(final int id) {
+		final ByteBuffer idx = index.buffer;
+		final int mask = capacity - 1;
+		for(int slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+			final int at = HEADER + slot * 8;
+			final int record = idx.getInt(at + 4);
+			if(record == 0) {
+				return NOT_FOUND;
+			}
+			if(idx.getInt(at) == id) {
+				return record - 1;
+			}
+		}
+	}
+	
+	private void insert(final int id, final int record) {
+		final ByteBuffer idx = index.buffer;
+		final int mask = capacity - 1;
+		int slot = hash(id) & mask;
+		while(idx.getInt(HEADER + slot * 8 + 4) != 0) {
+			slot = (slot + 1) & mask;
+		}
+		idx.putInt(HEADER + slot * 8, id);
+		idx.putInt(HEADER + slot * 8 + 4, record + 1);
+	}
+	
+	/**
+	 * Start the index over with room for this many slots, and fill it from the records.
+	 */
+	private void rebuildIndex(final int slots) throws IOException {
+		index.ensure(HEADER + slots * 8L);
+		final ByteBuffer idx = index.buffer;
+		for(int at = HEADER; at < HEADER + slots * 8; at += 8) {
+			idx.putLong(at, 0);
+		}
+		writeHeader(idx);
+		idx.putInt(H_CAPACITY, slots);
+		capacity = slots;
+		for(int record = 0; record < recordCount; record++) {
+			insert(records.buffer.getInt(offset(record) + ID), record);
+		}
+		idx.putInt(H_ENTRIES, recordCount);
+	}
+	
+	private int writeString(final String value, final int previous) throws IOException {
+		return value == null ? NO_STRING : writeBytes(value.getBytes("UTF-8"), previous);
+	}
+	
+	/**
+	 * Append bytes to the strings file, unless they're the same as the ones already there.
+	 * @return Where they are.
+	 */
+	private int writeBytes(final byte[] bytes, final int previous) throws IOException {
+		if(previous != NO_STRING && Arrays.equals(bytes, readBytes(previous))) {
+			return previous;
+		}
+		final long end = (long)stringsEnd + 4 + bytes.length;
+		if(end > Integer.MAX_VALUE) {
+			throw new IOException("Spot store strings file is full");
+		}
+		strings.ensure(end);
+		final ByteBuffer s = strings.buffer.duplicate();
+		s.position(stringsEnd);
+		s.putInt(bytes.length);
+		s.put(bytes);
+		final int at = stringsEnd;
+		stringsEnd = (int)end;
+		strings.buffer.putInt(H_STRINGS_END, stringsEnd);
+		return at;
+	}
+	
+	private byte[] readBytes(final int at) {
+		final ByteBuffer s = strings.buffer.duplicate();
+		s.position(at);
+		final byte[] bytes = new byte[s.getInt()];
+		s.get(bytes);
+		return bytes;
+	}
+	
+	private String readString(final int at) {
+		if(at == NO_STRING) {
+			return null;
+		}
+		try {
+			return new String(readBytes(at), "UTF-8");
+		} catch(IOException e) {
+			// Every JVM has UTF-8.
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * @return The lists, written as a FullSpot with nothing else in it.
+	 */
+	private static byte[] extras(final FullSpot spot) {
+		final FullSpot extras = new FullSpot();
+		extras.setCategories(spot.getCategories());
+		extras.setWebsites(spot.getWebsites());
+		extras.setCreator(spot.getCreator());
+		extras.setTop10(spot.getTop10());
+		extras.setFounders(spot.getFounders());
+		return BinaryCodec.encode(extras);
+	}
+	
+	private void readExtras(final FullSpot spot, final int at) throws GowallaException {
+		if(at == NO_STRING) {
+			return;
+		}
+		final FullSpot extras;
+		try {
+			extras = BinaryCodec.decode(readBytes(at), FullSpot.class);
+		} catch(IllegalArgumentException e) {
+			throw new GowallaException("Cannot read stored spot " + spot.getId(), e);
+		}
+		spot.setCategories(extras.getCategories());
+		spot.setWebsites(extras.getWebsites());
+		spot.setCreator(extras.getCreator());
+		spot.setTop10(extras.getTop10());
+		spot.setFounders(extras.getFounders());
+	}
+	
+	private void checkOpen() {
+		if(closed) {
+			throw new IllegalStateException("Spot store is closed: " + directory);
+		}
+	}
+	
+	private static int offset(final int record) {
+		return HEADER + record * RECORD_SIZE;
+	}
+	
+	private static long offset(final long record) {
+		return HEADER + record * RECORD_SIZE;
+	}
+	
+	private static int hash(final int id) {
+		final int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	
+	private static void writeHeader(final ByteBuffer buffer) {
+		buffer.putInt(H_MAGIC, MAGIC);
+		buffer.putInt(H_VERSION, VERSION);
+	}
+	
+	private static boolean hasHeader(final ByteBuffer buffer) {
+		return buffer.getInt(H_MAGIC) == MAGIC && buffer.getInt(H_VERSION) == VERSION;
+	}
+	
+	private static void closeQuietly(final Mapped... files) {
+		for(Mapped file : files) {
+			if(file != null) {
+				try {
+					file.close();
+				} catch(IOException e) {
+					// Already failing.
+				}
+			}
+		}
+	}
+	
+	/**
+	 * One file, mapped whole.  It grows by mapping it again, larger.
+	 */
+	private static class Mapped {
+		private final RandomAccessFile file;
+		private final FileChannel channel;
+		private final boolean created;
+		private MappedByteBuffer buffer;
+		
+		private Mapped(final File path, final int initialSize) throws IOException {
+			created = !path.exists() || path.length() < HEADER;
+			file = new RandomAccessFile(path, "rw");
+			channel = file.getChannel();
+			if(file.length() > Integer.MAX_VALUE) {
+				throw new IOException("Spot store file is too large: " + path);
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(initialSize, file.length()));
+		}
+		
+		private void ensure(final long size) throws IOException {
+			long grown = buffer.capacity();
+			if(size <= grown) {
+				return;
+			}
+			while(grown < size) {
+				grown *= 2;
+			}
+			if(size > Integer.MAX_VALUE) {
+				throw new IOException("Spot store file is full");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(grown, Integer.MAX_VALUE));
+		}
+		
+		private void close() throws IOException {
+			try {
+				buffer.force();
+			} finally {
+				channel.close();
+				file.close();
+			}
+		}
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("SpotStore[directory=%s, spots=%d, records=%d, stringBytes=%d]", 
+				directory, live, recordCount, stringsEnd);
+	}
+}
@@ -0,0 +1,275 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import static com.ginsberg.gowalla.dto.GeoPoint.METERS_PER_DEGREE;
+import static java.lang.Math.ceil;
+import static java.lang.Math.cos;
+import static java.lang.Math.sqrt;
+import static java.lang.Math.toRadians;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ginsberg.gowalla.dto.GeoHash;
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.Locatable;
+
+/**
+ * Plans how to cover a large circle with smaller, overlapping circles so a 
+ * large-area spot search can be broken into several smaller ones.  Gowalla
+ * caps how many spots a single search returns, so a tile that comes back 
+ * with that many spots (saturated) may be hiding more, and can be split into
+ * four smaller tiles to look again.
+ * 
+ * Tiles are laid out on a square grid, each tile being the circle that 
+ * circumscribes its square, so together they cover every point of the 
+ * original circle.  Immutable and thread safe.
+ * 
+ * @author Todd Ginsberg
+ */
+public class SpotTilePlanner {
+
+	/**
+	 * Grow tiles a little so rounding never leaves a gap between them.
+	 */
+	private static final double OVERLAP = 1.01;
+	
+	/**
+	 * How many spots Gowalla seems to return at most from a single search.
+	 */
+	public static final int DEFAULT_SATURATION = 40;
+	
+	private final int tileRadiusMeters;
+	private final int minimumTileRadiusMeters;
+	private final int saturation;
+	
+	/**
+	 * Create a planner using the default saturation and a minimum tile
+	 * radius of 1/16th of the initial one.
+	 * 
+	 * @param tileRadiusMeters The radius of the initial tiles.
+	 */
+	public SpotTilePlanner(final int tileRadiusMeters) {
+		this(tileRadiusMeters, Math.max(1, Math.abs(tileRadiusMeters) / 16), DEFAULT_SATURATION);
+	}
+	
+	/**
+	 * @param tileRadiusMeters The radius of the initial tiles.
+	 * @param minimumTileRadiusMeters Tiles will not be split any smaller than this.
+	 * @param saturation A tile returning at least this many spots is considered saturated.
+	 */
+	public SpotTilePlanner(final int tileRadiusMeters, final int minimumTileRadiusMeters, final int saturation) {
+		super();
+		if(tileRadiusMeters == 0) {
+			throw new IllegalArgumentException("Cannot plan tiles without a radius");
+		}
+		this.tileRadiusMeters = Math.abs(tileRadiusMeters);
+		this.minimumTileRadiusMeters = Math.max(1, Math.abs(minimumTileRadiusMeters));
+		this.saturation = Math.max(1, saturation);
+	}
+	
+	public int getTileRadiusMeters() {
+		return tileRadiusMeters;
+	}
+
+	public int getMinimumTileRadiusMeters() {
+		return minimumTileRadiusMeters;
+	}
+
+	public int getSaturation() {
+		return saturation;
+	}
+
+	/**
+	 * Is a tile that returned this many spots possibly hiding more?
+	 */
+	public boolean isSaturated(final int spotsReturned) {
+		return spotsReturned >= saturation;
+	}
+	
+	/**
+	 * Cover the given circle with tiles.  If the circle is no larger than a 
+	 * single tile, the circle itself is the only tile.
+	 * 
+	 * @param center The center of the circle to cover.
+	 * @param radiusMeters The radius of the circle to cover.
+	 * @return The tiles, in a stable order.
+	 */
+	public List<Tile> plan(final Locatable center, final int radiusMeters) {
+		final GeoPoint origin = center.getGeoLocation();
+		final int radius = Math.abs(radiusMeters);
+		final List<Tile> tiles = new ArrayList<Tile>();
+		if(radius <= tileRadiusMeters) {
+			// Covering the circle exactly with itself, as a square, takes a half side of r/sqrt(2).
+			tiles.add(new Tile(this, origin, 0, 0, radius / sqrt(2), "0"));
+			return tiles;
+		}
+		final double halfSide = tileRadiusMeters / sqrt(2);
+		final int across = (int)ceil(radius / halfSide / 2);
+		int index = 0;
+		for(int row = -across; row <= across; row++) {
+			for(int col = -across; col <= across; col++) {
+				final double x = col * 2 * halfSide;
+				final double y = row * 2 * halfSide;
+				// Keep the square if its nearest point is within the circle.
+				final double nearX = Math.max(Math.abs(x) - halfSide, 0);
+				final double nearY = Math.max(Math.abs(y) - halfSide, 0);
+				if(nearX * nearX + nearY * nearY <= (double)radius * radius) {
+					tiles.add(new Tile(this, origin, x, y, halfSide, String.valueOf(index++)));
+				}
+			}
+		}
+		return tiles;
+	}
+	
+	/**
+	 * Recreate a tile that was previously planned around the given origin,
+	 * for example from a saved crawl.
+	 */
+	Tile restore(final GeoPoint origin, final double x, final double y, final double halfSide, final String path) {
+		return new Tile(this, origin, x, y, halfSide, path);
+	}
+	
+	/**
+	 * One circle of a plan.  Tiles are positioned in meters relative to the 
+	 * center of the original circle, and identified by a path that describes 
+	 * how they were derived, which is used to order them.
+	 */
+	public static class Tile implements Locatable, Comparable<Tile> {
+		private final SpotTilePlanner planner;
+		private final GeoPoint origin;
+		private final double x;
+		private final double y;
+		private final double halfSide;
+		private final String path;
+		private final GeoPoint center;
+		
+		private Tile(final SpotTilePlanner planner, final GeoPoint origin, final double x, final double y, final double halfSide, final String path) {
+			this.planner = planner;
+			this.origin = origin;
+			this.x = x;
+			this.y = y;
+			this.halfSide = halfSide;
+			this.path = path;
+			final double lat = origin.getLatitude().doubleValue() + y / METERS_PER_DEGREE;
+			final double lng = origin.getLongitude().doubleValue() + x / (METERS_PER_DEGREE * cos(toRadians(origin.getLatitude().doubleValue())));
+			this.center = new GeoPoint(Math.max(-90, Math.min(90, lat)), ((lng + 540) % 360) - 180);
+		}
+		
+		/**
+		 * @return East/west offset of this tile from the origin of its plan, in meters.
+		 */
+		double getX() {
+			return x;
+		}
+		
+		/**
+		 * @return North/south offset of this tile from the origin of its plan, in meters.
+		 */
+		double getY() {
+			return y;
+		}
+		
+		/**
+		 * @return Half the side of the square this tile covers, in meters.
+		 */
+		double getHalfSide() {
+			return halfSide;
+		}
+		
+		/**
+		 * @return The center of this tile.
+		 */
+		@Override
+		public GeoPoint getGeoLocation() {
+			return center;
+		}
+		
+		/**
+		 * @return The radius to search this tile with.
+		 */
+		public int getRadiusMeters() {
+			return (int)ceil(halfSide * sqrt(2) * OVERLAP);
+		}
+		
+		/**
+		 * @return The geohash of the tile's center, at the longest precision whose
+		 * cells are at least as big as the tile's radius, or "" for tiles bigger than 
+		 * any cell.  Tiles sharing a geohash are near each other, so it can be used 
+		 * to split a crawl between workers, or to decide where its spots are stored.
+		 */
+		public String getGeoHash() {
+			final int precision = GeoHash.precisionFor(center.getLatitude().doubleValue(), getRadiusMeters());
+			return precision == 0 ? "" : center.getGeoHash(precision);
+		}
+		
+		/**
+		 * @return Where this tile came from, for example "3" or "3.0.2".
+		 */
+		public String getPath() {
+			return path;
+		}
+		
+		/**
+		 * @return true if this tile is large enough to be split again.
+		 */
+		public boolean canSubdivide() {
+			return getRadiusMeters() / 2 >= planner.getMinimumTileRadiusMeters();
+		}
+		
+		/**
+		 * Split this tile into the four tiles covering each quarter of its square.
+		 */
+		public List<Tile> subdivide() {
+			final double quarter = halfSide / 2;
+			final List<Tile> tiles = new ArrayList<Tile>(4);
+			tiles.add(new Tile(planner, origin, x - quarter, y - quarter, quarter, path + ".0"));
+			tiles.add(new Tile(planner, origin, x + quarter, y - quarter, quarter, path + ".1"));
+			tiles.add(new Tile(planner, origin, x - quarter, y + quarter, quarter, path + ".2"));
+			tiles.add(new Tile(planner, origin, x + quarter, y + quarter, quarter, path + ".3"));
+			return tiles;
+		}
+
+		/**
+		 * Orders tiles by path, so merged results never depend on the
+		 * order tiles were searched in.
+		 */
+		@Override
+		public int compareTo(final Tile other) {
+			return path.compareTo(other.path);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Tile[path=%s, center=%s, radius=%d]", path, center, getRadiusMeters());
+		}
+	}
+}
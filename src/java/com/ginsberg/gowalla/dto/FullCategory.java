@@ -77,6 +77,10 @@ public class FullCategory extends Category  {
 	public List<FullCategory> getSubcategories() {
 		return spot_categories == null ? Collections.EMPTY_LIST : Collections.unmodifiableList(spot_categories);
 	}
+	
+	public void setSubcategories(final List<FullCategory> subcategories) {
+		this.spot_categories = subcategories;
+	}
 
 	@Override
 	public int hashCode() {
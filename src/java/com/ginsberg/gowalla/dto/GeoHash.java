@@ -0,0 +1,268 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto;
+
+import static com.ginsberg.gowalla.dto.GeoPoint.METERS_PER_DEGREE;
+import static java.lang.Math.cos;
+import static java.lang.Math.toRadians;
+
+import java.util.Arrays;
+
+/**
+ * Geohash encoding, decoding and neighbors.  A geohash names a cell of a grid 
+ * laid over the whole world; each extra character splits a cell into 32, and
+ * every point in a cell has a geohash starting with the cell's.  That makes
+ * geohashes (or their leading bits) cheap, stable keys for grouping things 
+ * that are near each other - partitioning spots, caching searches, spreading 
+ * work around.
+ * 
+ * Hashes are available in two forms: the usual base 32 string, or a long 
+ * holding the hash's bits, right aligned.  Encoding to bits does no allocation.
+ * 
+ * Cells don't wrap across the poles, but do wrap across the 180th meridian.  
+ * Points that are close together can have very different hashes near cell 
+ * edges, so a search around a point should look in the point's cell and its 
+ * neighbors.
+ * 
+ * @author Todd Ginsberg
+ */
+public final class GeoHash {
+
+	/**
+	 * The longest hash that fits in a long.  About 4cm by 2cm.
+	 */
+	public static final int MAX_PRECISION = 12;
+	
+	private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+	private static final int[] DECODE = new int[128];
+	static {
+		Arrays.fill(DECODE, -1);
+		for(int i = 0; i < BASE32.length; i++) {
+			DECODE[BASE32[i]] = i;
+		}
+	}
+	
+	private GeoHash() {
+		super();
+	}
+	
+	/**
+	 * Encode a point as a geohash string of the given number of characters.
+	 */
+	public static String encode(final double latitude, final double longitude, final int precision) {
+		checkPrecision(precision);
+		return toString(encodeBits(latitude, longitude, precision * 5), precision);
+	}
+	
+	/**
+	 * Encode a point as the leading bits of its geohash, right aligned.  A 
+	 * precision of 5 characters is 25 bits, but any number of bits up to 64 
+	 * may be asked for, for finer steps between cell sizes.
+	 */
+	public static long encodeBits(final double latitude, final double longitude, final int bits) {
+		if(bits < 0 || bits > 64) {
+			throw new IllegalArgumentException("Bits must be between 0 and 64");
+		}
+		return interleave(bits, 
+				quantize(latitude, -90, 180, bits / 2), 
+				quantize(longitude, -180, 360, (bits + 1) / 2));
+	}
+	
+	/**
+	 * Turn geohash bits back into a string.
+	 */
+	public static String toString(final long bits, final int precision) {
+		checkPrecision(precision);
+		final char[] hash = new char[precision];
+		for(int i = 0; i < precision; i++) {
+			hash[i] = BASE32[(int)(bits >>> (5 * (precision - 1 - i))) & 31];
+		}
+		return new String(hash);
+	}
+	
+	/**
+	 * Turn a geohash string into its bits, right aligned.
+	 * @throws IllegalArgumentException when the hash isn't valid.
+	 */
+	public static long toBits(final String hash) {
+		checkPrecision(hash.length());
+		long bits = 0;
+		for(int i = 0; i < hash.length(); i++) {
+			final char c = Character.toLowerCase(hash.charAt(i));
+			final int value = c < DECODE.length ? DECODE[c] : -1;
+			if(value < 0) {
+				throw new IllegalArgumentException("Not a geohash: " + hash);
+			}
+			bits = (bits << 5) | value;
+		}
+		return bits;
+	}
+	
+	/**
+	 * @return The center of the cell.
+	 */
+	public static GeoPoint decode(final String hash) {
+		final double[] bounds = getBounds(hash);
+		return new GeoPoint((bounds[0] + bounds[2]) / 2, (bounds[1] + bounds[3]) / 2);
+	}
+	
+	/**
+	 * @return The edges of the cell as {south, west, north, east}.
+	 */
+	public static double[] getBounds(final String hash) {
+		final int bits = hash.length() * 5;
+		final long value = toBits(hash);
+		final double height = 180.0 / (1L << (bits / 2));
+		final double width = 360.0 / (1L << ((bits + 1) / 2));
+		final double south = -90 + latitudeIndex(value, bits) * height;
+		final double west = -180 + longitudeIndex(value, bits) * width;
+		return new double[] { south, west, south + height, west + width };
+	}
+	
+	/**
+	 * Find the cell a number of cells north (or south, if negative) and east (or west)
+	 * of the one given.
+	 * 
+	 * @return The cell, or null if it would be past a pole.
+	 */
+	public static String neighbor(final String hash, final int north, final int east) {
+		final int bits = hash.length() * 5;
+		final long value = toBits(hash);
+		final long rows = 1L << (bits / 2);
+		final long columns = 1L << ((bits + 1) / 2);
+		final long row = latitudeIndex(value, bits) + north;
+		if(row < 0 || row >= rows) {
+			return null;
+		}
+		final long column = ((longitudeIndex(value, bits) + east) % columns + columns) % columns;
+		return toString(interleave(bits, row, column), hash.length());
+	}
+	
+	/**
+	 * @return The eight cells around the one given, clockwise from north: N, NE, E, SE, S, SW, W, NW.  
+	 * Cells past a pole are null.
+	 */
+	public static String[] neighbors(final String hash) {
+		return new String[] {
+			neighbor(hash, 1, 0),
+			neighbor(hash, 1, 1),
+			neighbor(hash, 0, 1),
+			neighbor(hash, -1, 1),
+			neighbor(hash, -1, 0),
+			neighbor(hash, -1, -1),
+			neighbor(hash, 0, -1),
+			neighbor(hash, 1, -1)
+		};
+	}
+	
+	/**
+	 * Find the longest precision whose cells are at least the given distance 
+	 * across, everywhere within that distance of the latitude given.  Any point
+	 * that close to a point is then in the point's cell or one of its neighbors.
+	 * 
+	 * @return The precision, or zero when even single character cells are too small.
+	 */
+	public static int precisionFor(final double latitude, final double meters) {
+		final double degrees = meters / METERS_PER_DEGREE;
+		final double scale = cos(toRadians(Math.min(90, Math.abs(latitude) + degrees)));
+		for(int precision = MAX_PRECISION; precision > 0; precision--) {
+			final int bits = precision * 5;
+			final double height = 180.0 / (1L << (bits / 2));
+			final double width = 360.0 / (1L << ((bits + 1) / 2)) * scale;
+			if(height >= degrees && width >= degrees) {
+				return precision;
+			}
+		}
+		return 0;
+	}
+	
+	private static void checkPrecision(final int precision) {
+		if(precision < 1 || precision > MAX_PRECISION) {
+			throw new IllegalArgumentException("Precision must be between 1 and " + MAX_PRECISION);
+		}
+	}
+	
+	/**
+	 * Which of 2^bits equal slices of the range the value falls in.
+	 */
+	private static long quantize(final double value, final double minimum, final double range, final int bits) {
+		if(bits == 0) {
+			return 0;
+		}
+		final long slices = 1L << bits;
+		final long slice = (long)Math.floor((value - minimum) / range * slices);
+		return Math.max(0, Math.min(slices - 1, slice));
+	}
+	
+	/**
+	 * Geohashes start with a longitude bit and alternate, so longitude owns the
+	 * top bit and every other one below it.
+	 */
+	private static long interleave(final int bits, final long latitude, final long longitude) {
+		if((bits & 1) == 0) {
+			return (spread(longitude) << 1) | spread(latitude);
+		}
+		return (spread(latitude) << 1) | spread(longitude);
+	}
+	
+	private static long latitudeIndex(final long value, final int bits) {
+		return (bits & 1) == 0 ? compact(value) : compact(value >>> 1);
+	}
+	
+	private static long longitudeIndex(final long value, final int bits) {
+		return (bits & 1) == 0 ? compact(value >>> 1) : compact(value);
+	}
+	
+	/**
+	 * Move the low 32 bits of x to the even bit positions.
+	 */
+	private static long spread(long x) {
+		x &= 0xFFFFFFFFL;
+		x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+		x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+		x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		x = (x | (x << 2)) & 0x3333333333333333L;
+		x = (x | (x << 1)) & 0x5555555555555555L;
+		return x;
+	}
+	
+	/**
+	 * Undo spread(): gather the even bit positions of x into the low 32 bits.
+	 */
+	private static long compact(long x) {
+		x &= 0x5555555555555555L;
+		x = (x | (x >>> 1)) & 0x3333333333333333L;
+		x = (x | (x >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+		x = (x | (x >>> 4)) & 0x00FF00FF00FF00FFL;
+		x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+		x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+		return x;
+	}
+}
@@ -49,6 +49,16 @@ public class GeoPoint implements Serializable, Locatable {
 	private static final long serialVersionUID = -8291913597851561467L;
 	public static final GeoPoint DEFAULT_POINT = new GeoPoint(BigDecimal.ZERO, BigDecimal.ZERO);
 	
+	/**
+	 * Radius of the Earth used in distance calculations.
+	 */
+	public static final double EARTH_RADIUS_METERS = 6378100;
+	
+	/**
+	 * Meters in one degree of latitude (or longitude, at the equator).
+	 */
+	public static final double METERS_PER_DEGREE = EARTH_RADIUS_METERS * Math.PI / 180;
+	
 
 	private BigDecimal longitude;
 	private BigDecimal latitude;
@@ -125,16 +135,59 @@ public class GeoPoint implements Serializable, Locatable {
 	 * @return An int, representing the distance between the points in meters.
 	 */
 	public long getDistanceMeters(final GeoPoint other) {
-		double l1 = toRadians(this.latitude.doubleValue());
-		double l2 = toRadians(other.latitude.doubleValue());
-		double g1 = toRadians(this.longitude.doubleValue());
-		double g2 = toRadians(other.longitude.doubleValue());
+		return Math.round(getDistanceMeters(this.latitude.doubleValue(), this.longitude.doubleValue(), 
+				other.latitude.doubleValue(), other.longitude.doubleValue()));
+	}
+	
+	/**
+	 * Calculate the distance in meters between two points given in degrees, without
+	 * creating GeoPoints.  This is the same calculation as the instance method, without 
+	 * rounding, for code that keeps coordinates as primitives.
+	 * 
+	 * @return The distance between the points in meters.
+	 */
+	public static double getDistanceMeters(final double latitude1, final double longitude1, final double latitude2, final double longitude2) {
+		double l1 = toRadians(latitude1);
+		double l2 = toRadians(latitude2);
+		double g1 = toRadians(longitude1);
+		double g2 = toRadians(longitude2);
 		
-		double dist = acos(sin(l1) * sin(l2) + cos(l1) * cos(l2) * cos(g1 - g2));
+		// Rounding can put this a little past 1 for nearby points, where acos is NaN.
+		double dist = acos(Math.min(1, Math.max(-1, sin(l1) * sin(l2) + cos(l1) * cos(l2) * cos(g1 - g2))));
 		if(dist < 0) {
 			dist = dist + Math.PI;
 		}
-		return Math.round(dist * 6378100);
+		return dist * EARTH_RADIUS_METERS;
+	}
+	
+	/**
+	 * @return Degrees of longitude between two longitudes, the short way 
+	 * around, so points either side of the 180th meridian are close together.
+	 */
+	public static double getLongitudeDifference(final double longitude1, final double longitude2) {
+		final double difference = Math.abs(longitude1 - longitude2) % 360;
+		return difference > 180 ? 360 - difference : difference;
+	}
+	
+	/**
+	 * @param precision Number of characters, up to GeoHash.MAX_PRECISION.
+	 * @return The geohash of this point.
+	 * @see GeoHash
+	 */
+	public String getGeoHash(final int precision) {
+		return GeoHash.encode(latitude.doubleValue(), longitude.doubleValue(), precision);
+	}
+	
+	/**
+	 * Leading bits of this point's geohash, right aligned.  Unlike hashCode(), 
+	 * points near each other share leading bits, which makes this a good key
+	 * for spreading spots across shards.
+	 * 
+	 * @param bits Number of bits, up to 64.
+	 * @see GeoHash
+	 */
+	public long getGeoHashBits(final int bits) {
+		return GeoHash.encodeBits(latitude.doubleValue(), longitude.doubleValue(), bits);
 	}
 	
 	@Override
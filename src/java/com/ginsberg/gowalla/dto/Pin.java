@@ -97,6 +97,10 @@ public class Pin implements Serializable, Id<Pin> {
 	public void getTrip(Trip trip) {
 		this.trip = trip;
 	}
+	
+	public void setTrip(final Trip trip) {
+		this.trip = trip;
+	}
 
 	@Override
 	public int hashCode() {
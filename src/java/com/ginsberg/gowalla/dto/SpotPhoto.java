@@ -56,8 +56,20 @@ public class SpotPhoto extends SpotEvent {
 		return photos;
 	}
 	
+	/**
+	 * @return The photo urls, by size, as Gowalla sent them.
+	 */
+	public Map<String, String> getPhotoUrls() {
+		return photo_urls;
+	}
+	
+	public void setPhotoUrls(final Map<String, String> photoUrls) {
+		this.photo_urls = photoUrls;
+		this.photos = null;
+	}
+	
 	@Override
 	public String toString() {
 		return String.format("SpotPhoto[photo_urls=%s]", getPhotos());
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -30,12 +30,10 @@
 package com.ginsberg.gowalla.dto;
 
 import java.io.Serializable;
-import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 
-import com.ginsberg.gowalla.dto.compare.DistanceComparator;
+import com.ginsberg.gowalla.dto.index.TripSpotIndex;
 
 /**
  * Full information about a Trip, with as much Spot and User information
@@ -56,6 +54,7 @@ public class Trip implements Serializable, Id<Trip> {
 	private String description;
 	private String image_url;
 	private List<LocatedSpot> spots;
+	private transient volatile TripSpotIndex spotIndex;
 	
 	public Trip() {
 		super();
@@ -69,14 +68,22 @@ public class Trip implements Serializable, Id<Trip> {
 	 * @return The spot closst to the location given.
 	 */
 	public LocatedSpot getClosestSpot(final Locatable location) {
-		if(spots == null || spots.size() == 0) {
-			return null;
+		return getSpotIndex().getClosestSpot(location);
+	}
+	
+	/**
+	 * Get the spots on this trip prepared for fast closest spot searches.  This is
+	 * built the first time it's needed and kept until the trip's list of spots 
+	 * is replaced, or the spots in it change.  To search many trips at once, 
+	 * see TripSpotIndex.getClosestSpot().
+	 */
+	public TripSpotIndex getSpotIndex() {
+		TripSpotIndex index = spotIndex;
+		if(index == null || !index.isFor(spots)) {
+			index = new TripSpotIndex(spots);
+			spotIndex = index;
 		}
-		// Copy this so we can reorder them without altering the order
-		// in the copy the trip object keeps.
-		final List<LocatedSpot> spotClone = new LinkedList<LocatedSpot>(spots);
-		Collections.sort(spotClone, new DistanceComparator(location.getGeoLocation()));
-		return spotClone.get(0);
+		return index;
 	}
 	
 	/**
@@ -0,0 +1,1086 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.codec;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ginsberg.gowalla.dto.Address;
+import com.ginsberg.gowalla.dto.Category;
+import com.ginsberg.gowalla.dto.Event;
+import com.ginsberg.gowalla.dto.FullCategory;
+import com.ginsberg.gowalla.dto.FullSpot;
+import com.ginsberg.gowalla.dto.FullUser;
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.Identity;
+import com.ginsberg.gowalla.dto.Item;
+import com.ginsberg.gowalla.dto.ItemEvent;
+import com.ginsberg.gowalla.dto.LocatedSpot;
+import com.ginsberg.gowalla.dto.Photo;
+import com.ginsberg.gowalla.dto.Pin;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+import com.ginsberg.gowalla.dto.Spot;
+import com.ginsberg.gowalla.dto.SpotEvent;
+import com.ginsberg.gowalla.dto.SpotPhoto;
+import com.ginsberg.gowalla.dto.SpotVisitor;
+import com.ginsberg.gowalla.dto.Stamp;
+import com.ginsberg.gowalla.dto.Trip;
+import com.ginsberg.gowalla.dto.TripSummary;
+import com.ginsberg.gowalla.dto.User;
+import com.ginsberg.gowalla.dto.UserEvent;
+import com.ginsberg.gowalla.dto.UserPhoto;
+import com.ginsberg.gowalla.dto.VisitedSpot;
+
+/**
+ * Turns DTOs, and lists of them, into compact bytes and back, much faster and 
+ * smaller than Java serialization, for caching them and for sending them 
+ * between processes.
+ * 
+ * Every field is written as a tag, saying which field it is and how its value 
+ * is written, and then the value.  Fields that are null, zero or false aren't
+ * written at all.  Numbers are varints, strings are written once and referred
+ * to by number after that, and coordinates are written as decimals.  Objects 
+ * start with their type and end with a zero tag.
+ * 
+ * Tags are never reused.  A reader skips fields with tags it doesn't know, and
+ * objects of types it doesn't know, so data written after a field is added 
+ * can still be read by code from before it was, and the other way around.
+ * 
+ * Only the classes in com.ginsberg.gowalla.dto can be written, and only 
+ * exactly those classes, not subclasses of them.  Values that are worked out 
+ * from others, like a spot's GeoPoint or a photo event's parsed photos, are 
+ * left out and worked out again after reading.
+ * 
+ * Thread safe.
+ * 
+ * @author Todd Ginsberg
+ */
+public final class BinaryCodec {
+
+	private static final int VERSION = 1;
+	
+	// How a value is written.
+	private static final int VARINT = 0;
+	private static final int STRING = 1;
+	private static final int OBJECT = 2;
+	private static final int LIST = 3;
+	private static final int DECIMAL = 4;
+	private static final int MAP = 5;
+	private static final int END = 0;
+	
+	// Types.  Never reuse a number.
+	private static final int NULL = 0;
+	private static final int SPOT = 1;
+	private static final int LOCATED_SPOT = 2;
+	private static final int SIMPLE_SPOT = 3;
+	private static final int FULL_SPOT = 4;
+	private static final int STAMP = 5;
+	private static final int VISITED_SPOT = 6;
+	private static final int ADDRESS = 7;
+	private static final int GEO_POINT = 8;
+	private static final int CATEGORY = 9;
+	private static final int FULL_CATEGORY = 10;
+	private static final int USER = 11;
+	private static final int SPOT_VISITOR = 12;
+	private static final int FULL_USER = 13;
+	private static final int ITEM = 14;
+	private static final int PIN = 15;
+	private static final int TRIP = 16;
+	private static final int TRIP_SUMMARY = 17;
+	private static final int IDENTITY = 18;
+	private static final int PHOTO = 19;
+	private static final int SPOT_EVENT = 20;
+	private static final int SPOT_PHOTO = 21;
+	private static final int USER_EVENT = 22;
+	private static final int USER_PHOTO = 23;
+	private static final int ITEM_EVENT = 24;
+	
+	private static final Map<Class<?>, Integer> TYPES = new HashMap<Class<?>, Integer>();
+	static {
+		TYPES.put(Spot.class, SPOT);
+		TYPES.put(LocatedSpot.class, LOCATED_SPOT);
+		TYPES.put(SimpleSpot.class, SIMPLE_SPOT);
+		TYPES.put(FullSpot.class, FULL_SPOT);
+		TYPES.put(Stamp.class, STAMP);
+		TYPES.put(VisitedSpot.class, VISITED_SPOT);
+		TYPES.put(Address.class, ADDRESS);
+		TYPES.put(GeoPoint.class, GEO_POINT);
+		TYPES.put(Category.class, CATEGORY);
+		TYPES.put(FullCategory.class, FULL_CATEGORY);
+		TYPES.put(User.class, USER);
+		TYPES.put(SpotVisitor.class, SPOT_VISITOR);
+		TYPES.put(FullUser.class, FULL_USER);
+		TYPES.put(Item.class, ITEM);
+		TYPES.put(Pin.class, PIN);
+		TYPES.put(Trip.class, TRIP);
+		TYPES.put(TripSummary.class, TRIP_SUMMARY);
+		TYPES.put(Identity.class, IDENTITY);
+		TYPES.put(Photo.class, PHOTO);
+		TYPES.put(SpotEvent.class, SPOT_EVENT);
+		TYPES.put(SpotPhoto.class, SPOT_PHOTO);
+		TYPES.put(UserEvent.class, USER_EVENT);
+		TYPES.put(UserPhoto.class, USER_PHOTO);
+		TYPES.put(ItemEvent.class, ITEM_EVENT);
+	}
+	
+	private BinaryCodec() {
+		super();
+	}
+	
+	/**
+	 * @return true if the value is null, a DTO that can be written, or a list of them.
+	 */
+	public static boolean supports(final Object value) {
+		if(value instanceof List<?>) {
+			for(Object element : (List<?>)value) {
+				if(element != null && !TYPES.containsKey(element.getClass())) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return value == null || TYPES.containsKey(value.getClass());
+	}
+	
+	/**
+	 * @param value A DTO, a list of them, or null.
+	 * @throws IllegalArgumentException if there's something in it that can't be written.
+	 */
+	public static byte[] encode(final Object value) {
+		final BinaryOutput out = new BinaryOutput(256);
+		out.writeByte(VERSION);
+		if(value instanceof List<?>) {
+			out.writeByte(LIST);
+			writeListValue(out, (List<?>)value);
+		} else {
+			out.writeByte(OBJECT);
+			writeObjectValue(out, value);
+		}
+		return out.toByteArray();
+	}
+	
+	/**
+	 * @return What was encoded: a DTO, a list of them, or null.
+	 * @throws IllegalArgumentException if the data isn't something encode wrote.
+	 */
+	public static Object decode(final byte[] data) {
+		return decode(data, 0, data.length);
+	}
+	
+	/**
+	 * @return What was encoded: a DTO, a list of them, or null.
+	 * @throws IllegalArgumentException if the data isn't something encode wrote.
+	 */
+	public static Object decode(final byte[] data, final int offset, final int length) {
+		final BinaryInput in = new BinaryInput(data, offset, length);
+		final int version = in.readByte();
+		if(version != VERSION) {
+			throw new IllegalArgumentException("Unknown version: " + version);
+		}
+		final int wire = in.readByte();
+		if(wire != OBJECT && wire != LIST) {
+			throw new IllegalArgumentException("Not an object or list");
+		}
+		final Object value = wire == OBJECT ? readObjectValue(in) : readList(in, LIST, Object.class);
+		if(!in.isAtEnd()) {
+			throw new IllegalArgumentException("Unexpected data after the value");
+		}
+		return value;
+	}
+	
+	/**
+	 * @return What was encoded, as the type given.
+	 * @throws IllegalArgumentException if the data isn't something encode wrote,
+	 * or isn't of that type.
+	 */
+	public static <T> T decode(final byte[] data, final Class<T> type) {
+		final Object value = decode(data);
+		if(value != null && !type.isInstance(value)) {
+			throw new IllegalArgumentException("Expected " + type.getName() + " but found " + value.getClass().getName());
+		}
+		return type.cast(value);
+	}
+	
+	// ---- Writing.
+	
+	private static void writeObjectValue(final BinaryOutput out, final Object value) {
+		if(value == null) {
+			out.writeVarint(NULL);
+			return;
+		}
+		final Integer type = TYPES.get(value.getClass());
+		if(type == null) {
+			throw new IllegalArgumentException("Cannot encode " + value.getClass().getName());
+		}
+		out.writeVarint(type);
+		switch(type) {
+			case SPOT: writeSpot(out, (Spot)value); break;
+			case LOCATED_SPOT: writeLocatedSpot(out, (LocatedSpot)value); break;
+			case SIMPLE_SPOT: writeSimpleSpot(out, (SimpleSpot)value); break;
+			case FULL_SPOT: writeFullSpot(out, (FullSpot)value); break;
+			case STAMP: writeStamp(out, (Stamp)value); break;
+			case VISITED_SPOT: writeVisitedSpot(out, (VisitedSpot)value); break;
+			case ADDRESS: writeAddress(out, (Address)value); break;
+			case GEO_POINT: writeGeoPoint(out, (GeoPoint)value); break;
+			case CATEGORY: writeCategory(out, (Category)value); break;
+			case FULL_CATEGORY: writeFullCategory(out, (FullCategory)value); break;
+			case USER: writeUser(out, (User)value); break;
+			case SPOT_VISITOR: writeSpotVisitor(out, (SpotVisitor)value); break;
+			case FULL_USER: writeFullUser(out, (FullUser)value); break;
+			case ITEM: writeItem(out, (Item)value); break;
+			case PIN: writePin(out, (Pin)value); break;
+			case TRIP: writeTrip(out, (Trip)value); break;
+			case TRIP_SUMMARY: writeTripSummary(out, (TripSummary)value); break;
+			case IDENTITY: writeIdentity(out, (Identity<?>)value); break;
+			case PHOTO: writePhoto(out, (Photo)value); break;
+			case SPOT_EVENT: writeSpotEvent(out, (SpotEvent)value); break;
+			case SPOT_PHOTO: writeSpotPhoto(out, (SpotPhoto)value); break;
+			case USER_EVENT: writeUserEvent(out, (UserEvent)value); break;
+			case USER_PHOTO: writeUserPhoto(out, (UserPhoto)value); break;
+			case ITEM_EVENT: writeItemEvent(out, (ItemEvent)value); break;
+			default: throw new IllegalStateException("No writer for type " + type);
+		}
+		out.writeVarint(END);
+	}
+	
+	private static void writeSpot(final BinaryOutput out, final Spot spot) {
+		writeString(out, 1, spot.getName());
+		writeString(out, 2, spot.getUrl());
+		writeInt(out, 3, spot.getId());
+		writeString(out, 4, spot.getImageUrl());
+	}
+	
+	private static void writeLocatedSpot(final BinaryOutput out, final LocatedSpot spot) {
+		writeSpot(out, spot);
+		writeNumber(out, 5, spot.getLat());
+		writeNumber(out, 6, spot.getLng());
+		writeBoolean(out, 7, spot.isStrictRadius());
+		writeInt(out, 8, spot.getRadiusMeters());
+	}
+	
+	private static void writeSimpleSpot(final BinaryOutput out, final SimpleSpot spot) {
+		writeLocatedSpot(out, spot);
+		writeInt(out, 9, spot.getItemsCount());
+		writeInt(out, 10, spot.getUsersCount());
+		writeInt(out, 11, spot.getCheckinsCount());
+		writeInt(out, 12, spot.getTrendingLevel());
+		writeInt(out, 13, spot.getPhotosCount());
+		writeObject(out, 14, spot.getAddress());
+	}
+	
+	private static void writeFullSpot(final BinaryOutput out, final FullSpot spot) {
+		writeSimpleSpot(out, spot);
+		writeList(out, 15, spot.getCategories());
+		writeString(out, 16, spot.getDescription());
+		writeString(out, 17, spot.getTwitterUsername());
+		writeStrings(out, 18, spot.getWebsites());
+		writeDate(out, 19, spot.getCreatedAt());
+		writeObject(out, 20, spot.getCreator());
+		writeList(out, 21, spot.getTop10());
+		writeList(out, 22, spot.getFounders());
+		writeBoolean(out, 23, spot.isMerged());
+		writeInt(out, 24, spot.getMaxItemsCount());
+	}
+	
+	private static void writeStamp(final BinaryOutput out, final Stamp stamp) {
+		writeSpot(out, stamp);
+		writeObject(out, 5, stamp.getAddress());
+		writeInt(out, 6, stamp.getCheckinsCount());
+		writeDate(out, 7, stamp.getFirstCheckinAt());
+		writeDate(out, 8, stamp.getLastCheckinAt());
+	}
+	
+	private static void writeVisitedSpot(final BinaryOutput out, final VisitedSpot spot) {
+		writeSpot(out, spot);
+		writeInt(out, 5, spot.getUserCheckinsCount());
+	}
+	
+	private static void writeAddress(final BinaryOutput out, final Address address) {
+		writeString(out, 1, address.getLocality());
+		writeString(out, 2, address.getRegion());
+	}
+	
+	private static void writeGeoPoint(final BinaryOutput out, final GeoPoint point) {
+		writeDecimal(out, 1, point.getLatitude());
+		writeDecimal(out, 2, point.getLongitude());
+	}
+	
+	private static void writeCategory(final BinaryOutput out, final Category category) {
+		writeString(out, 1, category.getName());
+		writeString(out, 2, category.getUrl());
+		writeInt(out, 3, category.getId());
+	}
+	
+	private static void writeFullCategory(final BinaryOutput out, final FullCategory category) {
+		writeCategory(out, category);
+		writeString(out, 4, category.getDescription());
+		writeString(out, 5, category.getImageUrl());
+		writeString(out, 6, category.getSmallImageUrl());
+		writeList(out, 7, category.getSubcategories());
+	}
+	
+	private static void writeUser(final BinaryOutput out, final User user) {
+		writeInt(out, 1, user.getId());
+		writeString(out, 2, user.getUrl());
+		writeString(out, 3, user.getFirstName());
+		writeString(out, 4, user.getLastName());
+		writeString(out, 5, user.getImageUrl());
+	}
+	
+	private static void writeSpotVisitor(final BinaryOutput out, final SpotVisitor visitor) {
+		writeUser(out, visitor);
+		writeInt(out, 6, visitor.getCheckinsCount());
+	}
+	
+	private static void writeFullUser(final BinaryOutput out, final FullUser user) {
+		writeUser(out, user);
+		writeString(out, 6, user.getBio());
+		writeString(out, 7, user.getHometown());
+		writeInt(out, 8, user.getFriends_count());
+		writeBoolean(out, 9, user.isFriend());
+		writeInt(out, 10, user.getItemsCount());
+		writeInt(out, 11, user.getPinsCount());
+		writeInt(out, 12, user.getStampsCount());
+		writeString(out, 13, user.getTwitterUsername());
+		writeString(out, 14, user.getFacebookId());
+		writeString(out, 15, user.getWebsite());
+		writeInt(out, 16, user.getPhotosCount());
+		writeList(out, 17, user.getLastCheckins());
+	}
+	
+	private static void writeItem(final BinaryOutput out, final Item item) {
+		writeInt(out, 1, item.getId());
+		writeInt(out, 2, item.getIssueNumber());
+		writeString(out, 3, item.getName());
+		writeString(out, 4, item.getDeterminer());
+		writeString(out, 5, item.getUrl());
+		writeString(out, 6, item.getImageUrl());
+	}
+	
+	private static void writePin(final BinaryOutput out, final Pin pin) {
+		writeInt(out, 1, pin.getId());
+		writeInt(out, 2, pin.getIssueNumber());
+		writeString(out, 3, pin.getName());
+		writeString(out, 4, pin.getUrl());
+		writeString(out, 5, pin.getImageUrl());
+		writeObject(out, 6, pin.getTrip());
+	}
+	
+	private static void writeTrip(final BinaryOutput out, final Trip trip) {
+		writeInt(out, 1, trip.getId());
+		writeString(out, 2, trip.getUrl());
+		writeInt(out, 3, trip.getCompletedUsersCount());
+		writeBoolean(out, 4, trip.isCompleted());
+		writeObject(out, 5, trip.getCreator());
+		writeString(out, 6, trip.getName());
+		writeDate(out, 7, trip.getCreatedAt());
+		writeString(out, 8, trip.getDescription());
+		writeString(out, 9, trip.getImageUrl());
+		writeList(out, 10, trip.getSpots());
+	}
+	
+	private static void writeTripSummary(final BinaryOutput out, final TripSummary trip) {
+		writeInt(out, 1, trip.getId());
+		writeString(out, 2, trip.getUrl());
+		writeString(out, 3, trip.getName());
+		writeBoolean(out, 4, trip.isCompleted());
+		writeString(out, 5, trip.getImageUrl());
+		writeList(out, 6, trip.getSpots());
+	}
+	
+	private static void writeIdentity(final BinaryOutput out, final Identity<?> identity) {
+		writeInt(out, 1, identity.getId());
+		writeString(out, 2, identity.getUrl());
+	}
+	
+	private static void writePhoto(final BinaryOutput out, final Photo photo) {
+		writeString(out, 1, photo.getPhotoType() == null ? null : photo.getPhotoType().name());
+		writeString(out, 2, photo.getUrl());
+		writeInt(out, 3, photo.getWidth());
+		writeInt(out, 4, photo.getHeight());
+	}
+	
+	private static void writeEvent(final BinaryOutput out, final Event event) {
+		writeDate(out, 1, event.getCreatedAt());
+		writeString(out, 2, event.getType());
+	}
+	
+	private static void writeSpotEvent(final BinaryOutput out, final SpotEvent event) {
+		writeEvent(out, event);
+		writeString(out, 3, event.getMessage());
+		writeObject(out, 4, event.getUser());
+	}
+	
+	private static void writeSpotPhoto(final BinaryOutput out, final SpotPhoto photo) {
+		writeSpotEvent(out, photo);
+		writeMap(out, 5, photo.getPhotoUrls());
+	}
+	
+	private static void writeUserEvent(final BinaryOutput out, final UserEvent event) {
+		writeEvent(out, event);
+		writeString(out, 3, event.getMessage());
+		writeString(out, 4, event.getUrl());
+		writeObject(out, 5, event.getSpot());
+	}
+	
+	private static void writeUserPhoto(final BinaryOutput out, final UserPhoto photo) {
+		writeUserEvent(out, photo);
+		writeMap(out, 6, photo.getPhotoUrls());
+	}
+	
+	private static void writeItemEvent(final BinaryOutput out, final ItemEvent event) {
+		writeEvent(out, event);
+		writeObject(out, 3, event.getSpot());
+		writeObject(out, 4, event.getUser());
+	}
+	
+	private static void writeTag(final BinaryOutput out, final int tag, final int wire) {
+		out.writeVarint(tag << 3 | wire);
+	}
+	
+	private static void writeInt(final BinaryOutput out, final int tag, final int value) {
+		if(value != 0) {
+			writeTag(out, tag, VARINT);
+			out.writeSigned(value);
+		}
+	}
+	
+	private static void writeBoolean(final BinaryOutput out, final int tag, final boolean value) {
+		if(value) {
+			writeTag(out, tag, VARINT);
+			out.writeSigned(1);
+		}
+	}
+	
+	private static void writeDate(final BinaryOutput out, final int tag, final Date value) {
+		if(value != null) {
+			writeTag(out, tag, VARINT);
+			out.writeSigned(value.getTime());
+		}
+	}
+	
+	private static void writeString(final BinaryOutput out, final int tag, final String value) {
+		if(value != null) {
+			writeTag(out, tag, STRING);
+			out.writeString(value);
+		}
+	}
+	
+	/**
+	 * Write a string holding a number, like a coordinate, as a decimal if that 
+	 * gives back exactly the same string, and as a string if it doesn't.
+	 */
+	private static void writeNumber(final BinaryOutput out, final int tag, final String value) {
+		if(value == null) {
+			return;
+		}
+		try {
+			final BigDecimal decimal = new BigDecimal(value);
+			if(decimal.unscaledValue().bitLength() < 64 && decimal.toPlainString().equals(value)) {
+				writeTag(out, tag, DECIMAL);
+				out.writeSigned(decimal.scale());
+				out.writeSigned(decimal.unscaledValue().longValue());
+				return;
+			}
+		} catch(NumberFormatException e) {
+			// Not a number after all.
+		}
+		writeString(out, tag, value);
+	}
+	
+	private static void writeDecimal(final BinaryOutput out, final int tag, final BigDecimal value) {
+		if(value == null) {
+			return;
+		}
+		if(value.unscaledValue().bitLength() < 64) {
+			writeTag(out, tag, DECIMAL);
+			out.writeSigned(value.scale());
+			out.writeSigned(value.unscaledValue().longValue());
+		} else {
+			writeString(out, tag, value.toString());
+		}
+	}
+	
+	private static void writeObject(final BinaryOutput out, final int tag, final Object value) {
+		if(value != null) {
+			writeTag(out, tag, OBJECT);
+			writeObjectValue(out, value);
+		}
+	}
+	
+	private static void writeList(final BinaryOutput out, final int tag, final List<?> values) {
+		if(values != null) {
+			writeTag(out, tag, LIST);
+			writeListValue(out, values);
+		}
+	}
+	
+	private static void writeListValue(final BinaryOutput out, final List<?> values) {
+		out.writeVarint(values.size());
+		out.writeByte(OBJECT);
+		for(Object value : values) {
+			writeObjectValue(out, value);
+		}
+	}
+	
+	private static void writeStrings(final BinaryOutput out, final int tag, final String[] values) {
+		if(values == null) {
+			return;
+		}
+		writeTag(out, tag, LIST);
+		out.writeVarint(values.length);
+		out.writeByte(STRING);
+		for(String value : values) {
+			// Nulls become empty; there's no null string.
+			out.writeString(value == null ? "" : value);
+		}
+	}
+	
+	private static void writeMap(final BinaryOutput out, final int tag, final Map<String, String> values) {
+		if(values == null) {
+			return;
+		}
+		writeTag(out, tag, MAP);
+		out.writeVarint(values.size());
+		for(Map.Entry<String, String> entry : values.entrySet()) {
+			out.writeString(entry.getKey() == null ? "" : entry.getKey());
+			out.writeString(entry.getValue() == null ? "" : entry.getValue());
+		}
+	}
+	
+	// ---- Reading.
+	
+	/**
+	 * @return The object, or null if it was null or of a type this version doesn't know.
+	 */
+	private static Object readObjectValue(final BinaryInput in) {
+		final int type = in.readVarint();
+		if(type == NULL) {
+			return null;
+		}
+		if(type == GEO_POINT) {
+			return readGeoPoint(in);
+		}
+		final Object value = create(type);
+		for(int header = in.readVarint(); header != END; header = in.readVarint()) {
+			final int tag = header >>> 3;
+			final int wire = header & 7;
+			if(value == null || !readField(value, type, tag, wire, in)) {
+				skip(in, wire);
+			}
+		}
+		return value;
+	}
+	
+	private static Object create(final int type) {
+		switch(type) {
+			case SPOT: return new Spot();
+			case LOCATED_SPOT: return new LocatedSpot();
+			case SIMPLE_SPOT: return new SimpleSpot();
+			case FULL_SPOT: return new FullSpot();
+			case STAMP: return new Stamp();
+			case VISITED_SPOT: return new VisitedSpot();
+			case ADDRESS: return new Address();
+			case CATEGORY: return new Category();
+			case FULL_CATEGORY: return new FullCategory();
+			case USER: return new User();
+			case SPOT_VISITOR: return new SpotVisitor();
+			case FULL_USER: return new FullUser();
+			case ITEM: return new Item();
+			case PIN: return new Pin();
+			case TRIP: return new Trip();
+			case TRIP_SUMMARY: return new TripSummary();
+			case IDENTITY: return new Identity<Object>();
+			case PHOTO: return new Photo();
+			case SPOT_EVENT: return new SpotEvent();
+			case SPOT_PHOTO: return new SpotPhoto();
+			case USER_EVENT: return new UserEvent();
+			case USER_PHOTO: return new UserPhoto();
+			case ITEM_EVENT: return new ItemEvent();
+			default: return null;
+		}
+	}
+	
+	/**
+	 * Read one field into an object.
+	 * @return false if the field isn't one this type has, and still needs to be skipped.
+	 */
+	private static boolean readField(final Object value, final int type, final int tag, final int wire, final BinaryInput in) {
+		switch(type) {
+			case SPOT: return readSpot((Spot)value, tag, wire, in);
+			case LOCATED_SPOT: return readLocatedSpot((LocatedSpot)value, tag, wire, in);
+			case SIMPLE_SPOT: return readSimpleSpot((SimpleSpot)value, tag, wire, in);
+			case FULL_SPOT: return readFullSpot((FullSpot)value, tag, wire, in);
+			case STAMP: return readStamp((Stamp)value, tag, wire, in);
+			case VISITED_SPOT: return readVisitedSpot((VisitedSpot)value, tag, wire, in);
+			case ADDRESS: return readAddress((Address)value, tag, wire, in);
+			case CATEGORY: return readCategory((Category)value, tag, wire, in);
+			case FULL_CATEGORY: return readFullCategory((FullCategory)value, tag, wire, in);
+			case USER: return readUser((User)value, tag, wire, in);
+			case SPOT_VISITOR: return readSpotVisitor((SpotVisitor)value, tag, wire, in);
+			case FULL_USER: return readFullUser((FullUser)value, tag, wire, in);
+			case ITEM: return readItem((Item)value, tag, wire, in);
+			case PIN: return readPin((Pin)value, tag, wire, in);
+			case TRIP: return readTrip((Trip)value, tag, wire, in);
+			case TRIP_SUMMARY: return readTripSummary((TripSummary)value, tag, wire, in);
+			case IDENTITY: return readIdentity((Identity<?>)value, tag, wire, in);
+			case PHOTO: return readPhoto((Photo)value, tag, wire, in);
+			case SPOT_EVENT: return readSpotEvent((SpotEvent)value, tag, wire, in);
+			case SPOT_PHOTO: return readSpotPhoto((SpotPhoto)value, tag, wire, in);
+			case USER_EVENT: return readUserEvent((UserEvent)value, tag, wire, in);
+			case USER_PHOTO: return readUserPhoto((UserPhoto)value, tag, wire, in);
+			case ITEM_EVENT: return readItemEvent((ItemEvent)value, tag, wire, in);
+			default: return false;
+		}
+	}
+	
+	private static boolean readSpot(final Spot spot, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 1: spot.setName(readString(in, wire)); return true;
+			case 2: spot.setUrl(readString(in, wire)); return true;
+			case 3: spot.setId(readInt(in, wire)); return true;
+			case 4: spot.setImageUrl(readString(in, wire)); return true;
+			default: return false;
+		}
+	}
+	
+	private static boolean readLocatedSpot(final LocatedSpot spot, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 5: spot.setLat(readString(in, wire)); return true;
+			case 6: spot.setLng(readString(in, wire)); return true;
+			case 7: spot.setStrictRadius(readInt(in, wire) != 0); return true;
+			case 8: spot.setRadiusMeters(readInt(in, wire)); return true;
+			default: return readSpot(spot, tag, wire, in);
+		}
+	}
+	
+	private static boolean readSimpleSpot(final SimpleSpot spot, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 9: spot.setItemsCount(readInt(in, wire)); return true;
+			case 10: spot.setUsersCount(readInt(in, wire)); return true;
+			case 11: spot.setCheckinsCount(readInt(in, wire)); return true;
+			case 12: spot.setTrendingLevel(readInt(in, wire)); return true;
+			case 13: spot.setPhotosCount(readInt(in, wire)); return true;
+			case 14: spot.setAddress(readObject(in, wire, Address.class)); return true;
+			default: return readLocatedSpot(spot, tag, wire, in);
+		}
+	}
+	
+	private static boolean readFullSpot(final FullSpot spot, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 15: spot.setCategories(readList(in, wire, Category.class)); return true;
+			case 16: spot.setDescription(readString(in, wire)); return true;
+			case 17: spot.setTwitterUsername(readString(in, wire)); return true;
+			case 18: spot.setWebsites(readStrings(in, wire)); return true;
+			case 19: spot.setCreatedAt(readDate(in, wire)); return true;
+			case 20: spot.setCreator(readObject(in, wire, User.class)); return true;
+			case 21: spot.setTop10(readList(in, wire, SpotVisitor.class)); return true;
+			case 22: spot.setFounders(readList(in, wire, User.class)); return true;
+			case 23: spot.setMerged(readInt(in, wire) != 0); return true;
+			case 24: spot.setMaxItemsCount(readInt(in, wire)); return true;
+			default: return readSimpleSpot(spot, tag, wire, in);
+		}
+	}
+	
+	private static boolean readStamp(final Stamp stamp, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 5: stamp.setAddress(readObject(in, wire, Address.class)); return true;
+			case 6: stamp.setCheckinsCount(readInt(in, wire)); return true;
+			case 7: stamp.setFirstCheckinAt(readDate(in, wire)); return true;
+			case 8: stamp.setLastCheckinAt(readDate(in, wire)); return true;
+			default: return readSpot(stamp, tag, wire, in);
+		}
+	}
+	
+	private static boolean readVisitedSpot(final VisitedSpot spot, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 5: spot.setUserCheckinsCount(readInt(in, wire)); return true;
+			default: return readSpot(spot, tag, wire, in);
+		}
+	}
+	
+	private static boolean readAddress(final Address address, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 1: address.setLocality(readString(in, wire)); return true;
+			case 2: address.setRegion(readString(in, wire)); return true;
+			default: return false;
+		}
+	}
+	
+	private static GeoPoint readGeoPoint(final BinaryInput in) {
+		BigDecimal latitude = BigDecimal.ZERO;
+		BigDecimal longitude = BigDecimal.ZERO;
+		for(int header = in.readVarint(); header != END; header = in.readVarint()) {
+			final int tag = header >>> 3;
+			final int wire = header & 7;
+			if(tag == 1 && (wire == DECIMAL || wire == STRING)) {
+				latitude = readDecimal(in, wire);
+			} else if(tag == 2 && (wire == DECIMAL || wire == STRING)) {
+				longitude = readDecimal(in, wire);
+			} else {
+				skip(in, wire);
+			}
+		}
+		return new GeoPoint(latitude, longitude);
+	}
+	
+	private static boolean readCategory(final Category category, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 1: category.setName(readString(in, wire)); return true;
+			case 2: category.setUrl(readString(in, wire)); return true;
+			case 3: category.setId(readInt(in, wire)); return true;
+			default: return false;
+		}
+	}
+	
+	private static boolean readFullCategory(final FullCategory category, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 4: category.setDescription(readString(in, wire)); return true;
+			case 5: category.setImageUrl(readString(in, wire)); return true;
+			case 6: category.setSmallImageUrl(readString(in, wire)); return true;
+			case 7: category.setSubcategories(readList(in, wire, FullCategory.class)); return true;
+			default: return readCategory(category, tag, wire, in);
+		}
+	}
+	
+	private static boolean readUser(final User user, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 1: user.setId(readInt(in, wire)); return true;
+			case 2: user.setUrl(readString(in, wire)); return true;
+			case 3: user.setFirstName(readString(in, wire)); return true;
+			case 4: user.setLastName(readString(in, wire)); return true;
+			case 5: user.setImageUrl(readString(in, wire)); return true;
+			default: return false;
+		}
+	}
+	
+	private static boolean readSpotVisitor(final SpotVisitor visitor, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 6: visitor.setCheckinsCount(readInt(in, wire)); return true;
+			default: return readUser(visitor, tag, wire, in);
+		}
+	}
+	
+	private static boolean readFullUser(final FullUser user, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 6: user.setBio(readString(in, wire)); return true;
+			case 7: user.setHometown(readString(in, wire)); return true;
+			case 8: user.setFriendsCount(readInt(in, wire)); return true;
+			case 9: user.setFriend(readInt(in, wire) != 0); return true;
+			case 10: user.setItemsCount(readInt(in, wire)); return true;
+			case 11: user.setPinsCount(readInt(in, wire)); return true;
+			case 12: user.setStampsCount(readInt(in, wire)); return true;
+			case 13: user.setTwitterUsername(readString(in, wire)); return true;
+			case 14: user.setFacebookId(readString(in, wire)); return true;
+			case 15: user.setWebsite(readString(in, wire)); return true;
+			case 16: user.setPhotosCount(readInt(in, wire)); return true;
+			case 17: user.setLastCheckins(readList(in, wire, UserEvent.class)); return true;
+			default: return readUser(user, tag, wire, in);
+		}
+	}
+	
+	private static boolean readItem(final Item item, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 1: item.setId(readInt(in, wire)); return true;
+			case 2: item.setIssueNumber(readInt(in, wire)); return true;
+			case 3: item.setName(readString(in, wire)); return true;
+			case 4: item.setDeterminer(readString(in, wire)); return true;
+			case 5: item.setUrl(readString(in, wire)); return true;
+			case 6: item.setImageUrl(readString(in, wire)); return true;
+			default: return false;
+		}
+	}
+	
+	private static boolean readPin(final Pin pin, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 1: pin.setId(readInt(in, wire)); return true;
+			case 2: pin.setIssueNumber(readInt(in, wire)); return true;
+			case 3: pin.setName(readString(in, wire)); return true;
+			case 4: pin.setUrl(readString(in, wire)); return true;
+			case 5: pin.setImageUrl(readString(in, wire)); return true;
+			case 6: pin.setTrip(readObject(in, wire, Trip.class)); return true;
+			default: return false;
+		}
+	}
+	
+	private static boolean readTrip(final Trip trip, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 1: trip.setId(readInt(in, wire)); return true;
+			case 2: trip.setUrl(readString(in, wire)); return true;
+			case 3: trip.setCompletedUsersCount(readInt(in, wire)); return true;
+			case 4: trip.setCompleted(readInt(in, wire) != 0); return true;
+			case 5: trip.setCreator(readObject(in, wire, User.class)); return true;
+			case 6: trip.setName(readString(in, wire)); return true;
+			case 7: trip.setCreated_at(readDate(in, wire)); return true;
+			case 8: trip.setDescription(readString(in, wire)); return true;
+			case 9: trip.setImageUrl(readString(in, wire)); return true;
+			case 10: trip.setSpots(readList(in, wire, LocatedSpot.class)); return true;
+			default: return false;
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static boolean readTripSummary(final TripSummary trip, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 1: trip.setId(readInt(in, wire)); return true;
+			case 2: trip.setUrl(readString(in, wire)); return true;
+			case 3: trip.setName(readString(in, wire)); return true;
+			case 4: trip.setCompleted(readInt(in, wire) != 0); return true;
+			case 5: trip.setImageUrl(readString(in, wire)); return true;
+			case 6: 
+				final List<?> spots = readList(in, wire, Identity.class);
+				trip.setSpots((List<Identity<FullSpot>>)spots); 
+				return true;
+			default: return false;
+		}
+	}
+	
+	private static boolean readIdentity(final Identity<?> identity, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 1: identity.setId(readInt(in, wire)); return true;
+			case 2: identity.setUrl(readString(in, wire)); return true;
+			default: return false;
+		}
+	}
+	
+	private static boolean readPhoto(final Photo photo, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 1: 
+				final String type = readString(in, wire);
+				try {
+					photo.setPhotoType(type == null ? null : Photo.PhotoType.valueOf(type));
+				} catch(IllegalArgumentException e) {
+					// A type from a newer version.
+					photo.setPhotoType(null);
+				}
+				return true;
+			case 2: photo.setUrl(readString(in, wire)); return true;
+			case 3: photo.setWidth(readInt(in, wire)); return true;
+			case 4: photo.setHeight(readInt(in, wire)); return true;
+			default: return false;
+		}
+	}
+	
+	private static boolean readEvent(final Event event, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 1: event.setCreatedAt(readDate(in, wire)); return true;
+			case 2: event.setType(readString(in, wire)); return true;
+			default: return false;
+		}
+	}
+	
+	private static boolean readSpotEvent(final SpotEvent event, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 3: event.setMessage(readString(in, wire)); return true;
+			case 4: event.setUser(readObject(in, wire, User.class)); return true;
+			default: return readEvent(event, tag, wire, in);
+		}
+	}
+	
+	private static boolean readSpotPhoto(final SpotPhoto photo, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 5: photo.setPhotoUrls(readMap(in, wire)); return true;
+			default: return readSpotEvent(photo, tag, wire, in);
+		}
+	}
+	
+	private static boolean readUserEvent(final UserEvent event, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 3: event.setMessage(readString(in, wire)); return true;
+			case 4: event.setUrl(readString(in, wire)); return true;
+			case 5: event.setSpot(readObject(in, wire, Spot.class)); return true;
+			default: return readEvent(event, tag, wire, in);
+		}
+	}
+	
+	private static boolean readUserPhoto(final UserPhoto photo, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 6: photo.setPhotoUrls(readMap(in, wire)); return true;
+			default: return readUserEvent(photo, tag, wire, in);
+		}
+	}
+	
+	private static boolean readItemEvent(final ItemEvent event, final int tag, final int wire, final BinaryInput in) {
+		switch(tag) {
+			case 3: event.setSpot(readObject(in, wire, Spot.class)); return true;
+			case 4: event.setUser(readObject(in, wire, User.class)); return true;
+			default: return readEvent(event, tag, wire, in);
+		}
+	}
+	
+	// Each of these reads a value written the way it expects, and skips anything
+	// else, giving back the same as if the field wasn't there.
+	
+	private static int readInt(final BinaryInput in, final int wire) {
+		if(wire != VARINT) {
+			skip(in, wire);
+			return 0;
+		}
+		return (int)in.readSigned();
+	}
+	
+	private static Date readDate(final BinaryInput in, final int wire) {
+		if(wire != VARINT) {
+			skip(in, wire);
+			return null;
+		}
+		return new Date(in.readSigned());
+	}
+	
+	private static String readString(final BinaryInput in, final int wire) {
+		if(wire == STRING) {
+			return in.readString();
+		}
+		if(wire == DECIMAL) {
+			return readDecimal(in, wire).toPlainString();
+		}
+		skip(in, wire);
+		return null;
+	}
+	
+	private static BigDecimal readDecimal(final BinaryInput in, final int wire) {
+		if(wire == STRING) {
+			return new BigDecimal(in.readString());
+		}
+		final int scale = (int)in.readSigned();
+		return BigDecimal.valueOf(in.readSigned(), scale);
+	}
+	
+	private static <T> T readObject(final BinaryInput in, final int wire, final Class<T> type) {
+		if(wire != OBJECT) {
+			skip(in, wire);
+			return null;
+		}
+		final Object value = readObjectValue(in);
+		return type.isInstance(value) ? type.cast(value) : null;
+	}
+	
+	/**
+	 * @return The elements of the type given; others are left out.
+	 */
+	private static <T> List<T> readList(final BinaryInput in, final int wire, final Class<T> type) {
+		if(wire != LIST) {
+			skip(in, wire);
+			return null;
+		}
+		final int count = in.readVarint();
+		final int elementWire = in.readByte();
+		final List<T> values = new ArrayList<T>(Math.max(0, Math.min(count, 1024)));
+		for(int i = 0; i < count; i++) {
+			if(elementWire != OBJECT) {
+				skip(in, elementWire);
+				continue;
+			}
+			final Object value = readObjectValue(in);
+			if(type.isInstance(value)) {
+				values.add(type.cast(value));
+			}
+		}
+		return values;
+	}
+	
+	private static String[] readStrings(final BinaryInput in, final int wire) {
+		if(wire != LIST) {
+			skip(in, wire);
+			return null;
+		}
+		final int count = in.readVarint();
+		final int elementWire = in.readByte();
+		final List<String> values = new ArrayList<String>(Math.max(0, Math.min(count, 1024)));
+		for(int i = 0; i < count; i++) {
+			if(elementWire == STRING) {
+				values.add(in.readString());
+			} else {
+				skip(in, elementWire);
+			}
+		}
+		return values.toArray(new String[values.size()]);
+	}
+	
+	private static Map<String, String> readMap(final BinaryInput in, final int wire) {
+		if(wire != MAP) {
+			skip(in, wire);
+			return null;
+		}
+		final int count = in.readVarint();
+		if(count == 0) {
+			return Collections.emptyMap();
+		}
+		final Map<String, String> values = new LinkedHashMap<String, String>();
+		for(int i = 0; i < count; i++) {
+			values.put(in.readString(), in.readString());
+		}
+		return values;
+	}
+	
+	/**
+	 * Read past a value without keeping it.  Strings in it still go in the 
+	 * dictionary, since later references count them.
+	 */
+	private static void skip(final BinaryInput in, final int wire) {
+		switch(wire) {
+			case VARINT: 
+				in.readVarLong(); 
+				break;
+			case STRING: 
+				in.readString(); 
+				break;
+			case OBJECT: 
+				readObjectValue(in); 
+				break;
+			case LIST:
+				final int count = in.readVarint();
+				final int elementWire = in.readByte();
+				for(int i = 0; i < count; i++) {
+					skip(in, elementWire);
+				}
+				break;
+			case DECIMAL:
+				in.readVarLong();
+				in.readVarLong();
+				break;
+			case MAP:
+				final int entries = in.readVarint();
+				for(int i = 0; i < entries; i++) {
+					in.readString();
+					in.readString();
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown wire type: " + wire);
+		}
+	}
+}
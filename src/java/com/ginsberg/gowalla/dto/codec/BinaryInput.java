@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.codec;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads what BinaryOutput writes.  Running off the end, or finding something
+ * that can't be there, is an IllegalArgumentException.
+ * 
+ * @author Todd Ginsberg
+ */
+final class BinaryInput {
+
+	private final byte[] buffer;
+	private int position;
+	private final int end;
+	private final List<String> dictionary = new ArrayList<String>();
+	
+	BinaryInput(final byte[] buffer, final int offset, final int length) {
+		this.buffer = buffer;
+		this.position = offset;
+		this.end = offset + length;
+	}
+	
+	int readByte() {
+		if(position >= end) {
+			throw new IllegalArgumentException("Unexpected end of data");
+		}
+		return buffer[position++] & 0xFF;
+	}
+	
+	int readVarint() {
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			final int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+	
+	long readVarLong() {
+		long value = 0;
+		for(int shift = 0; shift < 70; shift += 7) {
+			final int b = readByte();
+			value |= (long)(b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+	
+	long readSigned() {
+		final long v = readVarLong();
+		return (v >>> 1) ^ -(v & 1);
+	}
+	
+	String readString() {
+		final int reference = readVarint();
+		if(reference > 0) {
+			if(reference > dictionary.size()) {
+				throw new IllegalArgumentException("Unknown string " + reference);
+			}
+			return dictionary.get(reference - 1);
+		}
+		final int length = readVarint();
+		if(length < 0 || length > end - position) {
+			throw new IllegalArgumentException("Unexpected end of data");
+		}
+		final String value;
+		try {
+			value = new String(buffer, position, length, "UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			// Every JVM has UTF-8.
+			throw new IllegalStateException(e);
+		}
+		position += length;
+		dictionary.add(value);
+		return value;
+	}
+	
+	boolean isAtEnd() {
+		return position == end;
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.codec;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the primitives of the binary format into a growing byte array.
+ * 
+ * Numbers are written as varints: seven bits a byte, low bits first, with the
+ * high bit set on every byte but the last.  Signed numbers are zig-zagged 
+ * first, so small negative numbers stay small.  Each string is written in full
+ * the first time, and as its number in the dictionary after that.
+ * 
+ * @author Todd Ginsberg
+ */
+final class BinaryOutput {
+
+	private byte[] buffer;
+	private int length = 0;
+	private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+	
+	BinaryOutput(final int capacity) {
+		buffer = new byte[Math.max(16, capacity)];
+	}
+	
+	void writeByte(final int value) {
+		ensure(1);
+		buffer[length++] = (byte)value;
+	}
+	
+	void writeVarint(final int value) {
+		ensure(5);
+		int v = value;
+		while((v & ~0x7F) != 0) {
+			buffer[length++] = (byte)((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		buffer[length++] = (byte)v;
+	}
+	
+	void writeVarLong(final long value) {
+		ensure(10);
+		long v = value;
+		while((v & ~0x7FL) != 0) {
+			buffer[length++] = (byte)((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		buffer[length++] = (byte)v;
+	}
+	
+	void writeSigned(final long value) {
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+	
+	/**
+	 * Write a string, or a reference to it if it's been written before.
+	 */
+	void writeString(final String value) {
+		final Integer known = dictionary.get(value);
+		if(known != null) {
+			writeVarint(known + 1);
+			return;
+		}
+		dictionary.put(value, dictionary.size());
+		writeVarint(0);
+		final byte[] bytes;
+		try {
+			bytes = value.getBytes("UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			// Every JVM has UTF-8.
+			throw new IllegalStateException(e);
+		}
+		writeVarint(bytes.length);
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+	}
+	
+	byte[] toByteArray() {
+		return Arrays.copyOf(buffer, length);
+	}
+	
+	int size() {
+		return length;
+	}
+	
+	private void ensure(final int more) {
+		if(length + more > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + more));
+		}
+	}
+}
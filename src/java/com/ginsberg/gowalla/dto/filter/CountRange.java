@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.filter;
+
+import com.ginsberg.gowalla.dto.SimpleSpot;
+
+/**
+ * An implementation of Filter that only allows spots with one of their counts
+ * (checkins, users, items...) between a minimum and maximum, inclusive.
+ * 
+ * SpotTable can answer this without testing every spot.
+ * 
+ * @author Todd Ginsberg
+ */
+public class CountRange implements Filter<SimpleSpot> {
+
+	private static final long serialVersionUID = 3309614527744180236L;
+	private final Count count;
+	private final int minimum;
+	private final int maximum;
+	
+	public CountRange(final Count count, final int minimum, final int maximum) {
+		super();
+		this.count = count;
+		this.minimum = minimum;
+		this.maximum = maximum;
+	}
+	
+	/**
+	 * Only allow spots with at least the given count.
+	 */
+	public static CountRange atLeast(final Count count, final int minimum) {
+		return new CountRange(count, minimum, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Only allow spots with at most the given count.
+	 */
+	public static CountRange atMost(final Count count, final int maximum) {
+		return new CountRange(count, Integer.MIN_VALUE, maximum);
+	}
+	
+	public Count getCount() {
+		return count;
+	}
+	
+	public int getMinimum() {
+		return minimum;
+	}
+	
+	public int getMaximum() {
+		return maximum;
+	}
+
+	/**
+	 * @see com.ginsberg.gowalla.dto.filter.Filter#isIncluded(java.lang.Object)
+	 */
+	@Override
+	public boolean isIncluded(SimpleSpot object) {
+		if(object == null) {
+			return false;
+		}
+		final int value = valueOf(object, count);
+		return value >= minimum && value <= maximum;
+	}
+	
+	/**
+	 * @return The count given from the spot.
+	 */
+	public static int valueOf(final SimpleSpot spot, final Count count) {
+		switch(count) {
+			case CHECKINS: return spot.getCheckinsCount();
+			case USERS: return spot.getUsersCount();
+			case ITEMS: return spot.getItemsCount();
+			case PHOTOS: return spot.getPhotosCount();
+			case TRENDING_LEVEL: return spot.getTrendingLevel();
+			case RADIUS_METERS: return spot.getRadiusMeters();
+			default: throw new IllegalArgumentException("Unknown count: " + count);
+		}
+	}
+
+}
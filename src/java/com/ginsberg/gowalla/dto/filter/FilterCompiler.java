@@ -0,0 +1,397 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.filter;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.ginsberg.gowalla.dto.SimpleSpot;
+
+/**
+ * Rewrites a tree of filters into one that gives the same answers faster:
+ * <ul>
+ * <li>Nested And and Or filters are flattened, and double negatives removed.</li>
+ * <li>Within an And, the spot count filters (HasItems, HasPhotos, CountRange) 
+ *     are merged into a single test of all the counts at once.</li>
+ * <li>The children of each And and Or are run cheapest and most decisive first,
+ *     and the order is adjusted as the filter is used, by how often each child 
+ *     actually passes.</li>
+ * </ul>
+ * Compiled filters are thread safe if the filters they were compiled from are.
+ * Each thread keeps its own pass rates and order, so threads sharing a 
+ * compiled filter never write to the same memory.
+ * 
+ * @author Todd Ginsberg
+ */
+public final class FilterCompiler {
+
+	/**
+	 * How many spots an And or Or sees between looking at its order again.
+	 */
+	static final int REORDER_INTERVAL = 1024;
+	
+	private FilterCompiler() {
+		super();
+	}
+	
+	/**
+	 * @return A filter including exactly the same objects as the one given.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Filter<T> compile(final Filter<T> filter) {
+		if(filter instanceof And<?>) {
+			final List<Filter<T>> children = new ArrayList<Filter<T>>();
+			flatten(filter, true, children);
+			return combine(mergeCounts(children), true);
+		}
+		if(filter instanceof Or<?>) {
+			final List<Filter<T>> children = new ArrayList<Filter<T>>();
+			flatten(filter, false, children);
+			return combine(children, false);
+		}
+		if(filter instanceof Not<?>) {
+			final Filter<T> inner = ((Not<T>)filter).getInner();
+			if(inner instanceof Not<?>) {
+				return compile(((Not<T>)inner).getInner());
+			}
+			return new Not<T>(compile(inner));
+		}
+		return filter;
+	}
+	
+	/**
+	 * Find a distance filter that every included spot must pass, which a 
+	 * spatial index can use to find candidates.
+	 * 
+	 * @return The filter, or null if there isn't one.
+	 */
+	public static WithinDistance findRequiredDistance(final Filter<?> filter) {
+		if(filter instanceof WithinDistance) {
+			return (WithinDistance)filter;
+		}
+		final List<? extends Filter<?>> children;
+		if(filter instanceof And<?>) {
+			children = ((And<?>)filter).getFilters();
+		} else if(filter instanceof Conjunction<?>) {
+			children = Arrays.asList(((Conjunction<?>)filter).children);
+		} else {
+			return null;
+		}
+		WithinDistance smallest = null;
+		for(Filter<?> child : children) {
+			final WithinDistance found = findRequiredDistance(child);
+			if(found != null && (smallest == null || found.getMeters() < smallest.getMeters())) {
+				smallest = found;
+			}
+		}
+		return smallest;
+	}
+	
+	/**
+	 * Pull the children of nested Ands (or Ors) up into one list, compiling the rest.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> void flatten(final Filter<T> filter, final boolean and, final List<Filter<T>> children) {
+		if(and ? filter instanceof And<?> : filter instanceof Or<?>) {
+			final List<Filter<T>> nested = and ? ((And<T>)filter).getFilters() : ((Or<T>)filter).getFilters();
+			for(Filter<T> child : nested) {
+				flatten(child, and, children);
+			}
+		} else {
+			final Filter<T> compiled = compile(filter);
+			if(and ? compiled instanceof Conjunction<?> : compiled instanceof Disjunction<?>) {
+				children.addAll(Arrays.asList(((Combination<T>)compiled).children));
+			} else {
+				children.add(compiled);
+			}
+		}
+	}
+	
+	/**
+	 * Replace every count filter in an And with one that checks them all.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> List<Filter<T>> mergeCounts(final List<Filter<T>> children) {
+		final List<Filter<T>> merged = new ArrayList<Filter<T>>();
+		CountRanges ranges = null;
+		for(Filter<T> child : children) {
+			if(child instanceof HasItems || child instanceof HasPhotos || child instanceof CountRange || child instanceof CountRanges) {
+				if(ranges == null) {
+					ranges = new CountRanges();
+					merged.add((Filter<T>)ranges);
+				}
+				ranges.restrict(child);
+			} else {
+				merged.add(child);
+			}
+		}
+		return merged;
+	}
+	
+	private static <T> Filter<T> combine(final List<Filter<T>> children, final boolean and) {
+		if(children.size() == 1) {
+			return children.get(0);
+		}
+		return and ? new Conjunction<T>(children) : new Disjunction<T>(children);
+	}
+	
+	/**
+	 * A guess at how expensive a filter is to run, relative to checking one count.
+	 */
+	static int costOf(final Filter<?> filter) {
+		if(filter instanceof CountRanges || filter instanceof HasItems || filter instanceof HasPhotos || filter instanceof CountRange) {
+			return 1;
+		}
+		if(filter instanceof InCategory) {
+			return 4;
+		}
+		if(filter instanceof WithinDistance) {
+			return 20;
+		}
+		if(filter instanceof Not<?>) {
+			return costOf(((Not<?>)filter).getInner());
+		}
+		if(filter instanceof Combination<?>) {
+			int cost = 0;
+			for(Filter<?> child : ((Combination<?>)filter).children) {
+				cost += costOf(child);
+			}
+			return cost;
+		}
+		return 10;
+	}
+	
+	/**
+	 * An And or Or whose children are kept in the order expected to decide
+	 * soonest for the least work.  Each child's pass rate is counted as spots go
+	 * through, and the order is looked at again every REORDER_INTERVAL spots.
+	 * Counts and order are kept per thread, so they need no locking.
+	 */
+	private abstract static class Combination<T> implements Filter<T> {
+		private static final long serialVersionUID = 1L;
+		final Filter<T>[] children;
+		private final int[] costs;
+		private transient ThreadLocal<Statistics> statistics;
+		
+		@SuppressWarnings("unchecked")
+		Combination(final List<Filter<T>> children) {
+			this.children = (Filter<T>[])children.toArray(new Filter<?>[children.size()]);
+			costs = new int[this.children.length];
+			for(int i = 0; i < costs.length; i++) {
+				costs[i] = costOf(this.children[i]);
+			}
+			statistics = newStatistics();
+		}
+		
+		/**
+		 * @return The result if any child gives the deciding answer, otherwise the opposite.
+		 */
+		final boolean evaluate(final T object, final boolean deciding) {
+			final Statistics current = statistics.get();
+			boolean result = !deciding;
+			for(int i : current.order) {
+				final boolean included = children[i].isIncluded(object);
+				current.evaluated[i]++;
+				if(included) {
+					current.passed[i]++;
+				}
+				if(included == deciding) {
+					result = deciding;
+					break;
+				}
+			}
+			if(++current.sinceReorder >= REORDER_INTERVAL) {
+				current.sinceReorder = 0;
+				reorder(current);
+			}
+			return result;
+		}
+		
+		private ThreadLocal<Statistics> newStatistics() {
+			return new ThreadLocal<Statistics>() {
+				@Override
+				protected Statistics initialValue() {
+					final Statistics started = new Statistics(children.length);
+					reorder(started);
+					return started;
+				}
+			};
+		}
+		
+		private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+			in.defaultReadObject();
+			statistics = newStatistics();
+		}
+		
+		/**
+		 * Sort by cost per decision: the cost of running a child, divided by the 
+		 * (smoothed) chance it decides the result.
+		 */
+		private void reorder(final Statistics current) {
+			final Integer[] sorted = new Integer[children.length];
+			final double[] rank = new double[children.length];
+			for(int i = 0; i < sorted.length; i++) {
+				sorted[i] = i;
+				final double passRate = (current.passed[i] + 1.0) / (current.evaluated[i] + 2.0);
+				rank[i] = costs[i] / decisiveRate(passRate);
+			}
+			Arrays.sort(sorted, new Comparator<Integer>() {
+				@Override
+				public int compare(final Integer a, final Integer b) {
+					final int byRank = Double.compare(rank[a], rank[b]);
+					return byRank != 0 ? byRank : a - b;
+				}
+			});
+			for(int i = 0; i < sorted.length; i++) {
+				current.order[i] = sorted[i];
+			}
+		}
+		
+		abstract double decisiveRate(double passRate);
+		
+		/**
+		 * @return The children, in the order they are currently run by this thread.
+		 */
+		List<Filter<T>> getOrder() {
+			final List<Filter<T>> ordered = new ArrayList<Filter<T>>();
+			for(int i : statistics.get().order) {
+				ordered.add(children[i]);
+			}
+			return ordered;
+		}
+	}
+	
+	/**
+	 * One thread's pass counts and order for the children of a Combination.
+	 */
+	private static class Statistics {
+		private final long[] evaluated;
+		private final long[] passed;
+		private final int[] order;
+		private int sinceReorder = 0;
+		
+		private Statistics(final int children) {
+			evaluated = new long[children];
+			passed = new long[children];
+			order = new int[children];
+		}
+	}
+	
+	private static class Conjunction<T> extends Combination<T> {
+		private static final long serialVersionUID = 1L;
+		
+		Conjunction(final List<Filter<T>> children) {
+			super(children);
+		}
+		
+		@Override
+		public boolean isIncluded(final T object) {
+			return evaluate(object, false);
+		}
+		
+		@Override
+		double decisiveRate(final double passRate) {
+			return 1 - passRate;
+		}
+	}
+	
+	private static class Disjunction<T> extends Combination<T> {
+		private static final long serialVersionUID = 1L;
+		
+		Disjunction(final List<Filter<T>> children) {
+			super(children);
+		}
+		
+		@Override
+		public boolean isIncluded(final T object) {
+			return evaluate(object, true);
+		}
+		
+		@Override
+		double decisiveRate(final double passRate) {
+			return passRate;
+		}
+	}
+	
+	/**
+	 * Every count filter from an And, as one range per count.  Reads each count
+	 * straight from the spot with no calls through Filter.
+	 */
+	private static class CountRanges implements Filter<SimpleSpot> {
+		private static final long serialVersionUID = 1L;
+		private final int[] minimums = new int[Count.values().length];
+		private final int[] maximums = new int[Count.values().length];
+		
+		CountRanges() {
+			Arrays.fill(minimums, Integer.MIN_VALUE);
+			Arrays.fill(maximums, Integer.MAX_VALUE);
+		}
+		
+		void restrict(final Filter<?> filter) {
+			if(filter instanceof HasItems) {
+				restrict(Count.ITEMS, 1, Integer.MAX_VALUE);
+			} else if(filter instanceof HasPhotos) {
+				restrict(Count.PHOTOS, 1, Integer.MAX_VALUE);
+			} else if(filter instanceof CountRange) {
+				final CountRange range = (CountRange)filter;
+				restrict(range.getCount(), range.getMinimum(), range.getMaximum());
+			} else {
+				final CountRanges ranges = (CountRanges)filter;
+				for(Count count : Count.values()) {
+					restrict(count, ranges.minimums[count.ordinal()], ranges.maximums[count.ordinal()]);
+				}
+			}
+		}
+		
+		private void restrict(final Count count, final int minimum, final int maximum) {
+			minimums[count.ordinal()] = Math.max(minimums[count.ordinal()], minimum);
+			maximums[count.ordinal()] = Math.min(maximums[count.ordinal()], maximum);
+		}
+		
+		@Override
+		public boolean isIncluded(final SimpleSpot spot) {
+			return spot != null &&
+				within(spot.getCheckinsCount(), Count.CHECKINS) &&
+				within(spot.getUsersCount(), Count.USERS) &&
+				within(spot.getItemsCount(), Count.ITEMS) &&
+				within(spot.getPhotosCount(), Count.PHOTOS) &&
+				within(spot.getTrendingLevel(), Count.TRENDING_LEVEL) &&
+				within(spot.getRadiusMeters(), Count.RADIUS_METERS);
+		}
+		
+		private boolean within(final int value, final Count count) {
+			return value >= minimums[count.ordinal()] && value <= maximums[count.ordinal()];
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.ginsberg.gowalla.dto.Category;
+import com.ginsberg.gowalla.dto.FullCategory;
+import com.ginsberg.gowalla.dto.FullSpot;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+import com.ginsberg.gowalla.dto.index.CategoryTree;
+
+/**
+ * An implementation of Filter that only allows spots in a category or any of 
+ * its subcategories, however deeply nested.  Either the ids under the category
+ * are collected once, up front, or a CategoryTree is asked.
+ * 
+ * Only FullSpots carry their categories, so any other spot is left out.
+ * 
+ * @author Todd Ginsberg
+ */
+public class InCategory implements Filter<SimpleSpot> {
+
+	private static final long serialVersionUID = -1934012578112237652L;
+	private final int rootId;
+	private final int[] categoryIds;
+	private final CategoryTree tree;
+	
+	/**
+	 * @param root A category, with its subcategories filled in (as from Gowalla.getCategories()).
+	 */
+	public InCategory(final FullCategory root) {
+		super();
+		rootId = root.getId();
+		final List<Integer> ids = new ArrayList<Integer>();
+		final LinkedList<FullCategory> toVisit = new LinkedList<FullCategory>();
+		toVisit.add(root);
+		while(!toVisit.isEmpty()) {
+			final FullCategory category = toVisit.removeFirst();
+			ids.add(category.getId());
+			toVisit.addAll(category.getSubcategories());
+		}
+		categoryIds = new int[ids.size()];
+		for(int i = 0; i < categoryIds.length; i++) {
+			categoryIds[i] = ids.get(i);
+		}
+		Arrays.sort(categoryIds);
+		tree = null;
+	}
+	
+	/**
+	 * Use a category tree to decide whether categories are under the root, 
+	 * instead of collecting the ids under it.
+	 * 
+	 * @param tree The whole category tree, as from CategoryService.
+	 * @param rootId The category spots must be in, or under.
+	 */
+	public InCategory(final CategoryTree tree, final int rootId) {
+		super();
+		this.rootId = rootId;
+		this.categoryIds = null;
+		this.tree = tree;
+	}
+	
+	/**
+	 * @return The id of the category this filter was built from.
+	 */
+	public int getRootId() {
+		return rootId;
+	}
+	
+	/**
+	 * @return true if the category id is the root or one of its subcategories.
+	 */
+	public boolean contains(final int categoryId) {
+		if(tree != null) {
+			return tree.isWithin(categoryId, rootId);
+		}
+		return Arrays.binarySearch(categoryIds, categoryId) >= 0;
+	}
+
+	/**
+	 * @see com.ginsberg.gowalla.dto.filter.Filter#isIncluded(java.lang.Object)
+	 */
+	@Override
+	public boolean isIncluded(SimpleSpot object) {
+		if(!(object instanceof FullSpot) || ((FullSpot)object).getCategories() == null) {
+			return false;
+		}
+		for(Category category : ((FullSpot)object).getCategories()) {
+			if(category != null && contains(category.getId())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
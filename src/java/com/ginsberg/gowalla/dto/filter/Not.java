@@ -42,6 +42,13 @@ public class Not<T> implements Filter<T> {
 		super();
 		this.inner = inner;
 	}
+	
+	/**
+	 * @return The filter being negated.
+	 */
+	public Filter<T> getInner() {
+		return inner;
+	}
 
 	/**
 	 * @see com.ginsberg.gowalla.dto.filter.Filter#isIncluded(java.lang.Object)
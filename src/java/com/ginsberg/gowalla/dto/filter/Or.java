@@ -29,6 +29,10 @@
  */
 package com.ginsberg.gowalla.dto.filter;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Logical OR filter.
  * @author Todd Ginsberg
@@ -43,6 +47,13 @@ public class Or<T> implements Filter<T> {
 		this.filters = filters;
 	}
 	
+	/**
+	 * @return The filters being combined, in order.
+	 */
+	public List<Filter<T>> getFilters() {
+		return Collections.unmodifiableList(Arrays.asList(filters));
+	}
+	
 	/**
 	 * @see com.ginsberg.gowalla.dto.filter.Filter#isIncluded(java.lang.Object)
 	 */
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.filter;
+
+import static com.ginsberg.gowalla.dto.GeoPoint.METERS_PER_DEGREE;
+import static java.lang.Math.cos;
+import static java.lang.Math.toRadians;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.Locatable;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+
+/**
+ * An implementation of Filter that only allows spots within a distance of a point.
+ * Distances are rounded to the meter, as with GeoPoint.getDistanceMeters().
+ * 
+ * SpotIndex and SpotTable can answer this without testing every spot.
+ * 
+ * @author Todd Ginsberg
+ */
+public class WithinDistance implements Filter<SimpleSpot> {
+
+	private static final long serialVersionUID = -6178412469001398834L;
+	private final GeoPoint center;
+	private final int meters;
+	private final double latitude;
+	private final double longitude;
+	private final double latitudeDegrees;
+	private final double longitudeDegrees;
+	
+	public WithinDistance(final Locatable center, final int meters) {
+		super();
+		this.center = center.getGeoLocation();
+		this.meters = meters;
+		this.latitude = this.center.getLatitude().doubleValue();
+		this.longitude = this.center.getLongitude().doubleValue();
+		this.latitudeDegrees = (meters + 1) / METERS_PER_DEGREE;
+		final double scale = cos(toRadians(Math.min(90, Math.abs(latitude) + latitudeDegrees)));
+		this.longitudeDegrees = scale <= 0 ? 360 : latitudeDegrees / scale;
+	}
+	
+	public GeoPoint getCenter() {
+		return center;
+	}
+	
+	public int getMeters() {
+		return meters;
+	}
+
+	/**
+	 * @see com.ginsberg.gowalla.dto.filter.Filter#isIncluded(java.lang.Object)
+	 */
+	@Override
+	public boolean isIncluded(SimpleSpot object) {
+		if(object == null) {
+			return false;
+		}
+		final GeoPoint location = object.getGeoLocation();
+		final double lat = location.getLatitude().doubleValue();
+		final double lng = location.getLongitude().doubleValue();
+		// Cheap box check before the real distance, wrapping around the 180th meridian.
+		return Math.abs(lat - latitude) <= latitudeDegrees && 
+			GeoPoint.getLongitudeDifference(lng, longitude) <= longitudeDegrees &&
+			Math.round(GeoPoint.getDistanceMeters(latitude, longitude, lat, lng)) <= meters;
+	}
+
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.index;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ginsberg.gowalla.dto.FullCategory;
+
+/**
+ * The whole category tree, as returned by Gowalla.getCategories(), indexed by id.
+ * 
+ * Every category is numbered twice on a walk of the tree: once on the way in,
+ * and once on the way out after all of its subcategories.  A category is then 
+ * inside another exactly when its numbers fall between the other's, which 
+ * makes "is this category under that one?" two comparisons, however deep the
+ * tree.
+ * 
+ * Immutable, and thread safe, as long as the categories it was built from aren't changed.
+ * 
+ * @author Todd Ginsberg
+ */
+public class CategoryTree implements Serializable {
+
+	private static final long serialVersionUID = 6519330128174437103L;
+	private final List<FullCategory> roots;
+	private final Map<Integer, Node> nodes = new HashMap<Integer, Node>();
+	
+	public CategoryTree(final List<FullCategory> roots) {
+		super();
+		this.roots = Collections.unmodifiableList(new ArrayList<FullCategory>(roots));
+		int counter = 0;
+		for(FullCategory root : roots) {
+			counter = number(root, null, counter);
+		}
+	}
+	
+	/**
+	 * Number a category and everything under it.
+	 * @return The next number to use.
+	 */
+	private int number(final FullCategory category, final FullCategory parent, final int start) {
+		int counter = start;
+		final Node node = new Node(category, parent, counter++);
+		// If an id shows up twice, the first one wins.
+		if(nodes.containsKey(category.getId())) {
+			return counter;
+		}
+		nodes.put(category.getId(), node);
+		for(FullCategory child : category.getSubcategories()) {
+			counter = number(child, category, counter);
+		}
+		node.exit = counter++;
+		return counter;
+	}
+	
+	/**
+	 * @return The top level categories.
+	 */
+	public List<FullCategory> getRoots() {
+		return roots;
+	}
+	
+	/**
+	 * @return The category, or null if there is none with that id.
+	 */
+	public FullCategory get(final int id) {
+		final Node node = nodes.get(id);
+		return node == null ? null : node.category;
+	}
+	
+	/**
+	 * @return The category's parent, or null for top level or unknown categories.
+	 */
+	public FullCategory getParent(final int id) {
+		final Node node = nodes.get(id);
+		return node == null ? null : node.parent;
+	}
+	
+	public boolean contains(final int id) {
+		return nodes.containsKey(id);
+	}
+	
+	/**
+	 * @return true if the category is the ancestor given, or any category under it.
+	 */
+	public boolean isWithin(final int id, final int ancestorId) {
+		final Node node = nodes.get(id);
+		final Node ancestor = nodes.get(ancestorId);
+		return node != null && ancestor != null && 
+			node.enter >= ancestor.enter && node.exit <= ancestor.exit;
+	}
+	
+	/**
+	 * @return The number of categories, at all levels.
+	 */
+	public int size() {
+		return nodes.size();
+	}
+	
+	private static class Node implements Serializable {
+		private static final long serialVersionUID = -2317086512279461207L;
+		private final FullCategory category;
+		private final FullCategory parent;
+		private final int enter;
+		private int exit;
+		
+		private Node(final FullCategory category, final FullCategory parent, final int enter) {
+			this.category = category;
+			this.parent = parent;
+			this.enter = enter;
+		}
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("CategoryTree[roots=%d, size=%d]", roots.size(), nodes.size());
+	}
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.index;
+
+import static com.ginsberg.gowalla.dto.GeoPoint.METERS_PER_DEGREE;
+import static java.lang.Math.cos;
+import static java.lang.Math.toRadians;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.Locatable;
+import com.ginsberg.gowalla.dto.LocatedSpot;
+
+/**
+ * Works out which of a (large) set of spots can be checked in to from a 
+ * location, giving the same answer as calling LocatedSpot.canCheckIn() on 
+ * each of them.  The spots are copied once into primitive arrays sorted by
+ * latitude, so each evaluation only binary searches for the band of spots 
+ * within reach, box checks each of those against its own radius, and works
+ * out the distance once for what's left.  Build one of these per set of 
+ * spots and evaluate as many locations against it as you like.
+ * 
+ * Immutable once built, and thread safe.  For a set of spots that changes,
+ * see SpotIndex.canCheckIn().
+ * 
+ * @author Todd Ginsberg
+ */
+public class CheckinEvaluator<T extends LocatedSpot> {
+
+	private final T[] spots;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final int[] radii;
+	private final int maxRadiusMeters;
+	
+	/**
+	 * Prepare a set of spots for evaluation.
+	 */
+	@SuppressWarnings("unchecked")
+	public CheckinEvaluator(final Collection<? extends T> toEvaluate) {
+		super();
+		final Prepared[] prepared = new Prepared[toEvaluate.size()];
+		int i = 0;
+		for(T spot : toEvaluate) {
+			prepared[i++] = new Prepared(spot);
+		}
+		Arrays.sort(prepared, new Comparator<Prepared>() {
+			@Override
+			public int compare(final Prepared a, final Prepared b) {
+				return Double.compare(a.latitude, b.latitude);
+			}
+		});
+		spots = (T[])new LocatedSpot[prepared.length];
+		latitudes = new double[prepared.length];
+		longitudes = new double[prepared.length];
+		radii = new int[prepared.length];
+		int maxRadius = 0;
+		for(i = 0; i < prepared.length; i++) {
+			spots[i] = (T)prepared[i].spot;
+			latitudes[i] = prepared[i].latitude;
+			longitudes[i] = prepared[i].longitude;
+			radii[i] = prepared[i].spot.getRadiusMeters();
+			maxRadius = Math.max(maxRadius, radii[i]);
+		}
+		maxRadiusMeters = maxRadius;
+	}
+	
+	/**
+	 * Evaluate a set of spots just once, in a single pass that box checks each
+	 * spot against its own radius before working out the distance.  If the same
+	 * spots will be evaluated again, keep an instance of this class around instead.
+	 * 
+	 * @return Every spot that can be checked in to from the location, in the order given.
+	 */
+	public static <T extends LocatedSpot> List<T> canCheckIn(final Locatable from, final Collection<? extends T> spots) {
+		final GeoPoint point = from.getGeoLocation();
+		final double latitude = point.getLatitude().doubleValue();
+		final double longitude = point.getLongitude().doubleValue();
+		final List<T> found = new ArrayList<T>();
+		for(T spot : spots) {
+			final GeoPoint location = spot.getGeoLocation();
+			final double spotLatitude = location.getLatitude().doubleValue();
+			final double spotDegrees = (spot.getRadiusMeters() + 1) / METERS_PER_DEGREE;
+			if(Math.abs(spotLatitude - latitude) > spotDegrees) {
+				continue;
+			}
+			final double spotLongitude = location.getLongitude().doubleValue();
+			final double scale = cos(toRadians(Math.min(90, Math.abs(latitude) + spotDegrees)));
+			if(GeoPoint.getLongitudeDifference(spotLongitude, longitude) * scale <= spotDegrees &&
+					Math.round(GeoPoint.getDistanceMeters(latitude, longitude, spotLatitude, spotLongitude)) <= spot.getRadiusMeters()) {
+				found.add(spot);
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * @return Every spot that can be checked in to from the location, in order of latitude.
+	 */
+	public List<T> canCheckIn(final Locatable from) {
+		final GeoPoint point = from.getGeoLocation();
+		final double latitude = point.getLatitude().doubleValue();
+		final double longitude = point.getLongitude().doubleValue();
+		final double reachDegrees = (maxRadiusMeters + 1) / METERS_PER_DEGREE;
+		final double scale = cos(toRadians(Math.min(90, Math.abs(latitude) + reachDegrees)));
+		
+		final List<T> found = new ArrayList<T>();
+		final int end = firstAbove(latitude + reachDegrees);
+		for(int i = firstAbove(latitude - reachDegrees - Double.MIN_VALUE); i < end; i++) {
+			final double spotDegrees = (radii[i] + 1) / METERS_PER_DEGREE;
+			if(Math.abs(latitudes[i] - latitude) <= spotDegrees && 
+					GeoPoint.getLongitudeDifference(longitudes[i], longitude) * scale <= spotDegrees &&
+					Math.round(GeoPoint.getDistanceMeters(latitude, longitude, latitudes[i], longitudes[i])) <= radii[i]) {
+				found.add(spots[i]);
+			}
+		}
+		return found;
+	}
+	
+	public int size() {
+		return spots.length;
+	}
+	
+	/**
+	 * Index of the first spot with a latitude greater than the one given.
+	 */
+	private int firstAbove(final double latitude) {
+		int low = 0;
+		int high = latitudes.length;
+		while(low < high) {
+			final int middle = (low + high) >>> 1;
+			if(latitudes[middle] <= latitude) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * A spot with its coordinates unpacked, for sorting.
+	 */
+	private static class Prepared {
+		private final LocatedSpot spot;
+		private final double latitude;
+		private final double longitude;
+		
+		private Prepared(final LocatedSpot spot) {
+			this.spot = spot;
+			this.latitude = spot.getGeoLocation().getLatitude().doubleValue();
+			this.longitude = spot.getGeoLocation().getLongitude().doubleValue();
+		}
+	}
+}
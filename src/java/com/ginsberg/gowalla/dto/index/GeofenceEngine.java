@@ -0,0 +1,243 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.LocatedSpot;
+
+/**
+ * Turns a stream of user locations into events for users entering and leaving 
+ * the check in radius of the spots in a SpotIndex.  A user is inside a spot 
+ * whenever canCheckIn() would be true for their location.
+ * 
+ * For each user, only the last timestamp, the last position and the spots they 
+ * are currently inside are kept.  Each update looks up the spots in reach of the 
+ * new position through the index, and compares them to the spots the user was
+ * in before, so an update costs about the same as a single canCheckIn() search 
+ * no matter how many spots or users there are.  An update at the same position
+ * as the last one does no search at all, unless the index has changed since.
+ * 
+ * Updates for different users may come from any number of threads at once.
+ * Updates for one user are applied one at a time in timestamp order, and an 
+ * update older than the last one applied for that user is ignored.  Listeners 
+ * are called on the updating thread, in order, before update() returns, so 
+ * they should be quick.
+ * 
+ * Changes to the index are picked up on each user's next update; a user inside 
+ * a spot that has been removed will leave it then.
+ * 
+ * @author Todd Ginsberg
+ */
+public class GeofenceEngine<T extends LocatedSpot> {
+
+	private static final LocatedSpot[] NOWHERE = new LocatedSpot[0];
+	
+	private final SpotIndex<T> index;
+	private final Listener<? super T> listener;
+	private final ConcurrentMap<String, UserState> users = new ConcurrentHashMap<String, UserState>();
+	private final ThreadLocal<List<T>> scratch = new ThreadLocal<List<T>>() {
+		@Override
+		protected List<T> initialValue() {
+			return new ArrayList<T>();
+		}
+	};
+	
+	public GeofenceEngine(final SpotIndex<T> index, final Listener<? super T> listener) {
+		super();
+		if(index == null || listener == null) {
+			throw new IllegalArgumentException("Index and listener are required");
+		}
+		this.index = index;
+		this.listener = listener;
+	}
+	
+	/**
+	 * Record a user's location.
+	 * @return false if the update was older than the last one for this user, and was ignored.
+	 */
+	public boolean update(final String userKey, final GeoPoint location, final long timestamp) {
+		return update(userKey, location.getLatitude().doubleValue(), location.getLongitude().doubleValue(), timestamp);
+	}
+	
+	/**
+	 * Record a user's location.  This is the cheaper form, for feeds that don't 
+	 * already have a GeoPoint.
+	 * @return false if the update was older than the last one for this user, and was ignored.
+	 */
+	public boolean update(final String userKey, final double latitude, final double longitude, final long timestamp) {
+		UserState state = users.get(userKey);
+		if(state == null) {
+			final UserState created = new UserState();
+			state = users.putIfAbsent(userKey, created);
+			if(state == null) {
+				state = created;
+			}
+		}
+		synchronized(state) {
+			if(timestamp < state.timestamp) {
+				return false;
+			}
+			state.timestamp = timestamp;
+			final int modifications = index.getModificationCount();
+			if(state.inside != null && latitude == state.latitude && longitude == state.longitude && modifications == state.modifications) {
+				return true;
+			}
+			state.latitude = latitude;
+			state.longitude = longitude;
+			state.modifications = modifications;
+			
+			final List<T> found = scratch.get();
+			found.clear();
+			index.canCheckIn(latitude, longitude, found);
+			sortById(found);
+			final LocatedSpot[] before = state.inside == null ? NOWHERE : state.inside;
+			if(sameIds(before, found)) {
+				state.inside = before;
+				return true;
+			}
+			final LocatedSpot[] after = found.isEmpty() ? NOWHERE : found.toArray(new LocatedSpot[found.size()]);
+			found.clear();
+			state.inside = after;
+			fireChanges(userKey, before, after, timestamp);
+			return true;
+		}
+	}
+	
+	/**
+	 * @return The spots the user was inside as of their last update, in order of id.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> getInside(final String userKey) {
+		final UserState state = users.get(userKey);
+		if(state == null) {
+			return Collections.emptyList();
+		}
+		synchronized(state) {
+			return state.inside == null ? Collections.<T>emptyList() : (List<T>)Arrays.asList(state.inside.clone());
+		}
+	}
+	
+	/**
+	 * Drop everything known about a user, without sending any events.
+	 */
+	public void forget(final String userKey) {
+		users.remove(userKey);
+	}
+	
+	/**
+	 * @return The number of users being tracked.
+	 */
+	public int getUserCount() {
+		return users.size();
+	}
+	
+	/**
+	 * Walk both id-ordered arrays together, reporting the spots only in the 
+	 * old one as exits and the spots only in the new one as entries.
+	 */
+	@SuppressWarnings("unchecked")
+	private void fireChanges(final String userKey, final LocatedSpot[] before, final LocatedSpot[] after, final long timestamp) {
+		int b = 0;
+		int a = 0;
+		while(b < before.length || a < after.length) {
+			if(a == after.length || (b < before.length && before[b].getId() < after[a].getId())) {
+				listener.exited(userKey, (T)before[b++], timestamp);
+			} else if(b == before.length || after[a].getId() < before[b].getId()) {
+				listener.entered(userKey, (T)after[a++], timestamp);
+			} else {
+				b++;
+				a++;
+			}
+		}
+	}
+	
+	private static boolean sameIds(final LocatedSpot[] before, final List<? extends LocatedSpot> found) {
+		if(before.length != found.size()) {
+			return false;
+		}
+		for(int i = 0; i < before.length; i++) {
+			if(before[i].getId() != found.get(i).getId()) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Insertion sort, since a user is rarely inside more than a handful of spots.
+	 */
+	private static <T extends LocatedSpot> void sortById(final List<T> spots) {
+		for(int i = 1; i < spots.size(); i++) {
+			final T spot = spots.get(i);
+			int j = i - 1;
+			while(j >= 0 && spots.get(j).getId() > spot.getId()) {
+				spots.set(j + 1, spots.get(j));
+				j--;
+			}
+			spots.set(j + 1, spot);
+		}
+	}
+	
+	/**
+	 * Everything kept for one user.  Guarded by its own lock.
+	 */
+	private static class UserState {
+		private long timestamp = Long.MIN_VALUE;
+		private double latitude;
+		private double longitude;
+		private int modifications;
+		// Null until the first update, then sorted by id.
+		private LocatedSpot[] inside;
+	}
+	
+	/**
+	 * Told about users entering and leaving spots.
+	 */
+	public interface Listener<T extends LocatedSpot> {
+		
+		/**
+		 * The user has moved inside the spot's check in radius.
+		 */
+		public void entered(final String userKey, final T spot, final long timestamp);
+		
+		/**
+		 * The user has moved outside the spot's check in radius, or the spot has 
+		 * been removed from the index.
+		 */
+		public void exited(final String userKey, final T spot, final long timestamp);
+	}
+}
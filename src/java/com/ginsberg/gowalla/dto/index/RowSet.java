@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.index;
+
+/**
+ * A set of row numbers in a SpotTable, one bit per row.  Scans produce these, 
+ * and they are combined a word (64 rows) at a time.  The operations that 
+ * combine sets return new ones, leaving the originals alone.
+ * 
+ * @author Todd Ginsberg
+ */
+public class RowSet {
+
+	private final long[] words;
+	private final int rows;
+	
+	/**
+	 * An empty set for a table of the given number of rows.
+	 */
+	public RowSet(final int rows) {
+		this(rows, new long[(rows + 63) >>> 6]);
+	}
+	
+	RowSet(final int rows, final long[] words) {
+		super();
+		this.rows = rows;
+		this.words = words;
+	}
+	
+	/**
+	 * A set holding every row of a table of the given number of rows.
+	 */
+	public static RowSet all(final int rows) {
+		return new RowSet(rows).not();
+	}
+	
+	/**
+	 * @return The number of rows in the table this set is for.
+	 */
+	public int getRows() {
+		return rows;
+	}
+	
+	public boolean contains(final int row) {
+		return row >= 0 && row < rows && (words[row >>> 6] & (1L << row)) != 0;
+	}
+	
+	void add(final int row) {
+		words[row >>> 6] |= 1L << row;
+	}
+	
+	long[] words() {
+		return words;
+	}
+	
+	/**
+	 * @return The number of rows in this set.
+	 */
+	public int count() {
+		int count = 0;
+		for(long word : words) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+	
+	public boolean isEmpty() {
+		for(long word : words) {
+			if(word != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return The first row in this set at or after the one given, or -1 if there are none.
+	 */
+	public int next(final int from) {
+		if(from >= rows) {
+			return -1;
+		}
+		int index = Math.max(0, from) >>> 6;
+		long word = words[index] & (-1L << Math.max(0, from));
+		while(true) {
+			if(word != 0) {
+				return (index << 6) + Long.numberOfTrailingZeros(word);
+			}
+			if(++index == words.length) {
+				return -1;
+			}
+			word = words[index];
+		}
+	}
+	
+	public RowSet and(final RowSet other) {
+		check(other);
+		final long[] result = new long[words.length];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = words[i] & other.words[i];
+		}
+		return new RowSet(rows, result);
+	}
+	
+	public RowSet or(final RowSet other) {
+		check(other);
+		final long[] result = new long[words.length];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = words[i] | other.words[i];
+		}
+		return new RowSet(rows, result);
+	}
+	
+	public RowSet andNot(final RowSet other) {
+		check(other);
+		final long[] result = new long[words.length];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = words[i] & ~other.words[i];
+		}
+		return new RowSet(rows, result);
+	}
+	
+	/**
+	 * @return Every row of the table not in this set.
+	 */
+	public RowSet not() {
+		final long[] result = new long[words.length];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = ~words[i];
+		}
+		// Don't include rows past the end of the table.
+		if((rows & 63) != 0) {
+			result[result.length - 1] &= (1L << rows) - 1;
+		}
+		return new RowSet(rows, result);
+	}
+	
+	private void check(final RowSet other) {
+		if(other.rows != rows) {
+			throw new IllegalArgumentException("Row sets are for different tables");
+		}
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("RowSet[rows=%d, count=%d]", rows, count());
+	}
+}
@@ -0,0 +1,361 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.index;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.atan;
+import static java.lang.Math.exp;
+import static java.lang.Math.log;
+import static java.lang.Math.tan;
+import static java.lang.Math.toDegrees;
+import static java.lang.Math.toRadians;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+
+/**
+ * Groups spots into clusters for drawing on a map, at every zoom level at once.
+ * 
+ * Each zoom level is divided into a grid lined up with the usual web map tiles
+ * (spherical mercator, 256 pixel tiles, one tile for the whole world at zoom 0),
+ * with each tile split into a few cells on a side.  Every cell holding spots 
+ * is kept as a cluster, with a count of its spots, the total of their check 
+ * ins, and their average location.  Adding a spot updates its cell at each 
+ * level, so clusters are always ready: asking for the clusters in a viewport
+ * is one lookup per visible cell.
+ * 
+ * Adding a spot that is already clustered (by id) moves it and updates its 
+ * check ins.  Clusters are immutable snapshots which writers replace whole, 
+ * so reads never lock and never see a cluster half updated.  Writes are 
+ * serialized.  A read during a write may see some levels before the write 
+ * and some after.
+ * 
+ * @author Todd Ginsberg
+ */
+public class SpotClusters {
+
+	/**
+	 * Spherical mercator can't show the poles; this is the latitude of the top of the map.
+	 */
+	public static final double MAX_LATITUDE = 85.05112878;
+	public static final int DEFAULT_MIN_ZOOM = 0;
+	public static final int DEFAULT_MAX_ZOOM = 18;
+	
+	/**
+	 * Four cells to a tile on a side, or 64 pixels to a cell.
+	 */
+	public static final int DEFAULT_CELL_BITS = 2;
+	
+	private final int minZoom;
+	private final int maxZoom;
+	private final int cellBits;
+	private final Map<Long, Cluster>[] levels;
+	private final Map<Integer, Placed> spots = new HashMap<Integer, Placed>();
+	
+	public SpotClusters() {
+		this(DEFAULT_MIN_ZOOM, DEFAULT_MAX_ZOOM, DEFAULT_CELL_BITS);
+	}
+	
+	/**
+	 * @param minZoom Lowest zoom level to cluster for.
+	 * @param maxZoom Highest zoom level to cluster for.
+	 * @param cellBits Splits each tile into 2^cellBits cells on a side.
+	 */
+	@SuppressWarnings("unchecked")
+	public SpotClusters(final int minZoom, final int maxZoom, final int cellBits) {
+		super();
+		if(minZoom < 0 || maxZoom < minZoom || cellBits < 0 || maxZoom + cellBits > 30) {
+			throw new IllegalArgumentException("Zoom levels must be from 0, and zoom plus cell bits no more than 30");
+		}
+		this.minZoom = minZoom;
+		this.maxZoom = maxZoom;
+		this.cellBits = cellBits;
+		levels = (Map<Long, Cluster>[])new Map<?, ?>[maxZoom - minZoom + 1];
+		for(int i = 0; i < levels.length; i++) {
+			levels[i] = new ConcurrentHashMap<Long, Cluster>();
+		}
+	}
+	
+	public void add(final SimpleSpot spot) {
+		addAll(Collections.singletonList(spot));
+	}
+	
+	/**
+	 * Add or update spots.
+	 */
+	public synchronized void addAll(final Collection<? extends SimpleSpot> toAdd) {
+		for(SimpleSpot spot : toAdd) {
+			final GeoPoint location = spot.getGeoLocation();
+			final Placed placed = new Placed(location.getLatitude().doubleValue(), location.getLongitude().doubleValue(), spot.getCheckinsCount());
+			final Placed old = spots.put(spot.getId(), placed);
+			if(old != null) {
+				place(old, -1);
+			}
+			place(placed, 1);
+		}
+	}
+	
+	/**
+	 * Add or update every spot in an index.
+	 */
+	public void addAll(final SpotIndex<? extends SimpleSpot> index) {
+		addAll(index.withinBounds(-90, -180, 90, 180));
+	}
+	
+	/**
+	 * @return true if the spot was clustered.
+	 */
+	public synchronized boolean remove(final int id) {
+		final Placed old = spots.remove(id);
+		if(old == null) {
+			return false;
+		}
+		place(old, -1);
+		return true;
+	}
+	
+	public synchronized int size() {
+		return spots.size();
+	}
+	
+	/**
+	 * Find the clusters in a viewport.  A viewport crossing the 180th meridian 
+	 * has its west edge greater than its east edge.
+	 * 
+	 * @return The clusters, in no particular order.
+	 */
+	public List<Cluster> getClusters(final int zoom, final double south, final double west, final double north, final double east) {
+		final Map<Long, Cluster> level = level(zoom);
+		final int bits = zoom + cellBits;
+		final int top = row(north, bits);
+		final int bottom = row(south, bits);
+		final int left = column(west, bits);
+		final int right = column(east, bits);
+		final int last = (1 << bits) - 1;
+		final List<Cluster> found = new ArrayList<Cluster>();
+		if(west > east) {
+			collect(level, top, bottom, left, last, found);
+			collect(level, top, bottom, 0, right, found);
+		} else {
+			collect(level, top, bottom, left, right, found);
+		}
+		return found;
+	}
+	
+	/**
+	 * @return Every cluster at a zoom level.
+	 */
+	public List<Cluster> getClusters(final int zoom) {
+		return new ArrayList<Cluster>(level(zoom).values());
+	}
+	
+	public int getMinZoom() {
+		return minZoom;
+	}
+	
+	public int getMaxZoom() {
+		return maxZoom;
+	}
+	
+	/**
+	 * Look up each visible cell, unless there are fewer clusters at this level
+	 * than visible cells, in which case just go through the clusters.
+	 */
+	private void collect(final Map<Long, Cluster> level, final int top, final int bottom, final int left, final int right, final List<Cluster> found) {
+		final long cells = (long)(bottom - top + 1) * (right - left + 1);
+		if(cells > level.size()) {
+			for(Cluster cluster : level.values()) {
+				if(cluster.row >= top && cluster.row <= bottom && cluster.column >= left && cluster.column <= right) {
+					found.add(cluster);
+				}
+			}
+			return;
+		}
+		for(int row = top; row <= bottom; row++) {
+			for(int column = left; column <= right; column++) {
+				final Cluster cluster = level.get(key(row, column));
+				if(cluster != null) {
+					found.add(cluster);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Add (or with a sign of -1, take away) a spot from its cell at every level.
+	 */
+	private void place(final Placed placed, final int sign) {
+		for(int zoom = minZoom; zoom <= maxZoom; zoom++) {
+			final Map<Long, Cluster> level = level(zoom);
+			final int bits = zoom + cellBits;
+			final int row = row(placed.latitude, bits);
+			final int column = column(placed.longitude, bits);
+			final Long key = key(row, column);
+			final Cluster old = level.get(key);
+			final Cluster updated = old == null ? 
+					new Cluster(zoom, row, column, bits, 0, 0, 0, 0).plus(placed, sign) : old.plus(placed, sign);
+			if(updated.count == 0) {
+				level.remove(key);
+			} else {
+				level.put(key, updated);
+			}
+		}
+	}
+	
+	private Map<Long, Cluster> level(final int zoom) {
+		if(zoom < minZoom || zoom > maxZoom) {
+			throw new IllegalArgumentException("Zoom must be between " + minZoom + " and " + maxZoom);
+		}
+		return levels[zoom - minZoom];
+	}
+	
+	private static long key(final int row, final int column) {
+		return ((long)row << 32) | (column & 0xFFFFFFFFL);
+	}
+	
+	private static int column(final double longitude, final int bits) {
+		final int cells = 1 << bits;
+		return clamp((int)Math.floor((longitude + 180) / 360 * cells), cells);
+	}
+	
+	private static int row(final double latitude, final int bits) {
+		final int cells = 1 << bits;
+		final double radians = toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+		final double y = (1 - log(tan(radians) + 1 / Math.cos(radians)) / PI) / 2;
+		return clamp((int)Math.floor(y * cells), cells);
+	}
+	
+	private static int clamp(final int cell, final int cells) {
+		return Math.max(0, Math.min(cells - 1, cell));
+	}
+	
+	/**
+	 * Latitude of the top edge of a row.
+	 */
+	private static double latitudeOf(final int row, final int bits) {
+		final double n = PI - 2 * PI * row / (1 << bits);
+		return toDegrees(atan(0.5 * (exp(n) - exp(-n))));
+	}
+	
+	/**
+	 * What's needed to take a spot back out of its clusters.
+	 */
+	private static class Placed {
+		private final double latitude;
+		private final double longitude;
+		private final int checkins;
+		
+		private Placed(final double latitude, final double longitude, final int checkins) {
+			this.latitude = latitude;
+			this.longitude = longitude;
+			this.checkins = checkins;
+		}
+	}
+	
+	/**
+	 * The spots in one cell at one zoom level.  Immutable.
+	 */
+	public static class Cluster {
+		private final int zoom;
+		private final int row;
+		private final int column;
+		private final int bits;
+		private final int count;
+		private final long checkins;
+		private final double latitudeSum;
+		private final double longitudeSum;
+		
+		private Cluster(final int zoom, final int row, final int column, final int bits, final int count, final long checkins, final double latitudeSum, final double longitudeSum) {
+			this.zoom = zoom;
+			this.row = row;
+			this.column = column;
+			this.bits = bits;
+			this.count = count;
+			this.checkins = checkins;
+			this.latitudeSum = latitudeSum;
+			this.longitudeSum = longitudeSum;
+		}
+		
+		private Cluster plus(final Placed placed, final int sign) {
+			return new Cluster(zoom, row, column, bits, count + sign, checkins + sign * placed.checkins, 
+					latitudeSum + sign * placed.latitude, longitudeSum + sign * placed.longitude);
+		}
+		
+		public int getZoom() {
+			return zoom;
+		}
+		
+		/**
+		 * @return Number of spots in this cluster.
+		 */
+		public int getCount() {
+			return count;
+		}
+		
+		/**
+		 * @return Total check ins at the spots in this cluster.
+		 */
+		public long getCheckinsCount() {
+			return checkins;
+		}
+		
+		/**
+		 * @return The average location of the spots in this cluster, where a marker for it should go.
+		 */
+		public GeoPoint getCenter() {
+			// The sums drift as spots come and go, and can put a center near a pole just past it.
+			return new GeoPoint(Math.max(-90, Math.min(90, latitudeSum / count)), Math.max(-180, Math.min(180, longitudeSum / count)));
+		}
+		
+		/**
+		 * @return The edges of this cluster's cell as {south, west, north, east}.
+		 */
+		public double[] getBounds() {
+			final double width = 360.0 / (1 << bits);
+			return new double[] { latitudeOf(row + 1, bits), -180 + column * width, latitudeOf(row, bits), -180 + (column + 1) * width };
+		}
+		
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return String.format("Cluster[zoom=%d, row=%d, column=%d, count=%d, checkins=%d]", zoom, row, column, count, checkins);
+		}
+	}
+}
@@ -0,0 +1,538 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.index;
+
+import static com.ginsberg.gowalla.dto.GeoPoint.METERS_PER_DEGREE;
+import static java.lang.Math.cos;
+import static java.lang.Math.floor;
+import static java.lang.Math.toRadians;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.Locatable;
+import com.ginsberg.gowalla.dto.LocatedSpot;
+import com.ginsberg.gowalla.dto.filter.Filter;
+import com.ginsberg.gowalla.dto.filter.FilterCompiler;
+import com.ginsberg.gowalla.dto.filter.WithinDistance;
+
+/**
+ * In-memory spatial index over spots, for answering nearest, radius and 
+ * bounding box questions without asking Gowalla.  Spots can come from any
+ * API result (SimpleSpot, FullSpot, the spots on a Trip...) and are keyed
+ * by id, so adding a spot that is already indexed updates it.
+ * 
+ * Spots are bucketed into a grid of cells a fixed number of degrees on a 
+ * side, and each query only looks at the cells it overlaps.  When a query 
+ * overlaps more cells than hold spots, as with a world-wide search over a 
+ * few scattered spots, it looks through the occupied cells instead.  Each cell is an 
+ * immutable array that writers replace whole, so any number of threads may 
+ * query while another is writing, without locking.  A query running during 
+ * a write sees each cell either before or after the write; a spot that is 
+ * being moved may briefly be missing from results, but is never returned 
+ * twice.  Writes are serialized.
+ * 
+ * Radius and check in searches wrap around the 180th meridian.  Nearest 
+ * searches don't, so near it they only find spots on the side of their 
+ * center, and bounding boxes are taken as given.
+ * 
+ * @author Todd Ginsberg
+ */
+public class SpotIndex<T extends LocatedSpot> {
+
+	/**
+	 * About 1.1km at the equator.
+	 */
+	public static final double DEFAULT_CELL_DEGREES = 0.01;
+	
+	private final double cellDegrees;
+	private final Map<Long, IndexedSpot<T>[]> cells = new ConcurrentHashMap<Long, IndexedSpot<T>[]>();
+	private final Map<Integer, IndexedSpot<T>> spots = new ConcurrentHashMap<Integer, IndexedSpot<T>>();
+	private volatile int minRow = Integer.MAX_VALUE;
+	private volatile int maxRow = Integer.MIN_VALUE;
+	private volatile int minColumn = Integer.MAX_VALUE;
+	private volatile int maxColumn = Integer.MIN_VALUE;
+	private volatile int maxRadiusMeters = 0;
+	private volatile int modifications = 0;
+	
+	/**
+	 * Create an index with cells DEFAULT_CELL_DEGREES on a side.
+	 */
+	public SpotIndex() {
+		this(DEFAULT_CELL_DEGREES);
+	}
+	
+	/**
+	 * Create an index with cells of the given size.  Cells about the size of 
+	 * a typical search radius work best.
+	 */
+	public SpotIndex(final double cellDegrees) {
+		super();
+		if(cellDegrees <= 0) {
+			throw new IllegalArgumentException("Cell size must be positive");
+		}
+		this.cellDegrees = cellDegrees;
+	}
+	
+	/**
+	 * Add a spot to the index, or update it if a spot with the same id is already indexed.
+	 */
+	public void add(final T spot) {
+		final List<T> one = new ArrayList<T>(1);
+		one.add(spot);
+		addAll(one);
+	}
+	
+	/**
+	 * Add or update many spots at once.  This is much faster than adding them one 
+	 * at a time, since each cell is only rebuilt once.
+	 */
+	public synchronized void addAll(final Collection<? extends T> toAdd) {
+		// Last one wins if a spot is given more than once.
+		final Map<Integer, IndexedSpot<T>> batch = new LinkedHashMap<Integer, IndexedSpot<T>>();
+		for(T spot : toAdd) {
+			final GeoPoint location = spot.getGeoLocation();
+			batch.put(spot.getId(), new IndexedSpot<T>(spot, location.getLatitude().doubleValue(), location.getLongitude().doubleValue()));
+		}
+		final Map<Long, List<IndexedSpot<T>>> added = new HashMap<Long, List<IndexedSpot<T>>>();
+		final Map<Long, List<Integer>> removed = new HashMap<Long, List<Integer>>();
+		for(IndexedSpot<T> indexed : batch.values()) {
+			final IndexedSpot<T> old = spots.put(indexed.id, indexed);
+			if(old != null) {
+				append(removed, cellOf(old.latitude, old.longitude), old.id);
+			}
+			append(added, cellOf(indexed.latitude, indexed.longitude), indexed);
+			maxRadiusMeters = Math.max(maxRadiusMeters, indexed.radiusMeters);
+		}
+		// Removals first, so a moving spot is never in two cells at once.
+		for(Map.Entry<Long, List<Integer>> entry : removed.entrySet()) {
+			rebuild(entry.getKey(), entry.getValue(), Collections.<IndexedSpot<T>>emptyList());
+		}
+		for(Map.Entry<Long, List<IndexedSpot<T>>> entry : added.entrySet()) {
+			final List<Integer> replacing = new ArrayList<Integer>(entry.getValue().size());
+			for(IndexedSpot<T> indexed : entry.getValue()) {
+				replacing.add(indexed.id);
+			}
+			rebuild(entry.getKey(), replacing, entry.getValue());
+			final int row = keyRow(entry.getKey());
+			final int column = keyColumn(entry.getKey());
+			minRow = Math.min(minRow, row);
+			maxRow = Math.max(maxRow, row);
+			minColumn = Math.min(minColumn, column);
+			maxColumn = Math.max(maxColumn, column);
+		}
+		modifications++;
+	}
+	
+	/**
+	 * Remove a spot from the index.
+	 * 
+	 * @return true if the spot was indexed.
+	 */
+	public synchronized boolean remove(final int id) {
+		final IndexedSpot<T> old = spots.remove(id);
+		if(old == null) {
+			return false;
+		}
+		rebuild(cellOf(old.latitude, old.longitude), Collections.singletonList(id), Collections.<IndexedSpot<T>>emptyList());
+		modifications++;
+		return true;
+	}
+	
+	/**
+	 * Bumped after every write, so callers can tell whether an earlier answer
+	 * might have changed.
+	 */
+	int getModificationCount() {
+		return modifications;
+	}
+	
+	/**
+	 * @return The spot with the given id, or null if it isn't indexed.
+	 */
+	public T get(final int id) {
+		final IndexedSpot<T> indexed = spots.get(id);
+		return indexed == null ? null : indexed.spot;
+	}
+	
+	public int size() {
+		return spots.size();
+	}
+	
+	/**
+	 * Find every spot within the given distance of a point, in no particular order.
+	 * Distances are rounded to the meter, as with GeoPoint.getDistanceMeters().
+	 */
+	public List<T> withinRadius(final Locatable center, final int radiusMeters) {
+		final GeoPoint point = center.getGeoLocation();
+		final double latitude = point.getLatitude().doubleValue();
+		final double longitude = point.getLongitude().doubleValue();
+		final double radius = Math.abs(radiusMeters);
+		final List<T> found = new ArrayList<T>();
+		// Pad the box by a meter to allow for rounding.
+		final double latitudeDegrees = (radius + 1) / METERS_PER_DEGREE;
+		final double longitudeDegrees = longitudeDegrees(latitude, radius + 1);
+		for(IndexedSpot<T>[] cell : cellsAround(latitude, longitude, latitudeDegrees, longitudeDegrees)) {
+			for(IndexedSpot<T> indexed : cell) {
+				if(Math.round(GeoPoint.getDistanceMeters(latitude, longitude, indexed.latitude, indexed.longitude)) <= radius) {
+					found.add(indexed.spot);
+				}
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Find every spot that can be checked in to from the given location, in no 
+	 * particular order.  Gives the same answer as calling canCheckIn() on every 
+	 * indexed spot, but only looks at cells within reach of the largest check in 
+	 * radius, skips spots whose own radius can't reach, and works out the distance 
+	 * to each remaining spot once.
+	 */
+	public List<T> canCheckIn(final Locatable from) {
+		final GeoPoint point = from.getGeoLocation();
+		final List<T> found = new ArrayList<T>();
+		canCheckIn(point.getLatitude().doubleValue(), point.getLongitude().doubleValue(), found);
+		return found;
+	}
+	
+	/**
+	 * Add every spot that can be checked in to from the given coordinates to the list.
+	 */
+	void canCheckIn(final double latitude, final double longitude, final List<? super T> found) {
+		final int reach = maxRadiusMeters + 1;
+		final double latitudeDegrees = reach / METERS_PER_DEGREE;
+		final double longitudeDegrees = longitudeDegrees(latitude, reach);
+		final double longitudeScale = latitudeDegrees / longitudeDegrees;
+		for(IndexedSpot<T>[] cell : cellsAround(latitude, longitude, latitudeDegrees, longitudeDegrees)) {
+			for(IndexedSpot<T> indexed : cell) {
+				// Cheap box check against this spot's own radius first.
+				final double spotDegrees = (indexed.radiusMeters + 1) / METERS_PER_DEGREE;
+				if(Math.abs(indexed.latitude - latitude) <= spotDegrees &&
+						GeoPoint.getLongitudeDifference(indexed.longitude, longitude) * longitudeScale <= spotDegrees &&
+						Math.round(GeoPoint.getDistanceMeters(latitude, longitude, indexed.latitude, indexed.longitude)) <= indexed.radiusMeters) {
+					found.add(indexed.spot);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Find every spot a filter includes, in no particular order.  The filter is
+	 * compiled first, and if it requires spots to be within a distance of a point,
+	 * only the spots in that circle are tested.
+	 */
+	public List<T> find(final Filter<? super T> filter) {
+		final Filter<? super T> compiled = FilterCompiler.compile(filter);
+		final WithinDistance area = FilterCompiler.findRequiredDistance(compiled);
+		final List<T> candidates = area == null ? 
+				withinBounds(-90, -180, 90, 180) : withinRadius(area.getCenter(), area.getMeters());
+		final List<T> found = new ArrayList<T>();
+		for(T spot : candidates) {
+			if(compiled.isIncluded(spot)) {
+				found.add(spot);
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Find every spot inside a bounding box, in no particular order.
+	 */
+	public List<T> withinBounds(final double south, final double west, final double north, final double east) {
+		final List<T> found = new ArrayList<T>();
+		for(IndexedSpot<T>[] cell : cellsWithin(south, west, north, east)) {
+			for(IndexedSpot<T> indexed : cell) {
+				if(indexed.latitude >= south && indexed.latitude <= north && indexed.longitude >= west && indexed.longitude <= east) {
+					found.add(indexed.spot);
+				}
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Find the spots closest to a point, closest first.  Cells are searched in
+	 * rings outward from the point until no unsearched cell could hold a spot 
+	 * closer than the farthest one found.
+	 * 
+	 * @param center The point to search from.
+	 * @param count How many spots to return, at most.
+	 */
+	public List<T> nearest(final Locatable center, final int count) {
+		final List<T> found = new ArrayList<T>();
+		if(count <= 0 || spots.isEmpty()) {
+			return found;
+		}
+		final GeoPoint point = center.getGeoLocation();
+		final double latitude = point.getLatitude().doubleValue();
+		final double longitude = point.getLongitude().doubleValue();
+		final int row = row(latitude);
+		final int column = column(longitude);
+		
+		// Farthest of the best so far on top.
+		final PriorityQueue<Candidate<T>> best = new PriorityQueue<Candidate<T>>(count + 1, Collections.reverseOrder(new CandidateComparator<T>()));
+		final int rings = Math.max(Math.max(row - minRow, maxRow - row), Math.max(column - minColumn, maxColumn - column));
+		for(int ring = 0; ring <= rings; ring++) {
+			if(8L * ring > cells.size()) {
+				// More cells in this ring than hold spots, so finish with the occupied cells not yet searched.
+				for(Map.Entry<Long, IndexedSpot<T>[]> entry : cells.entrySet()) {
+					final long key = entry.getKey();
+					if(Math.max(Math.abs(keyRow(key) - row), Math.abs(keyColumn(key) - column)) >= ring) {
+						offer(best, count, entry.getValue(), latitude, longitude);
+					}
+				}
+				break;
+			}
+			for(int r = row - ring; r <= row + ring; r++) {
+				if(r < minRow || r > maxRow) {
+					continue;
+				}
+				final boolean edgeRow = r == row - ring || r == row + ring;
+				for(int c = column - ring; c <= column + ring; c += edgeRow ? 1 : 2 * ring) {
+					final IndexedSpot<T>[] cell = cells.get(key(r, c));
+					if(cell != null) {
+						offer(best, count, cell, latitude, longitude);
+					}
+					if(ring == 0) {
+						break;
+					}
+				}
+			}
+			// Anything not yet searched is at least this far away.
+			if(best.size() == count && best.peek().distance <= ringDistance(latitude, ring)) {
+				break;
+			}
+		}
+		final List<Candidate<T>> ordered = new ArrayList<Candidate<T>>(best);
+		Collections.sort(ordered, new CandidateComparator<T>());
+		for(Candidate<T> candidate : ordered) {
+			found.add(candidate.spot.spot);
+		}
+		return found;
+	}
+	
+	/**
+	 * Keep the spots in a cell that are among the closest count seen so far.
+	 */
+	private static <T extends LocatedSpot> void offer(final PriorityQueue<Candidate<T>> best, final int count, 
+			final IndexedSpot<T>[] cell, final double latitude, final double longitude) {
+		for(IndexedSpot<T> indexed : cell) {
+			best.offer(new Candidate<T>(indexed, GeoPoint.getDistanceMeters(latitude, longitude, indexed.latitude, indexed.longitude)));
+			if(best.size() > count) {
+				best.poll();
+			}
+		}
+	}
+	
+	/**
+	 * Lower bound on the distance from a point to any cell outside the given ring around it.
+	 */
+	private double ringDistance(final double latitude, final int ring) {
+		final double farthestLatitude = Math.min(90, Math.abs(latitude) + (ring + 1) * cellDegrees);
+		return ring * cellDegrees * METERS_PER_DEGREE * Math.max(0, cos(toRadians(farthestLatitude)));
+	}
+	
+	/**
+	 * How many degrees of longitude cover the given distance at a latitude, 
+	 * or the whole world near the poles.
+	 */
+	private double longitudeDegrees(final double latitude, final double meters) {
+		final double scale = cos(toRadians(Math.min(90, Math.abs(latitude) + meters / METERS_PER_DEGREE)));
+		return scale <= 0 ? 360 : meters / (METERS_PER_DEGREE * scale);
+	}
+	
+	/**
+	 * Every non-empty cell overlapping the box around a point, wrapping around
+	 * the 180th meridian.
+	 */
+	private List<IndexedSpot<T>[]> cellsAround(final double latitude, final double longitude, final double latitudeDegrees, final double longitudeDegrees) {
+		final double south = latitude - latitudeDegrees;
+		final double north = latitude + latitudeDegrees;
+		final double west = longitude - longitudeDegrees;
+		final double east = longitude + longitudeDegrees;
+		if(east - west >= 360) {
+			return cellsWithin(south, -180, north, 180);
+		}
+		final List<IndexedSpot<T>[]> found = cellsWithin(south, west, north, east);
+		if(west < -180) {
+			found.addAll(cellsWithin(south, west + 360, north, 180));
+		} else if(east > 180) {
+			found.addAll(cellsWithin(south, -180, north, east - 360));
+		}
+		return found;
+	}
+	
+	/**
+	 * Every non-empty cell overlapping the box.  If the box covers more cells 
+	 * than hold spots, the occupied cells are looked through instead.
+	 */
+	private List<IndexedSpot<T>[]> cellsWithin(final double south, final double west, final double north, final double east) {
+		final List<IndexedSpot<T>[]> found = new ArrayList<IndexedSpot<T>[]>();
+		final int bottom = Math.max(row(south), minRow);
+		final int top = Math.min(row(north), maxRow);
+		final int left = Math.max(column(west), minColumn);
+		final int right = Math.min(column(east), maxColumn);
+		if(bottom > top || left > right) {
+			return found;
+		}
+		if((long)(top - bottom + 1) * (right - left + 1) > cells.size()) {
+			for(Map.Entry<Long, IndexedSpot<T>[]> entry : cells.entrySet()) {
+				final int r = keyRow(entry.getKey());
+				final int c = keyColumn(entry.getKey());
+				if(r >= bottom && r <= top && c >= left && c <= right) {
+					found.add(entry.getValue());
+				}
+			}
+			return found;
+		}
+		for(int r = bottom; r <= top; r++) {
+			for(int c = left; c <= right; c++) {
+				final IndexedSpot<T>[] cell = cells.get(key(r, c));
+				if(cell != null) {
+					found.add(cell);
+				}
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Replace a cell with its old contents, less the ids given, plus the spots given.
+	 */
+	@SuppressWarnings("unchecked")
+	private void rebuild(final long key, final Collection<Integer> without, final List<IndexedSpot<T>> with) {
+		final IndexedSpot<T>[] old = cells.get(key);
+		final List<IndexedSpot<T>> contents = new ArrayList<IndexedSpot<T>>((old == null ? 0 : old.length) + with.size());
+		if(old != null) {
+			final Set<Integer> skip = new HashSet<Integer>(without);
+			for(IndexedSpot<T> indexed : old) {
+				if(!skip.contains(indexed.id)) {
+					contents.add(indexed);
+				}
+			}
+		}
+		contents.addAll(with);
+		if(contents.isEmpty()) {
+			cells.remove(key);
+		} else {
+			cells.put(key, (IndexedSpot<T>[])contents.toArray(new IndexedSpot<?>[contents.size()]));
+		}
+	}
+	
+	private static <K, V> void append(final Map<K, List<V>> map, final K key, final V value) {
+		List<V> list = map.get(key);
+		if(list == null) {
+			list = new ArrayList<V>();
+			map.put(key, list);
+		}
+		list.add(value);
+	}
+	
+	private long cellOf(final double latitude, final double longitude) {
+		return key(row(latitude), column(longitude));
+	}
+	
+	private int row(final double latitude) {
+		return (int)floor(Math.max(-90, Math.min(90, latitude)) / cellDegrees);
+	}
+	
+	private int column(final double longitude) {
+		return (int)floor(Math.max(-180, Math.min(180, longitude)) / cellDegrees);
+	}
+	
+	private static long key(final int row, final int column) {
+		return ((long)row << 32) | (column & 0xFFFFFFFFL);
+	}
+	
+	private static int keyRow(final long key) {
+		return (int)(key >> 32);
+	}
+	
+	private static int keyColumn(final long key) {
+		return (int)key;
+	}
+	
+	/**
+	 * A spot and its coordinates, as primitives.
+	 */
+	private static class IndexedSpot<T extends LocatedSpot> {
+		private final T spot;
+		private final int id;
+		private final double latitude;
+		private final double longitude;
+		private final int radiusMeters;
+		
+		private IndexedSpot(final T spot, final double latitude, final double longitude) {
+			this.spot = spot;
+			this.id = spot.getId();
+			this.radiusMeters = spot.getRadiusMeters();
+			this.latitude = latitude;
+			this.longitude = longitude;
+		}
+	}
+	
+	/**
+	 * A spot found by a nearest search, and how far away it is.
+	 */
+	private static class Candidate<T extends LocatedSpot> {
+		private final IndexedSpot<T> spot;
+		private final double distance;
+		
+		private Candidate(final IndexedSpot<T> spot, final double distance) {
+			this.spot = spot;
+			this.distance = distance;
+		}
+	}
+	
+	/**
+	 * Closest first, then by id so results are stable.
+	 */
+	private static class CandidateComparator<T extends LocatedSpot> implements Comparator<Candidate<T>> {
+		@Override
+		public int compare(final Candidate<T> a, final Candidate<T> b) {
+			if(a.distance != b.distance) {
+				return a.distance < b.distance ? -1 : 1;
+			}
+			return a.spot.id < b.spot.id ? -1 : (a.spot.id == b.spot.id ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,491 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.index;
+
+import static com.ginsberg.gowalla.dto.GeoPoint.METERS_PER_DEGREE;
+import static java.lang.Math.cos;
+import static java.lang.Math.toRadians;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ginsberg.gowalla.dto.Address;
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+import com.ginsberg.gowalla.dto.filter.And;
+import com.ginsberg.gowalla.dto.filter.Count;
+import com.ginsberg.gowalla.dto.filter.CountRange;
+import com.ginsberg.gowalla.dto.filter.Filter;
+import com.ginsberg.gowalla.dto.filter.HasItems;
+import com.ginsberg.gowalla.dto.filter.HasPhotos;
+import com.ginsberg.gowalla.dto.filter.Not;
+import com.ginsberg.gowalla.dto.filter.Or;
+import com.ginsberg.gowalla.dto.filter.WithinDistance;
+
+/**
+ * Holds a large number of spots compactly, as one array per field instead of
+ * one object per spot.  Numbers are kept as primitives and strings are kept 
+ * once each, with each row holding a code for its string.  A row takes about 
+ * 60 bytes, against several hundred for a SimpleSpot with its strings, address 
+ * and location.
+ * 
+ * Searching is done by scanning a column at a time into a RowSet, with a plain
+ * loop over a primitive array for each scan, and RowSets are combined a word at
+ * a time.  Spots are only turned back into objects for the rows wanted.
+ * 
+ * Rows are only ever appended.  Adding is not thread safe, but any number of 
+ * threads may scan a table that isn't being added to.
+ * 
+ * @author Todd Ginsberg
+ */
+public class SpotTable {
+
+	/**
+	 * The string columns.
+	 */
+	public enum Text {
+		NAME, LOCALITY, REGION
+	}
+	
+	private static final int NO_TEXT = -1;
+	
+	private int rows = 0;
+	private int[] ids;
+	private double[] latitudes;
+	private double[] longitudes;
+	private final int[][] counts = new int[Count.values().length][];
+	private final int[][] texts = new int[Text.values().length][];
+	private final Dictionary[] dictionaries = new Dictionary[Text.values().length];
+	
+	public SpotTable() {
+		this(1024);
+	}
+	
+	/**
+	 * @param capacity How many rows to make room for at first.
+	 */
+	public SpotTable(final int capacity) {
+		super();
+		final int size = Math.max(16, capacity);
+		ids = new int[size];
+		latitudes = new double[size];
+		longitudes = new double[size];
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] = new int[size];
+		}
+		for(int i = 0; i < texts.length; i++) {
+			texts[i] = new int[size];
+			dictionaries[i] = new Dictionary();
+		}
+	}
+	
+	/**
+	 * Append a spot.
+	 * @return Its row.
+	 */
+	public int add(final SimpleSpot spot) {
+		if(rows == ids.length) {
+			grow(rows * 2);
+		}
+		final int row = rows;
+		final GeoPoint location = spot.getGeoLocation();
+		ids[row] = spot.getId();
+		latitudes[row] = location.getLatitude().doubleValue();
+		longitudes[row] = location.getLongitude().doubleValue();
+		counts[Count.CHECKINS.ordinal()][row] = spot.getCheckinsCount();
+		counts[Count.USERS.ordinal()][row] = spot.getUsersCount();
+		counts[Count.ITEMS.ordinal()][row] = spot.getItemsCount();
+		counts[Count.PHOTOS.ordinal()][row] = spot.getPhotosCount();
+		counts[Count.TRENDING_LEVEL.ordinal()][row] = spot.getTrendingLevel();
+		counts[Count.RADIUS_METERS.ordinal()][row] = spot.getRadiusMeters();
+		final Address address = spot.getAddress();
+		setText(Text.NAME, row, spot.getName());
+		setText(Text.LOCALITY, row, address == null ? null : address.getLocality());
+		setText(Text.REGION, row, address == null ? null : address.getRegion());
+		rows++;
+		return row;
+	}
+	
+	public void addAll(final Collection<? extends SimpleSpot> spots) {
+		if(rows + spots.size() > ids.length) {
+			grow(Math.max(rows + spots.size(), rows * 2));
+		}
+		for(SimpleSpot spot : spots) {
+			add(spot);
+		}
+	}
+	
+	/**
+	 * @return Number of rows.
+	 */
+	public int size() {
+		return rows;
+	}
+	
+	public int getId(final int row) {
+		checkRow(row);
+		return ids[row];
+	}
+	
+	public double getLatitude(final int row) {
+		checkRow(row);
+		return latitudes[row];
+	}
+	
+	public double getLongitude(final int row) {
+		checkRow(row);
+		return longitudes[row];
+	}
+	
+	public int getCount(final Count column, final int row) {
+		checkRow(row);
+		return counts[column.ordinal()][row];
+	}
+	
+	public String getText(final Text column, final int row) {
+		checkRow(row);
+		return dictionaries[column.ordinal()].get(texts[column.ordinal()][row]);
+	}
+	
+	/**
+	 * Turn a row back into a spot.  Only the fields the table keeps are filled in.
+	 */
+	public SimpleSpot getSpot(final int row) {
+		checkRow(row);
+		final SimpleSpot spot = new SimpleSpot();
+		spot.setId(ids[row]);
+		spot.setLat(Double.toString(latitudes[row]));
+		spot.setLng(Double.toString(longitudes[row]));
+		spot.setCheckinsCount(counts[Count.CHECKINS.ordinal()][row]);
+		spot.setUsersCount(counts[Count.USERS.ordinal()][row]);
+		spot.setItemsCount(counts[Count.ITEMS.ordinal()][row]);
+		spot.setPhotosCount(counts[Count.PHOTOS.ordinal()][row]);
+		spot.setTrendingLevel(counts[Count.TRENDING_LEVEL.ordinal()][row]);
+		spot.setRadiusMeters(counts[Count.RADIUS_METERS.ordinal()][row]);
+		spot.setName(getText(Text.NAME, row));
+		final String locality = getText(Text.LOCALITY, row);
+		final String region = getText(Text.REGION, row);
+		if(locality != null || region != null) {
+			final Address address = new Address();
+			address.setLocality(locality);
+			address.setRegion(region);
+			spot.setAddress(address);
+		}
+		return spot;
+	}
+	
+	/**
+	 * @return The spots for every row in the set, in row order.
+	 */
+	public List<SimpleSpot> getSpots(final RowSet selected) {
+		final List<SimpleSpot> spots = new ArrayList<SimpleSpot>(selected.count());
+		for(int row = selected.next(0); row >= 0; row = selected.next(row + 1)) {
+			spots.add(getSpot(row));
+		}
+		return spots;
+	}
+	
+	/**
+	 * @return Every row.
+	 */
+	public RowSet all() {
+		return RowSet.all(rows);
+	}
+	
+	/**
+	 * Rows with a column between minimum and maximum, inclusive.
+	 */
+	public RowSet range(final Count column, final int minimum, final int maximum) {
+		final RowSet found = new RowSet(rows);
+		if(minimum > maximum) {
+			return found;
+		}
+		final int[] values = counts[column.ordinal()];
+		final long[] words = found.words();
+		// Shift into unsigned space so one comparison checks both ends.
+		final int span = (maximum - minimum) ^ Integer.MIN_VALUE;
+		for(int row = 0; row < rows; row++) {
+			final int matched = ((values[row] - minimum) ^ Integer.MIN_VALUE) <= span ? 1 : 0;
+			words[row >>> 6] |= (long)matched << row;
+		}
+		return found;
+	}
+	
+	/**
+	 * Rows with a column of at least the minimum.
+	 */
+	public RowSet atLeast(final Count column, final int minimum) {
+		return range(column, minimum, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Rows that HasItems would include.
+	 */
+	public RowSet hasItems() {
+		return atLeast(Count.ITEMS, 1);
+	}
+	
+	/**
+	 * Rows that HasPhotos would include.
+	 */
+	public RowSet hasPhotos() {
+		return atLeast(Count.PHOTOS, 1);
+	}
+	
+	/**
+	 * Rows with exactly the text given (which may be null).
+	 */
+	public RowSet equalTo(final Text column, final String value) {
+		final RowSet found = new RowSet(rows);
+		final Integer code = dictionaries[column.ordinal()].find(value);
+		if(code == null) {
+			return found;
+		}
+		final int wanted = code;
+		final int[] values = texts[column.ordinal()];
+		final long[] words = found.words();
+		for(int row = 0; row < rows; row++) {
+			final int matched = values[row] == wanted ? 1 : 0;
+			words[row >>> 6] |= (long)matched << row;
+		}
+		return found;
+	}
+	
+	/**
+	 * Rows inside a bounding box.
+	 */
+	public RowSet withinBounds(final double south, final double west, final double north, final double east) {
+		final RowSet found = new RowSet(rows);
+		final long[] words = found.words();
+		for(int row = 0; row < rows; row++) {
+			final double latitude = latitudes[row];
+			final double longitude = longitudes[row];
+			final int matched = latitude >= south & latitude <= north & longitude >= west & longitude <= east ? 1 : 0;
+			words[row >>> 6] |= (long)matched << row;
+		}
+		return found;
+	}
+	
+	/**
+	 * Rows within the given distance of a point.  Distances are rounded to the 
+	 * meter, as with GeoPoint.getDistanceMeters().  A bounding box scan is done
+	 * first, split in two if it crosses the 180th meridian, and the distance is
+	 * only worked out for the rows inside it.
+	 */
+	public RowSet withinDistance(final double latitude, final double longitude, final int meters) {
+		final double latitudeDegrees = (meters + 1) / METERS_PER_DEGREE;
+		final double scale = cos(toRadians(Math.min(90, Math.abs(latitude) + latitudeDegrees)));
+		final double longitudeDegrees = scale <= 0 ? 360 : latitudeDegrees / scale;
+		final double south = latitude - latitudeDegrees;
+		final double north = latitude + latitudeDegrees;
+		final double west = longitude - longitudeDegrees;
+		final double east = longitude + longitudeDegrees;
+		RowSet found = withinBounds(south, west, north, east);
+		if(west < -180) {
+			found = found.or(withinBounds(south, west + 360, north, 180));
+		} else if(east > 180) {
+			found = found.or(withinBounds(south, -180, north, east - 360));
+		}
+		for(int row = found.next(0); row >= 0; row = found.next(row + 1)) {
+			if(Math.round(GeoPoint.getDistanceMeters(latitude, longitude, latitudes[row], longitudes[row])) > meters) {
+				found.words()[row >>> 6] &= ~(1L << row);
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Find the rows a filter includes.  And, Or and Not are worked out with
+	 * RowSet operations, and HasItems, HasPhotos, CountRange and WithinDistance
+	 * with column scans.  Any other filter is tested against the spot for each 
+	 * row still in question, after the scans in the same And have narrowed them
+	 * down.  The table doesn't keep categories, so InCategory includes nothing.
+	 */
+	public RowSet select(final Filter<SimpleSpot> filter) {
+		return select(filter, all());
+	}
+	
+	/**
+	 * The rows among the candidates that the filter includes.
+	 */
+	@SuppressWarnings("unchecked")
+	private RowSet select(final Filter<SimpleSpot> filter, final RowSet candidates) {
+		if(filter instanceof And<?>) {
+			RowSet result = candidates;
+			// Scans first, so filters tested row by row see fewer rows.
+			for(boolean scans : new boolean[] { true, false }) {
+				for(Filter<SimpleSpot> child : ((And<SimpleSpot>)filter).getFilters()) {
+					if(isScannable(child) == scans && !result.isEmpty()) {
+						result = select(child, result);
+					}
+				}
+			}
+			return result;
+		}
+		if(filter instanceof Or<?>) {
+			RowSet result = new RowSet(rows);
+			for(Filter<SimpleSpot> child : ((Or<SimpleSpot>)filter).getFilters()) {
+				result = result.or(select(child, candidates.andNot(result)));
+			}
+			return result;
+		}
+		if(filter instanceof Not<?>) {
+			return candidates.andNot(select(((Not<SimpleSpot>)filter).getInner(), candidates));
+		}
+		if(filter instanceof HasItems) {
+			return candidates.and(hasItems());
+		}
+		if(filter instanceof HasPhotos) {
+			return candidates.and(hasPhotos());
+		}
+		if(filter instanceof CountRange) {
+			final CountRange range = (CountRange)filter;
+			return candidates.and(range(range.getCount(), range.getMinimum(), range.getMaximum()));
+		}
+		if(filter instanceof WithinDistance) {
+			final WithinDistance distance = (WithinDistance)filter;
+			return candidates.and(withinDistance(distance.getCenter().getLatitude().doubleValue(), 
+					distance.getCenter().getLongitude().doubleValue(), distance.getMeters()));
+		}
+		final RowSet found = new RowSet(rows);
+		for(int row = candidates.next(0); row >= 0; row = candidates.next(row + 1)) {
+			if(filter.isIncluded(getSpot(row))) {
+				found.add(row);
+			}
+		}
+		return found;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static boolean isScannable(final Filter<SimpleSpot> filter) {
+		if(filter instanceof And<?> || filter instanceof Or<?>) {
+			final List<Filter<SimpleSpot>> children = filter instanceof And<?> ? 
+					((And<SimpleSpot>)filter).getFilters() : ((Or<SimpleSpot>)filter).getFilters();
+			for(Filter<SimpleSpot> child : children) {
+				if(!isScannable(child)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		if(filter instanceof Not<?>) {
+			return isScannable(((Not<SimpleSpot>)filter).getInner());
+		}
+		return filter instanceof HasItems || filter instanceof HasPhotos || 
+			filter instanceof CountRange || filter instanceof WithinDistance;
+	}
+	
+	/**
+	 * @return The total of a column over the rows given.
+	 */
+	public long sum(final Count column, final RowSet selected) {
+		final int[] values = counts[column.ordinal()];
+		long sum = 0;
+		for(int row = selected.next(0); row >= 0; row = selected.next(row + 1)) {
+			sum += values[row];
+		}
+		return sum;
+	}
+	
+	/**
+	 * @return The number of different values in a text column.
+	 */
+	public int getDistinctCount(final Text column) {
+		return dictionaries[column.ordinal()].size();
+	}
+	
+	private void setText(final Text column, final int row, final String value) {
+		texts[column.ordinal()][row] = dictionaries[column.ordinal()].encode(value);
+	}
+	
+	private void grow(final int size) {
+		ids = Arrays.copyOf(ids, size);
+		latitudes = Arrays.copyOf(latitudes, size);
+		longitudes = Arrays.copyOf(longitudes, size);
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] = Arrays.copyOf(counts[i], size);
+		}
+		for(int i = 0; i < texts.length; i++) {
+			texts[i] = Arrays.copyOf(texts[i], size);
+		}
+	}
+	
+	private void checkRow(final int row) {
+		if(row < 0 || row >= rows) {
+			throw new IndexOutOfBoundsException("No row " + row);
+		}
+	}
+	
+	/**
+	 * Each distinct string in a column, numbered in the order first seen.
+	 */
+	private static class Dictionary {
+		private final Map<String, Integer> codes = new HashMap<String, Integer>();
+		private final List<String> values = new ArrayList<String>();
+		
+		private int encode(final String value) {
+			if(value == null) {
+				return NO_TEXT;
+			}
+			Integer code = codes.get(value);
+			if(code == null) {
+				code = values.size();
+				codes.put(value, code);
+				values.add(value);
+			}
+			return code;
+		}
+		
+		private Integer find(final String value) {
+			return value == null ? Integer.valueOf(NO_TEXT) : codes.get(value);
+		}
+		
+		private String get(final int code) {
+			return code == NO_TEXT ? null : values.get(code);
+		}
+		
+		private int size() {
+			return values.size();
+		}
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("SpotTable[rows=%d, names=%d, localities=%d, regions=%d]", 
+				rows, dictionaries[Text.NAME.ordinal()].size(), dictionaries[Text.LOCALITY.ordinal()].size(), dictionaries[Text.REGION.ordinal()].size());
+	}
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.index;
+
+import static java.lang.Math.acos;
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+import static java.lang.Math.toRadians;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.Locatable;
+import com.ginsberg.gowalla.dto.LocatedSpot;
+import com.ginsberg.gowalla.dto.Trip;
+
+/**
+ * The spots on a trip, prepared for finding the closest one to a location
+ * quickly.  Each spot is kept as a point on the unit sphere, so the closest
+ * spot is the one with the largest dot product with the location - three
+ * multiplications per spot, with no trigonometry, sorting or copying.  The
+ * trip as a whole is also summarized as a center and a radius around it, so 
+ * a search over many trips can skip the ones that can't be closer than what 
+ * it has already found.
+ * 
+ * Get one from Trip.getSpotIndex(), which builds it on first use.  Immutable,
+ * and thread safe.
+ * 
+ * @author Todd Ginsberg
+ */
+public class TripSpotIndex {
+
+	/**
+	 * Allowance for rounding when deciding a trip can't be closer, in radians (well under a millimeter).
+	 */
+	private static final double BOUND_MARGIN = 1e-10;
+	
+
+	private final List<LocatedSpot> source;
+	private final LocatedSpot[] spots;
+	private final double[] xs;
+	private final double[] ys;
+	private final double[] zs;
+	private final double[] center;
+	private final double radiusRadians;
+	
+	/**
+	 * Index a list of spots.  The list is not copied, but is used to tell whether 
+	 * this index is still current.
+	 */
+	public TripSpotIndex(final List<LocatedSpot> tripSpots) {
+		super();
+		source = tripSpots;
+		spots = tripSpots == null ? new LocatedSpot[0] : tripSpots.toArray(new LocatedSpot[tripSpots.size()]);
+		xs = new double[spots.length];
+		ys = new double[spots.length];
+		zs = new double[spots.length];
+		double sx = 0;
+		double sy = 0;
+		double sz = 0;
+		for(int i = 0; i < spots.length; i++) {
+			final double[] point = toUnit(spots[i]);
+			xs[i] = point[0];
+			ys[i] = point[1];
+			zs[i] = point[2];
+			sx += xs[i];
+			sy += ys[i];
+			sz += zs[i];
+		}
+		final double length = sqrt(sx * sx + sy * sy + sz * sz);
+		if(length == 0) {
+			// No spots, or spots spread evenly around the globe.  Anything can be closest.
+			center = new double[] { 1, 0, 0 };
+			radiusRadians = Math.PI;
+		} else {
+			center = new double[] { sx / length, sy / length, sz / length };
+			double radius = 0;
+			for(int i = 0; i < spots.length; i++) {
+				radius = Math.max(radius, angle(center, xs[i], ys[i], zs[i]));
+			}
+			radiusRadians = radius;
+		}
+	}
+	
+	/**
+	 * @return true if this index was built from the list given, and it still 
+	 * holds the same spots in the same order.  Spots are compared by identity, 
+	 * which is much cheaper than indexing them again.
+	 */
+	public boolean isFor(final List<LocatedSpot> tripSpots) {
+		if(tripSpots != source) {
+			return false;
+		}
+		if(tripSpots == null) {
+			return true;
+		}
+		if(tripSpots.size() != spots.length) {
+			return false;
+		}
+		int i = 0;
+		for(LocatedSpot spot : tripSpots) {
+			if(spot != spots[i++]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return The closest spot to the location, or null if there are no spots.  
+	 * When spots are equally close, the first on the trip is returned.
+	 */
+	public LocatedSpot getClosestSpot(final Locatable location) {
+		final int closest = closest(toUnit(location));
+		return closest < 0 ? null : spots[closest];
+	}
+	
+	public int size() {
+		return spots.length;
+	}
+	
+	/**
+	 * Find the closest spot on any of the trips given.
+	 * 
+	 * @return The closest spot and the trip it's on, or null if none of the trips have spots.
+	 * When spots are equally close, the one on the trip that comes first wins.
+	 */
+	public static ClosestTripSpot getClosestSpot(final Collection<? extends Trip> trips, final Locatable location) {
+		final double[] point = toUnit(location);
+		final List<Candidate> candidates = new ArrayList<Candidate>(trips.size());
+		int order = 0;
+		for(Trip trip : trips) {
+			final TripSpotIndex index = trip.getSpotIndex();
+			if(index.size() > 0) {
+				candidates.add(new Candidate(trip, index, order++,
+						angle(point, index.center[0], index.center[1], index.center[2]) - index.radiusRadians));
+			}
+		}
+		Collections.sort(candidates, new Comparator<Candidate>() {
+			@Override
+			public int compare(final Candidate a, final Candidate b) {
+				final int byBound = Double.compare(a.lowerBound, b.lowerBound);
+				return byBound != 0 ? byBound : a.order - b.order;
+			}
+		});
+		
+		Candidate best = null;
+		int bestSpot = -1;
+		double bestDot = -2;
+		for(Candidate candidate : candidates) {
+			// Every remaining trip is too far away to win.
+			if(best != null && candidate.lowerBound > acos(Math.min(1, bestDot)) + BOUND_MARGIN) {
+				break;
+			}
+			final int closest = candidate.index.closest(point);
+			final double dot = candidate.index.dot(closest, point);
+			if(dot > bestDot || (dot == bestDot && candidate.order < best.order)) {
+				best = candidate;
+				bestSpot = closest;
+				bestDot = dot;
+			}
+		}
+		if(best == null) {
+			return null;
+		}
+		final LocatedSpot spot = best.index.spots[bestSpot];
+		return new ClosestTripSpot(best.trip, spot, location.getGeoLocation().getDistanceMeters(spot.getGeoLocation()));
+	}
+	
+	private int closest(final double[] point) {
+		int closest = -1;
+		double best = -2;
+		for(int i = 0; i < spots.length; i++) {
+			final double dot = xs[i] * point[0] + ys[i] * point[1] + zs[i] * point[2];
+			if(dot > best) {
+				best = dot;
+				closest = i;
+			}
+		}
+		return closest;
+	}
+	
+	private double dot(final int i, final double[] point) {
+		return xs[i] * point[0] + ys[i] * point[1] + zs[i] * point[2];
+	}
+	
+	private static double angle(final double[] a, final double x, final double y, final double z) {
+		return acos(Math.max(-1, Math.min(1, a[0] * x + a[1] * y + a[2] * z)));
+	}
+	
+	private static double[] toUnit(final Locatable location) {
+		final GeoPoint point = location.getGeoLocation();
+		final double latitude = toRadians(point.getLatitude().doubleValue());
+		final double longitude = toRadians(point.getLongitude().doubleValue());
+		return new double[] { cos(latitude) * cos(longitude), cos(latitude) * sin(longitude), sin(latitude) };
+	}
+	
+	/**
+	 * A trip being considered, with the least angle any of its spots could be from the location.
+	 */
+	private static class Candidate {
+		private final Trip trip;
+		private final TripSpotIndex index;
+		private final int order;
+		private final double lowerBound;
+		
+		private Candidate(final Trip trip, final TripSpotIndex index, final int order, final double lowerBound) {
+			this.trip = trip;
+			this.index = index;
+			this.order = order;
+			this.lowerBound = lowerBound;
+		}
+	}
+	
+	/**
+	 * The result of a search over many trips.
+	 */
+	public static class ClosestTripSpot {
+		private final Trip trip;
+		private final LocatedSpot spot;
+		private final long distanceMeters;
+		
+		public ClosestTripSpot(final Trip trip, final LocatedSpot spot, final long distanceMeters) {
+			super();
+			this.trip = trip;
+			this.spot = spot;
+			this.distanceMeters = distanceMeters;
+		}
+		
+		public Trip getTrip() {
+			return trip;
+		}
+		
+		public LocatedSpot getSpot() {
+			return spot;
+		}
+		
+		public long getDistanceMeters() {
+			return distanceMeters;
+		}
+		
+		/**
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return String.format("ClosestTripSpot[trip=%d, spot=%d, distanceMeters=%d]", trip.getId(), spot.getId(), distanceMeters);
+		}
+	}
+}
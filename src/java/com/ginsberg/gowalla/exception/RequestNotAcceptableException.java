@@ -30,6 +30,10 @@
 package com.ginsberg.gowalla.exception;
 
 /**
+ * Gowalla's answer when there's nothing at a resource, such as a spot id that 
+ * doesn't exist.  This is an answer rather than a failure, and comes up a lot 
+ * when crawling, so it doesn't record a stack trace.
+ * 
  * @author Todd Ginsberg
  *
  */
@@ -66,4 +70,13 @@ public class RequestNotAcceptableException extends GowallaRequestException {
 		super(arg0);
 	}
 
+	/**
+	 * Skip walking the stack; see the class comment.
+	 * @see java.lang.Throwable#fillInStackTrace()
+	 */
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+
 }
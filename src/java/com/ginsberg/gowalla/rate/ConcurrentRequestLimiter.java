@@ -39,12 +39,16 @@ import java.util.concurrent.TimeUnit;
  * requests being made against the Gowalla API at once.  This object 
  * enforces an optional wait time.
  * 
+ * Batch requests can be held to a lower limit of their own, so some of the 
+ * requests allowed are always left for interactive ones.
+ * 
  * @author Todd Ginsberg
  *
  */
-public class ConcurrentRequestLimiter implements RateLimiter {
+public class ConcurrentRequestLimiter implements PrioritizedRateLimiter {
 	
 	private Semaphore semaphore = null;
+	private Semaphore batchSemaphore = null;
 	private long timeout = 0;
 	private TimeUnit timeUnit = null;
 	
@@ -70,6 +74,20 @@ public class ConcurrentRequestLimiter implements RateLimiter {
 		this.timeout = timeout;
 		this.timeUnit = timeUnit;
 	}
+	
+	/**
+	 * Construct a version of this class that also limits batch requests, 
+	 * which count towards both limits.
+	 * 
+	 * @param maxConcurrentRequests Maximum number of requests that can happen at once (min = 1, enforced internally).
+	 * @param maxConcurrentBatchRequests Maximum number of those that can be batch requests (min = 1, enforced internally).
+	 * @param timeout Timeout in number of units.
+	 * @param timeUnit Unit type for timeout.
+	 */
+	public ConcurrentRequestLimiter(final int maxConcurrentRequests, final int maxConcurrentBatchRequests, final long timeout, final TimeUnit timeUnit) {
+		this(maxConcurrentRequests, timeout, timeUnit);
+		this.batchSemaphore = new Semaphore(max(1, maxConcurrentBatchRequests), false);
+	}
 
 	/**
 	 * @see com.ginsberg.gowalla.rate.RateLimiter#postRequest()
@@ -78,18 +96,51 @@ public class ConcurrentRequestLimiter implements RateLimiter {
 	public void postRequest() {
 		semaphore.release();
 	}
+	
+	/**
+	 * @see com.ginsberg.gowalla.rate.PrioritizedRateLimiter#postRequest(com.ginsberg.gowalla.rate.RequestPriority)
+	 */
+	@Override
+	public void postRequest(final RequestPriority priority) {
+		semaphore.release();
+		if(priority == RequestPriority.BATCH && batchSemaphore != null) {
+			batchSemaphore.release();
+		}
+	}
 
 	/**
 	 * @see com.ginsberg.gowalla.rate.RateLimiter#preRequest()
 	 */
 	@Override
 	public boolean preRequest() {
+		return acquire(semaphore);
+	}
+	
+	/**
+	 * @see com.ginsberg.gowalla.rate.PrioritizedRateLimiter#preRequest(com.ginsberg.gowalla.rate.RequestPriority)
+	 */
+	@Override
+	public boolean preRequest(final RequestPriority priority) {
+		if(priority != RequestPriority.BATCH || batchSemaphore == null) {
+			return acquire(semaphore);
+		}
+		if(!acquire(batchSemaphore)) {
+			return false;
+		}
+		if(!acquire(semaphore)) {
+			batchSemaphore.release();
+			return false;
+		}
+		return true;
+	}
+	
+	private boolean acquire(final Semaphore permits) {
 		try {
 			if(timeUnit == null) {
-				semaphore.acquire();
+				permits.acquire();
 				return true;
 			} else {
-				return semaphore.tryAcquire(timeout, timeUnit);
+				return permits.tryAcquire(timeout, timeUnit);
 			}
 		} catch (InterruptedException e) {
 			return false;
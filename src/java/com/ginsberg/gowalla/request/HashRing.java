@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.request;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing: decides which of a set of nodes owns a key, so that 
+ * adding or removing a node only moves the keys it owns.  Each node is placed
+ * at a number of points around a ring, and a key belongs to the first node 
+ * at or after the key's point.  Every process given the same nodes agrees on
+ * the owners.  Immutable.
+ * 
+ * @author Todd Ginsberg
+ */
+final class HashRing {
+
+	private final TreeMap<Long, String> points = new TreeMap<Long, String>();
+	
+	/**
+	 * @param nodes The nodes, named the same way by every process.
+	 * @param pointsPerNode How many places each node is put on the ring; more spreads keys more evenly.
+	 */
+	HashRing(final Collection<String> nodes, final int pointsPerNode) {
+		super();
+		if(nodes.isEmpty()) {
+			throw new IllegalArgumentException("A ring needs at least one node");
+		}
+		for(String node : nodes) {
+			for(int i = 0; i < pointsPerNode; i++) {
+				points.put(hash(node + "#" + i), node);
+			}
+		}
+	}
+	
+	/**
+	 * @return The node that owns the key.
+	 */
+	String owner(final String key) {
+		final Map.Entry<Long, String> entry = points.ceilingEntry(hash(key));
+		return entry == null ? points.firstEntry().getValue() : entry.getValue();
+	}
+	
+	/**
+	 * 64 bit FNV-1a over the UTF-8 bytes, then mixed so similar keys land far apart.
+	 */
+	static long hash(final String key) {
+		final byte[] bytes;
+		try {
+			bytes = key.getBytes("UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			// Every JVM has UTF-8.
+			throw new IllegalStateException(e);
+		}
+		long h = 0xcbf29ce484222325L;
+		for(byte b : bytes) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+}
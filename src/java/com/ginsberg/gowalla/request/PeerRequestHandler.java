@@ -0,0 +1,710 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.request;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ginsberg.gowalla.exception.GowallaException;
+import com.ginsberg.gowalla.exception.GowallaRequestException;
+import com.ginsberg.gowalla.exception.NotAuthorizedException;
+import com.ginsberg.gowalla.exception.RequestNotAcceptableException;
+import com.ginsberg.gowalla.exception.ServiceUnavailableException;
+import com.ginsberg.gowalla.util.DaemonThreadFactory;
+
+/**
+ * A RequestHandler that shares responses between a group of processes, 
+ * usually one per machine, so each resource is requested from Gowalla by 
+ * only one of them.
+ * 
+ * Every resource has an owner, picked by consistent hashing over the peers, 
+ * so every peer agrees on it without talking to the others.  A request for a
+ * resource another peer owns is sent to that peer over TCP.  The owner 
+ * answers from the responses it has cached, or makes the request itself with
+ * the handler it wraps, once no matter how many peers are asking.  Errors, 
+ * such as there being no such spot, are passed back as the same exceptions.
+ * 
+ * If a peer can't be connected to, its resources are requested locally until
+ * it has had time to come back.  A peer that is connected to but doesn't 
+ * answer in time is still asked for other resources; only the request it 
+ * didn't answer is made locally.  Adding or removing a peer only moves the 
+ * resources it owns.  Every peer must be given the same list of peers, named
+ * the same way.
+ * 
+ * The protocol has no authentication, so peers should only listen where 
+ * other peers can reach them.  Each listens only on the host it is named 
+ * with, so name peers by an address on a private network.  Rate limiting 
+ * still happens in each process, before a request is handed to this object.
+ * 
+ * Example:
+ * <pre>
+ * {@code
+ * List<String> peers = Arrays.asList("10.0.0.1:7700", "10.0.0.2:7700", "10.0.0.3:7700");
+ * PeerRequestHandler handler = new PeerRequestHandler(new DefaultRequestHandler(), "10.0.0.2:7700", peers);
+ * handler.start();
+ * gowalla.setRequestHandler(handler);
+ * }
+ * </pre>
+ * 
+ * @author Todd Ginsberg
+ */
+public class PeerRequestHandler implements RequestHandler {
+
+	private static final int MAGIC = 0x47505231;
+	private static final int POINTS_PER_PEER = 128;
+	private static final int MAXIMUM_RESPONSE_BYTES = 64 * 1024 * 1024;
+	private static final int MAXIMUM_HEADERS = 64;
+	
+	// Reply status, followed by the response or the error message.
+	private static final byte OK = 0;
+	private static final byte NOT_ACCEPTABLE = 1;
+	private static final byte NOT_AUTHORIZED = 2;
+	private static final byte UNAVAILABLE = 3;
+	private static final byte FAILED = 4;
+	
+	private final RequestHandler handler;
+	private final String self;
+	private final Set<String> peers;
+	private final HashRing ring;
+	private final Map<String, Long> downUntil = new ConcurrentHashMap<String, Long>();
+	private final ConcurrentHashMap<String, Queue<Connection>> idle = new ConcurrentHashMap<String, Queue<Connection>>();
+	private final ConcurrentHashMap<String, FutureTask<String>> inFlight = new ConcurrentHashMap<String, FutureTask<String>>();
+	private final LinkedHashMap<String, Response> responses = new LinkedHashMap<String, Response>(16, 0.75f, true);
+	private volatile long timeToLiveMillis = TimeUnit.MINUTES.toMillis(5);
+	private volatile int maximumResponses = 10000;
+	private volatile int connectTimeoutMillis = 5000;
+	private volatile int readTimeoutMillis = 60000;
+	private volatile long retryAfterMillis = 30000;
+	private final Set<Socket> accepted = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+	private ServerSocket server = null;
+	private ExecutorService workers = null;
+	
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong responseHits = new AtomicLong();
+	private final AtomicLong forwarded = new AtomicLong();
+	private final AtomicLong served = new AtomicLong();
+	private final AtomicLong peerFailures = new AtomicLong();
+	
+	/**
+	 * @param handler The handler that makes requests to Gowalla.
+	 * @param self This process, as host:port, named as in the list of peers.  It listens on that host and port.
+	 * @param peers Every peer, as host:port.  This process is added if it isn't there.
+	 */
+	public PeerRequestHandler(final RequestHandler handler, final String self, final Collection<String> peers) {
+		super();
+		this.handler = handler;
+		this.self = self;
+		final Set<String> all = new LinkedHashSet<String>(peers);
+		all.add(self);
+		for(String peer : all) {
+			address(peer);
+		}
+		this.peers = Collections.unmodifiableSet(all);
+		this.ring = new HashRing(all, POINTS_PER_PEER);
+	}
+	
+	/**
+	 * Start answering requests from other peers.
+	 * @throws GowallaException if this process's host and port can't be listened on.
+	 */
+	public synchronized void start() throws GowallaException {
+		if(server != null) {
+			return;
+		}
+		try {
+			server = new ServerSocket();
+			server.setReuseAddress(true);
+			server.bind(address(self));
+		} catch(IOException e) {
+			server = null;
+			throw new GowallaException("Cannot listen for peers on " + self, e);
+		}
+		workers = Executors.newCachedThreadPool(new DaemonThreadFactory("gowalla-peer"));
+		final ServerSocket listening = server;
+		final ExecutorService executor = workers;
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				accept(listening, executor);
+			}
+		});
+	}
+	
+	/**
+	 * Stop answering other peers, and close connections to them.  Requests 
+	 * can still be made; ones this process doesn't own are still sent to their owners.
+	 */
+	public synchronized void close() {
+		if(server != null) {
+			try {
+				server.close();
+			} catch(IOException e) {
+				// Closing anyway.
+			}
+			workers.shutdownNow();
+			for(Socket socket : accepted) {
+				closeQuietly(socket);
+			}
+			server = null;
+			workers = null;
+		}
+		for(Queue<Connection> connections : idle.values()) {
+			for(Connection connection = connections.poll(); connection != null; connection = connections.poll()) {
+				connection.close();
+			}
+		}
+	}
+	
+	/**
+	 * Set how long a response is given out again for.  Zero stops keeping 
+	 * them, but concurrent requests for the same resource are still made once.
+	 */
+	public void setResponseTimeToLive(final long timeToLive, final TimeUnit unit) {
+		this.timeToLiveMillis = unit.toMillis(timeToLive);
+	}
+	
+	/**
+	 * @param maximumResponses How many responses to keep, least recently used going first.  Defaults to 10000.
+	 */
+	public void setMaximumResponses(final int maximumResponses) {
+		this.maximumResponses = Math.max(0, maximumResponses);
+	}
+	
+	/**
+	 * Set how long to wait to connect to another peer before requesting its 
+	 * resources locally for a while.  Defaults to five seconds.
+	 */
+	public void setConnectTimeout(final long timeout, final TimeUnit unit) {
+		this.connectTimeoutMillis = millis(timeout, unit);
+	}
+	
+	/**
+	 * Set how long to wait for another peer to answer, which includes it 
+	 * making the request to Gowalla.  Defaults to a minute.
+	 */
+	public void setReadTimeout(final long timeout, final TimeUnit unit) {
+		this.readTimeoutMillis = millis(timeout, unit);
+	}
+	
+	/**
+	 * Set how long to make a peer's requests locally after it couldn't be reached.  Defaults to 30 seconds.
+	 */
+	public void setRetryAfter(final long retryAfter, final TimeUnit unit) {
+		this.retryAfterMillis = unit.toMillis(retryAfter);
+	}
+	
+	/**
+	 * @return The peer that owns a resource.
+	 */
+	public String getOwner(final String resource) {
+		return ring.owner(resource);
+	}
+	
+	public String getSelf() {
+		return self;
+	}
+	
+	public Set<String> getPeers() {
+		return peers;
+	}
+	
+	/**
+	 * @return Requests made with the wrapped handler, for this process or others.
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+	
+	/**
+	 * @return Requests, for this process or others, answered with a kept response.
+	 */
+	public long getResponseHits() {
+		return responseHits.get();
+	}
+	
+	/**
+	 * @return Requests answered by other peers.
+	 */
+	public long getForwarded() {
+		return forwarded.get();
+	}
+	
+	/**
+	 * @return Requests answered for other peers.
+	 */
+	public long getServed() {
+		return served.get();
+	}
+	
+	/**
+	 * @return Times another peer couldn't be connected to, or didn't answer in time.
+	 */
+	public long getPeerFailures() {
+		return peerFailures.get();
+	}
+	
+	/**
+	 * @see com.ginsberg.gowalla.request.RequestHandler#handleRequest(java.lang.String, java.util.List)
+	 */
+	@Override
+	public String handleRequest(final String resource, final List<RequestHeader> instanceHeaders) throws GowallaRequestException {
+		final String owner = ring.owner(resource);
+		if(!owner.equals(self) && isUp(owner)) {
+			try {
+				final String response = forward(owner, resource, instanceHeaders);
+				forwarded.incrementAndGet();
+				return response;
+			} catch(IOException e) {
+				peerFailures.incrementAndGet();
+			}
+		}
+		return local(resource, instanceHeaders);
+	}
+	
+	/**
+	 * @see com.ginsberg.gowalla.request.RequestHandler#setRequestHeaders(java.util.Collection)
+	 */
+	@Override
+	public void setRequestHeaders(final Collection<RequestHeader> headers) {
+		handler.setRequestHeaders(headers);
+	}
+	
+	/**
+	 * @see com.ginsberg.gowalla.request.RequestHandler#setRequestHost(java.lang.String)
+	 */
+	@Override
+	public void setRequestHost(final String host) {
+		handler.setRequestHost(host);
+	}
+	
+	/**
+	 * @see com.ginsberg.gowalla.request.RequestHandler#setRequestPort(int)
+	 */
+	@Override
+	public void setRequestPort(final int port) {
+		handler.setRequestPort(port);
+	}
+	
+	private boolean isUp(final String peer) {
+		final Long until = downUntil.get(peer);
+		if(until == null) {
+			return true;
+		}
+		if(until <= System.currentTimeMillis()) {
+			downUntil.remove(peer);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Answer from a kept response, or make the request, once for however many ask at the same time.
+	 */
+	private String local(final String resource, final List<RequestHeader> headers) throws GowallaRequestException {
+		final String key = key(resource, headers);
+		final String kept = kept(key);
+		if(kept != null) {
+			responseHits.incrementAndGet();
+			return kept;
+		}
+		final FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+			@Override
+			public String call() throws GowallaRequestException {
+				// It may have been kept between looking and getting here.
+				final String kept = kept(key);
+				if(kept != null) {
+					responseHits.incrementAndGet();
+					return kept;
+				}
+				requests.incrementAndGet();
+				final String response = handler.handleRequest(resource, headers);
+				keep(key, response);
+				return response;
+			}
+		});
+		final FutureTask<String> running = inFlight.putIfAbsent(key, task);
+		if(running == null) {
+			try {
+				task.run();
+			} finally {
+				inFlight.remove(key, task);
+			}
+		}
+		return await(running == null ? task : running);
+	}
+	
+	private String kept(final String key) {
+		synchronized(responses) {
+			final Response response = responses.get(key);
+			if(response == null) {
+				return null;
+			}
+			if(response.expires <= System.currentTimeMillis()) {
+				responses.remove(key);
+				return null;
+			}
+			return response.body;
+		}
+	}
+	
+	private void keep(final String key, final String body) {
+		final long timeToLive = timeToLiveMillis;
+		if(timeToLive <= 0 || body == null) {
+			return;
+		}
+		synchronized(responses) {
+			responses.put(key, new Response(body, System.currentTimeMillis() + timeToLive));
+			for(Iterator<Response> eldest = responses.values().iterator(); responses.size() > maximumResponses && eldest.hasNext();) {
+				eldest.next();
+				eldest.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Ask the owner.  A connection from the pool may have been closed at the 
+	 * other end since it was used, so that is tried again on a new one, unless
+	 * the owner is just slow to answer.  If a new one can't be made, or is 
+	 * closed without an answer, the owner is taken to be down.
+	 * 
+	 * @throws IOException if the owner couldn't be connected to, or didn't answer.
+	 */
+	private String forward(final String owner, final String resource, final List<RequestHeader> headers) throws IOException, GowallaRequestException {
+		Queue<Connection> pool = idle.get(owner);
+		if(pool == null) {
+			idle.putIfAbsent(owner, new ConcurrentLinkedQueue<Connection>());
+			pool = idle.get(owner);
+		}
+		while(true) {
+			final Connection pooled = pool.poll();
+			final Connection connection = pooled == null ? connect(owner) : pooled;
+			final byte status;
+			final String body;
+			try {
+				connection.socket.setSoTimeout(readTimeoutMillis);
+				write(connection.out, resource, headers);
+				status = connection.in.readByte();
+				body = status == OK ? readBody(connection.in) : connection.in.readUTF();
+			} catch(IOException e) {
+				connection.close();
+				if(e instanceof SocketTimeoutException) {
+					throw e;
+				}
+				if(pooled != null) {
+					continue;
+				}
+				down(owner);
+				throw e;
+			}
+			pool.offer(connection);
+			switch(status) {
+			case OK:
+				return body;
+			case NOT_ACCEPTABLE:
+				throw new RequestNotAcceptableException(body);
+			case NOT_AUTHORIZED:
+				throw new NotAuthorizedException(body);
+			case UNAVAILABLE:
+				throw new ServiceUnavailableException(body);
+			default:
+				throw new GowallaRequestException(body);
+			}
+		}
+	}
+	
+	private Connection connect(final String owner) throws IOException {
+		try {
+			return new Connection(address(owner), connectTimeoutMillis);
+		} catch(IOException e) {
+			down(owner);
+			throw e;
+		}
+	}
+	
+	private void down(final String owner) {
+		downUntil.put(owner, System.currentTimeMillis() + retryAfterMillis);
+	}
+	
+	private void accept(final ServerSocket listening, final ExecutorService executor) {
+		while(!listening.isClosed()) {
+			final Socket socket;
+			try {
+				socket = listening.accept();
+			} catch(IOException e) {
+				// Closed, or the connection went away before it was accepted.
+				continue;
+			}
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				});
+			} catch(RuntimeException e) {
+				// Shut down while accepting, so don't leave the peer waiting for an answer.
+				closeQuietly(socket);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Answer another peer's requests until it closes the connection.  Always 
+	 * answered here, so a peer with a different list can't bounce a request around.
+	 */
+	private void serve(final Socket socket) {
+		accepted.add(socket);
+		try {
+			socket.setTcpNoDelay(true);
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			while(true) {
+				try {
+					if(in.readInt() != MAGIC) {
+						return;
+					}
+				} catch(EOFException e) {
+					return;
+				}
+				final String resource = in.readUTF();
+				final int count = in.readInt();
+				if(count < 0 || count > MAXIMUM_HEADERS) {
+					// Not one of ours.
+					return;
+				}
+				final List<RequestHeader> headers = new ArrayList<RequestHeader>(count);
+				for(int i = 0; i < count; i++) {
+					headers.add(new PlainRequestHeader(in.readUTF(), in.readUTF()));
+				}
+				try {
+					final String response = local(resource, headers);
+					out.writeByte(OK);
+					writeBody(out, response);
+				} catch(GowallaRequestException e) {
+					out.writeByte(status(e));
+					out.writeUTF(String.valueOf(e.getMessage()));
+				} catch(RuntimeException e) {
+					out.writeByte(FAILED);
+					out.writeUTF(String.valueOf(e));
+				}
+				out.flush();
+				served.incrementAndGet();
+			}
+		} catch(IOException e) {
+			// The peer went away.
+		} finally {
+			accepted.remove(socket);
+			closeQuietly(socket);
+		}
+	}
+	
+	private static byte status(final GowallaRequestException e) {
+		if(e instanceof RequestNotAcceptableException) {
+			return NOT_ACCEPTABLE;
+		} else if(e instanceof NotAuthorizedException) {
+			return NOT_AUTHORIZED;
+		} else if(e instanceof ServiceUnavailableException) {
+			return UNAVAILABLE;
+		}
+		return FAILED;
+	}
+	
+	private static void write(final DataOutputStream out, final String resource, final List<RequestHeader> headers) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeUTF(resource);
+		final List<RequestHeader> present = present(headers);
+		out.writeInt(present.size());
+		for(RequestHeader header : present) {
+			out.writeUTF(header.getKey());
+			out.writeUTF(header.getValue());
+		}
+		out.flush();
+	}
+	
+	private static void writeBody(final DataOutputStream out, final String body) throws IOException {
+		final byte[] bytes = body == null ? new byte[0] : body.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readBody(final DataInputStream in) throws IOException {
+		final int length = in.readInt();
+		if(length < 0 || length > MAXIMUM_RESPONSE_BYTES) {
+			throw new IOException("Response from peer is " + length + " bytes");
+		}
+		final byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+	
+	/**
+	 * @return The headers with a key and value.
+	 */
+	private static List<RequestHeader> present(final List<RequestHeader> headers) {
+		final List<RequestHeader> present = new ArrayList<RequestHeader>();
+		if(headers != null) {
+			for(RequestHeader header : headers) {
+				if(header != null && header.getKey() != null && header.getValue() != null) {
+					present.add(header);
+				}
+			}
+		}
+		return present;
+	}
+	
+	/**
+	 * Responses can depend on who is asking, so the headers are part of the key.
+	 */
+	private static String key(final String resource, final List<RequestHeader> headers) {
+		final StringBuilder key = new StringBuilder(resource);
+		for(RequestHeader header : present(headers)) {
+			key.append('\n').append(header.getKey()).append(':').append(header.getValue());
+		}
+		return key.toString();
+	}
+	
+	private static int millis(final long timeout, final TimeUnit unit) {
+		return (int)Math.min(Integer.MAX_VALUE, Math.max(1, unit.toMillis(timeout)));
+	}
+	
+	private static InetSocketAddress address(final String peer) {
+		final int colon = peer.lastIndexOf(':');
+		if(colon <= 0) {
+			throw new IllegalArgumentException("Peer must be host:port: " + peer);
+		}
+		try {
+			return new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1)));
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Peer must be host:port: " + peer);
+		}
+	}
+	
+	private static void closeQuietly(final Socket socket) {
+		try {
+			socket.close();
+		} catch(IOException e) {
+			// Closed anyway.
+		}
+	}
+	
+	private static String await(final FutureTask<String> task) throws GowallaRequestException {
+		try {
+			return task.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new GowallaRequestException("Interrupted waiting for a request.", e);
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof GowallaRequestException) {
+				throw (GowallaRequestException)e.getCause();
+			} else if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			} else if(e.getCause() instanceof Error) {
+				throw (Error)e.getCause();
+			}
+			throw new GowallaRequestException(e.getCause());
+		}
+	}
+	
+	/**
+	 * A response kept for other requests.
+	 */
+	private static class Response {
+		private final String body;
+		private final long expires;
+		
+		private Response(final String body, final long expires) {
+			this.body = body;
+			this.expires = expires;
+		}
+	}
+	
+	/**
+	 * A connection to another peer, reused for one request after another.
+	 */
+	private static class Connection {
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		
+		private Connection(final InetSocketAddress address, final int connectTimeoutMillis) throws IOException {
+			socket = new Socket();
+			try {
+				socket.connect(address, connectTimeoutMillis);
+				socket.setTcpNoDelay(true);
+				in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			} catch(IOException e) {
+				close();
+				throw e;
+			}
+		}
+		
+		private void close() {
+			closeQuietly(socket);
+		}
+	}
+	
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return String.format("PeerRequestHandler[self=%s, peers=%d, requests=%d, responseHits=%d, forwarded=%d, served=%d, peerFailures=%d]", 
+				self, peers.size(), requests.get(), responseHits.get(), forwarded.get(), served.get(), peerFailures.get());
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.util;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive ints, using open addressing in a single int array so 
+ * that millions of ids take a few bytes each rather than a boxed Integer
+ * and a hash entry apiece.  Not thread safe.
+ * 
+ * @author Todd Ginsberg
+ */
+public class IntHashSet {
+
+	/**
+	 * Marks an empty slot.  Zero itself is tracked separately.
+	 */
+	private static final int EMPTY = 0;
+	
+	private int[] slots;
+	private int size = 0;
+	private boolean containsZero = false;
+	
+	/**
+	 * Create an empty set.
+	 */
+	public IntHashSet() {
+		this(16);
+	}
+	
+	/**
+	 * Create an empty set sized to hold the given number of values without growing.
+	 */
+	public IntHashSet(final int expectedSize) {
+		super();
+		int capacity = 16;
+		while(capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		slots = new int[capacity];
+	}
+	
+	/**
+	 * Add a value to the set.
+	 * 
+	 * @return true if the value was not already in the set.
+	 */
+	public boolean add(final int value) {
+		if(value == EMPTY) {
+			if(containsZero) {
+				return false;
+			}
+			containsZero = true;
+			size++;
+			return true;
+		}
+		if((size + 1) * 2 > slots.length) {
+			grow();
+		}
+		int slot = indexFor(value, slots.length);
+		while(slots[slot] != EMPTY) {
+			if(slots[slot] == value) {
+				return false;
+			}
+			slot = (slot + 1) & (slots.length - 1);
+		}
+		slots[slot] = value;
+		size++;
+		return true;
+	}
+	
+	/**
+	 * @return true if the value is in the set.
+	 */
+	public boolean contains(final int value) {
+		if(value == EMPTY) {
+			return containsZero;
+		}
+		int slot = indexFor(value, slots.length);
+		while(slots[slot] != EMPTY) {
+			if(slots[slot] == value) {
+				return true;
+			}
+			slot = (slot + 1) & (slots.length - 1);
+		}
+		return false;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return Every value in the set, in ascending order.
+	 */
+	public int[] toArray() {
+		final int[] values = new int[size];
+		int i = 0;
+		if(containsZero) {
+			values[i++] = 0;
+		}
+		for(int value : slots) {
+			if(value != EMPTY) {
+				values[i++] = value;
+			}
+		}
+		Arrays.sort(values);
+		return values;
+	}
+	
+	private void grow() {
+		final int[] old = slots;
+		slots = new int[old.length * 2];
+		for(int value : old) {
+			if(value != EMPTY) {
+				int slot = indexFor(value, slots.length);
+				while(slots[slot] != EMPTY) {
+					slot = (slot + 1) & (slots.length - 1);
+				}
+				slots[slot] = value;
+			}
+		}
+	}
+	
+	/**
+	 * Spread the bits so sequential ids don't cluster.
+	 */
+	private static int indexFor(final int value, final int length) {
+		final int h = value * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & (length - 1);
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Dumping ground for utility selection (partial sorting) routines.
+ * 
+ * @author Todd Ginsberg
+ */
+public abstract class Selection {
+
+	/**
+	 * Return the first <code>k</code> elements of the list as if it had been sorted
+	 * with the given comparator, in sorted order.  This keeps a bounded heap of
+	 * <code>k</code> elements rather than sorting the whole list, so it runs in
+	 * O(n log k) time.  Ties are broken by position in the original list, so the
+	 * result is identical to a (stable) Collections.sort() followed by truncation.
+	 * 
+	 * @param list The elements to select from.  This list is not altered.
+	 * @param k How many elements to return.  If zero or larger than the list, the whole list is sorted.
+	 * @param comparator The ordering to select by.
+	 * @return A new, array-backed list of at most k elements.
+	 */
+	public static <T> List<T> smallest(final List<T> list, final int k, final Comparator<? super T> comparator) {
+		if(k <= 0 || k >= list.size()) {
+			final List<T> all = new ArrayList<T>(list);
+			Collections.sort(all, comparator);
+			return all;
+		}
+		
+		// Max-heap on (element, position) so the worst of the best k is always on top.
+		final PriorityQueue<Ranked<T>> heap = new PriorityQueue<Ranked<T>>(k + 1, Collections.reverseOrder(new RankedComparator<T>(comparator)));
+		final RankedComparator<T> ascending = new RankedComparator<T>(comparator);
+		int position = 0;
+		for(T element : list) {
+			final Ranked<T> ranked = new Ranked<T>(element, position++);
+			if(heap.size() < k) {
+				heap.offer(ranked);
+			} else if(ascending.compare(ranked, heap.peek()) < 0) {
+				heap.poll();
+				heap.offer(ranked);
+			}
+		}
+		
+		final List<Ranked<T>> winners = new ArrayList<Ranked<T>>(heap);
+		Collections.sort(winners, ascending);
+		final List<T> result = new ArrayList<T>(winners.size());
+		for(Ranked<T> ranked : winners) {
+			result.add(ranked.element);
+		}
+		return result;
+	}
+	
+	/**
+	 * An element and the position it held in its original list.
+	 */
+	private static class Ranked<T> {
+		private final T element;
+		private final int position;
+		
+		private Ranked(final T element, final int position) {
+			this.element = element;
+			this.position = position;
+		}
+	}
+	
+	/**
+	 * Orders by the given comparator, then by original position.
+	 */
+	private static class RankedComparator<T> implements Comparator<Ranked<T>> {
+		private final Comparator<? super T> inner;
+		
+		private RankedComparator(final Comparator<? super T> inner) {
+			this.inner = inner;
+		}
+
+		@Override
+		public int compare(Ranked<T> a, Ranked<T> b) {
+			final int c = inner.compare(a.element, b.element);
+			if(c != 0) {
+				return c;
+			}
+			return a.position < b.position ? -1 : (a.position == b.position ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.Category;
+import com.ginsberg.gowalla.dto.FullCategory;
+import com.ginsberg.gowalla.dto.FullSpot;
+import com.ginsberg.gowalla.dto.index.CategoryTree;
+import com.ginsberg.gowalla.dto.filter.InCategory;
+import com.ginsberg.gowalla.exception.GowallaRequestException;
+import com.ginsberg.gowalla.exception.RequestNotAcceptableException;
+import com.ginsberg.gowalla.exception.ServiceUnavailableException;
+import com.ginsberg.gowalla.request.RequestHandler;
+import com.ginsberg.gowalla.request.RequestHeader;
+
+/**
+ * @author Todd Ginsberg
+ */
+public class CategoryServiceTest {
+
+	private final AtomicInteger treeRequests = new AtomicInteger();
+	private final AtomicInteger singleRequests = new AtomicInteger();
+	private volatile boolean treeUnavailable = false;
+	private Gowalla gowalla;
+	private CategoryService service;
+	
+	@Before
+	public void setUp() throws Exception {
+		final String all = read("json/testAllCategories.json");
+		gowalla = new Gowalla("UnitTests", "none");
+		gowalla.setRequestHandler(new RequestHandler() {
+			@Override
+			public String handleRequest(final String resource, final List<RequestHeader> headers) throws GowallaRequestException {
+				if("/categories".equals(resource)) {
+					treeRequests.incrementAndGet();
+					if(treeUnavailable) {
+						throw new ServiceUnavailableException();
+					}
+					return all;
+				}
+				singleRequests.incrementAndGet();
+				throw new RequestNotAcceptableException();
+			}
+			
+			@Override
+			public void setRequestHeaders(final Collection<RequestHeader> headers) {
+				// Not needed.
+			}
+
+			@Override
+			public void setRequestHost(final String host) {
+				// Not needed.
+			}
+
+			@Override
+			public void setRequestPort(final int port) {
+				// Not needed.
+			}
+		});
+		service = new CategoryService(gowalla);
+	}
+	
+	@Test
+	public void testTree() throws Exception {
+		final CategoryTree tree = service.getTree();
+		assertSame(tree, service.getTree());
+		assertEquals(1, treeRequests.get());
+		
+		final List<FullCategory> everything = new ArrayList<FullCategory>();
+		for(FullCategory root : tree.getRoots()) {
+			collect(root, everything);
+		}
+		assertEquals(everything.size(), tree.size());
+		for(FullCategory a : everything) {
+			assertSame(a, tree.get(a.getId()));
+			for(FullCategory b : everything) {
+				assertEquals(a.getId() + " in " + b.getId(), isUnder(tree, a.getId(), b.getId()), tree.isWithin(a.getId(), b.getId()));
+			}
+		}
+		assertEquals(false, tree.isWithin(-1, everything.get(0).getId()));
+	}
+	
+	@Test
+	public void testGowallaAnswersLocally() throws Exception {
+		gowalla.setCategoryService(service);
+		final FullCategory root = service.getTree().getRoots().get(0);
+		final FullCategory child = root.getSubcategories().get(0);
+		assertSame(child, gowalla.getCategory(child.getId()));
+		assertEquals(0, singleRequests.get());
+		assertNull(gowalla.getCategory(-5));
+		assertEquals(1, singleRequests.get());
+		
+		// The tree and the collected ids agree on which spots are in a category.
+		final InCategory fromTree = new InCategory(service.getTree(), root.getId());
+		final InCategory fromIds = new InCategory(root);
+		for(FullCategory category : service.getTree().getRoots()) {
+			final FullSpot spot = new FullSpot();
+			final List<Category> categories = new ArrayList<Category>();
+			categories.add(category.getSubcategories().isEmpty() ? category : category.getSubcategories().get(0));
+			spot.setCategories(categories);
+			assertEquals(fromIds.isIncluded(spot), fromTree.isIncluded(spot));
+		}
+	}
+	
+	@Test
+	public void testGowallaAsksWhenTreeCannotLoad() throws Exception {
+		gowalla.setCategoryService(service);
+		treeUnavailable = true;
+		assertNull(gowalla.getCategory(12));
+		assertEquals("Asked for the one category", 1, singleRequests.get());
+		assertEquals(1, service.getRefreshFailures());
+		
+		// Until the retry interval passes, lookups go straight to the one category.
+		assertNull(gowalla.getCategory(13));
+		assertNull(gowalla.getCategory(14));
+		assertEquals(1, treeRequests.get());
+		assertEquals(3, singleRequests.get());
+		assertEquals(1, service.getRefreshFailures());
+		
+		service.setRetryInterval(0, TimeUnit.MILLISECONDS);
+		treeUnavailable = false;
+		final FullCategory root = service.getTree().getRoots().get(0);
+		assertSame(root, gowalla.getCategory(root.getId()));
+		assertEquals(2, treeRequests.get());
+		assertEquals(3, singleRequests.get());
+	}
+	
+	@Test
+	public void testBackgroundRefresh() throws Exception {
+		service.startRefreshing(10, TimeUnit.MILLISECONDS);
+		final long giveUp = System.currentTimeMillis() + 5000;
+		while(treeRequests.get() < 3 && System.currentTimeMillis() < giveUp) {
+			Thread.sleep(5);
+		}
+		service.stopRefreshing();
+		assertEquals(true, treeRequests.get() >= 3);
+		assertEquals(true, service.getLoadedTree() != null && service.getLastRefreshed() > 0);
+		assertEquals(0, service.getRefreshFailures());
+	}
+	
+	private static boolean isUnder(final CategoryTree tree, final int id, final int ancestorId) {
+		for(FullCategory c = tree.get(id); c != null; c = tree.getParent(c.getId())) {
+			if(c.getId() == ancestorId) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static void collect(final FullCategory category, final List<FullCategory> into) {
+		// Ids can repeat in the real tree; the first one is the one the tree keeps.
+		for(FullCategory seen : into) {
+			if(seen.getId() == category.getId()) {
+				return;
+			}
+		}
+		into.add(category);
+		for(FullCategory child : category.getSubcategories()) {
+			collect(child, into);
+		}
+	}
+	
+	private String read(final String resource) throws Exception {
+		final StringBuilder buf = new StringBuilder();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(getClass().getClassLoader().getResourceAsStream(resource)));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				buf.append(line).append("\n");
+			}
+		} finally {
+			reader.close();
+		}
+		return buf.toString();
+	}
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.FullSpot;
+import com.ginsberg.gowalla.dto.FullUser;
+import com.ginsberg.gowalla.dto.Item;
+import com.ginsberg.gowalla.exception.RequestNotAcceptableException;
+import com.ginsberg.gowalla.rate.PrioritizedRateLimiter;
+import com.ginsberg.gowalla.rate.RequestPriority;
+
+/**
+ * @author Todd Ginsberg
+ */
+public class EntityCacheTest {
+
+	private Gowalla gowalla;
+	private StubSpotRequestHandler handler;
+	private EntityCache cache;
+	
+	@Before
+	public void setUp() throws Exception {
+		gowalla = new Gowalla("UnitTests", "none");
+		handler = new StubSpotRequestHandler(30.25, -97.75, 10, 10, 0.0005, 40);
+		gowalla.setRequestHandler(handler);
+		cache = new EntityCache(1000);
+		gowalla.setEntityCache(cache);
+	}
+	
+	@Test
+	public void testGowallaUsesCache() throws Exception {
+		final FullSpot spot = gowalla.getSpot(5);
+		assertEquals(5, spot.getId());
+		assertSame(spot, gowalla.getSpot(5));
+		final FullUser user = gowalla.getUser(7);
+		assertSame(user, gowalla.getUser(7));
+		assertEquals(2, handler.getRequestCount());
+		assertEquals(2, cache.getHits());
+		
+		cache.invalidate(EntityCache.Type.SPOT, 5);
+		assertNotSame(spot, gowalla.getSpot(5));
+		assertEquals(3, handler.getRequestCount());
+		
+		// Not found is cached too.
+		assertNull(gowalla.getSpot(5000));
+		assertNull(gowalla.getSpot(5000));
+		assertEquals(4, handler.getRequestCount());
+		assertEquals(1, cache.getNotFoundHits());
+	}
+	
+	@Test
+	public void testNotFound() throws Exception {
+		assertNull(gowalla.getUser(5000));
+		assertNull(gowalla.getUser(5000));
+		assertNull(gowalla.getUser(5000));
+		assertEquals(1, handler.getRequestCount());
+		assertEquals(true, cache.isNotFound(EntityCache.Type.USER, 5000));
+		assertEquals(false, cache.isNotFound(EntityCache.Type.SPOT, 5000));
+		assertNull(cache.get(EntityCache.Type.USER, 5000));
+		
+		// Finding it later replaces the answer.
+		cache.put(EntityCache.Type.USER, 5000, new FullUser());
+		assertEquals(false, cache.isNotFound(EntityCache.Type.USER, 5000));
+		
+		// Not found answers have their own time to live.
+		cache.setNotFoundTimeToLive(EntityCache.Type.SPOT, 0, TimeUnit.MILLISECONDS);
+		assertNull(gowalla.getSpot(6000));
+		assertNull(gowalla.getSpot(6000));
+		assertEquals(3, handler.getRequestCount());
+		assertEquals(10, cache.getNotFoundTimeToLive(EntityCache.Type.USER, TimeUnit.MINUTES));
+		
+		// Not found is an answer, not a failure, so it doesn't pay for a stack trace.
+		assertEquals(0, new RequestNotAcceptableException("No such spot").getStackTrace().length);
+	}
+	
+	@Test
+	public void testStaleWhileRevalidate() throws Exception {
+		final Set<RequestPriority> seen = Collections.synchronizedSet(new HashSet<RequestPriority>());
+		gowalla.setRateLimiter(new PrioritizedRateLimiter() {
+			public boolean preRequest() {
+				return preRequest(RequestPriority.INTERACTIVE);
+			}
+			public void postRequest() {
+			}
+			public boolean preRequest(final RequestPriority priority) {
+				seen.add(priority);
+				return true;
+			}
+			public void postRequest(final RequestPriority priority) {
+			}
+		});
+		cache.setSoftTimeToLive(EntityCache.Type.SPOT, 100, TimeUnit.MILLISECONDS);
+		final FullSpot spot = gowalla.getSpot(5);
+		Thread.sleep(150);
+		
+		// Stale, so returned as is while one refresh happens in the background.
+		handler.setDelayMillis(200);
+		assertSame(spot, gowalla.getSpot(5));
+		assertSame(spot, gowalla.getSpot(5));
+		assertSame(spot, gowalla.getSpot(5));
+		final long giveUp = System.currentTimeMillis() + 5000;
+		while(gowalla.getSpot(5) == spot && System.currentTimeMillis() < giveUp) {
+			Thread.sleep(20);
+		}
+		assertNotSame(spot, gowalla.getSpot(5));
+		assertEquals("One refresh for many stale reads", 2, handler.getRequestCount());
+		assertEquals(true, seen.contains(RequestPriority.BATCH));
+		
+		// Past the time to live, the caller waits for a fresh one.
+		handler.setDelayMillis(0);
+		cache.setTimeToLive(EntityCache.Type.USER, 50, TimeUnit.MILLISECONDS);
+		final FullUser user = gowalla.getUser(7);
+		Thread.sleep(100);
+		assertNotSame(user, gowalla.getUser(7));
+		assertEquals(4, handler.getRequestCount());
+	}
+	
+	@Test
+	public void testFailedRefreshTriedAgain() throws Exception {
+		final AtomicInteger refused = new AtomicInteger();
+		gowalla.setRateLimiter(new PrioritizedRateLimiter() {
+			public boolean preRequest() {
+				return true;
+			}
+			public void postRequest() {
+			}
+			public boolean preRequest(final RequestPriority priority) {
+				// Too busy for the first background refresh.
+				return priority != RequestPriority.BATCH || refused.getAndIncrement() > 0;
+			}
+			public void postRequest(final RequestPriority priority) {
+			}
+		});
+		cache.setSoftTimeToLive(EntityCache.Type.SPOT, 200, TimeUnit.MILLISECONDS);
+		final FullSpot spot = gowalla.getSpot(5);
+		Thread.sleep(250);
+		
+		final long giveUp = System.currentTimeMillis() + 5000;
+		while(gowalla.getSpot(5) == spot && System.currentTimeMillis() < giveUp) {
+			Thread.sleep(20);
+		}
+		assertNotSame("Refreshed after the first refresh failed", spot, gowalla.getSpot(5));
+		assertEquals(2, refused.get());
+		assertEquals(2, handler.getRequestCount());
+	}
+	
+	@Test
+	public void testTimeToLive() throws Exception {
+		cache.setTimeToLive(EntityCache.Type.ITEM, 0, TimeUnit.MILLISECONDS);
+		cache.put(EntityCache.Type.ITEM, 1, new Item());
+		cache.put(EntityCache.Type.SPOT, 1, new FullSpot());
+		assertNull(cache.<Item>get(EntityCache.Type.ITEM, 1));
+		assertEquals(true, cache.get(EntityCache.Type.SPOT, 1) != null);
+		cache.invalidateAll(EntityCache.Type.SPOT);
+		assertNull(cache.<FullSpot>get(EntityCache.Type.SPOT, 1));
+	}
+	
+	@Test
+	public void testScanResistance() throws Exception {
+		final EntityCache small = new EntityCache(160);
+		// A working set, each used twice so it's protected.
+		for(int id = 0; id < 64; id++) {
+			small.put(EntityCache.Type.SPOT, id, new FullSpot());
+			small.get(EntityCache.Type.SPOT, id);
+		}
+		// A scan of objects only seen once.
+		for(int id = 1000; id < 11000; id++) {
+			small.put(EntityCache.Type.SPOT, id, new FullSpot());
+		}
+		int kept = 0;
+		for(int id = 0; id < 64; id++) {
+			kept += small.get(EntityCache.Type.SPOT, id) == null ? 0 : 1;
+		}
+		assertEquals("Working set should survive the scan", 64, kept);
+		assertEquals(true, small.size() <= 160);
+		assertEquals(true, small.getEvictions() > 9000);
+	}
+	
+	@Test
+	public void testCopying() throws Exception {
+		cache.setCopying(true);
+		final FullSpot spot = gowalla.getSpot(3);
+		spot.setName("Changed");
+		final FullSpot again = gowalla.getSpot(3);
+		assertEquals("Spot 3", again.getName());
+		assertNotSame(again, gowalla.getSpot(3));
+		assertEquals(1, handler.getRequestCount());
+	}
+}
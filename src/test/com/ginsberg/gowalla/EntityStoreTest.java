@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.FullSpot;
+import com.ginsberg.gowalla.dto.FullUser;
+import com.ginsberg.gowalla.dto.VisitedSpot;
+
+/**
+ * @author Todd Ginsberg
+ */
+public class EntityStoreTest {
+
+	private File directory;
+	private EntityStore store;
+	
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("entities", ".store");
+		directory.delete();
+		// Small segments, so entries are placed around segment ends.
+		store = new EntityStore(directory, 12);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		store.close();
+		for(File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+	
+	@Test
+	public void testEntriesSurviveReopening() throws Exception {
+		for(int id = 1; id <= 3000; id++) {
+			store.put(EntityCache.Type.SPOT, id, spot(id), 1, TimeUnit.HOURS);
+		}
+		final ArrayList<VisitedSpot> top = new ArrayList<VisitedSpot>();
+		top.add(new VisitedSpot());
+		store.put(EntityCache.Type.TOP_SPOTS, 7, top, 1, TimeUnit.HOURS);
+		store.close();
+		
+		store = new EntityStore(directory, 12);
+		assertEquals(3001, store.size());
+		final FullSpot spot = store.get(EntityCache.Type.SPOT, 2345);
+		assertEquals(2345, spot.getId());
+		assertEquals("Spot 2345 is somewhere in Austin, Texas", spot.getDescription());
+		assertNull(store.get(EntityCache.Type.USER, 2345));
+		assertEquals(1, store.<ArrayList<VisitedSpot>>get(EntityCache.Type.TOP_SPOTS, 7).size());
+		
+		// Without the index, it's rebuilt from the log.
+		store.close();
+		new File(directory, "entities.idx").delete();
+		store = new EntityStore(directory, 12);
+		assertEquals(3001, store.size());
+		assertEquals("Spot 17", store.<FullSpot>get(EntityCache.Type.SPOT, 17).getName());
+	}
+	
+	@Test
+	public void testRemoveAndCompact() throws Exception {
+		for(int id = 1; id <= 1000; id++) {
+			store.put(EntityCache.Type.SPOT, id, spot(id), 1, TimeUnit.HOURS);
+			store.put(EntityCache.Type.USER, id, new FullUser(), 1, TimeUnit.HOURS);
+		}
+		for(int id = 1; id <= 1000; id++) {
+			store.put(EntityCache.Type.SPOT, id, spot(id), 1, TimeUnit.HOURS);
+		}
+		store.put(EntityCache.Type.ITEM, 1, new FullUser(), 0, TimeUnit.MILLISECONDS);
+		assertNull(store.get(EntityCache.Type.ITEM, 1));
+		assertEquals(true, store.remove(EntityCache.Type.SPOT, 10));
+		assertEquals(false, store.remove(EntityCache.Type.SPOT, 10));
+		assertNull(store.get(EntityCache.Type.SPOT, 10));
+		
+		final long before = store.getLogBytes();
+		store.compact();
+		assertEquals(true, store.getLogBytes() < before * 2 / 3);
+		assertEquals(1999, store.size());
+		assertEquals("Spot 999", store.<FullSpot>get(EntityCache.Type.SPOT, 999).getName());
+		
+		store.removeAll(EntityCache.Type.USER);
+		assertEquals(999, store.size());
+		assertNull(store.get(EntityCache.Type.USER, 5));
+		assertNotNull(store.get(EntityCache.Type.SPOT, 5));
+		
+		// Removals survive rebuilding the index.
+		store.close();
+		new File(directory, "entities.idx").delete();
+		store = new EntityStore(directory, 12);
+		assertEquals(999, store.size());
+		assertNull(store.get(EntityCache.Type.SPOT, 10));
+	}
+	
+	@Test
+	public void testExpiredEntriesKeptUnderMaximum() throws Exception {
+		final long maximum = 256 * 1024;
+		store.setMaximumLogBytes(maximum);
+		final long past = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+		for(int id = 1; id <= 10000; id++) {
+			store.put(EntityCache.Type.SPOT, id, spot(id), past, past + 1);
+			assertEquals(true, store.getLogBytes() <= maximum + maximum / 4 + 4096);
+		}
+		assertEquals(true, store.size() < 5000);
+		
+		// Objects that haven't expired aren't dropped to make room.
+		for(int id = 1; id <= 4000; id++) {
+			store.put(EntityCache.Type.USER, id, spot(id), 1, TimeUnit.HOURS);
+		}
+		assertEquals(true, store.getLogBytes() > maximum);
+		assertEquals("Spot 1", store.<FullSpot>get(EntityCache.Type.USER, 1).getName());
+		assertEquals("Spot 4000", store.<FullSpot>get(EntityCache.Type.USER, 4000).getName());
+	}
+	
+	@Test
+	public void testSecondLevel() throws Exception {
+		final Gowalla gowalla = new Gowalla("UnitTests", "none");
+		final StubSpotRequestHandler handler = new StubSpotRequestHandler(30.25, -97.75, 20, 20, 0.0005, 40);
+		gowalla.setRequestHandler(handler);
+		final EntityCache cache = new EntityCache(32);
+		cache.setSecondLevel(store);
+		gowalla.setEntityCache(cache);
+		for(int id = 1; id <= 400; id++) {
+			gowalla.getSpot(id);
+		}
+		assertEquals(400, handler.getRequestCount());
+		assertEquals(true, cache.size() <= 32);
+		
+		// Far more than the cache holds, but none need asking for again.
+		for(int id = 1; id <= 400; id++) {
+			assertEquals(id, gowalla.getSpot(id).getId());
+		}
+		assertEquals(400, handler.getRequestCount());
+		assertEquals(true, cache.getSecondLevelHits() > 300);
+		
+		// Nor after a restart.
+		store.close();
+		store = new EntityStore(directory, 12);
+		final EntityCache restarted = new EntityCache(32);
+		restarted.setSecondLevel(store);
+		gowalla.setEntityCache(restarted);
+		assertEquals("Spot 250", gowalla.getSpot(250).getName());
+		assertEquals(400, handler.getRequestCount());
+		
+		restarted.invalidate(EntityCache.Type.SPOT, 250);
+		gowalla.getSpot(250);
+		assertEquals(401, handler.getRequestCount());
+		assertEquals(0, restarted.getSecondLevelErrors());
+	}
+	
+	private FullSpot spot(final int id) {
+		final FullSpot spot = new FullSpot();
+		spot.setId(id);
+		spot.setName("Spot " + id);
+		spot.setDescription("Spot " + id + " is somewhere in Austin, Texas");
+		spot.setCheckinsCount(id);
+		return spot;
+	}
+}
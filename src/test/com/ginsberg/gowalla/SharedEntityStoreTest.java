@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.FullSpot;
+import com.ginsberg.gowalla.dto.FullUser;
+
+/**
+ * @author Todd Ginsberg
+ */
+public class SharedEntityStoreTest {
+
+	private File file;
+	private SharedEntityStore store;
+	
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("entities", ".shared");
+		file.delete();
+		store = new SharedEntityStore(file, 16384, 512);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		store.close();
+		file.delete();
+	}
+	
+	@Test
+	public void testStoresShareObjects() throws Exception {
+		final SharedEntityStore other = new SharedEntityStore(file, 4, 4096);
+		try {
+			assertEquals("The first to open decides the size", 16384, other.getSlots());
+			assertEquals(512, other.getSlotSize());
+			
+			store.put(EntityCache.Type.SPOT, 42, spot(42, "here"), 1, TimeUnit.HOURS);
+			store.put(EntityCache.Type.USER, 42, new FullUser(), 1, TimeUnit.HOURS);
+			assertEquals("Spot 42", other.<FullSpot>get(EntityCache.Type.SPOT, 42).getName());
+			other.put(EntityCache.Type.SPOT, 42, spot(42, "there"), 1, TimeUnit.HOURS);
+			assertEquals("there", store.<FullSpot>get(EntityCache.Type.SPOT, 42).getDescription());
+			
+			assertEquals(true, other.remove(EntityCache.Type.SPOT, 42));
+			assertNull(store.get(EntityCache.Type.SPOT, 42));
+			store.put(EntityCache.Type.ITEM, 1, new FullUser(), 0, TimeUnit.MILLISECONDS);
+			assertNull(other.get(EntityCache.Type.ITEM, 1));
+			
+			// Too big for a slot.
+			final FullSpot big = spot(43, "here");
+			final StringBuilder description = new StringBuilder();
+			final Random random = new Random(1);
+			while(description.length() < 2000) {
+				description.append(Integer.toString(random.nextInt(), 36));
+			}
+			big.setDescription(description.toString());
+			store.put(EntityCache.Type.SPOT, 43, big, 1, TimeUnit.HOURS);
+			assertNull(other.get(EntityCache.Type.SPOT, 43));
+			assertEquals(1, store.getSkippedWrites());
+			
+			other.removeAll(EntityCache.Type.USER);
+			assertNull(store.get(EntityCache.Type.USER, 42));
+			store.put(EntityCache.Type.SPOT, 44, spot(44, "here"), 1, TimeUnit.HOURS);
+			assertEquals(1, store.size());
+			other.clear();
+			assertEquals(0, store.size());
+		} finally {
+			other.close();
+		}
+	}
+	
+	@Test
+	public void testSecondLevelAcrossCaches() throws Exception {
+		final StubSpotRequestHandler handler = new StubSpotRequestHandler(30.25, -97.75, 10, 10, 0.0005, 40);
+		final Gowalla first = new Gowalla("UnitTests", "none");
+		first.setRequestHandler(handler);
+		first.setEntityCache(new EntityCache(100));
+		first.getEntityCache().setSecondLevel(store);
+		final Gowalla second = new Gowalla("UnitTests", "none");
+		second.setRequestHandler(handler);
+		second.setEntityCache(new EntityCache(100));
+		final SharedEntityStore other = new SharedEntityStore(file);
+		try {
+			second.getEntityCache().setSecondLevel(other);
+			assertEquals("Spot 7", first.getSpot(7).getName());
+			assertEquals("Spot 7", second.getSpot(7).getName());
+			assertEquals(1, handler.getRequestCount());
+			assertEquals(1, second.getEntityCache().getSecondLevelHits());
+		} finally {
+			other.close();
+		}
+	}
+	
+	@Test(timeout = 60000)
+	public void testProcessesShareObjects() throws Exception {
+		store.put(EntityCache.Type.SPOT, 100000, spot(100000, "parent"), 1, TimeUnit.HOURS);
+		final List<Process> processes = new ArrayList<Process>();
+		processes.add(start(1, 1500, "a"));
+		processes.add(start(500, 2000, "b"));
+		processes.add(start(1, 2000, "c"));
+		
+		// Read while they write; every object read must be whole.
+		final Random random = new Random(7);
+		while(running(processes)) {
+			final int id = 1 + random.nextInt(2000);
+			checkSpot(store.<FullSpot>get(EntityCache.Type.SPOT, id), id);
+		}
+		for(Process process : processes) {
+			assertEquals(output(process), 0, process.waitFor());
+		}
+		int found = 0;
+		for(int id = 1; id <= 2000; id++) {
+			final FullSpot spot = store.get(EntityCache.Type.SPOT, id);
+			checkSpot(spot, id);
+			found += spot == null ? 0 : 1;
+		}
+		// A few might not have fit in their slots.
+		assertEquals(true, found > 1990);
+	}
+	
+	/**
+	 * Run in another process: put spots, checking every one read back is whole.
+	 * Exits with 2 if one isn't, or 3 if the parent's spot isn't there.
+	 */
+	public static void main(final String[] args) throws Exception {
+		final SharedEntityStore shared = new SharedEntityStore(new File(args[0]));
+		final int from = Integer.parseInt(args[1]);
+		final int to = Integer.parseInt(args[2]);
+		if(shared.get(EntityCache.Type.SPOT, 100000) == null) {
+			System.exit(3);
+		}
+		for(int id = from; id <= to; id++) {
+			shared.put(EntityCache.Type.SPOT, id, spot(id, args[3]), 1, TimeUnit.HOURS);
+			for(int back = Math.max(from, id - 5); back <= id; back++) {
+				final FullSpot spot = shared.get(EntityCache.Type.SPOT, back);
+				if(spot != null && (spot.getId() != back || !spot.getName().equals("Spot " + back))) {
+					System.exit(2);
+				}
+			}
+		}
+		shared.close();
+		System.exit(0);
+	}
+	
+	private Process start(final int from, final int to, final String tag) throws Exception {
+		final String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		final ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), 
+				SharedEntityStoreTest.class.getName(), file.getPath(), Integer.toString(from), Integer.toString(to), tag);
+		builder.redirectErrorStream(true);
+		return builder.start();
+	}
+	
+	private static boolean running(final List<Process> processes) {
+		for(Process process : processes) {
+			try {
+				process.exitValue();
+			} catch(IllegalThreadStateException e) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static String output(final Process process) throws Exception {
+		final InputStream in = process.getInputStream();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		for(int read = in.read(buffer); read > 0; read = in.read(buffer)) {
+			out.write(buffer, 0, read);
+		}
+		return out.toString("UTF-8");
+	}
+	
+	private static void checkSpot(final FullSpot spot, final int id) {
+		if(spot != null) {
+			assertEquals(id, spot.getId());
+			assertEquals("Spot " + id, spot.getName());
+			assertEquals(true, spot.getDescription().matches("[abc]"));
+		}
+	}
+	
+	private static FullSpot spot(final int id, final String description) {
+		final FullSpot spot = new FullSpot();
+		spot.setId(id);
+		spot.setName("Spot " + id);
+		spot.setDescription(description);
+		return spot;
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+
+/**
+ * @author Todd Ginsberg
+ */
+public class SpotCrawlerTest {
+
+	private static final GeoPoint CENTER = new GeoPoint(30.255, -97.745);
+	private File checkpoint;
+	private File temp;
+	private Gowalla gowalla;
+	private StubSpotRequestHandler handler;
+	
+	@Before
+	public void setUp() throws Exception {
+		checkpoint = File.createTempFile("crawl", ".checkpoint");
+		checkpoint.delete();
+		temp = new File(checkpoint.getPath() + ".tmp");
+		gowalla = new Gowalla("UnitTests", "none");
+		handler = new StubSpotRequestHandler(30.25, -97.75, 20, 20, 0.0005, 40);
+		gowalla.setRequestHandler(handler);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		checkpoint.delete();
+		temp.delete();
+	}
+	
+	@Test
+	public void testCrawlResumesAfterFailure() throws Exception {
+		final SpotCriteria criteria = new SpotCriteria.Builder(CENTER, 500).parallelRequests(3).build();
+		final List<Integer> found = crawlUntilCrash(criteria);
+		assertTrue("Should have saved progress", checkpoint.exists());
+		
+		resume(criteria, found);
+		Collections.sort(found);
+		assertEquals("Every spot, exactly once", handler.idsWithin(CENTER, 500), found);
+	}
+	
+	@Test
+	public void testCrawlResumesBetweenRemoveAndRename() throws Exception {
+		final SpotCriteria criteria = new SpotCriteria.Builder(CENTER, 500).parallelRequests(3).build();
+		final List<Integer> found = crawlUntilCrash(criteria);
+		// Stopped after the old checkpoint was removed, before the new one was renamed.
+		assertTrue(checkpoint.renameTo(temp));
+		
+		resume(criteria, found);
+		Collections.sort(found);
+		assertEquals("Every spot, exactly once", handler.idsWithin(CENTER, 500), found);
+	}
+	
+	@Test
+	public void testHalfWrittenFirstCheckpointStartsOver() throws Exception {
+		final SpotCriteria criteria = new SpotCriteria.Builder(CENTER, 500).parallelRequests(3).build();
+		final FileOutputStream out = new FileOutputStream(temp);
+		out.write(new byte[] {0, 0, 0, 1, 64});
+		out.close();
+		
+		final List<Integer> found = new ArrayList<Integer>();
+		resume(criteria, found);
+		Collections.sort(found);
+		assertEquals(handler.idsWithin(CENTER, 500), found);
+	}
+	
+	/**
+	 * Crawl, saving after every tile, until the listener throws part way 
+	 * through, without keeping the spots it was given that time.
+	 */
+	private List<Integer> crawlUntilCrash(final SpotCriteria criteria) throws Exception {
+		final List<Integer> found = new ArrayList<Integer>();
+		final SpotCrawler crawler = new SpotCrawler(gowalla, criteria, new SpotTilePlanner(200), checkpoint);
+		crawler.setCheckpointInterval(1);
+		try {
+			crawler.crawl(new SpotCrawler.Listener() {
+				@Override
+				public void spotsFound(List<SimpleSpot> spots) {
+					if(found.size() + spots.size() > 50) {
+						throw new IllegalStateException("Simulated crash");
+					}
+					found.addAll(StubSpotRequestHandler.ids(spots));
+				}
+			});
+		} catch(IllegalStateException expected) {
+			// Crawl stopped.
+		}
+		return found;
+	}
+	
+	private void resume(final SpotCriteria criteria, final List<Integer> found) throws Exception {
+		final SpotCrawler crawler = new SpotCrawler(gowalla, criteria, new SpotTilePlanner(200), checkpoint);
+		crawler.crawl(new SpotCrawler.Listener() {
+			@Override
+			public void spotsFound(List<SimpleSpot> spots) {
+				found.addAll(StubSpotRequestHandler.ids(spots));
+			}
+		});
+		assertEquals(0, crawler.getRemainingTiles());
+	}
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+import com.ginsberg.gowalla.dto.filter.HasItems;
+import com.ginsberg.gowalla.exception.GowallaException;
+import com.ginsberg.gowalla.util.DaemonThreadFactory;
+
+/**
+ * Offline tests of the different ways spots can be paged through.
+ * 
+ * @author Todd Ginsberg
+ */
+public class SpotPagingTest {
+
+	private static final GeoPoint CENTER = new GeoPoint(30.25, -97.75);
+	private Gowalla gowalla;
+	private StubSpotRequestHandler handler;
+	
+	@Before
+	public void setUp() throws Exception {
+		gowalla = new Gowalla("UnitTests", "none");
+		handler = new StubSpotRequestHandler(30.25, -97.75, 20, 20, 0.0005, 40);
+		gowalla.setRequestHandler(handler);
+	}
+	
+	private SpotCriteria.Builder paged() {
+		return new SpotCriteria.Builder(CENTER, 100000).pagingSupport(PagingSupport.PAGING_ALLOWED).doNotSort();
+	}
+	
+	@Test
+	public void testFindSpotsPagesEverything() throws Exception {
+		final List<SimpleSpot> spots = gowalla.findSpots(paged().build());
+		assertEquals(handler.getSpotCount(), spots.size());
+		assertEquals("One extra request to find the end", 11, handler.getRequestCount());
+	}
+
+	@Test
+	public void testIterateSpotsIsLazy() throws Exception {
+		final Iterator<SimpleSpot> spots = gowalla.iterateSpots(paged().build()).iterator();
+		assertEquals("Nothing requested until asked", 0, handler.getRequestCount());
+		for(int i = 0; i < 45; i++) {
+			spots.next();
+		}
+		assertEquals("Only two pages needed", 2, handler.getRequestCount());
+	}
+	
+	@Test
+	public void testIterateSpotsMatchesFindSpots() throws Exception {
+		final SpotCriteria criteria = paged().numberOfSpots(150).filterBy(new HasItems()).build();
+		final List<SimpleSpot> iterated = new ArrayList<SimpleSpot>();
+		for(SimpleSpot spot : gowalla.iterateSpots(criteria)) {
+			iterated.add(spot);
+		}
+		assertEquals(gowalla.findSpots(criteria), iterated);
+		assertTrue(iterated.size() > 0);
+	}
+	
+	@Test
+	public void testPrefetchingMatchesSequential() throws Exception {
+		final List<SimpleSpot> sequential = gowalla.findSpots(paged().build());
+		
+		gowalla.setPrefetchDepth(3);
+		final List<SimpleSpot> prefetched = gowalla.findSpots(paged().build());
+		assertEquals(sequential, prefetched);
+	}
+	
+	@Test(timeout = 10000)
+	public void testPrefetchStaysDepthAhead() throws Exception {
+		final int depth = 3;
+		final int pages = 10;
+		final BlockingPageRequest pageRequest = new BlockingPageRequest(pages + depth, depth);
+		final ExecutorService executor = Executors.newCachedThreadPool(new DaemonThreadFactory("gowalla-test"));
+		final PagePrefetcher prefetcher = new PagePrefetcher(pageRequest, executor, depth, 0, true);
+		final List<String> received = new ArrayList<String>();
+		final Thread caller = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for(int page = 0; page < pages; page++) {
+						received.add(prefetcher.next());
+						pageRequest.consumed.incrementAndGet();
+					}
+				} catch(GowallaException e) {
+					received.add(e.toString());
+				}
+			}
+		};
+		try {
+			caller.start();
+			for(int page = 0; page < pages; page++) {
+				// Every page up to depth ahead is requested before the caller gets the current one.
+				pageRequest.started[page + depth].await();
+				pageRequest.release[page].countDown();
+			}
+			caller.join();
+		} finally {
+			prefetcher.close();
+			pageRequest.releaseAll();
+			executor.shutdownNow();
+		}
+		assertEquals(pages, received.size());
+		assertEquals("page 9", received.get(pages - 1));
+		assertEquals("Requests more than depth pages ahead of the caller", 0, pageRequest.tooFarAhead.get());
+	}
+	
+	@Test(timeout = 10000)
+	public void testExecutorShutDownWhilePrefetching() throws Exception {
+		final ExecutorService executor = Executors.newCachedThreadPool(new DaemonThreadFactory("gowalla-test"));
+		final PagePrefetcher prefetcher = new PagePrefetcher(new PagePrefetcher.PageRequest() {
+			@Override
+			public String request(final int page) throws GowallaException {
+				// Pages queued behind this one can no longer be run.
+				executor.shutdown();
+				return "page " + page;
+			}
+		}, executor, 3, 0, false);
+		try {
+			assertEquals("page 0", prefetcher.next());
+			try {
+				prefetcher.next();
+				fail("Should not be able to request a page after the executor was shut down");
+			} catch(GowallaException e) {
+				// Expected, instead of waiting forever.
+			}
+		} finally {
+			prefetcher.close();
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testParallelMatchesSequential() throws Exception {
+		final List<SimpleSpot> sequential = gowalla.findSpots(paged().build());
+		
+		handler.setDelayMillis(50);
+		final long start = System.nanoTime();
+		final List<SimpleSpot> parallel = gowalla.findSpots(paged().parallelRequests(8).build());
+		final long elapsedMillis = (System.nanoTime() - start) / 1000000;
+		assertEquals(sequential, parallel);
+		assertTrue("Should not take as long as 11 sequential requests: " + elapsedMillis, elapsedMillis < 11 * 50);
+	}
+	
+	/**
+	 * Holds each page until the test releases it, and counts pages requested 
+	 * more than depth ahead of the page the caller is waiting for.
+	 */
+	private static class BlockingPageRequest implements PagePrefetcher.PageRequest {
+		private final CountDownLatch[] started;
+		private final CountDownLatch[] release;
+		private final int depth;
+		private final AtomicInteger consumed = new AtomicInteger();
+		private final AtomicInteger tooFarAhead = new AtomicInteger();
+		
+		private BlockingPageRequest(final int pages, final int depth) {
+			this.depth = depth;
+			started = new CountDownLatch[pages + 1];
+			release = new CountDownLatch[pages + 1];
+			for(int i = 0; i <= pages; i++) {
+				started[i] = new CountDownLatch(1);
+				release[i] = new CountDownLatch(1);
+			}
+		}
+		
+		@Override
+		public String request(final int page) throws GowallaException {
+			if(page > consumed.get() + depth || page >= started.length) {
+				tooFarAhead.incrementAndGet();
+				return "too far";
+			}
+			started[page].countDown();
+			try {
+				release[page].await(5, TimeUnit.SECONDS);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return "page " + page;
+		}
+		
+		private void releaseAll() {
+			for(CountDownLatch latch : release) {
+				latch.countDown();
+			}
+		}
+	}
+}
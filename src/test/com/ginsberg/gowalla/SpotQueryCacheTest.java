@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+
+/**
+ * @author Todd Ginsberg
+ */
+public class SpotQueryCacheTest {
+
+	@Test
+	public void testContainedSearchAnsweredLocally() throws Exception {
+		final Gowalla gowalla = new Gowalla("UnitTests", "none");
+		final StubSpotRequestHandler handler = new StubSpotRequestHandler(30.25, -97.75, 20, 20, 0.0005, 40);
+		gowalla.setRequestHandler(handler);
+		final SpotQueryCache cache = new SpotQueryCache(1, TimeUnit.MINUTES, 100);
+		gowalla.setSpotQueryCache(cache);
+		
+		final GeoPoint center = new GeoPoint(30.255, -97.745);
+		final SpotCriteria wide = new SpotCriteria.Builder(center, 400).pagingSupport(PagingSupport.PAGING_ALLOWED).doNotSort().build();
+		gowalla.findSpots(wide);
+		final int requests = handler.getRequestCount();
+		
+		final GeoPoint nearby = new GeoPoint(30.2555, -97.7455);
+		final SpotCriteria narrow = new SpotCriteria.Builder(nearby, 150).build();
+		final SpotCriteria single = new SpotCriteria.Builder(center, 400).build();
+		assertEquals(handler.idsWithin(nearby, 150), StubSpotRequestHandler.sortedIds(gowalla.findSpots(narrow)));
+		assertEquals("Identical search should hit", handler.idsWithin(center, 400).size(), gowalla.findSpots(wide).size());
+		assertEquals("No requests for either", requests, handler.getRequestCount());
+		
+		assertEquals("Fewer spots than one request returns", true, handler.idsWithin(nearby, 150).size() < 40);
+		
+		// More spots than one request returns, so it must go to Gowalla for the ones it would return.
+		assertEquals(40, gowalla.findSpots(single).size());
+		assertEquals(requests + 1, handler.getRequestCount());
+		gowalla.findSpots(narrow.narrowedTo(center, 450));
+		assertEquals("Larger search must go to Gowalla", requests + 2, handler.getRequestCount());
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getContainedHits());
+		assertEquals(requests + 1, cache.getSavedRequests());
+	}
+	
+	@Test
+	public void testSavedRequestsCountPrefetchedPages() throws Exception {
+		final Gowalla gowalla = new Gowalla("UnitTests", "none");
+		final StubSpotRequestHandler handler = new StubSpotRequestHandler(30.25, -97.75, 20, 20, 0.0005, 40);
+		gowalla.setRequestHandler(handler);
+		gowalla.setSpotQueryCache(new SpotQueryCache(1, TimeUnit.MINUTES, 100));
+		gowalla.setPrefetchDepth(3);
+		
+		final SpotCriteria criteria = new SpotCriteria.Builder(new GeoPoint(30.255, -97.745), 100000).pagingSupport(PagingSupport.PAGING_ALLOWED).doNotSort().build();
+		gowalla.findSpots(criteria);
+		gowalla.getPagingExecutor().shutdown();
+		gowalla.getPagingExecutor().awaitTermination(10, TimeUnit.SECONDS);
+		final int requests = handler.getRequestCount();
+		assertEquals("Eleven pages are used", true, requests >= 11);
+		
+		gowalla.findSpots(criteria);
+		assertEquals("Every request made, used or not", requests, gowalla.getSpotQueryCache().getSavedRequests());
+	}
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.FullSpot;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+import com.ginsberg.gowalla.dto.SpotEvent;
+import com.ginsberg.gowalla.dto.SpotPhoto;
+import com.ginsberg.gowalla.exception.GowallaRequestException;
+import com.ginsberg.gowalla.exception.RequestNotAcceptableException;
+import com.ginsberg.gowalla.rate.PrioritizedRateLimiter;
+import com.ginsberg.gowalla.rate.RequestPriority;
+import com.ginsberg.gowalla.request.RequestHandler;
+import com.ginsberg.gowalla.request.RequestHeader;
+
+/**
+ * @author Todd Ginsberg
+ */
+public class SpotRefreshPlannerTest {
+
+	private Gowalla gowalla;
+	private StubSpotRequestHandler handler;
+	private EntityCache cache;
+	private List<FullSpot> fetched;
+	private SpotRefreshPlanner.Listener listener;
+	
+	@Before
+	public void setUp() throws Exception {
+		gowalla = new Gowalla("UnitTests", "none");
+		handler = new StubSpotRequestHandler(30.25, -97.75, 10, 10, 0.0005, 40);
+		gowalla.setRequestHandler(handler);
+		cache = new EntityCache(1000);
+		gowalla.setEntityCache(cache);
+		fetched = new ArrayList<FullSpot>();
+		listener = new SpotRefreshPlanner.Listener() {
+			public void spotRefreshed(SimpleSpot summary, FullSpot spot, List<SpotEvent> events, List<SpotPhoto> photos) {
+				assertNull(events);
+				assertNull(photos);
+				fetched.add(spot);
+			}
+		};
+	}
+	
+	@Test
+	public void testOnlyMovedSpotsAreFetched() throws Exception {
+		final SpotRefreshPlanner planner = new SpotRefreshPlanner(gowalla, SpotRefreshPlanner.Detail.SPOT);
+		final List<SimpleSpot> spots = new ArrayList<SimpleSpot>();
+		for(int id = 1; id <= 20; id++) {
+			spots.add(summary(id, 10, 5, 0, 2));
+		}
+		assertEquals(20, planner.refresh(spots, listener));
+		assertEquals(20, handler.getRequestCount());
+		
+		// Nothing moved, nothing fetched.
+		assertEquals(0, planner.refresh(spots, listener));
+		assertEquals(20, handler.getRequestCount());
+		
+		// One checkin; fetched even though it's cached.
+		final FullSpot before = gowalla.getSpot(7);
+		spots.get(6).setCheckinsCount(11);
+		assertEquals(1, planner.refresh(spots, listener));
+		assertEquals(21, handler.getRequestCount());
+		assertNotSame(before, gowalla.getSpot(7));
+		assertSame(fetched.get(fetched.size() - 1), gowalla.getSpot(7));
+		assertEquals(39, planner.getUnchanged());
+		assertEquals(21, planner.getRefreshed());
+	}
+	
+	@Test
+	public void testRequestsAreBatchPriority() throws Exception {
+		final List<String> resources = Collections.synchronizedList(new ArrayList<String>());
+		gowalla.setRequestHandler(new RequestHandler() {
+			@Override
+			public String handleRequest(final String resource, final List<RequestHeader> headers) throws GowallaRequestException {
+				resources.add(resource);
+				if(resource.endsWith("/events") || resource.endsWith("/photos")) {
+					// Answered as a missing spot, so the listener gets nulls.
+					throw new RequestNotAcceptableException();
+				}
+				return handler.handleRequest(resource, headers);
+			}
+			
+			@Override
+			public void setRequestHeaders(final Collection<RequestHeader> headers) {
+				// Not needed.
+			}
+
+			@Override
+			public void setRequestHost(final String host) {
+				// Not needed.
+			}
+
+			@Override
+			public void setRequestPort(final int port) {
+				// Not needed.
+			}
+		});
+		final Set<RequestPriority> seen = Collections.synchronizedSet(new HashSet<RequestPriority>());
+		gowalla.setRateLimiter(new PrioritizedRateLimiter() {
+			public boolean preRequest() {
+				return preRequest(RequestPriority.INTERACTIVE);
+			}
+			public void postRequest() {
+			}
+			public boolean preRequest(final RequestPriority priority) {
+				seen.add(priority);
+				return true;
+			}
+			public void postRequest(final RequestPriority priority) {
+			}
+		});
+		final SpotRefreshPlanner planner = new SpotRefreshPlanner(gowalla);
+		final List<SimpleSpot> spots = new ArrayList<SimpleSpot>();
+		spots.add(summary(1, 10, 5, 1, 2));
+		assertEquals(1, planner.refresh(spots, listener));
+		assertEquals(3, resources.size());
+		assertEquals(EnumSet.of(RequestPriority.BATCH), seen);
+	}
+	
+	@Test
+	public void testPlan() throws Exception {
+		final SpotRefreshPlanner planner = new SpotRefreshPlanner(gowalla);
+		final SimpleSpot spot = summary(1, 10, 5, 1, 2);
+		assertEquals(EnumSet.allOf(SpotRefreshPlanner.Detail.class), planner.plan(spot));
+		planner.seen(spot);
+		assertEquals(true, planner.plan(spot).isEmpty());
+		
+		spot.setPhotosCount(3);
+		assertEquals(EnumSet.of(SpotRefreshPlanner.Detail.SPOT, SpotRefreshPlanner.Detail.PHOTOS), planner.plan(spot));
+		spot.setPhotosCount(2);
+		spot.setItemsCount(0);
+		assertEquals(EnumSet.of(SpotRefreshPlanner.Detail.SPOT, SpotRefreshPlanner.Detail.EVENTS), planner.plan(spot));
+		spot.setItemsCount(1);
+		spot.setUsersCount(6);
+		assertEquals(EnumSet.of(SpotRefreshPlanner.Detail.SPOT), planner.plan(spot));
+		
+		planner.forget(1);
+		assertEquals(0, planner.size());
+		assertEquals(3, planner.plan(spot).size());
+	}
+	
+	private SimpleSpot summary(final int id, final int checkins, final int users, final int items, final int photos) {
+		final SimpleSpot spot = new SimpleSpot();
+		spot.setId(id);
+		spot.setCheckinsCount(checkins);
+		spot.setUsersCount(users);
+		spot.setItemsCount(items);
+		spot.setPhotosCount(photos);
+		return spot;
+	}
+}
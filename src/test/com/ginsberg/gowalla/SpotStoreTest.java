@@ -0,0 +1,256 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.Address;
+import com.ginsberg.gowalla.dto.Category;
+import com.ginsberg.gowalla.dto.FullSpot;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+import com.ginsberg.gowalla.exception.GowallaException;
+import com.ginsberg.gowalla.rate.RequestPriority;
+
+/**
+ * @author Todd Ginsberg
+ */
+public class SpotStoreTest {
+
+	private File directory;
+	private SpotStore store;
+	
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("spots", ".store");
+		directory.delete();
+		store = new SpotStore(directory);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		store.close();
+		for(File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+	
+	@Test
+	public void testSpotsSurviveReopening() throws Exception {
+		final List<SimpleSpot> spots = new ArrayList<SimpleSpot>();
+		for(int id = 1; id <= 5000; id++) {
+			spots.add(simple(id));
+		}
+		store.putAll(spots);
+		store.put(full(42));
+		store.close();
+		
+		store = new SpotStore(directory);
+		assertEquals(5000, store.size());
+		final SimpleSpot simple = store.get(4321);
+		assertEquals(4321, simple.getId());
+		assertEquals("Spot 4321", simple.getName());
+		assertEquals("Austin", simple.getAddress().getLocality());
+		assertEquals(30.25 + 4321 / 100000.0, simple.getGeoLocation().getLatitude().doubleValue(), 1e-12);
+		assertEquals(4321, simple.getCheckinsCount());
+		assertEquals(50, simple.getRadiusMeters());
+		assertNull(store.getFullSpot(4321));
+		
+		final FullSpot full = store.getFullSpot(42);
+		assertEquals("Full 42", full.getName());
+		assertEquals("A nice place", full.getDescription());
+		assertEquals(new Date(1280000000000L), full.getCreatedAt());
+		assertArrayEquals(new String[] { "http://example.com/" }, full.getWebsites());
+		assertEquals(1, full.getCategories().size());
+		assertEquals("Coffee Shop", full.getCategories().get(0).getName());
+		assertEquals(7, full.getMaxItemsCount());
+		assertEquals(true, full.isStrictRadius());
+		assertNull(store.get(5001));
+	}
+	
+	@Test
+	public void testUpdateAndRemove() throws Exception {
+		store.put(simple(1));
+		store.put(simple(2));
+		final SimpleSpot changed = simple(1);
+		changed.setCheckinsCount(99);
+		store.put(changed);
+		assertEquals(2, store.size());
+		assertEquals(99, store.get(1).getCheckinsCount());
+		assertEquals("Spot 1", store.get(1).getName());
+		
+		assertEquals(true, store.remove(2));
+		assertEquals(false, store.remove(2));
+		assertNull(store.get(2));
+		assertEquals(1, store.size());
+		assertArrayEquals(new int[] { 1 }, store.getIds());
+		store.put(simple(2));
+		assertEquals(2, store.size());
+		assertEquals(2, store.get(2).getId());
+	}
+	
+	@Test
+	public void testIndexIsRebuilt() throws Exception {
+		for(int id = 10; id < 3000; id += 3) {
+			store.put(simple(id));
+		}
+		store.close();
+		new File(directory, "spots.idx").delete();
+		
+		store = new SpotStore(directory);
+		for(int id = 10; id < 3000; id++) {
+			assertEquals(id % 3 == 1, store.contains(id));
+		}
+	}
+	
+	@Test
+	public void testMaxAge() throws Exception {
+		store.put(simple(1));
+		store.setMaxAge(1, TimeUnit.HOURS);
+		assertEquals(1, store.get(1).getId());
+		Thread.sleep(5);
+		store.setMaxAge(1, TimeUnit.MILLISECONDS);
+		assertNull(store.get(1));
+		assertEquals(true, store.contains(1));
+	}
+	
+	@Test
+	public void testGowallaAnswersFromStoreAfterRestart() throws Exception {
+		final StubSpotRequestHandler handler = new StubSpotRequestHandler(30.25, -97.75, 10, 10, 0.0005, 40);
+		Gowalla gowalla = new Gowalla("UnitTests", "none");
+		gowalla.setRequestHandler(handler);
+		gowalla.setSpotStore(store);
+		assertEquals("Spot 5", gowalla.getSpot(5).getName());
+		assertEquals(1, handler.getRequestCount());
+		store.close();
+		
+		store = new SpotStore(directory);
+		gowalla = new Gowalla("UnitTests", "none");
+		gowalla.setRequestHandler(handler);
+		gowalla.setSpotStore(store);
+		assertEquals("Spot 5", gowalla.getSpot(5).getName());
+		assertEquals(1, handler.getRequestCount());
+	}
+	
+	@Test
+	public void testStoreFollowsCacheTimeToLive() throws Exception {
+		final StubSpotRequestHandler handler = new StubSpotRequestHandler(30.25, -97.75, 10, 10, 0.0005, 40);
+		final Gowalla gowalla = new Gowalla("UnitTests", "none");
+		gowalla.setRequestHandler(handler);
+		gowalla.setSpotStore(store);
+		gowalla.getSpot(5);
+		Thread.sleep(20);
+		
+		final EntityCache cache = new EntityCache(100);
+		cache.setTimeToLive(EntityCache.Type.SPOT, 1, TimeUnit.HOURS);
+		gowalla.setEntityCache(cache);
+		assertEquals("Spot 5", gowalla.getSpot(5).getName());
+		assertEquals("Answered from the store", 1, handler.getRequestCount());
+		
+		cache.clear();
+		cache.setTimeToLive(EntityCache.Type.SPOT, 10, TimeUnit.MILLISECONDS);
+		assertEquals("Spot 5", gowalla.getSpot(5).getName());
+		assertEquals("Stored longer ago than the cache keeps spots", 2, handler.getRequestCount());
+	}
+	
+	@Test
+	public void testNotFoundRemovesFromStore() throws Exception {
+		final Gowalla gowalla = new Gowalla("UnitTests", "none");
+		gowalla.setRequestHandler(new StubSpotRequestHandler(30.25, -97.75, 10, 10, 0.0005, 40));
+		gowalla.setSpotStore(store);
+		store.put(full(123456));
+		assertNull(gowalla.fetchSpot(123456, RequestPriority.INTERACTIVE));
+		assertEquals(false, store.contains(123456));
+	}
+	
+	@Test
+	public void testStoreFailureCounted() throws Exception {
+		store.close();
+		store = new SpotStore(directory) {
+			@Override
+			public void put(final SimpleSpot spot) throws GowallaException {
+				throw new GowallaException("Spot store strings file is full");
+			}
+		};
+		final Gowalla gowalla = new Gowalla("UnitTests", "none");
+		gowalla.setRequestHandler(new StubSpotRequestHandler(30.25, -97.75, 10, 10, 0.0005, 40));
+		gowalla.setSpotStore(store);
+		assertEquals("Spot 5", gowalla.getSpot(5).getName());
+		assertEquals(1, gowalla.getSpotStoreErrors());
+	}
+	
+	private static SimpleSpot simple(final int id) {
+		final SimpleSpot spot = new SimpleSpot();
+		fill(spot, id);
+		spot.setName("Spot " + id);
+		return spot;
+	}
+	
+	private static FullSpot full(final int id) {
+		final FullSpot spot = new FullSpot();
+		fill(spot, id);
+		spot.setName("Full " + id);
+		spot.setDescription("A nice place");
+		spot.setCreatedAt(new Date(1280000000000L));
+		spot.setWebsites(new String[] { "http://example.com/" });
+		final Category category = new Category();
+		category.setName("Coffee Shop");
+		final List<Category> categories = new ArrayList<Category>();
+		categories.add(category);
+		spot.setCategories(categories);
+		spot.setMaxItemsCount(7);
+		spot.setStrictRadius(true);
+		return spot;
+	}
+	
+	private static void fill(final SimpleSpot spot, final int id) {
+		spot.setId(id);
+		spot.setLat(Double.toString(30.25 + id / 100000.0));
+		spot.setLng(Double.toString(-97.75 - id / 100000.0));
+		spot.setCheckinsCount(id);
+		spot.setRadiusMeters(50);
+		final Address address = new Address();
+		address.setLocality("Austin");
+		address.setRegion("TX");
+		spot.setAddress(address);
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+
+/**
+ * @author Todd Ginsberg
+ */
+public class SpotTilePlannerTest {
+
+	@Test
+	public void testPlanCoversCircle() throws Exception {
+		final GeoPoint center = new GeoPoint(60.17, 24.94);
+		final SpotTilePlanner planner = new SpotTilePlanner(300);
+		final List<SpotTilePlanner.Tile> tiles = planner.plan(center, 2000);
+		final Random random = new Random(7);
+		for(int i = 0; i < 2000; i++) {
+			final GeoPoint point = new GeoPoint(center.getLatitude().doubleValue() + (random.nextDouble() - 0.5) * 0.04, 
+					center.getLongitude().doubleValue() + (random.nextDouble() - 0.5) * 0.08);
+			if(center.getDistanceMeters(point) <= 2000) {
+				boolean covered = false;
+				for(SpotTilePlanner.Tile tile : tiles) {
+					covered |= tile.getGeoLocation().getDistanceMeters(point) <= tile.getRadiusMeters();
+				}
+				assertTrue("Should be covered: " + point, covered);
+			}
+		}
+	}
+	
+	@Test
+	public void testTiledSearchFindsEverything() throws Exception {
+		final Gowalla gowalla = new Gowalla("UnitTests", "none");
+		final StubSpotRequestHandler handler = new StubSpotRequestHandler(30.25, -97.75, 20, 20, 0.0005, 40);
+		gowalla.setRequestHandler(handler);
+		final GeoPoint center = new GeoPoint(30.255, -97.745);
+		
+		final SpotCriteria criteria = new SpotCriteria.Builder(center, 500).parallelRequests(4).doNotSort().build();
+		final List<SimpleSpot> spots = gowalla.findSpotsTiled(criteria, new SpotTilePlanner(300));
+		assertTrue("A single search should be capped", gowalla.findSpots(criteria).size() == 40);
+		assertEquals(handler.idsWithin(center, 500), StubSpotRequestHandler.ids(spots));
+		assertEquals("Should be the same every time", spots, gowalla.findSpotsTiled(criteria, new SpotTilePlanner(300)));
+	}
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.Spot;
+import com.ginsberg.gowalla.exception.GowallaRequestException;
+import com.ginsberg.gowalla.exception.RequestNotAcceptableException;
+import com.ginsberg.gowalla.request.RequestHandler;
+import com.ginsberg.gowalla.request.RequestHeader;
+
+/**
+ * RequestHandler that answers /spots requests from an in-memory list of
+ * spots instead of the Gowalla servers, so paging can be tested offline.
+ * Like Gowalla, it caps the number of spots returned in a single page.
+ * 
+ * @author Todd Ginsberg
+ */
+public class StubSpotRequestHandler implements RequestHandler {
+
+	private final List<double[]> spots = new ArrayList<double[]>();
+	private final int pageSize;
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile long delayMillis = 0;
+	
+	/**
+	 * Lay out a grid of spots, starting at the given point, with ids starting at 1.
+	 */
+	public StubSpotRequestHandler(final double lat, final double lng, final int rows, final int cols, final double step, final int pageSize) {
+		this.pageSize = pageSize;
+		for(int r = 0; r < rows; r++) {
+			for(int c = 0; c < cols; c++) {
+				spots.add(new double[] {lat + r * step, lng + c * step});
+			}
+		}
+	}
+	
+	public int getRequestCount() {
+		return requests.get();
+	}
+	
+	public int getSpotCount() {
+		return spots.size();
+	}
+	
+	/**
+	 * How long every request should pretend to take.
+	 */
+	public void setDelayMillis(final long delayMillis) {
+		this.delayMillis = delayMillis;
+	}
+	
+	/**
+	 * Ids of every spot within the given circle.
+	 */
+	public List<Integer> idsWithin(final GeoPoint center, final int radiusMeters) {
+		final List<Integer> ids = new ArrayList<Integer>();
+		for(int i = 0; i < spots.size(); i++) {
+			if(center.getDistanceMeters(new GeoPoint(spots.get(i)[0], spots.get(i)[1])) <= radiusMeters) {
+				ids.add(i + 1);
+			}
+		}
+		return ids;
+	}
+
+	@Override
+	public String handleRequest(final String resource, final List<RequestHeader> instanceHeaders) throws GowallaRequestException {
+		requests.incrementAndGet();
+		if(delayMillis > 0) {
+			try {
+				Thread.sleep(delayMillis);
+			} catch(InterruptedException e) {
+				throw new GowallaRequestException(e);
+			}
+		}
+		if(resource.indexOf('?') < 0) {
+			return entity(resource);
+		}
+		final GeoPoint center = new GeoPoint(Double.parseDouble(argument(resource, "lat")), Double.parseDouble(argument(resource, "lng")));
+		final int radius = Integer.parseInt(argument(resource, "radius"));
+		final String offsetArgument = argument(resource, "offset");
+		final int offset = offsetArgument == null ? 0 : Integer.parseInt(offsetArgument);
+		
+		final List<Integer> matches = idsWithin(center, radius);
+		final StringBuilder buf = new StringBuilder("{\"spots\":[");
+		for(int i = offset; i < Math.min(matches.size(), offset + pageSize); i++) {
+			final int id = matches.get(i);
+			final double[] point = spots.get(id - 1);
+			if(i != offset) {
+				buf.append(",");
+			}
+			buf.append(String.format("{\"url\":\"/spots/%d\",\"name\":\"Spot %d\",\"lat\":\"%s\",\"lng\":\"%s\",\"radius_meters\":50,\"checkins_count\":%d,\"items_count\":%d,\"photos_count\":%d}", 
+					id, id, point[0], point[1], id, id % 3, id % 2));
+		}
+		return buf.append("]}").toString();
+	}
+	
+	/**
+	 * A single spot (/spots/id) or user (/users/id).  Spot ids are the grid's, 
+	 * and users exist for the same ids.
+	 */
+	private String entity(final String resource) throws GowallaRequestException {
+		final String[] parts = resource.split("/");
+		final int id = Integer.parseInt(parts[2]);
+		if(id < 1 || id > spots.size()) {
+			throw new RequestNotAcceptableException("No such " + parts[1]);
+		}
+		if("spots".equals(parts[1])) {
+			final double[] point = spots.get(id - 1);
+			return String.format("{\"url\":\"/spots/%d\",\"name\":\"Spot %d\",\"lat\":\"%s\",\"lng\":\"%s\",\"radius_meters\":50,\"checkins_count\":%d," +
+					"\"founders\":[],\"top_10\":[],\"spot_categories\":[]}", id, id, point[0], point[1], id);
+		}
+		return String.format("{\"url\":\"/users/%d\",\"first_name\":\"User\",\"last_name\":\"%d\",\"last_checkins\":[]}", id, id);
+	}
+	
+	private String argument(final String resource, final String name) {
+		for(String part : resource.substring(resource.indexOf('?') + 1).split("&")) {
+			if(part.startsWith(name + "=")) {
+				return part.substring(name.length() + 1);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void setRequestHeaders(final Collection<RequestHeader> headers) {
+		// Not needed.
+	}
+
+	@Override
+	public void setRequestHost(final String host) {
+		// Not needed.
+	}
+
+	@Override
+	public void setRequestPort(final int port) {
+		// Not needed.
+	}
+	
+	/**
+	 * Ids of the spots given, in order.
+	 */
+	public static List<Integer> ids(final Iterable<? extends Spot> spots) {
+		final List<Integer> ids = new ArrayList<Integer>();
+		for(Spot spot : spots) {
+			ids.add(spot.getId());
+		}
+		return ids;
+	}
+	
+	/**
+	 * Ids of the spots given, sorted.
+	 */
+	public static List<Integer> sortedIds(final Iterable<? extends Spot> spots) {
+		final List<Integer> ids = ids(spots);
+		Collections.sort(ids);
+		return ids;
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Todd Ginsberg
+ */
+public class GeoHashTest {
+
+	@Test
+	public void testKnownHashes() throws Exception {
+		assertEquals("ezs42", GeoHash.encode(42.6, -5.6, 5));
+		assertEquals("u4pruydqqvj", GeoHash.encode(57.64911, 10.40744, 11));
+		assertEquals("u4pruydqqvj", new GeoPoint(57.64911, 10.40744).getGeoHash(11));
+		
+		final GeoPoint center = GeoHash.decode("ezs42");
+		assertEquals(42.605, center.getLatitude().doubleValue(), 0.001);
+		assertEquals(-5.603, center.getLongitude().doubleValue(), 0.001);
+	}
+	
+	@Test
+	public void testNeighbors() throws Exception {
+		assertArrayEquals(new String[] { "ezs48", "ezs49", "ezs43", "ezs41", "ezs40", "ezefp", "ezefr", "ezefx" }, 
+				GeoHash.neighbors("ezs42"));
+		
+		// Wraps across the 180th meridian, but not the poles.
+		final String east = GeoHash.encode(10, 179.99, 6);
+		assertEquals(GeoHash.encode(10, -179.99, 6), GeoHash.neighbor(east, 0, 1));
+		assertNull(GeoHash.neighbor(GeoHash.encode(89.999, 0, 6), 1, 0));
+	}
+	
+	@Test
+	public void testRoundTrip() throws Exception {
+		final Random random = new Random(5);
+		for(int i = 0; i < 10000; i++) {
+			final double lat = random.nextDouble() * 180 - 90;
+			final double lng = random.nextDouble() * 360 - 180;
+			final int precision = 1 + random.nextInt(GeoHash.MAX_PRECISION);
+			final String hash = GeoHash.encode(lat, lng, precision);
+			assertEquals(hash, GeoHash.toString(GeoHash.toBits(hash), precision));
+			final double[] bounds = GeoHash.getBounds(hash);
+			assertEquals(hash + " south", true, bounds[0] <= lat && lat <= bounds[2]);
+			assertEquals(hash + " west", true, bounds[1] <= lng && lng <= bounds[3]);
+			// Shorter hashes are prefixes, and bits line up with characters.
+			assertEquals(hash.substring(0, 1), GeoHash.encode(lat, lng, 1));
+			assertEquals(GeoHash.toBits(hash) >>> 1, GeoHash.encodeBits(lat, lng, precision * 5 - 1));
+			final String north = GeoHash.neighbor(hash, 1, 0);
+			if(north != null) {
+				assertEquals(hash, GeoHash.neighbor(north, -1, 0));
+			}
+			assertEquals(hash, GeoHash.neighbor(GeoHash.neighbor(hash, 0, -1), 0, 1));
+		}
+	}
+	
+	@Test
+	public void testPrecisionFor() throws Exception {
+		final Random random = new Random(7);
+		for(int i = 0; i < 1000; i++) {
+			final double lat = random.nextDouble() * 140 - 70;
+			final double lng = random.nextDouble() * 360 - 180;
+			final int meters = 10 + random.nextInt(50000);
+			final int precision = GeoHash.precisionFor(lat, meters);
+			final String cell = GeoHash.encode(lat, lng, precision);
+			// Any point that close must be in the cell or a neighbor.
+			final double bearing = random.nextDouble() * 2 * Math.PI;
+			final double other = lat + Math.cos(bearing) * meters / GeoPoint.METERS_PER_DEGREE;
+			double otherLng = lng + Math.sin(bearing) * meters / (GeoPoint.METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+			otherLng = otherLng > 180 ? otherLng - 360 : otherLng < -180 ? otherLng + 360 : otherLng;
+			final String near = GeoHash.encode(other, otherLng, precision);
+			boolean adjacent = near.equals(cell);
+			for(String neighbor : GeoHash.neighbors(cell)) {
+				adjacent |= near.equals(neighbor);
+			}
+			assertEquals(cell + " and " + near + " at " + meters + "m", true, adjacent);
+		}
+	}
+}
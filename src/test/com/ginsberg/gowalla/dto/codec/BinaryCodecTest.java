@@ -0,0 +1,298 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.FullCategory;
+import com.ginsberg.gowalla.dto.FullSpot;
+import com.ginsberg.gowalla.dto.FullUser;
+import com.ginsberg.gowalla.dto.Identity;
+import com.ginsberg.gowalla.dto.LocatedSpot;
+import com.ginsberg.gowalla.dto.Pin;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+import com.ginsberg.gowalla.dto.Stamp;
+import com.ginsberg.gowalla.dto.Trip;
+import com.ginsberg.gowalla.dto.TripSummary;
+import com.ginsberg.gowalla.dto.UserEvent;
+import com.ginsberg.gowalla.dto.UserPhoto;
+import com.ginsberg.gowalla.request.translate.GsonResponseTranslator;
+
+/**
+ * @author Todd Ginsberg
+ */
+public class BinaryCodecTest {
+
+	private final GsonResponseTranslator gson = new GsonResponseTranslator();
+	
+	@Test
+	public void testCategoryFixtures() throws Exception {
+		final String json = getFile("testAllCategories.json");
+		final List<FullCategory> categories = gson.translateCategories(json);
+		final byte[] bytes = roundTrip(categories);
+		
+		@SuppressWarnings("unchecked")
+		final List<FullCategory> decoded = (List<FullCategory>)BinaryCodec.decode(bytes);
+		assertEquals(categories.size(), decoded.size());
+		for(int i = 0; i < categories.size(); i++) {
+			assertSameTree(categories.get(i), decoded.get(i));
+		}
+		assertTrue(bytes.length < json.getBytes("UTF-8").length);
+		assertTrue(bytes.length < javaSerialized(new ArrayList<FullCategory>(categories)).length);
+		
+		for(String file : new String[] { "testCategoryBasic.json", "testCategoryWithSubcategories.json" }) {
+			final FullCategory category = gson.translateCategory(getFile(file));
+			assertSameTree(category, BinaryCodec.decode(roundTrip(category), FullCategory.class));
+		}
+	}
+	
+	@Test
+	public void testSpotFromJson() throws Exception {
+		final FullSpot spot = gson.translateSpot("{\"url\":\"/spots/11888\",\"name\":\"Sno-Beach\",\"lat\":\"30.2622\",\"lng\":\"-97.7235\"," +
+				"\"radius_meters\":35,\"strict_radius\":true,\"checkins_count\":1200,\"users_count\":400,\"items_count\":3," +
+				"\"address\":{\"locality\":\"Austin\",\"region\":\"TX\"},\"description\":\"Shaved ice\",\"twitter_username\":\"snobeach\"," +
+				"\"websites\":[\"http://snobeach.com\"],\"created_at\":\"2009-06-01T12:00:00Z\"," +
+				"\"creator\":{\"url\":\"/users/1\",\"first_name\":\"Todd\",\"last_name\":\"Ginsberg\"}," +
+				"\"founders\":[{\"url\":\"/users/1\",\"first_name\":\"Todd\",\"last_name\":\"Ginsberg\"}]," +
+				"\"top_10\":[{\"url\":\"/users/2\",\"first_name\":\"Some\",\"last_name\":\"Body\",\"checkins_count\":50}]," +
+				"\"spot_categories\":[{\"url\":\"/categories/21\",\"name\":\"Dessert\"}],\"max_items_count\":6}", 11888);
+		final FullSpot decoded = BinaryCodec.decode(roundTrip(spot), FullSpot.class);
+		assertEquals(11888, decoded.getId());
+		assertEquals("30.2622", decoded.getLat());
+		assertEquals("-97.7235", decoded.getLng());
+		assertEquals(true, decoded.isStrictRadius());
+		assertEquals(1200, decoded.getCheckinsCount());
+		assertEquals("Austin", decoded.getAddress().getLocality());
+		assertEquals(spot.getCreatedAt(), decoded.getCreatedAt());
+		assertArrayEquals(spot.getWebsites(), decoded.getWebsites());
+		assertEquals("Ginsberg", decoded.getCreator().getLastName());
+		assertEquals(1, decoded.getFounders().get(0).getId());
+		assertEquals(50, decoded.getTop10().get(0).getCheckinsCount());
+		assertEquals(21, decoded.getCategories().get(0).getId());
+		assertEquals(6, decoded.getMaxItemsCount());
+		assertEquals(spot.getGeoLocation(), decoded.getGeoLocation());
+	}
+	
+	@Test
+	public void testUserAndTripFromJson() throws Exception {
+		final FullUser user = gson.translateUser("{\"url\":\"/users/7\",\"first_name\":\"Pat\",\"last_name\":\"Q\",\"bio\":\"Hi\"," +
+				"\"friends_count\":12,\"_is_friend\":true,\"stamps_count\":300,\"pins_count\":4,\"hometown\":\"Austin, TX\"," +
+				"\"last_checkins\":[{\"message\":\"Yum\",\"created_at\":\"2010-07-24T12:00:00Z\",\"type\":\"checkin\"," +
+				"\"spot\":{\"url\":\"/spots/11888\",\"name\":\"Sno-Beach\"}}]}");
+		final FullUser decodedUser = BinaryCodec.decode(roundTrip(user), FullUser.class);
+		assertEquals(7, decodedUser.getId());
+		assertEquals(12, decodedUser.getFriends_count());
+		assertEquals(true, decodedUser.isFriend());
+		assertEquals(300, decodedUser.getStampsCount());
+		assertEquals("Yum", decodedUser.getLastCheckins().get(0).getMessage());
+		assertEquals(11888, decodedUser.getLastCheckins().get(0).getSpot().getId());
+		
+		final Trip trip = gson.translateTrip("{\"url\":\"/trips/5\",\"name\":\"Ice\",\"_completed\":true,\"completed_users_count\":9," +
+				"\"creator\":{\"url\":\"/users/7\",\"first_name\":\"Pat\"},\"spots\":[" +
+				"{\"url\":\"/spots/1\",\"name\":\"A\",\"lat\":\"30.1\",\"lng\":\"-97.1\",\"radius_meters\":50}," +
+				"{\"url\":\"/spots/2\",\"name\":\"B\",\"lat\":\"30.2\",\"lng\":\"-97.2\",\"radius_meters\":75}]}");
+		final Trip decodedTrip = BinaryCodec.decode(roundTrip(trip), Trip.class);
+		assertEquals(5, decodedTrip.getId());
+		assertEquals(true, decodedTrip.isCompleted());
+		assertEquals(7, decodedTrip.getCreator().getId());
+		assertEquals(2, decodedTrip.getSpots().size());
+		assertEquals(75, decodedTrip.getSpots().get(1).getRadiusMeters());
+		assertEquals(trip.getClosestSpot(trip.getSpots().get(0)).getId(), decodedTrip.getClosestSpot(trip.getSpots().get(0)).getId());
+		
+		final List<SimpleSpot> spots = gson.translateSimpleSpots("{\"spots\":[{\"url\":\"/spots/3\",\"name\":\"C\",\"lat\":\"30.3\",\"lng\":\"-97.3\"," +
+				"\"checkins_count\":8,\"photos_count\":2,\"trending_level\":1}]}");
+		final List<?> decodedSpots = (List<?>)BinaryCodec.decode(roundTrip(spots));
+		assertEquals(8, ((SimpleSpot)decodedSpots.get(0)).getCheckinsCount());
+		assertEquals(1, ((SimpleSpot)decodedSpots.get(0)).getTrendingLevel());
+	}
+	
+	@Test
+	public void testOtherTypes() throws Exception {
+		final Stamp stamp = new Stamp();
+		stamp.setId(4);
+		stamp.setName("Stamp");
+		stamp.setFirstCheckinAt(new Date(1000));
+		stamp.setLastCheckinAt(new Date(-1000));
+		stamp.setCheckinsCount(3);
+		assertEquals(new Date(-1000), BinaryCodec.decode(roundTrip(stamp), Stamp.class).getLastCheckinAt());
+		
+		final Trip trip = new Trip();
+		trip.setId(9);
+		trip.setSpots(new ArrayList<LocatedSpot>());
+		final Pin pin = new Pin();
+		pin.setId(3);
+		pin.setIssueNumber(12);
+		pin.setTrip(trip);
+		assertEquals(9, BinaryCodec.decode(roundTrip(pin), Pin.class).getTrip().getId());
+		
+		final Identity<FullSpot> identity = new Identity<FullSpot>();
+		identity.setId(77);
+		final TripSummary summary = new TripSummary();
+		summary.setId(8);
+		summary.setSpots(Arrays.asList(identity));
+		assertEquals(77, BinaryCodec.decode(roundTrip(summary), TripSummary.class).getSpots().get(0).getId());
+		
+		final Map<String, String> urls = new LinkedHashMap<String, String>();
+		urls.put("100x100", "http://example.com/small.jpg");
+		urls.put("500x375", "http://example.com/large.jpg");
+		final UserPhoto photo = new UserPhoto();
+		photo.setMessage("Look");
+		photo.setPhotoUrls(urls);
+		final FullUser user = new FullUser();
+		user.setId(1);
+		user.setLastCheckins(Arrays.<UserEvent>asList(photo, new UserEvent()));
+		final FullUser decoded = BinaryCodec.decode(roundTrip(user), FullUser.class);
+		final UserPhoto decodedPhoto = (UserPhoto)decoded.getLastCheckins().get(0);
+		assertEquals(urls, decodedPhoto.getPhotoUrls());
+		assertEquals(photo.getPhotos().size(), decodedPhoto.getPhotos().size());
+		assertEquals(photo.getPhotos().get(0).getPhotoType(), decodedPhoto.getPhotos().get(0).getPhotoType());
+		assertEquals(UserEvent.class, decoded.getLastCheckins().get(1).getClass());
+		
+		assertNull(BinaryCodec.decode(roundTrip(null)));
+		assertEquals(false, BinaryCodec.supports(new Object()));
+		assertEquals(false, BinaryCodec.supports(Arrays.asList(new Object())));
+	}
+	
+	@Test
+	public void testUnknownFieldsAndTypesAreSkipped() throws Exception {
+		// A SimpleSpot from a newer version, with a string field, an object of 
+		// an unknown type, and a known field written a new way.
+		final BinaryOutput out = new BinaryOutput(64);
+		out.writeByte(1);
+		out.writeByte(2);
+		out.writeVarint(3);
+		out.writeVarint(99 << 3 | 1);
+		out.writeString("shared");
+		out.writeVarint(98 << 3 | 2);
+		out.writeVarint(500);
+		out.writeVarint(1 << 3 | 1);
+		out.writeString("inner");
+		out.writeVarint(0);
+		out.writeVarint(11 << 3 | 1);
+		out.writeString("many");
+		out.writeVarint(1 << 3 | 1);
+		out.writeString("shared");
+		out.writeVarint(2 << 3 | 1);
+		out.writeString("inner");
+		out.writeVarint(3 << 3 | 0);
+		out.writeSigned(42);
+		out.writeVarint(0);
+		
+		final SimpleSpot spot = BinaryCodec.decode(out.toByteArray(), SimpleSpot.class);
+		assertEquals(42, spot.getId());
+		assertEquals("shared", spot.getName());
+		assertEquals("inner", spot.getUrl());
+		assertEquals(0, spot.getCheckinsCount());
+	}
+	
+	@Test
+	public void testMalformed() throws Exception {
+		final FullSpot spot = new FullSpot();
+		spot.setId(5);
+		spot.setName("Five");
+		final byte[] bytes = BinaryCodec.encode(spot);
+		for(int length = 0; length < bytes.length; length++) {
+			try {
+				BinaryCodec.decode(bytes, 0, length);
+				fail("Decoded " + length + " of " + bytes.length + " bytes");
+			} catch(IllegalArgumentException e) {
+				// Expected.
+			}
+		}
+		try {
+			BinaryCodec.decode(bytes, Trip.class);
+			fail("Decoded a spot as a trip");
+		} catch(IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+	
+	/**
+	 * Encode, decode and encode again, which must give the same bytes.
+	 */
+	private static byte[] roundTrip(final Object value) {
+		final byte[] bytes = BinaryCodec.encode(value);
+		assertArrayEquals(bytes, BinaryCodec.encode(BinaryCodec.decode(bytes)));
+		return bytes;
+	}
+	
+	private static void assertSameTree(final FullCategory expected, final FullCategory actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getUrl(), actual.getUrl());
+		assertEquals(expected.getDescription(), actual.getDescription());
+		assertEquals(expected.getImageUrl(), actual.getImageUrl());
+		assertEquals(expected.getSmallImageUrl(), actual.getSmallImageUrl());
+		assertEquals(expected.getSubcategories().size(), actual.getSubcategories().size());
+		for(int i = 0; i < expected.getSubcategories().size(); i++) {
+			assertSameTree(expected.getSubcategories().get(i), actual.getSubcategories().get(i));
+		}
+	}
+	
+	private static byte[] javaSerialized(final Serializable value) throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(value);
+		out.close();
+		return bytes.toByteArray();
+	}
+	
+	private String getFile(final String name) throws Exception {
+		final StringBuilder buf = new StringBuilder();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(getClass().getClassLoader().getResourceAsStream("json/" + name), "UTF-8"));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				buf.append(line).append("\n");
+			}
+		} finally {
+			reader.close();
+		}
+		return buf.toString();
+	}
+}
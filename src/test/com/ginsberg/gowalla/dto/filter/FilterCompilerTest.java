@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.filter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.Category;
+import com.ginsberg.gowalla.dto.FullCategory;
+import com.ginsberg.gowalla.dto.FullSpot;
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+import com.ginsberg.gowalla.dto.index.RowSet;
+import com.ginsberg.gowalla.dto.index.SpotIndex;
+import com.ginsberg.gowalla.dto.index.SpotTable;
+import com.google.gson.Gson;
+
+/**
+ * Checks compiled filters, and filters run against a table or index, 
+ * against the filters they came from.
+ * 
+ * @author Todd Ginsberg
+ */
+public class FilterCompilerTest {
+
+	private final Random random = new Random(47);
+	private final List<SimpleSpot> all = new ArrayList<SimpleSpot>();
+	private FullCategory food;
+	
+	@Before
+	public void setUp() throws Exception {
+		food = new Gson().fromJson("{\"id\":1,\"spot_categories\":[{\"id\":2,\"spot_categories\":[{\"id\":3}]},{\"id\":4}]}", FullCategory.class);
+		for(int id = 1; id <= 3000; id++) {
+			final FullSpot spot = new FullSpot();
+			spot.setId(id);
+			spot.setLat(String.valueOf(30.2 + random.nextDouble() * 0.1));
+			spot.setLng(String.valueOf(-97.8 + random.nextDouble() * 0.1));
+			spot.setCheckinsCount(random.nextInt(1000));
+			spot.setUsersCount(random.nextInt(300));
+			spot.setItemsCount(random.nextInt(3));
+			spot.setPhotosCount(random.nextInt(2));
+			spot.setTrendingLevel(random.nextInt(4));
+			final Category category = new Category();
+			category.setId(1 + random.nextInt(6));
+			final List<Category> categories = new ArrayList<Category>();
+			categories.add(category);
+			spot.setCategories(categories);
+			all.add(spot);
+		}
+	}
+	
+	@Test
+	public void testCompiledMatches() throws Exception {
+		for(int i = 0; i < 200; i++) {
+			final Filter<SimpleSpot> filter = randomFilter(3, true);
+			final Filter<SimpleSpot> compiled = FilterCompiler.compile(filter);
+			// Run twice, so the second pass goes through a reordered filter.
+			for(int pass = 0; pass < 2; pass++) {
+				for(SimpleSpot spot : all) {
+					assertEquals(filter.isIncluded(spot), compiled.isIncluded(spot));
+				}
+			}
+			assertEquals(filter.isIncluded(null), compiled.isIncluded(null));
+		}
+	}
+	
+	@Test
+	public void testTableAndIndex() throws Exception {
+		final SpotTable table = new SpotTable();
+		table.addAll(all);
+		final SpotIndex<SimpleSpot> index = new SpotIndex<SimpleSpot>();
+		index.addAll(all);
+		for(int i = 0; i < 100; i++) {
+			// The table drops categories, so leave them out for it.
+			final Filter<SimpleSpot> filter = randomFilter(3, false);
+			final Set<Integer> expected = new HashSet<Integer>();
+			for(SimpleSpot spot : all) {
+				if(filter.isIncluded(spot)) {
+					expected.add(spot.getId());
+				}
+			}
+			final RowSet rows = table.select(filter);
+			final Set<Integer> fromTable = new HashSet<Integer>();
+			for(int row = rows.next(0); row >= 0; row = rows.next(row + 1)) {
+				fromTable.add(table.getId(row));
+			}
+			assertEquals("Table: " + filter, expected, fromTable);
+			assertEquals("Index: " + filter, expected, ids(index.find(filter)));
+		}
+		
+		@SuppressWarnings("unchecked")
+		final Filter<SimpleSpot> near = new And<SimpleSpot>(new HasItems(), new WithinDistance(new GeoPoint(30.25, -97.75), 500));
+		assertEquals(500, FilterCompiler.findRequiredDistance(FilterCompiler.compile(near)).getMeters());
+	}
+	
+	@Test
+	public void testSharedBetweenThreads() throws Exception {
+		final List<Filter<SimpleSpot>> filters = new ArrayList<Filter<SimpleSpot>>();
+		final List<Filter<SimpleSpot>> compiled = new ArrayList<Filter<SimpleSpot>>();
+		for(int i = 0; i < 20; i++) {
+			filters.add(randomFilter(3, true));
+			compiled.add(FilterCompiler.compile(filters.get(i)));
+		}
+		final AtomicInteger mismatches = new AtomicInteger();
+		final List<Thread> threads = new ArrayList<Thread>();
+		for(int t = 0; t < 4; t++) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					for(int pass = 0; pass < 2; pass++) {
+						for(int i = 0; i < filters.size(); i++) {
+							for(SimpleSpot spot : all) {
+								if(filters.get(i).isIncluded(spot) != compiled.get(i).isIncluded(spot)) {
+									mismatches.incrementAndGet();
+								}
+							}
+						}
+					}
+				}
+			});
+		}
+		for(Thread thread : threads) {
+			thread.start();
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, mismatches.get());
+	}
+	
+	@Test
+	public void testCategorySubtree() throws Exception {
+		final InCategory inFood = new InCategory(food);
+		int included = 0;
+		for(SimpleSpot spot : all) {
+			final int category = ((FullSpot)spot).getCategories().get(0).getId();
+			assertEquals(category <= 4, inFood.isIncluded(spot));
+			included += inFood.isIncluded(spot) ? 1 : 0;
+		}
+		assertEquals(true, included > 0 && included < all.size());
+		assertEquals(false, inFood.isIncluded(new SimpleSpot()));
+	}
+	
+	@Test
+	public void testSelectiveChildMovesFirst() throws Exception {
+		final int[] calls = new int[1];
+		final Filter<SimpleSpot> counted = new Filter<SimpleSpot>() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			public boolean isIncluded(final SimpleSpot spot) {
+				calls[0]++;
+				return true;
+			}
+		};
+		final Filter<SimpleSpot> rare = new Filter<SimpleSpot>() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			public boolean isIncluded(final SimpleSpot spot) {
+				return spot.getId() % 100 == 0;
+			}
+		};
+		@SuppressWarnings("unchecked")
+		final Filter<SimpleSpot> and = new And<SimpleSpot>(counted, rare);
+		final Filter<SimpleSpot> compiled = FilterCompiler.compile(and);
+		for(int pass = 0; pass < 3; pass++) {
+			for(SimpleSpot spot : all) {
+				compiled.isIncluded(spot);
+			}
+		}
+		// Without reordering, every one of the 9000 evaluations would call it.
+		assertEquals("Calls: " + calls[0], true, calls[0] < 9000 / 4);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Filter<SimpleSpot> randomFilter(final int depth, final boolean categories) {
+		final int choice = random.nextInt(depth == 0 ? 5 : 8);
+		switch(choice) {
+			case 0: return new HasItems();
+			case 1: return new HasPhotos();
+			case 2: return new CountRange(Count.values()[random.nextInt(5)], random.nextInt(200), 100 + random.nextInt(600));
+			case 3: return new WithinDistance(new GeoPoint(30.2 + random.nextDouble() * 0.1, -97.8 + random.nextDouble() * 0.1), random.nextInt(5000));
+			case 4: return categories ? new InCategory(food) : CountRange.atLeast(Count.CHECKINS, random.nextInt(1000));
+			case 5: return new Not<SimpleSpot>(randomFilter(depth - 1, categories));
+			case 6: return new And<SimpleSpot>(randomFilter(depth - 1, categories), randomFilter(depth - 1, categories), randomFilter(depth - 1, categories));
+			default: return new Or<SimpleSpot>(randomFilter(depth - 1, categories), randomFilter(depth - 1, categories));
+		}
+	}
+	
+	private static Set<Integer> ids(final List<SimpleSpot> spots) {
+		final Set<Integer> ids = new HashSet<Integer>();
+		for(SimpleSpot spot : spots) {
+			ids.add(spot.getId());
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.index;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+
+/**
+ * Checks batch check in evaluation against canCheckIn() on every spot.
+ * 
+ * @author Todd Ginsberg
+ */
+public class CheckinEvaluatorTest {
+
+	@Test
+	public void testMatchesCanCheckIn() throws Exception {
+		final Random random = new Random(17);
+		final List<SimpleSpot> all = new ArrayList<SimpleSpot>();
+		for(int id = 1; id <= 5000; id++) {
+			final SimpleSpot spot = SpotIndexTest.spot(id, 30.2 + random.nextDouble() * 0.05, -97.8 + random.nextDouble() * 0.05);
+			spot.setRadiusMeters(random.nextInt(10) == 0 ? 1000 : 25 + random.nextInt(100));
+			all.add(spot);
+		}
+		final CheckinEvaluator<SimpleSpot> evaluator = new CheckinEvaluator<SimpleSpot>(all);
+		final SpotIndex<SimpleSpot> index = new SpotIndex<SimpleSpot>(0.005);
+		index.addAll(all);
+		
+		int total = 0;
+		for(int i = 0; i < 50; i++) {
+			final GeoPoint from = new GeoPoint(30.2 + random.nextDouble() * 0.05, -97.8 + random.nextDouble() * 0.05);
+			final Set<SimpleSpot> expected = new HashSet<SimpleSpot>();
+			for(SimpleSpot spot : all) {
+				if(spot.canCheckIn(from)) {
+					expected.add(spot);
+				}
+			}
+			total += expected.size();
+			assertEquals("Evaluator", expected, new HashSet<SimpleSpot>(evaluator.canCheckIn(from)));
+			assertEquals("Index", expected, new HashSet<SimpleSpot>(index.canCheckIn(from)));
+		}
+		assertEquals("Should have found something to check", true, total > 0);
+	}
+	
+	@Test
+	public void testOneShotMatchesCanCheckIn() throws Exception {
+		final Random random = new Random(19);
+		final List<SimpleSpot> all = new ArrayList<SimpleSpot>();
+		for(int id = 1; id <= 2000; id++) {
+			final SimpleSpot spot = SpotIndexTest.spot(id, 30.2 + random.nextDouble() * 0.05, -97.8 + random.nextDouble() * 0.05);
+			spot.setRadiusMeters(random.nextInt(10) == 0 ? 1000 : 25 + random.nextInt(100));
+			all.add(spot);
+		}
+		for(int i = 0; i < 50; i++) {
+			final GeoPoint from = new GeoPoint(30.2 + random.nextDouble() * 0.05, -97.8 + random.nextDouble() * 0.05);
+			final List<SimpleSpot> expected = new ArrayList<SimpleSpot>();
+			for(SimpleSpot spot : all) {
+				if(spot.canCheckIn(from)) {
+					expected.add(spot);
+				}
+			}
+			assertEquals("In the order given", expected, CheckinEvaluator.canCheckIn(from, all));
+		}
+	}
+	
+	@Test
+	public void testAcrossAntimeridian() throws Exception {
+		final Random random = new Random(23);
+		final List<SimpleSpot> all = new ArrayList<SimpleSpot>();
+		for(int id = 1; id <= 2000; id++) {
+			final double longitude = 179.99 + random.nextDouble() * 0.02;
+			final SimpleSpot spot = SpotIndexTest.spot(id, -16.5 + random.nextDouble() * 0.02, longitude > 180 ? longitude - 360 : longitude);
+			spot.setRadiusMeters(100 + random.nextInt(400));
+			all.add(spot);
+		}
+		final CheckinEvaluator<SimpleSpot> evaluator = new CheckinEvaluator<SimpleSpot>(all);
+		final SpotIndex<SimpleSpot> index = new SpotIndex<SimpleSpot>(0.005);
+		index.addAll(all);
+		int total = 0;
+		for(int i = 0; i < 50; i++) {
+			final double longitude = 179.995 + random.nextDouble() * 0.01;
+			final GeoPoint from = new GeoPoint(-16.495 + random.nextDouble() * 0.01, longitude > 180 ? longitude - 360 : longitude);
+			final Set<SimpleSpot> expected = new HashSet<SimpleSpot>();
+			for(SimpleSpot spot : all) {
+				if(spot.canCheckIn(from)) {
+					expected.add(spot);
+				}
+			}
+			total += expected.size();
+			assertEquals("Evaluator", expected, new HashSet<SimpleSpot>(evaluator.canCheckIn(from)));
+			assertEquals("One shot", expected, new HashSet<SimpleSpot>(CheckinEvaluator.canCheckIn(from, all)));
+			assertEquals("Index", expected, new HashSet<SimpleSpot>(index.canCheckIn(from)));
+		}
+		assertEquals("Should have found something to check", true, total > 0);
+		
+		// About 107m apart, on either side.
+		final SimpleSpot east = SpotIndexTest.spot(5000, -16.5, 179.9995);
+		east.setRadiusMeters(300);
+		final SpotIndex<SimpleSpot> one = new SpotIndex<SimpleSpot>();
+		one.add(east);
+		final GeoPoint west = new GeoPoint(-16.5, -179.9995);
+		assertEquals(true, east.canCheckIn(west));
+		assertEquals(1, one.canCheckIn(west).size());
+		assertEquals(1, one.withinRadius(west, 200).size());
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+
+/**
+ * Walks users around and checks the events against canCheckIn().
+ * 
+ * @author Todd Ginsberg
+ */
+public class GeofenceEngineTest {
+
+	private final Random random = new Random(23);
+	private final List<SimpleSpot> all = new ArrayList<SimpleSpot>();
+	private final SpotIndex<SimpleSpot> index = new SpotIndex<SimpleSpot>(0.005);
+	private final Map<String, Set<Integer>> tracked = new HashMap<String, Set<Integer>>();
+	private int events = 0;
+	private GeofenceEngine<SimpleSpot> engine;
+	
+	@Before
+	public void setUp() throws Exception {
+		for(int id = 1; id <= 2000; id++) {
+			final SimpleSpot spot = SpotIndexTest.spot(id, 30.2 + random.nextDouble() * 0.02, -97.8 + random.nextDouble() * 0.02);
+			spot.setRadiusMeters(50 + random.nextInt(100));
+			all.add(spot);
+		}
+		index.addAll(all);
+		engine = new GeofenceEngine<SimpleSpot>(index, new GeofenceEngine.Listener<SimpleSpot>() {
+			@Override
+			public void entered(final String userKey, final SimpleSpot spot, final long timestamp) {
+				events++;
+				assertEquals("Entered twice", true, inside(userKey).add(spot.getId()));
+			}
+			
+			@Override
+			public void exited(final String userKey, final SimpleSpot spot, final long timestamp) {
+				events++;
+				assertEquals("Exited without entering", true, inside(userKey).remove(spot.getId()));
+			}
+		});
+	}
+	
+	@Test
+	public void testRandomWalk() throws Exception {
+		final double[][] positions = new double[10][];
+		for(int u = 0; u < positions.length; u++) {
+			positions[u] = new double[] { 30.2 + random.nextDouble() * 0.02, -97.8 + random.nextDouble() * 0.02 };
+		}
+		for(long time = 0; time < 500; time++) {
+			for(int u = 0; u < positions.length; u++) {
+				positions[u][0] += (random.nextDouble() - 0.5) * 0.001;
+				positions[u][1] += (random.nextDouble() - 0.5) * 0.001;
+				final String user = "user" + u;
+				engine.update(user, positions[u][0], positions[u][1], time);
+				assertEquals(user + " at " + time, expected(positions[u][0], positions[u][1]), inside(user));
+			}
+		}
+		assertEquals(10, engine.getUserCount());
+		assertEquals("Should have seen some events", true, events > 100);
+	}
+	
+	@Test
+	public void testOutOfOrderAndRemoval() throws Exception {
+		final SimpleSpot spot = all.get(0);
+		final GeoPoint at = spot.getGeoLocation();
+		engine.update("user", at, 10);
+		assertEquals(true, inside("user").contains(spot.getId()));
+		assertFalse("Older update should be ignored", engine.update("user", 0, 0, 5));
+		assertEquals(true, inside("user").contains(spot.getId()));
+		
+		index.remove(spot.getId());
+		engine.update("user", at, 11);
+		assertFalse("Removed spot should have been left", inside("user").contains(spot.getId()));
+		assertEquals(inside("user"), ids(engine.getInside("user")));
+		
+		engine.update("user", 0, 0, 12);
+		assertEquals(0, inside("user").size());
+		engine.forget("user");
+		assertEquals(0, engine.getUserCount());
+	}
+	
+	private Set<Integer> inside(final String user) {
+		Set<Integer> ids = tracked.get(user);
+		if(ids == null) {
+			ids = new HashSet<Integer>();
+			tracked.put(user, ids);
+		}
+		return ids;
+	}
+	
+	private Set<Integer> expected(final double lat, final double lng) {
+		final GeoPoint from = new GeoPoint(lat, lng);
+		final Set<Integer> ids = new HashSet<Integer>();
+		for(SimpleSpot spot : all) {
+			if(spot.canCheckIn(from)) {
+				ids.add(spot.getId());
+			}
+		}
+		return ids;
+	}
+	
+	private static Set<Integer> ids(final List<SimpleSpot> spots) {
+		final Set<Integer> ids = new HashSet<Integer>();
+		for(SimpleSpot spot : spots) {
+			ids.add(spot.getId());
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.index;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.SimpleSpot;
+
+/**
+ * @author Todd Ginsberg
+ */
+public class SpotClustersTest {
+
+	private final Random random = new Random(41);
+	private final List<SimpleSpot> all = new ArrayList<SimpleSpot>();
+	private final SpotClusters clusters = new SpotClusters(0, 16, 2);
+	
+	@Before
+	public void setUp() throws Exception {
+		for(int id = 1; id <= 3000; id++) {
+			final SimpleSpot spot = SpotIndexTest.spot(id, 30 + random.nextDouble(), -98 + random.nextDouble());
+			spot.setCheckinsCount(random.nextInt(500));
+			all.add(spot);
+		}
+		clusters.addAll(all);
+	}
+	
+	@Test
+	public void testTotals() throws Exception {
+		long checkins = 0;
+		for(SimpleSpot spot : all) {
+			checkins += spot.getCheckinsCount();
+		}
+		for(int zoom = 0; zoom <= 16; zoom++) {
+			int count = 0;
+			long summed = 0;
+			for(SpotClusters.Cluster cluster : clusters.getClusters(zoom)) {
+				count += cluster.getCount();
+				summed += cluster.getCheckinsCount();
+			}
+			assertEquals("Count at " + zoom, all.size(), count);
+			assertEquals("Check ins at " + zoom, checkins, summed);
+		}
+		assertEquals(1, clusters.getClusters(0).size());
+	}
+	
+	@Test
+	public void testViewport() throws Exception {
+		for(int i = 0; i < 50; i++) {
+			final int zoom = random.nextInt(17);
+			final double south = 30 + random.nextDouble() * 0.8;
+			final double west = -98 + random.nextDouble() * 0.8;
+			final double north = south + random.nextDouble() * 0.2;
+			final double east = west + random.nextDouble() * 0.2;
+			final Map<String, Integer> expected = new HashMap<String, Integer>();
+			for(SpotClusters.Cluster cluster : clusters.getClusters(zoom)) {
+				final double[] bounds = cluster.getBounds();
+				if(bounds[0] < north && bounds[2] > south && bounds[1] < east && bounds[3] > west) {
+					expected.put(cluster.toString(), cluster.getCount());
+				}
+			}
+			final Map<String, Integer> found = new HashMap<String, Integer>();
+			for(SpotClusters.Cluster cluster : clusters.getClusters(zoom, south, west, north, east)) {
+				found.put(cluster.toString(), cluster.getCount());
+			}
+			assertEquals("Zoom " + zoom, expected, found);
+		}
+	}
+	
+	@Test
+	public void testIncrementalUpdates() throws Exception {
+		// Move some spots, remove others, and compare with clustering from scratch.
+		for(int i = 0; i < 500; i++) {
+			final SimpleSpot moved = SpotIndexTest.spot(all.get(i).getId(), 30 + random.nextDouble(), -98 + random.nextDouble());
+			moved.setCheckinsCount(random.nextInt(500));
+			all.set(i, moved);
+			clusters.add(moved);
+		}
+		for(int i = 0; i < 500; i++) {
+			clusters.remove(all.remove(all.size() - 1).getId());
+		}
+		final SpotClusters fresh = new SpotClusters(0, 16, 2);
+		final SpotIndex<SimpleSpot> index = new SpotIndex<SimpleSpot>();
+		index.addAll(all);
+		fresh.addAll(index);
+		assertEquals(all.size(), clusters.size());
+		for(int zoom = 0; zoom <= 16; zoom += 4) {
+			assertEquals("Zoom " + zoom, summary(fresh.getClusters(zoom)), summary(clusters.getClusters(zoom)));
+		}
+	}
+	
+	private static Map<String, Long> summary(final List<SpotClusters.Cluster> found) {
+		final Map<String, Long> summary = new HashMap<String, Long>();
+		for(SpotClusters.Cluster cluster : found) {
+			summary.put(cluster.toString(), cluster.getCheckinsCount());
+		}
+		return summary;
+	}
+	
+	@Test
+	public void testCenterAtPoleAfterRemovals() throws Exception {
+		for(int trial = 0; trial < 200; trial++) {
+			final SpotClusters polar = new SpotClusters(0, 2, 2);
+			for(int id = 1; id <= 50; id++) {
+				polar.add(SpotIndexTest.spot(id, random.nextBoolean() ? 90 : 90 - random.nextDouble() * 0.001, 180));
+			}
+			for(int id = 1; id <= 45; id++) {
+				polar.remove(id);
+			}
+			for(SpotClusters.Cluster cluster : polar.getClusters(2)) {
+				assertEquals(true, cluster.getCenter().getLatitude().doubleValue() <= 90);
+			}
+		}
+	}
+}
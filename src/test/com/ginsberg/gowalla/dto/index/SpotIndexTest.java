@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+import com.ginsberg.gowalla.dto.compare.DistanceComparator;
+
+/**
+ * Checks the index against brute force searches.
+ * 
+ * @author Todd Ginsberg
+ */
+public class SpotIndexTest {
+
+	private final Random random = new Random(11);
+	private final List<SimpleSpot> all = new ArrayList<SimpleSpot>();
+	private final SpotIndex<SimpleSpot> index = new SpotIndex<SimpleSpot>(0.005);
+	
+	@Before
+	public void setUp() throws Exception {
+		for(int id = 1; id <= 5000; id++) {
+			all.add(spot(id, 30.2 + random.nextDouble() * 0.1, -97.8 + random.nextDouble() * 0.1));
+		}
+		index.addAll(all);
+	}
+	
+	public static SimpleSpot spot(final int id, final double lat, final double lng) {
+		final SimpleSpot spot = new SimpleSpot();
+		spot.setId(id);
+		spot.setLat(String.valueOf(lat));
+		spot.setLng(String.valueOf(lng));
+		return spot;
+	}
+	
+	@Test
+	public void testWithinRadius() throws Exception {
+		for(int i = 0; i < 20; i++) {
+			final GeoPoint center = new GeoPoint(30.2 + random.nextDouble() * 0.1, -97.8 + random.nextDouble() * 0.1);
+			final int radius = 100 + random.nextInt(2000);
+			final List<Integer> expected = new ArrayList<Integer>();
+			for(SimpleSpot spot : all) {
+				if(center.getDistanceMeters(spot.getGeoLocation()) <= radius) {
+					expected.add(spot.getId());
+				}
+			}
+			assertEquals(new HashSet<Integer>(expected), new HashSet<Integer>(ids(index.withinRadius(center, radius))));
+		}
+	}
+	
+	@Test
+	public void testNearest() throws Exception {
+		for(int i = 0; i < 20; i++) {
+			// Include points outside the data.
+			final GeoPoint center = new GeoPoint(30.1 + random.nextDouble() * 0.3, -97.9 + random.nextDouble() * 0.3);
+			final List<SimpleSpot> sorted = new ArrayList<SimpleSpot>(all);
+			Collections.sort(sorted, new DistanceComparator(center));
+			final List<SimpleSpot> nearest = index.nearest(center, 25);
+			assertEquals(25, nearest.size());
+			for(int n = 0; n < 25; n++) {
+				assertEquals(center.getDistanceMeters(sorted.get(n).getGeoLocation()), center.getDistanceMeters(nearest.get(n).getGeoLocation()));
+			}
+		}
+	}
+	
+	@Test
+	public void testDistanceToSelf() throws Exception {
+		for(int i = 0; i < 100000; i++) {
+			final double latitude = random.nextDouble() * 180 - 90;
+			final double longitude = random.nextDouble() * 360 - 180;
+			// Never NaN; acos loses some precision this close to zero.
+			assertEquals(0.0, GeoPoint.getDistanceMeters(latitude, longitude, latitude, longitude), 1.0);
+		}
+	}
+	
+	@Test
+	public void testNearestFindsSpotAtQueryPoint() throws Exception {
+		for(SimpleSpot spot : all.subList(0, 200)) {
+			assertEquals(spot.getId(), index.nearest(spot, 1).get(0).getId());
+		}
+	}
+	
+	@Test
+	public void testUpdateAndRemove() throws Exception {
+		final GeoPoint far = new GeoPoint(45.0, 10.0);
+		index.add(spot(7, 45.0, 10.0));
+		assertEquals(5000, index.size());
+		assertEquals(7, index.nearest(far, 1).get(0).getId());
+		assertEquals("Should have moved", 0, index.withinRadius(all.get(6), 0).size());
+		index.remove(7);
+		assertNull(index.get(7));
+		assertEquals(0, index.withinRadius(far, 1000).size());
+		assertEquals(4999, index.withinBounds(-90, -180, 90, 180).size());
+	}
+	
+	@Test(timeout = 1000)
+	public void testFewSpotsFarApart() throws Exception {
+		final SpotIndex<SimpleSpot> sparse = new SpotIndex<SimpleSpot>();
+		sparse.add(spot(1, 40.7128, -74.0060));
+		sparse.add(spot(2, -33.8688, 151.2093));
+		for(int i = 0; i < 100; i++) {
+			assertEquals(2, sparse.withinBounds(-90, -180, 90, 180).size());
+			assertEquals(2, sparse.nearest(new GeoPoint(40.7, -74.0), 2).get(1).getId());
+			assertEquals(1, sparse.nearest(new GeoPoint(0.0, 0.0), 2).get(0).getId());
+		}
+	}
+	
+	private static List<Integer> ids(final List<SimpleSpot> spots) {
+		final List<Integer> ids = new ArrayList<Integer>();
+		for(SimpleSpot spot : spots) {
+			ids.add(spot.getId());
+		}
+		return ids;
+	}
+}
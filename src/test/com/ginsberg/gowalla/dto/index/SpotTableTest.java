@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.index;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.Address;
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.SimpleSpot;
+import com.ginsberg.gowalla.dto.filter.Count;
+import com.ginsberg.gowalla.dto.filter.HasItems;
+import com.ginsberg.gowalla.dto.filter.HasPhotos;
+import com.ginsberg.gowalla.dto.filter.WithinDistance;
+
+/**
+ * Checks table scans against the same tests done on spots.
+ * 
+ * @author Todd Ginsberg
+ */
+public class SpotTableTest {
+
+	private static final String[] LOCALITIES = { "Austin", "Round Rock", "Pflugerville", "Cedar Park" };
+	
+	private final Random random = new Random(43);
+	private final List<SimpleSpot> all = new ArrayList<SimpleSpot>();
+	private final SpotTable table = new SpotTable(10);
+	
+	@Before
+	public void setUp() throws Exception {
+		for(int id = 1; id <= 5000; id++) {
+			final SimpleSpot spot = SpotIndexTest.spot(id, 30.2 + random.nextDouble() * 0.2, -97.8 + random.nextDouble() * 0.2);
+			spot.setName("Spot " + (id % 700));
+			spot.setCheckinsCount(random.nextInt(1000));
+			spot.setUsersCount(random.nextInt(300));
+			spot.setItemsCount(random.nextInt(3));
+			spot.setPhotosCount(random.nextInt(2));
+			spot.setTrendingLevel(random.nextInt(4));
+			if(id % 10 != 0) {
+				final Address address = new Address();
+				address.setLocality(LOCALITIES[random.nextInt(LOCALITIES.length)]);
+				address.setRegion("TX");
+				spot.setAddress(address);
+			}
+			all.add(spot);
+		}
+		table.addAll(all.subList(0, 100));
+		for(SimpleSpot spot : all.subList(100, all.size())) {
+			table.add(spot);
+		}
+	}
+	
+	@Test
+	public void testRoundTrip() throws Exception {
+		assertEquals(all.size(), table.size());
+		assertEquals(700, table.getDistinctCount(SpotTable.Text.NAME));
+		for(int row = 0; row < all.size(); row += 97) {
+			final SimpleSpot expected = all.get(row);
+			final SimpleSpot spot = table.getSpot(row);
+			assertEquals(expected.getId(), spot.getId());
+			assertEquals(expected.getName(), spot.getName());
+			assertEquals(expected.getGeoLocation(), spot.getGeoLocation());
+			assertEquals(expected.getCheckinsCount(), spot.getCheckinsCount());
+			assertEquals(expected.getTrendingLevel(), spot.getTrendingLevel());
+			assertEquals(expected.getAddress(), spot.getAddress());
+		}
+	}
+	
+	@Test
+	public void testWithinDistanceAcrossAntimeridian() throws Exception {
+		final SpotTable crossing = new SpotTable(2);
+		crossing.add(SpotIndexTest.spot(1, -16.5, 179.9995));
+		crossing.add(SpotIndexTest.spot(2, -16.5, 179.99));
+		// About 107m from the first spot, across the meridian.
+		final WithinDistance near = new WithinDistance(new GeoPoint(-16.5, -179.9995), 500);
+		assertEquals(true, near.isIncluded(crossing.getSpots(RowSet.all(2)).get(0)));
+		assertEquals(1, crossing.select(near).count());
+		assertEquals(true, crossing.withinDistance(-16.5, -179.9995, 500).contains(0));
+		assertEquals(true, new WithinDistance(new GeoPoint(-16.5, 179.9995), 500).isIncluded(SpotIndexTest.spot(3, -16.5, -179.9995)));
+	}
+	
+	@Test
+	public void testScans() throws Exception {
+		final HasItems hasItems = new HasItems();
+		final HasPhotos hasPhotos = new HasPhotos();
+		final GeoPoint center = new GeoPoint(30.3, -97.7);
+		final RowSet near = table.withinDistance(30.3, -97.7, 5000);
+		final RowSet popular = table.range(Count.CHECKINS, 200, 400);
+		final RowSet austin = table.equalTo(SpotTable.Text.LOCALITY, "Austin");
+		final RowSet noAddress = table.equalTo(SpotTable.Text.LOCALITY, null);
+		final RowSet combined = table.hasItems().and(table.hasPhotos()).and(near).andNot(popular);
+		
+		int expectedCombined = 0;
+		long expectedCheckins = 0;
+		for(int row = 0; row < all.size(); row++) {
+			final SimpleSpot spot = all.get(row);
+			final boolean isNear = center.getDistanceMeters(spot.getGeoLocation()) <= 5000;
+			final boolean isPopular = spot.getCheckinsCount() >= 200 && spot.getCheckinsCount() <= 400;
+			assertEquals("Near " + row, isNear, near.contains(row));
+			assertEquals("Popular " + row, isPopular, popular.contains(row));
+			assertEquals("Austin " + row, spot.getAddress() != null && "Austin".equals(spot.getAddress().getLocality()), austin.contains(row));
+			assertEquals("No address " + row, spot.getAddress() == null, noAddress.contains(row));
+			if(hasItems.isIncluded(spot) && hasPhotos.isIncluded(spot) && isNear && !isPopular) {
+				expectedCombined++;
+				expectedCheckins += spot.getCheckinsCount();
+				assertEquals(true, combined.contains(row));
+			}
+		}
+		assertEquals(expectedCombined, combined.count());
+		assertEquals(expectedCheckins, table.sum(Count.CHECKINS, combined));
+		assertEquals(expectedCombined, table.getSpots(combined).size());
+		assertEquals(all.size(), table.all().count());
+		assertEquals(all.size(), austin.or(austin.not()).count());
+		assertEquals(0, table.equalTo(SpotTable.Text.LOCALITY, "Dallas").count());
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.dto.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ginsberg.gowalla.dto.GeoPoint;
+import com.ginsberg.gowalla.dto.LocatedSpot;
+import com.ginsberg.gowalla.dto.Trip;
+
+/**
+ * Checks closest spot searches against brute force.
+ * 
+ * @author Todd Ginsberg
+ */
+public class TripSpotIndexTest {
+
+	private final Random random = new Random(31);
+	
+	@Test
+	public void testClosestSpot() throws Exception {
+		final Trip trip = trip(1, 30.25, -97.75, 25);
+		for(int i = 0; i < 100; i++) {
+			final GeoPoint from = point(30.25, -97.75, 0.5);
+			assertEquals(closestDistance(trip.getSpots(), from), trip.getDistanceMetersToClosestSpot(from));
+		}
+		
+		final TripSpotIndex index = trip.getSpotIndex();
+		assertSame("Should be cached", index, trip.getSpotIndex());
+		trip.getSpots().add(spot(999, 0, 0));
+		assertEquals(999, trip.getClosestSpot(new GeoPoint(0.0, 0.0)).getId());
+		trip.getSpots().set(3, spot(998, 0.001, 0.001));
+		assertEquals("Replaced in place", 998, trip.getClosestSpot(new GeoPoint(0.001, 0.001)).getId());
+		
+		final Trip empty = new Trip();
+		assertNull(empty.getClosestSpot(new GeoPoint(0.0, 0.0)));
+		assertEquals(0, empty.getDistanceMetersToClosestSpot(new GeoPoint(0.0, 0.0)));
+	}
+	
+	@Test
+	public void testClosestAcrossTrips() throws Exception {
+		final List<Trip> trips = new ArrayList<Trip>();
+		for(int id = 1; id <= 300; id++) {
+			trips.add(trip(id, 30 + random.nextDouble() * 10, -100 + random.nextDouble() * 10, 1 + random.nextInt(20)));
+		}
+		trips.add(new Trip());
+		for(int i = 0; i < 100; i++) {
+			final GeoPoint from = point(35, -95, 6);
+			long expected = Long.MAX_VALUE;
+			for(Trip trip : trips) {
+				if(trip.getSpots() != null) {
+					expected = Math.min(expected, closestDistance(trip.getSpots(), from));
+				}
+			}
+			final TripSpotIndex.ClosestTripSpot found = TripSpotIndex.getClosestSpot(trips, from);
+			assertEquals(expected, found.getDistanceMeters());
+			assertEquals(true, found.getTrip().getSpots().contains(found.getSpot()));
+		}
+		assertNull(TripSpotIndex.getClosestSpot(new ArrayList<Trip>(), new GeoPoint(0.0, 0.0)));
+	}
+	
+	private Trip trip(final int id, final double lat, final double lng, final int spots) {
+		final Trip trip = new Trip();
+		trip.setId(id);
+		final List<LocatedSpot> list = new ArrayList<LocatedSpot>();
+		for(int i = 0; i < spots; i++) {
+			list.add(spot(id * 1000 + i, lat + (random.nextDouble() - 0.5) * 0.2, lng + (random.nextDouble() - 0.5) * 0.2));
+		}
+		trip.setSpots(list);
+		return trip;
+	}
+	
+	private GeoPoint point(final double lat, final double lng, final double spread) {
+		return new GeoPoint(lat + (random.nextDouble() - 0.5) * spread, lng + (random.nextDouble() - 0.5) * spread);
+	}
+	
+	private static LocatedSpot spot(final int id, final double lat, final double lng) {
+		final LocatedSpot spot = new LocatedSpot();
+		spot.setId(id);
+		spot.setLat(String.valueOf(lat));
+		spot.setLng(String.valueOf(lng));
+		return spot;
+	}
+	
+	private static long closestDistance(final List<LocatedSpot> spots, final GeoPoint from) {
+		long closest = Long.MAX_VALUE;
+		for(LocatedSpot spot : spots) {
+			closest = Math.min(closest, from.getDistanceMeters(spot.getGeoLocation()));
+		}
+		return closest;
+	}
+}
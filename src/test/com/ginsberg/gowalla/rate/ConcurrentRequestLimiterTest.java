@@ -69,5 +69,18 @@ public class ConcurrentRequestLimiterTest {
 		limiter.postRequest();
 		assertTrue(limiter.preRequest());
 	}
+	
+	@Test
+	public void testBatchLimit() throws Exception {
+		ConcurrentRequestLimiter limiter = new ConcurrentRequestLimiter(3, 1, 10, TimeUnit.MILLISECONDS);
+		assertTrue(limiter.preRequest(RequestPriority.BATCH));
+		assertFalse("Only one batch request at once", limiter.preRequest(RequestPriority.BATCH));
+		assertTrue(limiter.preRequest(RequestPriority.INTERACTIVE));
+		assertTrue(limiter.preRequest());
+		assertFalse(limiter.preRequest());
+		limiter.postRequest(RequestPriority.BATCH);
+		assertTrue(limiter.preRequest(RequestPriority.BATCH));
+		assertFalse(limiter.preRequest());
+	}
 
 }
@@ -0,0 +1,383 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ginsberg.gowalla.exception.GowallaRequestException;
+import com.ginsberg.gowalla.exception.RequestNotAcceptableException;
+
+/**
+ * @author Todd Ginsberg
+ */
+public class PeerRequestHandlerTest {
+
+	private static final int RESOURCES = 200;
+	
+	private final List<PeerRequestHandler> handlers = new ArrayList<PeerRequestHandler>();
+	
+	@After
+	public void tearDown() {
+		for(PeerRequestHandler handler : handlers) {
+			handler.close();
+		}
+	}
+	
+	@Test
+	public void testRing() {
+		final List<String> nodes = Arrays.asList("a:1", "b:1", "c:1", "d:1");
+		final HashRing ring = new HashRing(nodes, 128);
+		final HashRing smaller = new HashRing(Arrays.asList("a:1", "b:1", "d:1"), 128);
+		final Map<String, Integer> owned = new HashMap<String, Integer>();
+		for(int i = 0; i < 10000; i++) {
+			final String key = "/spots/" + i;
+			final String owner = ring.owner(key);
+			owned.put(owner, owned.containsKey(owner) ? owned.get(owner) + 1 : 1);
+			if(!owner.equals("c:1")) {
+				assertEquals("Only the removed node's keys move", owner, smaller.owner(key));
+			}
+		}
+		for(String node : nodes) {
+			assertTrue(node + " owns " + owned.get(node), owned.get(node) > 1500 && owned.get(node) < 3500);
+		}
+	}
+	
+	@Test
+	public void testEachResourceRequestedOnce() throws Exception {
+		final List<String> peers = peers(freePorts(3));
+		final List<CountingRequestHandler> inner = new ArrayList<CountingRequestHandler>();
+		for(String peer : peers) {
+			final CountingRequestHandler counting = new CountingRequestHandler(peer);
+			inner.add(counting);
+			start(counting, peer, peers);
+		}
+		for(int i = 0; i < RESOURCES; i++) {
+			final String resource = "/spots/" + i;
+			final String owner = handlers.get(0).getOwner(resource);
+			for(PeerRequestHandler handler : handlers) {
+				assertEquals(owner, handler.getOwner(resource));
+				assertEquals(resource + " from " + owner, handler.handleRequest(resource, null));
+			}
+		}
+		int requests = 0;
+		for(CountingRequestHandler counting : inner) {
+			assertTrue("Every peer owns some", counting.count.get() > 0);
+			requests += counting.count.get();
+		}
+		assertEquals(RESOURCES, requests);
+		assertTrue(handlers.get(0).getForwarded() > 0);
+		assertTrue(handlers.get(0).getServed() > 0);
+		assertEquals(0, handlers.get(0).getPeerFailures());
+	}
+	
+	@Test
+	public void testErrorsPassedBack() throws Exception {
+		final List<String> peers = peers(freePorts(2));
+		for(String peer : peers) {
+			start(new CountingRequestHandler(peer), peer, peers);
+		}
+		for(int i = 0; i < 20; i++) {
+			for(PeerRequestHandler handler : handlers) {
+				try {
+					handler.handleRequest("/spots/missing" + i, null);
+					fail("Should not be found");
+				} catch(RequestNotAcceptableException e) {
+					assertEquals("No such thing: /spots/missing" + i, e.getMessage());
+				}
+			}
+		}
+		assertEquals(0, handlers.get(0).getPeerFailures());
+	}
+	
+	@Test
+	public void testBadHeaderCountClosesConnection() throws Exception {
+		final List<String> peers = peers(freePorts(1));
+		start(new CountingRequestHandler(peers.get(0)), peers.get(0), peers);
+		awaitListening(peers.get(0));
+		final int port = Integer.parseInt(peers.get(0).substring(peers.get(0).lastIndexOf(':') + 1));
+		for(int count : new int[] { -1, 1000, Integer.MAX_VALUE }) {
+			final Socket socket = new Socket("localhost", port);
+			try {
+				socket.setSoTimeout(5000);
+				final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+				out.writeInt(0x47505231);
+				out.writeUTF("/spots/1");
+				out.writeInt(count);
+				out.flush();
+				assertEquals("Closed after a count of " + count, -1, socket.getInputStream().read());
+			} finally {
+				socket.close();
+			}
+		}
+		assertEquals(0, handlers.get(0).getServed());
+		assertEquals("/spots/1 from " + peers.get(0), handlers.get(0).handleRequest("/spots/1", null));
+	}
+	
+	@Test
+	public void testPeerDown() throws Exception {
+		final List<String> peers = peers(freePorts(2));
+		final CountingRequestHandler local = new CountingRequestHandler(peers.get(0));
+		final PeerRequestHandler first = start(local, peers.get(0), peers);
+		final PeerRequestHandler second = start(new CountingRequestHandler(peers.get(1)), peers.get(1), peers);
+		first.setRetryAfter(1, TimeUnit.HOURS);
+		String resource = null;
+		for(int i = 0; resource == null; i++) {
+			if(first.getOwner("/spots/" + i).equals(peers.get(1))) {
+				resource = "/spots/" + i;
+			}
+		}
+		assertEquals(resource + " from " + peers.get(1), first.handleRequest(resource, null));
+		second.close();
+		
+		assertEquals(resource + " from " + peers.get(0), first.handleRequest(resource, null));
+		assertEquals(1, first.getPeerFailures());
+		assertEquals(1, local.count.get());
+		
+		// Not tried again until it has had time to come back.
+		first.handleRequest(resource, null);
+		assertEquals(1, first.getPeerFailures());
+		assertEquals(1, first.getResponseHits());
+	}
+	
+	@Test
+	public void testSlowOwnerNotMarkedDown() throws Exception {
+		final List<String> peers = peers(freePorts(2));
+		final CountingRequestHandler local = new CountingRequestHandler(peers.get(0));
+		final CountingRequestHandler slow = new CountingRequestHandler(peers.get(1));
+		final PeerRequestHandler first = start(local, peers.get(0), peers);
+		start(slow, peers.get(1), peers);
+		first.setConnectTimeout(100, TimeUnit.MILLISECONDS);
+		first.setRetryAfter(1, TimeUnit.HOURS);
+		final List<String> owned = new ArrayList<String>();
+		for(int i = 0; owned.size() < 3; i++) {
+			if(first.getOwner("/spots/" + i).equals(peers.get(1))) {
+				owned.add("/spots/" + i);
+			}
+		}
+		slow.delayMillis = 300;
+		
+		// Slower than connecting may take, but answered in time.
+		assertEquals(owned.get(0) + " from " + peers.get(1), first.handleRequest(owned.get(0), null));
+		assertEquals(0, first.getPeerFailures());
+		
+		// Not answered in time, so made here, but the owner is still asked for others.
+		first.setReadTimeout(100, TimeUnit.MILLISECONDS);
+		assertEquals(owned.get(1) + " from " + peers.get(0), first.handleRequest(owned.get(1), null));
+		assertEquals(1, first.getPeerFailures());
+		first.setReadTimeout(5, TimeUnit.SECONDS);
+		assertEquals(owned.get(2) + " from " + peers.get(1), first.handleRequest(owned.get(2), null));
+		assertEquals(1, first.getPeerFailures());
+		assertEquals(1, local.count.get());
+	}
+	
+	@Test(timeout = 60000)
+	public void testProcessesShareResponses() throws Exception {
+		final List<String> peers = peers(freePorts(3));
+		final CountingRequestHandler local = new CountingRequestHandler(peers.get(0));
+		final PeerRequestHandler handler = start(local, peers.get(0), peers);
+		final List<Process> processes = new ArrayList<Process>();
+		final List<BufferedReader> outputs = new ArrayList<BufferedReader>();
+		final String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+		for(int i = 1; i < peers.size(); i++) {
+			final List<String> command = new ArrayList<String>(Arrays.asList(java, "-cp", System.getProperty("java.class.path"), 
+					PeerRequestHandlerTest.class.getName(), peers.get(i)));
+			command.addAll(peers);
+			final ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectErrorStream(true);
+			final Process process = builder.start();
+			processes.add(process);
+			outputs.add(new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8")));
+		}
+		try {
+			for(BufferedReader output : outputs) {
+				assertEquals("DONE", output.readLine());
+			}
+			for(int i = 0; i < RESOURCES; i++) {
+				final String resource = "/spots/" + i;
+				assertEquals(resource + " from " + handler.getOwner(resource), handler.handleRequest(resource, null));
+			}
+			int requests = local.count.get();
+			for(int i = 0; i < processes.size(); i++) {
+				final OutputStream in = processes.get(i).getOutputStream();
+				in.write("exit\n".getBytes("UTF-8"));
+				in.flush();
+				final String line = outputs.get(i).readLine();
+				assertTrue(line, line != null && line.startsWith("COUNT "));
+				requests += Integer.parseInt(line.substring(6));
+				assertEquals(0, processes.get(i).waitFor());
+			}
+			assertEquals("Each resource requested by one process", RESOURCES, requests);
+			assertEquals(0, handler.getPeerFailures());
+		} finally {
+			for(Process process : processes) {
+				process.destroy();
+			}
+		}
+	}
+	
+	/**
+	 * Run in another process as one peer: once every peer is listening, 
+	 * request every resource, then keep answering until told to exit.
+	 */
+	public static void main(final String[] args) throws Exception {
+		final List<String> peers = Arrays.asList(args).subList(1, args.length);
+		final CountingRequestHandler counting = new CountingRequestHandler(args[0]);
+		final PeerRequestHandler handler = new PeerRequestHandler(counting, args[0], peers);
+		handler.start();
+		for(String peer : peers) {
+			awaitListening(peer);
+		}
+		for(int i = 0; i < RESOURCES; i++) {
+			final String resource = "/spots/" + i;
+			if(!handler.handleRequest(resource, null).equals(resource + " from " + handler.getOwner(resource))) {
+				System.exit(2);
+			}
+		}
+		System.out.println("DONE");
+		System.out.flush();
+		final BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+		for(String line = in.readLine(); line != null && !line.equals("exit"); line = in.readLine()) {
+			// Keep answering the other peers.
+		}
+		System.out.println("COUNT " + counting.count.get());
+		System.out.flush();
+		handler.close();
+		System.exit(handler.getPeerFailures() == 0 ? 0 : 3);
+	}
+	
+	private PeerRequestHandler start(final RequestHandler inner, final String self, final Collection<String> peers) throws Exception {
+		final PeerRequestHandler handler = new PeerRequestHandler(inner, self, peers);
+		handlers.add(handler);
+		handler.start();
+		return handler;
+	}
+	
+	private static void awaitListening(final String peer) throws InterruptedException {
+		final int port = Integer.parseInt(peer.substring(peer.lastIndexOf(':') + 1));
+		while(true) {
+			final Socket socket = new Socket();
+			try {
+				socket.connect(new InetSocketAddress("localhost", port), 1000);
+				socket.close();
+				return;
+			} catch(Exception e) {
+				Thread.sleep(50);
+			}
+		}
+	}
+	
+	private static List<Integer> freePorts(final int count) throws Exception {
+		final List<ServerSocket> sockets = new ArrayList<ServerSocket>();
+		final List<Integer> ports = new ArrayList<Integer>();
+		try {
+			for(int i = 0; i < count; i++) {
+				final ServerSocket socket = new ServerSocket(0);
+				sockets.add(socket);
+				ports.add(socket.getLocalPort());
+			}
+		} finally {
+			for(ServerSocket socket : sockets) {
+				socket.close();
+			}
+		}
+		return ports;
+	}
+	
+	private static List<String> peers(final List<Integer> ports) {
+		final List<String> peers = new ArrayList<String>();
+		for(int port : ports) {
+			peers.add("localhost:" + port);
+		}
+		return peers;
+	}
+	
+	/**
+	 * Answers every resource with its name and which peer made the request.
+	 */
+	private static class CountingRequestHandler implements RequestHandler {
+		private final String peer;
+		private final AtomicInteger count = new AtomicInteger();
+		private volatile long delayMillis = 0;
+		
+		private CountingRequestHandler(final String peer) {
+			this.peer = peer;
+		}
+		
+		@Override
+		public String handleRequest(final String resource, final List<RequestHeader> instanceHeaders) throws GowallaRequestException {
+			count.incrementAndGet();
+			if(delayMillis > 0) {
+				try {
+					Thread.sleep(delayMillis);
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if(resource.contains("missing")) {
+				throw new RequestNotAcceptableException("No such thing: " + resource);
+			}
+			return resource + " from " + peer;
+		}
+		
+		@Override
+		public void setRequestHeaders(final Collection<RequestHeader> headers) {
+		}
+		
+		@Override
+		public void setRequestHost(final String host) {
+		}
+		
+		@Override
+		public void setRequestPort(final int port) {
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2010, Todd Ginsberg
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright
+ *      notice, this list of conditions and the following disclaimer in the
+ *      documentation and/or other materials provided with the distribution.
+ *    * Neither the name of Todd Ginsberg, or Gowalla nor the
+ *      names of any contributors may be used to endorse or promote products
+ *      derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ *  Also, please use this for Good and not Evil.  
+ */
+package com.ginsberg.gowalla.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author Todd Ginsberg
+ *
+ */
+public class SelectionTest {
+
+	/**
+	 * Compares only on the tens digit, so there are plenty of ties.
+	 */
+	private static final Comparator<Integer> TENS = new Comparator<Integer>() {
+		@Override
+		public int compare(Integer a, Integer b) {
+			return (a / 10) - (b / 10);
+		}
+	};
+	
+	@Test
+	public void testSmallestMatchesSortAndTruncate() throws Exception {
+		final Random random = new Random(42);
+		final List<Integer> list = new ArrayList<Integer>();
+		for(int i = 0; i < 1000; i++) {
+			list.add(random.nextInt(500));
+		}
+		final List<Integer> sorted = new ArrayList<Integer>(list);
+		Collections.sort(sorted, TENS);
+		
+		for(int k : new int[] {1, 7, 40, 999}) {
+			assertEquals("Should match a stable sort for k=" + k, sorted.subList(0, k), Selection.smallest(list, k, TENS));
+		}
+	}
+	
+	@Test
+	public void testSmallestWithoutLimit() throws Exception {
+		final List<Integer> list = Arrays.asList(30, 10, 20);
+		assertEquals(Arrays.asList(10, 20, 30), Selection.smallest(list, 0, TENS));
+		assertEquals("Original should not be altered", Arrays.asList(30, 10, 20), list);
+	}
+}